@@ -27,6 +27,7 @@ public class AugmentedSource implements Source {
     private int dtdValidation = Validation.DEFAULT;
     private XMLReader parser = null;
     private Boolean wrapDocument = null;
+    private Boolean useBuiltInParser = null;
     private int stripSpace;
     private boolean lineNumbering = false;
     private boolean pleaseClose = false;
@@ -180,6 +181,27 @@ public class AugmentedSource implements Source {
         }
     }
 
+    /**
+     * Indicate whether Saxon's built-in XML parser should be used to parse this source, in preference
+     * to a SAX parser. This is relevant only when the contained Source is a StreamSource.
+     * @param use true if the built-in parser is to be used where possible, false if a SAX parser is to
+     * be used. If null, the setting in the Configuration is used.
+     */
+
+    public void setUseBuiltInParser(Boolean use) {
+        useBuiltInParser = use;
+    }
+
+    /**
+     * Determine whether Saxon's built-in XML parser should be used to parse this source
+     * @return true if the built-in parser is to be used where possible, false if a SAX parser is to
+     * be used, or null if the setting in the Configuration is to be used.
+     */
+
+    public Boolean getUseBuiltInParser() {
+        return useBuiltInParser;
+    }
+
     public XMLReader getXMLReader() {
         if (parser != null) {
             return parser;
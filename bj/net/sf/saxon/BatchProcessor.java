@@ -0,0 +1,243 @@
+package net.sf.saxon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A BatchProcessor runs a list of independent tasks, typically one transformation or query per
+ * input file, using a fixed number of threads. It is used by the {@link Transform} and {@link Query}
+ * command line interfaces when the <code>-threads</code> option is used to process a directory.
+ *
+ * <p>Each task writes its diagnostics (error messages and xsl:message output) to its own buffer.
+ * The buffers are written to System.err strictly in the order in which the tasks appear in the list,
+ * so the output is the same as it would be if the tasks were run one at a time.</p>
+ *
+ * <p>Each thread processes one task at a time, so at most one document per thread is in memory at any
+ * one time. A thread will not start a task that is more than a fixed number of places ahead of the
+ * first task whose diagnostics have not yet been written; this limits the amount of buffered output
+ * held in memory when an early task takes much longer than the others.</p>
+ */
+
+public class BatchProcessor {
+
+    /**
+     * A Task is one unit of work to be performed by the BatchProcessor
+     */
+
+    public static abstract class Task {
+
+        private String name;
+
+        /**
+         * Create a task
+         * @param name a name for the task, typically the name of the input file, used in error messages
+         */
+
+        public Task(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the task
+         */
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Perform the task
+         * @param err a stream to which diagnostic output should be written
+         * @throws Exception if the task fails. The message of the exception is reported after any
+         * output written to the diagnostic stream.
+         */
+
+        public abstract void run(PrintStream err) throws Exception;
+    }
+
+    private int threads;
+    private int workerCount;
+    private int window;
+    private List tasks;
+
+    private int nextTask;           // index of the next task to be started
+    private int nextReport;         // index of the first task whose results have not been reported
+    private boolean[] finished;
+    private byte[][] output;
+    private String[] failures;
+    private long[] latency;
+    private int failureCount;
+    private long elapsed;
+
+    /**
+     * Create a BatchProcessor
+     * @param threads the number of threads to be used
+     */
+
+    public BatchProcessor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        this.threads = threads;
+        this.window = threads * 4;
+    }
+
+    /**
+     * Run a list of tasks, returning when they have all completed
+     * @param tasks the tasks to be run, as a list of {@link Task} objects
+     * @return the number of tasks that failed
+     */
+
+    public int run(List tasks) {
+        this.tasks = tasks;
+        int n = tasks.size();
+        nextTask = 0;
+        nextReport = 0;
+        finished = new boolean[n];
+        output = new byte[n][];
+        failures = new String[n];
+        latency = new long[n];
+        failureCount = 0;
+
+        long start = System.currentTimeMillis();
+        workerCount = Math.min(threads, Math.max(n, 1));
+        Thread[] workers = new Thread[workerCount];
+        for (int t=0; t<workers.length; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    runTasks();
+                }
+            }, "saxon-batch-" + t);
+            workers[t].start();
+        }
+        for (int t=0; t<workers.length; t++) {
+            while (true) {
+                try {
+                    workers[t].join();
+                    break;
+                } catch (InterruptedException err) {
+                    // keep waiting
+                }
+            }
+        }
+        elapsed = System.currentTimeMillis() - start;
+        return failureCount;
+    }
+
+    /**
+     * The processing loop executed by each thread
+     */
+
+    private void runTasks() {
+        int n = tasks.size();
+        while (true) {
+            int t;
+            synchronized (this) {
+                while (nextTask < n && nextTask >= nextReport + window) {
+                    try {
+                        wait();
+                    } catch (InterruptedException err) {
+                        // check the condition again
+                    }
+                }
+                if (nextTask >= n) {
+                    return;
+                }
+                t = nextTask++;
+            }
+            Task task = (Task)tasks.get(t);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream err = new PrintStream(buffer, true);
+            String failure = null;
+            long start = System.currentTimeMillis();
+            try {
+                task.run(err);
+            } catch (Throwable e) {
+                failure = e.getMessage();
+                if (failure == null) {
+                    failure = e.toString();
+                }
+            }
+            long time = System.currentTimeMillis() - start;
+            err.flush();
+            synchronized (this) {
+                latency[t] = time;
+                output[t] = buffer.toByteArray();
+                failures[t] = failure;
+                finished[t] = true;
+                if (failure != null) {
+                    failureCount++;
+                }
+                while (nextReport < n && finished[nextReport]) {
+                    report(nextReport++);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write the diagnostic output of a completed task
+     */
+
+    private void report(int t) {
+        if (output[t].length > 0) {
+            System.err.write(output[t], 0, output[t].length);
+        }
+        if (failures[t] != null) {
+            System.err.println("While processing " + ((Task)tasks.get(t)).getName() + ": " + failures[t] + '\n');
+        }
+        System.err.flush();
+        output[t] = null;
+        failures[t] = null;
+    }
+
+    /**
+     * Output a summary of the throughput achieved, and the distribution of the time taken
+     * by individual tasks
+     * @param out the destination for the summary
+     */
+
+    public void printSummary(PrintStream out) {
+        int n = latency.length;
+        out.println("Processed " + n + " file" + (n == 1 ? "" : "s") + " in " + elapsed +
+                " milliseconds using " + workerCount + " thread" + (workerCount == 1 ? "" : "s") +
+                (elapsed > 0 ? " (" + (n * 1000L / elapsed) + " files/second)" : "") +
+                (failureCount > 0 ? "; " + failureCount + " failed" : ""));
+        if (n > 0) {
+            long[] sorted = new long[n];
+            System.arraycopy(latency, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+            out.println("Time per file (milliseconds): min " + sorted[0] +
+                    ", median " + percentile(sorted, 50) +
+                    ", 90% " + percentile(sorted, 90) +
+                    ", 99% " + percentile(sorted, 99) +
+                    ", max " + sorted[n-1]);
+        }
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int i = (sorted.length * p + 99) / 100 - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
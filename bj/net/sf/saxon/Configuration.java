@@ -1,11 +1,13 @@
 package net.sf.saxon;
 
+import net.sf.saxon.codenorm.Normalizer;
 import net.sf.saxon.event.*;
 import net.sf.saxon.expr.Optimizer;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.functions.*;
 import net.sf.saxon.instruct.Debugger;
 import net.sf.saxon.instruct.SlotManager;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pull.PullProvider;
 import net.sf.saxon.query.ModuleURIResolver;
@@ -61,6 +63,16 @@ public class Configuration implements Serializable, SourceResolver {
     protected transient ErrorListener listener;
     private int xmlVersion = XML10;
     private int treeModel = Builder.TINY_TREE;
+    private boolean tinyTreeIndexing = false;
+    private int tinyTreeAttributeIndexThreshold = 8;
+    private boolean documentProjection = false;
+    private boolean useBuiltInParser = false;
+    private int asyncOutputBufferCount = 4;
+    private int asyncOutputBufferSize = 65536;
+    private int globalVariableThreads = 0;
+    private int compilerThreads = 0;
+    private boolean generateByteCode = false;
+    private transient Metrics metrics = null;
     private boolean lineNumbering = false;
     private boolean tracing = false;
     private TraceListener traceListener = null;
@@ -102,6 +114,8 @@ public class Configuration implements Serializable, SourceResolver {
 
     private transient ClassLoader classLoader;
     private int implicitTimezone;
+    private static final int TIMEZONE_UNKNOWN = Integer.MIN_VALUE;
+    private boolean deferredInitialization = false;
     private transient List sourceParserPool = new ArrayList(5);
     private transient List styleParserPool = new ArrayList(5);
 
@@ -190,21 +204,59 @@ public class Configuration implements Serializable, SourceResolver {
                 throw new RuntimeException("Failed to load .NET platform code: " + e.getMessage());
             }
             externalObjectModels = Collections.EMPTY_LIST;
-        } else {
-            synchronized (Configuration.class) {
-                if (sharedExternalObjectModels == null) {
-                    registerStandardObjectModels();
-                }
-                externalObjectModels = new ArrayList(sharedExternalObjectModels);
-            }
+        }
+        try {
+            setDeferredInitialization("true".equals(System.getProperty(FeatureKeys.DEFERRED_INITIALIZATION)));
+        } catch (SecurityException err) {
+            // use the default
         }
         targetNamePool = NamePool.getDefaultNamePool();
         extensionBinder = new JavaExtensionLibrary(this);
 
-        // Get the implicit timezone from the current system clock
-        GregorianCalendar calendar = new GregorianCalendar();
-        int tzmsecs = (calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET));
-        implicitTimezone = tzmsecs / 60000;
+        // With deferred initialization, the implicit timezone is obtained from the system clock and
+        // the standard object models are registered when first needed
+        implicitTimezone = TIMEZONE_UNKNOWN;
+        if (!deferredInitialization) {
+            getImplicitTimezone();
+            getObjectModelList();
+        }
+    }
+
+    /**
+     * Say whether work done when the Configuration is created is to be deferred until it is first
+     * needed. This reduces the time taken to start up for a transformation or query that does not use
+     * the facilities concerned:
+     * <ul>
+     * <li>the implicit timezone is taken from the system clock when it is first used, rather than when the
+     * Configuration is created;</li>
+     * <li>the external object models (DOM, JDOM, XOM, DOM4J) are registered when an external object model
+     * is first needed;</li>
+     * <li>the classes implementing the Saxon and EXSLT extension functions are loaded when a function in
+     * their namespace is first used;</li>
+     * <li>the Unicode normalization tables are loaded from a precompiled resource rather than being built
+     * from the Unicode database. These tables are shared by all Configurations, so this applies if
+     * the tables have not already been loaded when this option is set.</li>
+     * </ul>
+     * Only the last of these has any effect when the option is set after the Configuration has been
+     * created, so the initial value of the option is taken from the Java system property whose name is
+     * {@link FeatureKeys#DEFERRED_INITIALIZATION}. The default is false: everything is initialized eagerly.
+     * @param defer true if initialization is to be deferred
+     */
+
+    public void setDeferredInitialization(boolean defer) {
+        deferredInitialization = defer;
+        if (defer) {
+            Normalizer.setUsePrecompiledData(true);
+        }
+    }
+
+    /**
+     * Ask whether work done when the Configuration is created is deferred until it is first needed
+     * @return true if initialization is deferred
+     */
+
+    public boolean isDeferredInitialization() {
+        return deferredInitialization;
     }
 
     /**
@@ -505,6 +557,249 @@ public class Configuration implements Serializable, SourceResolver {
         this.treeModel = treeModel;
     }
 
+    /**
+     * Determine whether TinyTree documents are built with additional navigation indexes.
+     * @return true if each TinyTree is given a parent index and, for elements with more than
+     * {@link #getTinyTreeAttributeIndexThreshold()} attributes, an attribute hash index
+     */
+
+    public boolean isTinyTreeIndexing() {
+        return tinyTreeIndexing;
+    }
+
+    /**
+     * Request that TinyTree documents are built with additional navigation indexes. When this
+     * is set, each tree is given a direct parent index (one int per node), and each element
+     * with more than {@link #getTinyTreeAttributeIndexThreshold()} attributes is given a hash index
+     * of its attributes. This speeds up navigation on the parent, ancestor and attribute axes,
+     * at the cost of extra memory and some extra time when building the tree. The default is false.
+     * @param indexing true if the indexes are to be built
+     */
+
+    public void setTinyTreeIndexing(boolean indexing) {
+        tinyTreeIndexing = indexing;
+    }
+
+    /**
+     * Get the number of attributes an element must exceed before its attributes are indexed,
+     * when TinyTree indexing is enabled.
+     * @return the threshold. The default is 8.
+     */
+
+    public int getTinyTreeAttributeIndexThreshold() {
+        return tinyTreeAttributeIndexThreshold;
+    }
+
+    /**
+     * Set the number of attributes an element must exceed before its attributes are indexed,
+     * when TinyTree indexing is enabled.
+     * @param threshold the threshold
+     */
+
+    public void setTinyTreeAttributeIndexThreshold(int threshold) {
+        tinyTreeAttributeIndexThreshold = threshold;
+    }
+
+    /**
+     * Determine whether document projection is enabled
+     * @return true if stylesheets and queries are analyzed at compile time to determine which parts
+     * of the source documents they use, and the other parts are discarded when the documents are built
+     */
+
+    public boolean isDocumentProjection() {
+        return documentProjection;
+    }
+
+    /**
+     * Request document projection. When this is set, each stylesheet or query is analyzed when it
+     * is compiled to determine which parts of a source document it can reach. Nodes that cannot be
+     * reached are then discarded as the principal source document, and documents loaded using doc()
+     * or document(), are built. This saves memory and build time when a stylesheet or query uses only
+     * a small part of a large document. If the analysis cannot determine which nodes are needed (for
+     * example because the stylesheet uses the parent or sibling axes), documents are built in full.
+     * The setting must be in force when the stylesheet or query is compiled. The default is false.
+     * @param projection true if document projection is to be used
+     */
+
+    public void setDocumentProjection(boolean projection) {
+        documentProjection = projection;
+    }
+
+    /**
+     * Determine whether the built-in XML parser is used for source documents
+     * @return true if source documents supplied as a StreamSource are parsed using Saxon's built-in
+     * parser where possible
+     */
+
+    public boolean isUseBuiltInParser() {
+        return useBuiltInParser;
+    }
+
+    /**
+     * Request use of the built-in XML parser. When this is set, source documents supplied as a
+     * StreamSource are parsed using a simple non-validating parser that sends events directly to the
+     * tree builder, rather than using a SAX parser. This is faster for the common case of documents
+     * without a DOCTYPE declaration. Documents that the built-in parser cannot handle (those with a
+     * DOCTYPE declaration or an encoding other than UTF-8, US-ASCII or ISO-8859-1), and documents
+     * for which DTD validation is requested or a specific XMLReader is supplied, are still parsed
+     * using a SAX parser. The default is false. The setting can be overridden for an individual
+     * source document using {@link AugmentedSource#setUseBuiltInParser(Boolean)}.
+     * @param use true if the built-in parser is to be used
+     */
+
+    public void setUseBuiltInParser(boolean use) {
+        useBuiltInParser = use;
+    }
+
+    /**
+     * Get the number of buffers used for asynchronous output
+     * @return the number of buffers used by each serializer for which the serialization property
+     * <code>saxon:async-output="yes"</code> is set
+     */
+
+    public int getAsyncOutputBufferCount() {
+        return asyncOutputBufferCount;
+    }
+
+    /**
+     * Set the number of buffers used for asynchronous output. When the serialization property
+     * <code>saxon:async-output="yes"</code> is set, the serializer fills buffers of output which are
+     * written to the destination by a separate thread; the transformation only waits for the output
+     * to be written when all the buffers are full. The default is 4.
+     * @param count the number of buffers. Must be at least 2.
+     */
+
+    public void setAsyncOutputBufferCount(int count) {
+        if (count < 2) {
+            throw new IllegalArgumentException("Asynchronous output needs at least two buffers");
+        }
+        asyncOutputBufferCount = count;
+    }
+
+    /**
+     * Get the size of the buffers used for asynchronous output
+     * @return the size of each buffer, in bytes
+     */
+
+    public int getAsyncOutputBufferSize() {
+        return asyncOutputBufferSize;
+    }
+
+    /**
+     * Set the size of the buffers used for asynchronous output (see {@link #setAsyncOutputBufferCount}).
+     * The default is 65536 bytes.
+     * @param size the size of each buffer, in bytes
+     */
+
+    public void setAsyncOutputBufferSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid buffer size " + size);
+        }
+        asyncOutputBufferSize = size;
+    }
+
+    /**
+     * Get the number of threads used to evaluate global variables in parallel
+     * @return the number of threads; a value of 0 or 1 means that global variables are evaluated
+     * only when they are first referenced
+     */
+
+    public int getGlobalVariableThreads() {
+        return globalVariableThreads;
+    }
+
+    /**
+     * Set the number of threads used to evaluate global variables in parallel. If the value is greater
+     * than one, then at the start of each transformation or query, the global variables and parameters
+     * that can safely be evaluated out of order (because they do not depend on the context item, and
+     * cannot have side-effects such as xsl:message output or calls on extension functions) are evaluated
+     * using this number of threads, each variable being evaluated once the variables it depends on are
+     * available. This is useful when several global variables each load a separate document. A variable
+     * whose evaluation fails is left to be evaluated in the usual way when it is first referenced, so any
+     * dynamic error is reported only if the variable is actually used. The default is 0.
+     * @param threads the number of threads to be used, including the thread that runs the transformation
+     */
+
+    public void setGlobalVariableThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Invalid number of threads " + threads);
+        }
+        globalVariableThreads = threads;
+    }
+
+    /**
+     * Get the number of threads used to compile a stylesheet
+     * @return the number of threads; a value of 0 or 1 means that stylesheets are compiled
+     * using only the calling thread
+     */
+
+    public int getCompilerThreads() {
+        return compilerThreads;
+    }
+
+    /**
+     * Set the number of threads used to compile a stylesheet. If the value is greater than one, the
+     * modules named in xsl:include and xsl:import declarations are fetched and parsed in parallel, each
+     * module being read as soon as the module that refers to it has been parsed; and once all top-level
+     * declarations have been compiled, the bodies of templates are type-checked and optimized in parallel.
+     * Errors and warnings are reported in the same order as when compiling on a single thread. This is
+     * useful for stylesheets made up of a large number of modules. The default is 0.
+     * @param threads the number of threads to be used, including the thread that compiles the stylesheet
+     */
+
+    public void setCompilerThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Invalid number of threads " + threads);
+        }
+        compilerThreads = threads;
+    }
+
+    /**
+     * Determine whether bytecode is generated for stylesheets and queries
+     * @return true if parts of stylesheets and queries are compiled to Java bytecode
+     */
+
+    public boolean isGenerateByteCode() {
+        return generateByteCode;
+    }
+
+    /**
+     * Request generation of Java bytecode. When this is set, the templates and functions of a stylesheet,
+     * and the functions and main expression of a query, are examined after optimization, and those parts
+     * that perform arithmetic, comparison, and boolean operations on single integer, double, and boolean
+     * values are compiled to Java bytecode, with the rest being interpreted as usual. This
+     * speeds up computation-intensive code at the cost of a slightly longer compile time. The default is false.
+     * @param generate true if bytecode is to be generated
+     */
+
+    public void setGenerateByteCode(boolean generate) {
+        generateByteCode = generate;
+    }
+
+    /**
+     * Get the object used to collect statistics about the work done under this Configuration
+     * @return the Metrics object, or null if metrics are not enabled
+     */
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enable or disable the collection of statistics about the work done under this Configuration:
+     * documents parsed and built, key indexes, compile times, transformation times, and so on.
+     * The statistics are not collected by default. A Metrics object that is replaced is removed from
+     * the MBean server.
+     * @param metrics the object to be used to collect the statistics, or null to disable collection
+     */
+
+    public void setMetrics(Metrics metrics) {
+        if (this.metrics != null && this.metrics != metrics) {
+            this.metrics.unregisterMBean();
+        }
+        this.metrics = metrics;
+    }
+
     /**
      * Determine whether source documents will maintain line numbers, for the
      * benefit of the saxon:line-number() extension function as well as run-time
@@ -1294,8 +1589,14 @@ public class Configuration implements Serializable, SourceResolver {
             int n = sourceParserPool.size()-1;
             XMLReader parser = (XMLReader)sourceParserPool.get(n);
             sourceParserPool.remove(n);
+            if (metrics != null) {
+                metrics.sourceParserAllocated(true);
+            }
             return parser;
         }
+        if (metrics != null) {
+            metrics.sourceParserAllocated(false);
+        }
         XMLReader parser;
         if (getSourceParserClass()!=null) {
             parser = makeParser(getSourceParserClass());
@@ -1946,12 +2247,28 @@ public class Configuration implements Serializable, SourceResolver {
      */
 
     public void registerExternalObjectModel(ExternalObjectModel model) {
-        if (externalObjectModels == null) {
-            externalObjectModels = new ArrayList(5);
+        List models = getObjectModelList();
+        if (!models.contains(model)) {
+            models.add(model);
         }
-        if (!externalObjectModels.contains(model)) {
-            externalObjectModels.add(model);
+    }
+
+    /**
+     * Get the list of registered external object models, registering the standard object models
+     * on first use. Finding out which object models are present on the class path involves loading
+     * a number of classes, so it is not done until an external object model is actually needed.
+     */
+
+    private synchronized List getObjectModelList() {
+        if (externalObjectModels == null) {
+            synchronized (Configuration.class) {
+                if (sharedExternalObjectModels == null) {
+                    registerStandardObjectModels();
+                }
+                externalObjectModels = new ArrayList(sharedExternalObjectModels);
+            }
         }
+        return externalObjectModels;
     }
 
     /**
@@ -1965,10 +2282,7 @@ public class Configuration implements Serializable, SourceResolver {
      */
 
     public ExternalObjectModel findExternalObjectModel(Object node) {
-        if (externalObjectModels == null) {
-            return null;
-        }
-        Iterator it = externalObjectModels.iterator();
+        Iterator it = getObjectModelList().iterator();
         while (it.hasNext()) {
             final ExternalObjectModel model = (ExternalObjectModel)it.next();
             if (model.isRecognizedNode(node)) {
@@ -1985,7 +2299,7 @@ public class Configuration implements Serializable, SourceResolver {
      */
 
     public List getExternalObjectModels() {
-        return externalObjectModels;
+        return getObjectModelList();
     }
 
     /**
@@ -2018,9 +2332,13 @@ public class Configuration implements Serializable, SourceResolver {
      * Get the implicit timezone, as a positive or negative offset from UTC in minutes.
      * The range is -14hours to +14hours
      * @return the value set using {@link #setImplicitTimezone}, or failing that
-     * the timezone from the system clock at the time the Configuration was created.
+     * the timezone from the system clock at the time the Configuration was created, or
+     * with deferred initialization, the time this method was first called.
      */
     public int getImplicitTimezone() {
+        if (implicitTimezone == TIMEZONE_UNKNOWN) {
+            implicitTimezone = TimeZone.getDefault().getOffset(System.currentTimeMillis()) / 60000;
+        }
         return implicitTimezone;
     }
 
@@ -2113,6 +2431,74 @@ public class Configuration implements Serializable, SourceResolver {
         	}
         	config.setTreeModel(((Integer)value).intValue());
 
+        } else if (name.equals(FeatureKeys.TINY_TREE_INDEXING)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("TINY_TREE_INDEXING must be a boolean");
+        	}
+        	config.setTinyTreeIndexing(((Boolean)value).booleanValue());
+
+        } else if (name.equals(FeatureKeys.DOCUMENT_PROJECTION)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("DOCUMENT_PROJECTION must be a boolean");
+        	}
+        	config.setDocumentProjection(((Boolean)value).booleanValue());
+
+        } else if (name.equals(FeatureKeys.USE_BUILT_IN_PARSER)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("USE_BUILT_IN_PARSER must be a boolean");
+        	}
+        	config.setUseBuiltInParser(((Boolean)value).booleanValue());
+
+        } else if (name.equals(FeatureKeys.DEFERRED_INITIALIZATION)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("DEFERRED_INITIALIZATION must be a boolean");
+        	}
+        	config.setDeferredInitialization(((Boolean)value).booleanValue());
+
+        } else if (name.equals(FeatureKeys.ASYNC_OUTPUT_BUFFER_COUNT)) {
+        	if (!(value instanceof Integer)) {
+        		throw new IllegalArgumentException("ASYNC_OUTPUT_BUFFER_COUNT must be an Integer");
+        	}
+        	config.setAsyncOutputBufferCount(((Integer)value).intValue());
+
+        } else if (name.equals(FeatureKeys.ASYNC_OUTPUT_BUFFER_SIZE)) {
+        	if (!(value instanceof Integer)) {
+        		throw new IllegalArgumentException("ASYNC_OUTPUT_BUFFER_SIZE must be an Integer");
+        	}
+        	config.setAsyncOutputBufferSize(((Integer)value).intValue());
+
+        } else if (name.equals(FeatureKeys.GLOBAL_VARIABLE_THREADS)) {
+        	if (!(value instanceof Integer)) {
+        		throw new IllegalArgumentException("GLOBAL_VARIABLE_THREADS must be an Integer");
+        	}
+        	config.setGlobalVariableThreads(((Integer)value).intValue());
+
+        } else if (name.equals(FeatureKeys.COMPILER_THREADS)) {
+        	if (!(value instanceof Integer)) {
+        		throw new IllegalArgumentException("COMPILER_THREADS must be an Integer");
+        	}
+        	config.setCompilerThreads(((Integer)value).intValue());
+
+        } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("GENERATE_BYTE_CODE must be a boolean");
+        	}
+        	config.setGenerateByteCode(((Boolean)value).booleanValue());
+
+        } else if (name.equals(FeatureKeys.METRICS)) {
+        	if (!(value instanceof Boolean)) {
+        		throw new IllegalArgumentException("METRICS must be a boolean");
+        	}
+            if (((Boolean)value).booleanValue()) {
+                if (config.getMetrics() == null) {
+                    Metrics m = new Metrics(config);
+                    m.registerMBean();
+                    config.setMetrics(m);
+                }
+            } else {
+                config.setMetrics(null);
+            }
+
         } else if (name.equals(FeatureKeys.ALLOW_EXTERNAL_FUNCTIONS)) {
         	if (!(value instanceof Boolean)) {
         		throw new IllegalArgumentException("ALLOW_EXTERNAL_FUNCTIONS must be a boolean");
@@ -2273,6 +2659,36 @@ public class Configuration implements Serializable, SourceResolver {
         if (name.equals(FeatureKeys.TREE_MODEL)) {
         	return new Integer(config.getTreeModel());
 
+        } else if (name.equals(FeatureKeys.TINY_TREE_INDEXING)) {
+        	return Boolean.valueOf(config.isTinyTreeIndexing());
+
+        } else if (name.equals(FeatureKeys.DOCUMENT_PROJECTION)) {
+        	return Boolean.valueOf(config.isDocumentProjection());
+
+        } else if (name.equals(FeatureKeys.USE_BUILT_IN_PARSER)) {
+        	return Boolean.valueOf(config.isUseBuiltInParser());
+
+        } else if (name.equals(FeatureKeys.DEFERRED_INITIALIZATION)) {
+        	return Boolean.valueOf(config.isDeferredInitialization());
+
+        } else if (name.equals(FeatureKeys.ASYNC_OUTPUT_BUFFER_COUNT)) {
+        	return new Integer(config.getAsyncOutputBufferCount());
+
+        } else if (name.equals(FeatureKeys.ASYNC_OUTPUT_BUFFER_SIZE)) {
+        	return new Integer(config.getAsyncOutputBufferSize());
+
+        } else if (name.equals(FeatureKeys.GLOBAL_VARIABLE_THREADS)) {
+        	return new Integer(config.getGlobalVariableThreads());
+
+        } else if (name.equals(FeatureKeys.COMPILER_THREADS)) {
+        	return new Integer(config.getCompilerThreads());
+
+        } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
+        	return Boolean.valueOf(config.isGenerateByteCode());
+
+        } else if (name.equals(FeatureKeys.METRICS)) {
+        	return Boolean.valueOf(config.getMetrics() != null);
+
         } else if (name.equals(FeatureKeys.TIMING)) {
         	return Boolean.valueOf(config.isTiming());
 
@@ -2,11 +2,15 @@ package net.sf.saxon;
 import net.sf.saxon.event.*;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.XPathContextMajor;
+import net.sf.saxon.expr.XPathContextMinor;
 import net.sf.saxon.functions.Component;
 import net.sf.saxon.instruct.*;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.*;
+import net.sf.saxon.pull.PullProvider;
 import net.sf.saxon.sort.IntHashMap;
 import net.sf.saxon.tinytree.TinyBuilder;
+import net.sf.saxon.tinytree.TinyTreeArena;
 import net.sf.saxon.trace.*;
 import net.sf.saxon.trans.*;
 import net.sf.saxon.tree.TreeBuilder;
@@ -77,8 +81,13 @@ public class Controller extends Transformer implements InstructionInfoProvider {
     private int treeModel = Builder.TINY_TREE;
     private Template initialTemplate = null;
     private HashSet allOutputDestinations;
+    private List asyncOutputStreams = null;     // AsyncOutputStreams used for result documents
+    private List openPullProviders = null;      // PullProviders reading documents for saxon:stream()
     private DocumentPool sourceDocumentPool;
     private SequenceOutputter reusableSequenceOutputter = null;
+    private XPathContextMajor[] reusableContexts = null;      // contexts released by completed calls
+    private int reusableContextCount = 0;
+    private TinyTreeArena temporaryTreeArena = null;
     private HashMap userDataTable;
     private DateTimeValue currentDateTime;
     private boolean dateTimePreset = false;
@@ -86,6 +95,7 @@ public class Controller extends Transformer implements InstructionInfoProvider {
     private NodeInfo lastRememberedNode = null;
     private int lastRememberedNumber = -1;
     private ClassLoader classLoader;
+    private boolean threadController = false;
 //    private int nextLocalDocumentNumber = -1;
 
     /**
@@ -185,6 +195,8 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         principalResultURI = null;
         initialTemplate = null;
         allOutputDestinations = null;
+        asyncOutputStreams = null;
+        closePullProviders();
         currentDateTime = null;
         dateTimePreset = false;
         initialMode = -1;
@@ -439,10 +451,110 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         if (uri.startsWith("file:///")) {
             uri = "file:/" + uri.substring(8);
         }
-        if (allOutputDestinations.contains(uri)) {
-            return false;
+        synchronized (allOutputDestinations) {
+            return !allOutputDestinations.contains(uri);
         }
-        return true;
+    }
+
+    /**
+     * Register an AsyncOutputStream that is being used to write a result document, so that its writer
+     * thread can be stopped if the transformation fails before the output is finished.
+     * <p>
+     * This method is intended for internal use only.
+     * @param stream the stream that is being written
+     */
+
+    public synchronized void registerAsyncOutputStream(AsyncOutputStream stream) {
+        if (asyncOutputStreams == null) {
+            asyncOutputStreams = new ArrayList(4);
+        }
+        asyncOutputStreams.add(stream);
+    }
+
+    /**
+     * Stop the writer threads of all registered AsyncOutputStreams, discarding any output that has not
+     * been written. This is called when a transformation or query ends, whether or not it succeeded;
+     * it has no effect on a stream whose output has been finished normally.
+     * <p>
+     * This method is intended for internal use only.
+     */
+
+    public synchronized void releaseAsyncOutputStreams() {
+        if (asyncOutputStreams != null) {
+            for (int i=0; i<asyncOutputStreams.size(); i++) {
+                ((AsyncOutputStream)asyncOutputStreams.get(i)).abort();
+            }
+            asyncOutputStreams = null;
+        }
+    }
+
+    /**
+     * Register a PullProvider that is reading a document on behalf of an iterator, so that the document
+     * is closed when the transformation or query ends, even if the iterator is abandoned before it reaches
+     * the end of the document.
+     * <p>
+     * This method is intended for internal use only.
+     * @param provider the PullProvider that has been opened
+     */
+
+    public void registerPullProvider(PullProvider provider) {
+        List list = getOpenPullProviders();
+        synchronized (list) {
+            list.add(provider);
+        }
+    }
+
+    /**
+     * Close a PullProvider that was registered using {@link #registerPullProvider}, and remove it from
+     * the list of those to be closed when the transformation or query ends.
+     * <p>
+     * This method is intended for internal use only.
+     * @param provider the PullProvider to be closed
+     */
+
+    public void closePullProvider(PullProvider provider) {
+        provider.close();
+        List list = getOpenPullProviders();
+        synchronized (list) {
+            list.remove(provider);
+        }
+    }
+
+    /**
+     * Close all the registered PullProviders that have not yet been closed. This is called when a
+     * transformation or query ends, whether or not it succeeded.
+     * <p>
+     * This method is intended for internal use only.
+     */
+
+    public void closePullProviders() {
+        List list;
+        synchronized (this) {
+            list = openPullProviders;
+        }
+        if (list == null) {
+            return;
+        }
+        PullProvider[] open;
+        synchronized (list) {
+            open = (PullProvider[])list.toArray(new PullProvider[list.size()]);
+            list.clear();
+        }
+        for (int i=0; i<open.length; i++) {
+            open[i].close();
+        }
+    }
+
+    /**
+     * Get the list of open PullProviders, creating it if necessary. The list is shared with the
+     * Controllers created by {@link #newThreadController}.
+     */
+
+    private synchronized List getOpenPullProviders() {
+        if (openPullProviders == null) {
+            openPullProviders = new ArrayList(4);
+        }
+        return openPullProviders;
     }
 
     /**
@@ -454,7 +566,9 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         if (allOutputDestinations == null) {
             allOutputDestinations = new HashSet(20);
         }
-        allOutputDestinations.add(uri);
+        synchronized (allOutputDestinations) {
+            allOutputDestinations.add(uri);
+        }
     }
 
     /**
@@ -471,7 +585,9 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         if (allOutputDestinations == null) {
             return true;
         }
-        return !allOutputDestinations.contains(uri);
+        synchronized (allOutputDestinations) {
+            return !allOutputDestinations.contains(uri);
+        }
     }
 
     /**
@@ -496,11 +612,18 @@ public class Controller extends Transformer implements InstructionInfoProvider {
      */
 
     public SequenceOutputter allocateSequenceOutputter(int size) {
+        Metrics metrics = config.getMetrics();
         if (reusableSequenceOutputter != null) {
             SequenceOutputter out = reusableSequenceOutputter;
             reusableSequenceOutputter = null;
+            if (metrics != null) {
+                metrics.sequenceOutputterAllocated(true);
+            }
             return out;
         } else {
+            if (metrics != null) {
+                metrics.sequenceOutputterAllocated(false);
+            }
             return new SequenceOutputter(this, size);
         }
     }
@@ -513,6 +636,85 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         reusableSequenceOutputter = out;
     }
 
+    /**
+     * Allocate a clean context for a function call, as with {@link XPathContext#newCleanContext}.
+     * A context released by an earlier call (together with its stack frame) is reused if one is
+     * available. The caller should return the context using {@link #reuseContext} when the call has
+     * finished, provided that the context cannot be reached from the result of the call.
+     * @param caller the context of the calling expression
+     * @return a clean context, whose caller is the supplied context
+     */
+
+    public XPathContextMajor allocateCleanContext(XPathContext caller) {
+        XPathContextMajor c;
+        if (reusableContextCount > 0) {
+            c = reusableContexts[--reusableContextCount];
+            reusableContexts[reusableContextCount] = null;
+        } else {
+            c = new XPathContextMajor(this);
+        }
+        c.setCaller(caller);
+        c.setOrigin(this);
+        return c;
+    }
+
+    /**
+     * Allocate a new context as a copy of an existing context, as with {@link XPathContext#newContext}.
+     * A context released by an earlier call is reused if one is available. The caller should return
+     * the context using {@link #reuseContext} when it has finished with it, provided that the context
+     * cannot be reached from the result of the call.
+     * @param caller the context to be copied
+     * @return a new context, whose caller is the supplied context
+     */
+
+    public XPathContextMajor allocateContext(XPathContext caller) {
+        if (reusableContextCount > 0 && caller instanceof XPathContextMinor) {
+            XPathContextMajor c = reusableContexts[--reusableContextCount];
+            reusableContexts[reusableContextCount] = null;
+            c.initializeFrom((XPathContextMinor)caller);
+            return c;
+        } else {
+            return caller.newContext();
+        }
+    }
+
+    /**
+     * Accept a context that is now available for reuse. The context is discarded if it or its stack frame
+     * has been captured by a Closure, or if enough contexts are already available for reuse.
+     * @param context a context allocated using {@link #allocateCleanContext} or {@link #allocateContext},
+     * which is no longer in use.
+     */
+
+    public void reuseContext(XPathContextMajor context) {
+        if (reusableContexts == null) {
+            reusableContexts = new XPathContextMajor[16];
+        } else if (reusableContextCount == reusableContexts.length) {
+            if (reusableContextCount >= 1024) {
+                // retain no more than the contexts needed for a moderately deep recursion
+                return;
+            }
+            XPathContextMajor[] c2 = new XPathContextMajor[reusableContextCount * 2];
+            System.arraycopy(reusableContexts, 0, c2, 0, reusableContextCount);
+            reusableContexts = c2;
+        }
+        if (context.clearForReuse()) {
+            reusableContexts[reusableContextCount++] = context;
+        }
+    }
+
+    /**
+     * Get the arena used to recycle the storage of temporary trees whose lifetime is known
+     * to end within the transformation, for example the value of a local xsl:variable that
+     * is used only to compute strings
+     */
+
+    public TinyTreeArena getTemporaryTreeArena() {
+        if (temporaryTreeArena == null) {
+            temporaryTreeArena = new TinyTreeArena();
+        }
+        return temporaryTreeArena;
+    }
+
     ///////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -1111,6 +1313,10 @@ public class Controller extends Transformer implements InstructionInfoProvider {
      */
     public void registerDocument(DocumentInfo doc, String systemId) {
         sourceDocumentPool.add(doc, systemId);
+        Metrics metrics = config.getMetrics();
+        if (metrics != null) {
+            metrics.documentRegistered(sourceDocumentPool.size());
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////
@@ -1309,7 +1515,9 @@ public class Controller extends Transformer implements InstructionInfoProvider {
     public Object getUserData(Object key, String name) {
         String keyValue = key.hashCode() + " " + name;
         // System.err.println("getUserData " + name + " on object returning " + userDataTable.get(key));
-        return userDataTable.get(keyValue);
+        synchronized (userDataTable) {
+            return userDataTable.get(keyValue);
+        }
     }
 
     /**
@@ -1332,10 +1540,12 @@ public class Controller extends Transformer implements InstructionInfoProvider {
     public void setUserData(Object key, String name, Object data)  {
         // System.err.println("setUserData " + name + " on object to " + data);
         String keyVal = key.hashCode() + " " + name;
-        if (data==null) {
-            userDataTable.remove(keyVal);
-        } else {
-            userDataTable.put(keyVal, data);
+        synchronized (userDataTable) {
+            if (data==null) {
+                userDataTable.remove(keyVal);
+            } else {
+                userDataTable.put(keyVal, data);
+            }
         }
     }
 
@@ -1366,6 +1576,8 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         }
 
         boolean close = false;
+        Metrics metrics = config.getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
         try {
             NodeInfo startNode = null;
             boolean wrap = true;
@@ -1414,6 +1626,11 @@ public class Controller extends Transformer implements InstructionInfoProvider {
                 if (executable.stripsInputTypeAnnotations()) {
                     r = config.getAnnotationStripper(r);
                 }
+                ProjectionSpecification projection = executable.getDocumentProjection();
+                if (projection != null && validationMode != Validation.STRICT && validationMode != Validation.LAX &&
+                        (initialTemplate != null || (initialMode == -1 && projection.projectsPrincipalSource()))) {
+                    r = projection.makeFilter(r);
+                }
                 sender.send(source, r);
                 if (close) {
                     ((AugmentedSource)source).close();
@@ -1424,6 +1641,9 @@ public class Controller extends Transformer implements InstructionInfoProvider {
             }
 
             transformDocument(startNode, result);
+            if (metrics != null) {
+                metrics.transformationCompleted(System.currentTimeMillis() - startTime);
+            }
 
         } catch (TerminationException err) {
             //System.err.println("Processing terminated using xsl:message");
@@ -1448,6 +1668,8 @@ public class Controller extends Transformer implements InstructionInfoProvider {
             if (close) {
                 ((AugmentedSource)source).close();
             }
+            releaseAsyncOutputStreams();
+            closePullProviders();
         }
     }
 
@@ -1567,6 +1789,8 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         // In tracing/debugging mode, evaluate all the global variables first
         if (getConfiguration().getTraceListener() != null) {
             preEvaluateGlobals(initialContext);
+        } else {
+            preEvaluateGlobalsInParallel();
         }
 
         Properties xslOutputProps;
@@ -1670,6 +1894,100 @@ public class Controller extends Transformer implements InstructionInfoProvider {
         }
     }
 
+    /**
+     * Evaluate in parallel those global variables that can safely be evaluated in advance, if the
+     * configuration requests this. The method does nothing if the number of threads set using
+     * {@link Configuration#setGlobalVariableThreads} is less than two, or if tracing is enabled.
+     * <p>
+     * This method is intended for internal use.
+     */
+
+    public void preEvaluateGlobalsInParallel() {
+        int threads = config.getGlobalVariableThreads();
+        ParallelGlobalEvaluator evaluator = executable.getParallelGlobalEvaluator();
+        if (threads > 1 && evaluator != null && traceListener == null) {
+            evaluator.evaluate(this, threads);
+        }
+    }
+
+    /**
+     * Make a new Controller that can be used on another thread to evaluate global variables on behalf
+     * of this one. The new Controller has the same Executable, parameters, and settings as this Controller,
+     * and an initialized Bindery. Its document pool is initially empty.
+     * <p>
+     * This method is intended for internal use.
+     *
+     * @return the new Controller
+     */
+
+    public Controller newWorkerController() {
+        Controller c = new Controller(config, executable);
+        c.preparedStylesheet = preparedStylesheet;
+        c.userURIResolver = userURIResolver;
+        c.errorListener = errorListener;
+        c.recoveryPolicy = recoveryPolicy;
+        c.treeModel = treeModel;
+        c.parameters = parameters;
+        c.classLoader = classLoader;
+        c.currentDateTime = getCurrentDateTime();
+        c.dateTimePreset = true;
+        executable.initialiseBindery(c.bindery);
+        c.bindery.defineGlobalParameters(parameters);
+        return c;
+    }
+
+    /**
+     * Make a new Controller to be used by one of the threads evaluating a parallel iteration
+     * (for example an xsl:for-each with saxon:threads) within this transformation. Unlike a worker
+     * Controller, a thread Controller shares the state of the transformation with this Controller:
+     * the values of global variables, the document pool, indexes and other user data, and the record of
+     * output destinations. State that is used only by the thread itself, such as the pool of reusable
+     * contexts, is private to the new Controller.
+     * <p>
+     * This method is intended for internal use.
+     *
+     * @return the new Controller
+     */
+
+    public Controller newThreadController() {
+        Controller c = new Controller(config, executable);
+        c.preparedStylesheet = preparedStylesheet;
+        c.ruleManager = ruleManager;
+        c.userURIResolver = userURIResolver;
+        c.errorListener = errorListener;
+        c.recoveryPolicy = recoveryPolicy;
+        c.treeModel = treeModel;
+        c.parameters = parameters;
+        c.classLoader = classLoader;
+        c.initialContextItem = initialContextItem;
+        c.contextForGlobalVariables = contextForGlobalVariables;
+        c.principalResultURI = principalResultURI;
+        c.currentDateTime = getCurrentDateTime();
+        c.dateTimePreset = true;
+        c.bindery = bindery.newThreadBindery();
+        c.sourceDocumentPool = sourceDocumentPool;
+        c.userDataTable = userDataTable;
+        synchronized (this) {
+            if (allOutputDestinations == null) {
+                allOutputDestinations = new HashSet(20);
+            }
+        }
+        c.allOutputDestinations = allOutputDestinations;
+        c.openPullProviders = getOpenPullProviders();
+        c.threadController = true;
+        return c;
+    }
+
+    /**
+     * Ask whether this Controller was created by {@link #newThreadController} to evaluate part of
+     * a parallel iteration
+     * @return true if this is a thread Controller
+     */
+
+    public boolean isThreadController() {
+        return threadController;
+    }
+
     /**
      * Prepare another stylesheet to handle the output of this one.
      * <p>
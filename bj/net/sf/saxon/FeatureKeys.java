@@ -167,6 +167,101 @@ public class FeatureKeys {
 	public static final String TREE_MODEL =
 	        "http://saxon.sf.net/feature/treeModel";
 
+    /**
+     * TINY_TREE_INDEXING must be a Boolean. If true, each TinyTree is given a direct parent index,
+     * and an attribute hash index for elements with many attributes, once it has been built. This
+     * speeds up the parent, ancestor, and attribute axes at the cost of additional memory.
+     * See {@link Configuration#setTinyTreeIndexing(boolean)}.
+     */
+
+    public static final String TINY_TREE_INDEXING =
+            "http://saxon.sf.net/feature/tinyTreeIndexing";
+
+    /**
+     * DOCUMENT_PROJECTION must be a Boolean. If true, stylesheets and queries are analyzed when they
+     * are compiled to determine which parts of a source document they use, and the remaining nodes are
+     * discarded while source documents are being built.
+     * See {@link Configuration#setDocumentProjection(boolean)}.
+     */
+
+    public static final String DOCUMENT_PROJECTION =
+            "http://saxon.sf.net/feature/documentProjection";
+
+    /**
+     * USE_BUILT_IN_PARSER must be a Boolean. If true, source documents supplied as a StreamSource
+     * are parsed where possible using Saxon's built-in non-validating XML parser rather than a SAX parser.
+     * See {@link Configuration#setUseBuiltInParser(boolean)}.
+     */
+
+    public static final String USE_BUILT_IN_PARSER =
+            "http://saxon.sf.net/feature/useBuiltInParser";
+
+    /**
+     * DEFERRED_INITIALIZATION must be a Boolean. If true, work that is done when a Configuration is created,
+     * such as loading the classes that implement extension functions, is deferred until it is first needed.
+     * The initial value is taken from the Java system property of the same name.
+     * See {@link Configuration#setDeferredInitialization(boolean)}.
+     */
+
+    public static final String DEFERRED_INITIALIZATION =
+            "http://saxon.sf.net/feature/deferredInitialization";
+
+    /**
+     * ASYNC_OUTPUT_BUFFER_COUNT must be an Integer. It sets the number of buffers used by a serializer
+     * for which the serialization property saxon:async-output="yes" is set.
+     * See {@link Configuration#setAsyncOutputBufferCount(int)}.
+     */
+
+    public static final String ASYNC_OUTPUT_BUFFER_COUNT =
+            "http://saxon.sf.net/feature/asyncOutputBufferCount";
+
+    /**
+     * ASYNC_OUTPUT_BUFFER_SIZE must be an Integer. It sets the size in bytes of the buffers used by a
+     * serializer for which the serialization property saxon:async-output="yes" is set.
+     * See {@link Configuration#setAsyncOutputBufferSize(int)}.
+     */
+
+    public static final String ASYNC_OUTPUT_BUFFER_SIZE =
+            "http://saxon.sf.net/feature/asyncOutputBufferSize";
+
+    /**
+     * GLOBAL_VARIABLE_THREADS must be an Integer. If it is greater than one, global variables and parameters
+     * that do not depend on the context item and have no side-effects are evaluated in parallel, using
+     * this number of threads, at the start of each transformation or query.
+     * See {@link Configuration#setGlobalVariableThreads(int)}.
+     */
+
+    public static final String GLOBAL_VARIABLE_THREADS =
+            "http://saxon.sf.net/feature/globalVariableThreads";
+
+    /**
+     * COMPILER_THREADS must be an Integer. If it is greater than one, stylesheets are compiled using
+     * this number of threads: included and imported modules are parsed in parallel, and the bodies of
+     * templates are optimized in parallel.
+     * See {@link Configuration#setCompilerThreads(int)}.
+     */
+
+    public static final String COMPILER_THREADS =
+            "http://saxon.sf.net/feature/compilerThreads";
+
+    /**
+     * GENERATE_BYTE_CODE must be a Boolean. If true, stylesheets and queries are partially compiled
+     * to Java bytecode after they have been optimized.
+     * See {@link Configuration#setGenerateByteCode(boolean)}.
+     */
+
+    public static final String GENERATE_BYTE_CODE =
+            "http://saxon.sf.net/feature/generateByteCode";
+
+    /**
+     * METRICS must be a Boolean. If true, statistics are collected about the work done under the
+     * Configuration, and are made available through JMX where the Java platform supports it.
+     * See {@link Configuration#setMetrics(net.sf.saxon.metrics.Metrics)}.
+     */
+
+    public static final String METRICS =
+            "http://saxon.sf.net/feature/metrics";
+
     /**
     * VALIDATION_WARNINGS must be a Boolean. This determines whether validation errors in result
     * documents should be treated as fatal. By default they are fatal; with this option set, they
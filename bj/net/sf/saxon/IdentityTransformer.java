@@ -43,6 +43,8 @@ class IdentityTransformer extends Controller {
                 reportFatalError(err);
             }
             throw err;
+        } finally {
+            releaseAsyncOutputStreams();
         }
     }
 
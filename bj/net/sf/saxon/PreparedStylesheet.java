@@ -5,6 +5,7 @@ import net.sf.saxon.event.PipelineConfiguration;
 import net.sf.saxon.event.Sender;
 import net.sf.saxon.event.StartTagBuffer;
 import net.sf.saxon.instruct.Executable;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.Validation;
 import net.sf.saxon.style.*;
@@ -38,6 +39,7 @@ public class PreparedStylesheet implements Templates, Serializable {
     private NamePool targetNamePool;    // the namepool used when the stylesheet was compiled,
                                         // saved here so it can be used again when the stylesheet is run
     private transient StyleNodeFactory nodeFactory;
+    private transient StylesheetModuleLoader moduleLoader;     // non-null while modules are loaded in parallel
     private int errorCount = 0;
     private HashMap nextStylesheetCache;    // cache for stylesheets named as "saxon:next-in-chain"
 
@@ -111,6 +113,16 @@ public class PreparedStylesheet implements Templates, Serializable {
 		return nodeFactory;
 	}
 
+    /**
+     * Get the StylesheetModuleLoader used to load included and imported modules in parallel
+     * while the stylesheet is being compiled
+     * @return the StylesheetModuleLoader, or null if modules are being loaded only when they are needed
+     */
+
+    public StylesheetModuleLoader getModuleLoader() {
+        return moduleLoader;
+    }
+
     /**
      * Prepare a stylesheet from a Source document
      *
@@ -120,10 +132,19 @@ public class PreparedStylesheet implements Templates, Serializable {
      */
 
     protected void prepare(Source styleSource) throws TransformerConfigurationException {
+        Metrics metrics = config.getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
         nodeFactory = new StyleNodeFactory(config, errorListener);
         DocumentImpl doc;
+        // names used by the compiled stylesheet must keep their fingerprints if the NamePool is reclaimable
+        NamePool pool = config.getNamePool();
+        pool.startPinning();
         try {
-            doc = loadStylesheetModule(styleSource, config, config.getNamePool(), nodeFactory);
+            doc = loadStylesheetModule(styleSource, config, pool, nodeFactory);
+            if (config.getCompilerThreads() > 1) {
+                moduleLoader = new StylesheetModuleLoader(this, config.getCompilerThreads());
+                moduleLoader.loadIncludedModules(doc);
+            }
             setStylesheetDocument(doc, nodeFactory);
         } catch (XPathException e) {
             try {
@@ -134,6 +155,12 @@ public class PreparedStylesheet implements Templates, Serializable {
             if (errorCount==0) {
                 errorCount++;
             }
+        } finally {
+            if (moduleLoader != null) {
+                moduleLoader.close();
+                moduleLoader = null;
+            }
+            pool.endPinning();
         }
 
         if (errorCount > 0) {
@@ -143,6 +170,9 @@ public class PreparedStylesheet implements Templates, Serializable {
                             (errorCount==1 ? " error " : " errors ") +
                             "detected.");
         }
+        if (metrics != null) {
+            metrics.compiled(Configuration.XSLT, System.currentTimeMillis() - startTime);
+        }
     }
 
     /**
@@ -164,9 +194,38 @@ public class PreparedStylesheet implements Templates, Serializable {
                                     NamePool localNamePool,
                                     StyleNodeFactory nodeFactory)
     throws XPathException {
+        return loadStylesheetModule(styleSource, config, localNamePool, nodeFactory, null);
+    }
+
+    /**
+     * Build the tree representation of a stylesheet module, reporting any errors detected
+     * while parsing it to a given ErrorListener
+     *
+     * @param styleSource the source of the module
+     * @param config the Configuration of the transformation factory
+     * @param localNamePool the namepool used during compilation
+     * @param nodeFactory the StyleNodeFactory used for creating
+     *     element nodes in the tree
+     * @param parseErrorListener the ErrorListener to which errors detected by the XML parser are
+     *     reported; if null, the ErrorListener of the Configuration is used
+     * @exception XPathException if XML parsing or tree
+     *     construction fails
+     * @return the root Document node of the tree containing the stylesheet
+     *     module
+     */
+    public static DocumentImpl loadStylesheetModule(
+                                    Source styleSource,
+                                    Configuration config,
+                                    NamePool localNamePool,
+                                    StyleNodeFactory nodeFactory,
+                                    ErrorListener parseErrorListener)
+    throws XPathException {
 
         TreeBuilder styleBuilder = new TreeBuilder();
         PipelineConfiguration pipe = config.makePipelineConfiguration();
+        if (parseErrorListener != null) {
+            pipe.setErrorListener(parseErrorListener);
+        }
         styleBuilder.setPipelineConfiguration(pipe);
         styleBuilder.setSystemId(styleSource.getSystemId());
         styleBuilder.setNodeFactory(nodeFactory);
@@ -21,8 +21,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
-import java.util.Date;
-import java.util.Properties;
+import java.util.*;
 
 /**
  * This <B>Query</B> class provides a command-line interface to the Saxon XQuery processor.<p>
@@ -101,6 +100,8 @@ public class Query {
         boolean explain = false;
         boolean wrap = false;
         boolean pullMode = false;
+        int threads = 1;
+        File sourceDirectory = null;
 
         boolean schemaAware = false;
         for (int i=0; i<args.length; i++) {
@@ -131,7 +132,10 @@ public class Query {
 
                 if (args[i].charAt(0) == '-') {
 
-                    if (args[i].equals("-cr")) {
+                    if (args[i].equals("-bytecode")) {
+                        config.setGenerateByteCode(true);
+                        i++;
+                    } else if (args[i].equals("-cr")) {
                         i++;
                         if (args.length < i + 1) {
                             badUsage(name, "No output file name");
@@ -155,6 +159,9 @@ public class Query {
                     } else if (args[i].equals("-l")) {
                         config.setLineNumbering(true);
                         i++;
+                    } else if (args[i].equals("-proj")) {
+                        config.setDocumentProjection(true);
+                        i++;
                     } else if (args[i].equals("-3")) {    // undocumented option: do it thrice
                         i++;
                         repeat = 3;
@@ -213,6 +220,19 @@ public class Query {
                     } else if (args[i].equals("-strip")) {  // retained for compatibility
                         config.setStripsWhiteSpace(Whitespace.ALL);
                         i++;
+                    } else if (args[i].equals("-threads")) {
+                        i++;
+                        if (args.length < i + 1) {
+                            badUsage(name, "No number of threads after -threads");
+                        }
+                        try {
+                            threads = Integer.parseInt(args[i++]);
+                        } catch (NumberFormatException err) {
+                            threads = 0;
+                        }
+                        if (threads < 1) {
+                            badUsage(name, "-threads must be followed by a positive integer");
+                        }
                     } else if (args[i].equals("-t")) {
                         System.err.println(config.getProductTitle());
                         //System.err.println("Java version " + System.getProperty("java.version"));
@@ -268,6 +288,9 @@ public class Query {
                     } else if (args[i].equals("-wrap")) {
                         wrap = true;
                         i++;
+                    } else if (args[i].equals("-xb")) {
+                        config.setUseBuiltInParser(true);
+                        i++;
                     } else if (args[i].equals("-1.1")) {
                         config.setXMLVersion(Configuration.XML11);
                         i++;
@@ -332,7 +355,9 @@ public class Query {
                         quit("Source file " + sourceFile + " does not exist", 2);
                     }
 
-                    if (config.getPlatform() instanceof JavaPlatform) {
+                    if (sourceFile.isDirectory()) {
+                        sourceDirectory = sourceFile;
+                    } else if (config.getPlatform() instanceof JavaPlatform) {
                         InputSource eis = new InputSource(sourceFile.toURI().toString());
                         sourceInput = new SAXSource(eis);
                     } else {
@@ -406,6 +431,21 @@ public class Query {
                 exp.explain(staticEnv.getConfiguration());
             }
 
+            if (sourceDirectory != null) {
+                if (outputFileName == null) {
+                    quit("To process a directory, -o must be specified", 2);
+                }
+                outputFile = new File(outputFileName);
+                if (!outputFile.isDirectory()) {
+                    quit("Input is a directory, but output is not", 2);
+                } else if (outputFile.getCanonicalFile().equals(sourceDirectory.getCanonicalFile())) {
+                    quit("Output directory must be different from input", 2);
+                }
+                processDirectory(sourceDirectory, outputFile, staticEnv, exp, dynamicEnv,
+                        outputProps, wrap, threads);
+                return;
+            }
+
             OutputStream destination;
             if (outputFileName != null) {
                 outputFile = new File(outputFileName);
@@ -423,7 +463,7 @@ public class Query {
                     if (showTime) {
                         System.err.println("Processing " + sourceInput.getSystemId());
                     }
-                    DocumentInfo doc = staticEnv.buildDocument(sourceInput);
+                    DocumentInfo doc = staticEnv.buildDocument(sourceInput, exp);
                     dynamicEnv.setContextItem(doc);
                 }
 
@@ -479,6 +519,100 @@ public class Query {
         }
     }
 
+    /**
+     * Run the query against each file in a directory, writing the results to files of the
+     * same name in the output directory. The files are processed using the number of threads
+     * specified in the <code>-threads</code> option. Diagnostic output is written in the order
+     * of the input files, followed by a summary of the throughput achieved.
+     *
+     * @param sourceDirectory the directory containing the source documents
+     * @param outputDirectory the directory to contain the query results
+     * @param staticEnv the static context used to compile the query
+     * @param exp the compiled query
+     * @param dynamicEnv the dynamic context holding the query parameters
+     * @param outputProps the serialization properties
+     * @param wrap true if the query results are to be wrapped in XML elements
+     * @param threads the number of threads to be used
+     * @throws XPathException if any of the queries failed
+     */
+
+    protected void processDirectory(File sourceDirectory, File outputDirectory,
+                                    final StaticQueryContext staticEnv, final XQueryExpression exp,
+                                    final DynamicQueryContext dynamicEnv, final Properties outputProps,
+                                    final boolean wrap, int threads)
+            throws XPathException {
+        List tasks = new ArrayList();
+        File[] files = sourceDirectory.listFiles();
+        for (int f=0; f<files.length; f++) {
+            final File file = files[f];
+            if (!file.isDirectory()) {
+                final File outputFile = new File(outputDirectory, file.getName());
+                tasks.add(new BatchProcessor.Task(file.getName()) {
+                    public void run(PrintStream err) throws Exception {
+                        processFileInBatch(file, outputFile, staticEnv, exp, dynamicEnv, outputProps, wrap, err);
+                    }
+                });
+            }
+        }
+        BatchProcessor batch = new BatchProcessor(threads);
+        int failures = batch.run(tasks);
+        batch.printSummary(System.err);
+        if (failures > 0) {
+            throw new DynamicError(failures + " quer" + (failures == 1 ? "y" : "ies") + " failed");
+        }
+    }
+
+    /**
+     * Run the query against a single file, as one of a batch of queries running concurrently
+     *
+     * @param err the destination for error messages
+     */
+
+    private void processFileInBatch(File sourceFile, File outputFile, StaticQueryContext staticEnv,
+                                    XQueryExpression exp, DynamicQueryContext dynamicEnv,
+                                    Properties outputProps, boolean wrap, PrintStream err)
+            throws XPathException, IOException {
+        DynamicQueryContext env = new DynamicQueryContext(config);
+        HashMap params = dynamicEnv.getParameters();
+        if (params != null) {
+            for (Iterator it = params.keySet().iterator(); it.hasNext();) {
+                String key = (String)it.next();
+                env.setParameter(key, params.get(key));
+            }
+        }
+        if (env.getErrorListener() instanceof StandardErrorListener) {
+            ((StandardErrorListener)env.getErrorListener()).setErrorOutput(err);
+        }
+        Source source;
+        if (config.getPlatform() instanceof JavaPlatform) {
+            source = new SAXSource(new InputSource(sourceFile.toURI().toString()));
+        } else {
+            source = new StreamSource(sourceFile.toURI().toString());
+        }
+        OutputStream destination = new FileOutputStream(outputFile);
+        try {
+            DocumentInfo doc = staticEnv.buildDocument(source, exp, env.getErrorListener());
+            env.setContextItem(doc);
+            if (wrap) {
+                SequenceIterator results = exp.iterator(env);
+                DocumentInfo resultDoc = QueryResult.wrap(results, config);
+                QueryResult.serialize(resultDoc, new StreamResult(destination), outputProps, config);
+            } else {
+                exp.run(env, new StreamResult(destination), outputProps);
+            }
+        } catch (TerminationException e) {
+            throw e;
+        } catch (XPathException e) {
+            if (e.hasBeenReported()) {
+                throw new DynamicError("Run-time errors were reported");
+            } else {
+                throw e;
+            }
+        } finally {
+            destination.close();
+        }
+    }
+
     /**
      * Exit with a message
      *
@@ -509,6 +643,7 @@ public class Query {
         System.err.println(config.getProductTitle());
         System.err.println("Usage: " + name + " [options] query {param=value}...");
         System.err.println("Options: ");
+        System.err.println("  -bytecode       Compile numeric and boolean expressions to Java bytecode");
         System.err.println("  -cr classname   Use specified CollectionURIResolver class");
         System.err.println("  -ds             Use linked tree data structure");
         System.err.println("  -dt             Use tiny tree data structure (default)");
@@ -517,14 +652,16 @@ public class Query {
         System.err.println("  -noext          Disallow calls to Java methods");
         System.err.println("  -o filename     Send output to named file");
         System.err.println("  -p              Recognize Saxon file extensions and query parameters");
+        System.err.println("  -proj           Build only the parts of source documents the query uses");
         System.err.println("  -pull           Run query in pull mode");
         System.err.println("  -r classname    Use specified URIResolver class");
-        System.err.println("  -s file|URI     Provide initial context document");
+        System.err.println("  -s file|URI     Provide initial context document (or directory of documents)");
         System.err.println("  -sa             Schema-aware query (requires Saxon-SA)");
         System.err.println("  -sall           Strip all whitespace text nodes");
         System.err.println("  -signorable     Strip ignorable whitespace text nodes (default)");
         System.err.println("  -snone          Strip no whitespace text nodes");
         System.err.println("  -t              Display version and timing information");
+        System.err.println("  -threads N      Process the files in a source directory using N threads");
         System.err.println("  -T              Trace query execution");
         System.err.println("  -TJ             Trace calls to external Java functions");
         System.err.println("  -TL classname   Trace query execution to user-defined trace listener");
@@ -534,6 +671,7 @@ public class Query {
         System.err.println("  -vlax           Lax validation of source documents using schema");
         System.err.println("  -vw             Treat validation errors on result document as warnings");
         System.err.println("  -wrap           Wrap result sequence in XML elements");
+        System.err.println("  -xb             Use built-in XML parser for source documents where possible");
         System.err.println("  -1.1            Allow XML 1.1 documents");
         System.err.println("  -?              Display this message ");
         System.err.println("  param=value     Set query string parameter");
@@ -1,4 +1,5 @@
 package net.sf.saxon;
+import net.sf.saxon.event.Compression;
 import net.sf.saxon.event.IDFilter;
 import net.sf.saxon.event.Stripper;
 import net.sf.saxon.functions.URIQueryParameters;
@@ -12,6 +13,8 @@ import org.xml.sax.XMLReader;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -157,6 +160,17 @@ public class StandardURIResolver implements NonDelegatingURIResolver, Serializab
             ((SAXSource)source).setInputSource(new InputSource(url.toString()));
             source.setSystemId(url.toString());
 
+            if (params != null && params.getCompression() != null) {
+                // if no compression is specified, the Sender chooses it from the file name
+                try {
+                    InputStream in = Compression.openInputStream(
+                            url.toURL().openStream(), params.getCompression().intValue());
+                    ((SAXSource)source).getInputSource().setByteStream(in);
+                } catch (IOException err) {
+                    throw new DynamicError(err);
+                }
+            }
+
             if (params != null) {
                 XMLReader parser = params.getXMLReader();
                 if (parser != null) {
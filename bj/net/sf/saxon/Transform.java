@@ -15,6 +15,8 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -39,6 +41,7 @@ public class Transform {
     protected boolean useURLs = false;
     protected boolean showTime = false;
     protected int repeat = 1;
+    protected int threads = 1;
     String sourceParserName = null;
 
     /**
@@ -137,6 +140,10 @@ public class Transform {
                     if (args[i].equals("-a")) {
                         useAssociatedStylesheet = true;
                         i++;
+                    } else if (args[i].equals("-bytecode")) {
+                        factory.setAttribute(FeatureKeys.GENERATE_BYTE_CODE,
+                                Boolean.valueOf(true));
+                        i++;
                     } else if (args[i].equals("-c")) {
                         precompiled = true;
                         i++;
@@ -173,6 +180,10 @@ public class Transform {
                         factory.setAttribute(FeatureKeys.LINE_NUMBERING,
                                 Boolean.valueOf(true));
                         i++;
+                    } else if (args[i].equals("-proj")) {
+                        factory.setAttribute(FeatureKeys.DOCUMENT_PROJECTION,
+                                Boolean.valueOf(true));
+                        i++;
                     } else if (args[i].equals("-m")) {
                         i++;
                         if (args.length < i + 2) {
@@ -226,6 +237,19 @@ public class Transform {
                     } else if (args[i].equals("-signorable")) {
                         factory.setAttribute(FeatureKeys.STRIP_WHITESPACE, "ignorable");
                         i++;
+                    } else if (args[i].equals("-threads")) {
+                        i++;
+                        if (args.length < i + 2) {
+                            badUsage(command, "No number of threads after -threads");
+                        }
+                        try {
+                            threads = Integer.parseInt(args[i++]);
+                        } catch (NumberFormatException err) {
+                            threads = 0;
+                        }
+                        if (threads < 1) {
+                            badUsage(command, "-threads must be followed by a positive integer");
+                        }
                     } else if (args[i].equals("-t")) {
                         System.err.println(config.getProductTitle());
                         //System.err.println("Java version " + System.getProperty("java.version"));
@@ -318,6 +342,10 @@ public class Transform {
                         sourceParserName = args[i++];
                         factory.setAttribute(FeatureKeys.SOURCE_PARSER_CLASS,
                                 sourceParserName);
+                    } else if (args[i].equals("-xb")) {
+                        factory.setAttribute(FeatureKeys.USE_BUILT_IN_PARSER,
+                                Boolean.valueOf(true));
+                        i++;
                     } else if (args[i].equals("-y")) {
                         i++;
                         if (args.length < i + 2) {
@@ -755,6 +783,10 @@ public class Transform {
 
     public void processDirectory(List sources, Templates sheet, File outputDir, ArrayList parameterList, String initialMode)
             throws TransformerException {
+        if (threads > 1) {
+            processDirectoryConcurrently(sources, sheet, outputDir, parameterList, initialMode);
+            return;
+        }
         int failures = 0;
         for (int f = 0; f < sources.size(); f++) {
             Source source = (Source)sources.get(f);
@@ -773,6 +805,84 @@ public class Transform {
         }
     }
 
+    /**
+     * Process each file in the source directory using the same supplied stylesheet, running
+     * several transformations at the same time. The number of threads used is set by the
+     * <code>-threads</code> option. Diagnostic output from each transformation is written
+     * in the order of the input files, followed by a summary of the throughput achieved.
+     *
+     * @param sources       The sources in the directory to be processed
+     * @param sheet         The Templates object identifying the stylesheet
+     * @param outputDir     The directory in which output files are to be
+     *                      created
+     * @param parameterList List of parameters to be supplied to each
+     *                      transformation
+     * @param initialMode   Initial mode for executing each
+     *                      transformation
+     * @throws XPathException if any of the transformations failed
+     */
+
+    public void processDirectoryConcurrently(List sources, final Templates sheet, File outputDir,
+                                             final ArrayList parameterList, final String initialMode)
+            throws TransformerException {
+        List tasks = new ArrayList(sources.size());
+        for (int f = 0; f < sources.size(); f++) {
+            Source s = (Source)sources.get(f);
+            if (s instanceof SAXSource) {
+                // the sources in a directory share one XMLReader, so each transformation must get its own
+                SAXSource sax = new SAXSource(((SAXSource)s).getInputSource());
+                sax.setSystemId(s.getSystemId());
+                s = sax;
+            }
+            final Source source = s;
+            final String localName = getLocalFileName(source);
+            final File outputFile = makeOutputFile(outputDir, localName, sheet);
+            tasks.add(new BatchProcessor.Task(localName) {
+                public void run(PrintStream err) throws Exception {
+                    processFileInBatch(source, sheet, outputFile, parameterList, initialMode, err);
+                }
+            });
+        }
+        BatchProcessor batch = new BatchProcessor(threads);
+        int failures = batch.run(tasks);
+        batch.printSummary(System.err);
+        if (failures > 0) {
+            throw new DynamicError(failures + " transformation" +
+                    (failures == 1 ? "" : "s") + " failed");
+        }
+    }
+
+    /**
+     * Process a single file as one of a batch of transformations running concurrently
+     *
+     * @param err the destination for error messages and xsl:message output
+     */
+
+    private void processFileInBatch(Source source, Templates sheet, File outputFile, ArrayList parameterList,
+                                    String initialMode, PrintStream err)
+            throws TransformerException {
+        Controller instance = (Controller)sheet.newTransformer();
+        if (instance.getErrorListener() instanceof StandardErrorListener) {
+            ((StandardErrorListener)instance.getErrorListener()).setErrorOutput(err);
+        }
+        instance.makeMessageEmitter().setWriter(new OutputStreamWriter(err));
+        setParams(instance, parameterList);
+        if (initialMode != null) {
+            instance.setInitialMode(initialMode);
+        }
+        if (showTime) {
+            err.println("Processing " + source.getSystemId());
+        }
+        try {
+            instance.transform(source, new StreamResult(outputFile.toURI().toString()));
+        } catch (TerminationException e) {
+            throw e;
+        } catch (XPathException e) {
+            // The message will already have been displayed; don't do it twice
+            throw new DynamicError("Run-time errors were reported");
+        }
+    }
+
     private static String getLocalFileName(Source source) {
         try {
             String path = new URI(source.getSystemId()).getPath();
@@ -949,6 +1059,7 @@ public class Transform {
         System.err.println("Usage: " + name + " [options] source-doc style-doc {param=value}...");
         System.err.println("Options: ");
         System.err.println("  -a              Use xml-stylesheet PI, not style-doc argument");
+        System.err.println("  -bytecode       Compile numeric and boolean expressions to Java bytecode");
         System.err.println("  -c              Indicates that style-doc is a compiled stylesheet");
         System.err.println("  -cr classname   Use specified collection URI resolver class");
         System.err.println("  -ds             Use linked tree data structure");
@@ -962,11 +1073,13 @@ public class Transform {
         System.err.println("  -novw           Suppress warning when running with an XSLT 1.0 stylesheet");
         System.err.println("  -r classname    Use specified URIResolver class");
         System.err.println("  -p              Recognize Saxon file extensions and query parameters");
+        System.err.println("  -proj           Build only the parts of source documents the stylesheet uses");
         System.err.println("  -sa             Schema-aware transformation");
         System.err.println("  -sall           Strip all whitespace text nodes");
         System.err.println("  -signorable     Strip ignorable whitespace text nodes (default)");
         System.err.println("  -snone          Strip no whitespace text nodes");
         System.err.println("  -t              Display version and timing information");
+        System.err.println("  -threads N      Process the files in a source directory using N threads");
         System.err.println("  -T              Set standard TraceListener");
         System.err.println("  -TJ             Trace calls to external Java functions");
         System.err.println("  -TL classname   Set a specific TraceListener");
@@ -980,6 +1093,7 @@ public class Transform {
         System.err.println("  -w1             Report recoverable errors and continue (default)");
         System.err.println("  -w2             Treat recoverable errors as fatal");
         System.err.println("  -x classname    Use specified SAX parser for source file");
+        System.err.println("  -xb             Use built-in XML parser for source documents where possible");
         System.err.println("  -y classname    Use specified SAX parser for stylesheet");
         System.err.println("  -1.1            Allow XML 1.1 documents");
         System.err.println("  -?              Display this message ");
@@ -0,0 +1,189 @@
+package net.sf.saxon;
+
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.Properties;
+
+/**
+ * This <B>Warmup</B> class runs a small built-in workload (compiling and running a stylesheet and
+ * a query, and serializing the results using each output method) and reports how long the first
+ * transformation took and how many classes were loaded. It has two purposes:
+ *
+ * <p>It is a startup benchmark: the figures it reports measure the fixed cost of starting a JVM
+ * to run a single transformation, which dominates the run time of short jobs.</p>
+ *
+ * <p>It is a training run for class data sharing. The JVM can record the classes loaded by an
+ * application in an archive, and map the archive into memory on later runs, which removes most of
+ * the cost of loading and verifying those classes. With Java 13 or later, use</p>
+ *
+ * <p><code>java -XX:ArchiveClassesAtExit=saxon.jsa -cp saxon8.jar net.sf.saxon.Warmup</code></p>
+ *
+ * <p>and then run any Saxon command with <code>-XX:SharedArchiveFile=saxon.jsa</code> added to
+ * the command line, using the same class path. Classes that the workload does not load are loaded
+ * in the normal way, so an archive produced by running a representative job of your own will be
+ * more effective. The workload loads no classes from outside Saxon and the JDK, so the archive
+ * can be created with the Saxon JAR file as the whole class path.</p>
+ *
+ * <p>The format of the command is:</p>
+ * <p><code>java net.sf.saxon.Warmup [-n:count]</code></p>
+ * <p>where count is the number of times the workload is repeated (default 1). Timings for the later
+ * repetitions show the cost of the same work once the JVM has warmed up.</p>
+ */
+
+public class Warmup {
+
+    private static final String STYLESHEET =
+            "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'" +
+            "  xmlns:xs='http://www.w3.org/2001/XMLSchema'>" +
+            "<xsl:output normalization-form='NFC'/>" +
+            "<xsl:key name='k' match='item' use='@type'/>" +
+            "<xsl:template match='/'>" +
+            "  <report date='{current-date()}'>" +
+            "    <xsl:for-each-group select='//item' group-by='@type'>" +
+            "      <xsl:sort select='current-grouping-key()'/>" +
+            "      <group type='{current-grouping-key()}' count='{count(key(\"k\", current-grouping-key()))}'>" +
+            "        <xsl:apply-templates select='current-group()'/>" +
+            "      </group>" +
+            "    </xsl:for-each-group>" +
+            "    <total><xsl:value-of select='format-number(sum(//item/@price), \"#,##0.00\")'/></total>" +
+            "  </report>" +
+            "</xsl:template>" +
+            "<xsl:template match='item'>" +
+            "  <xsl:variable name='n' as='xs:integer' select='position()'/>" +
+            "  <p><xsl:number value='$n' format='i'/>. <xsl:value-of select='upper-case(normalize-space(.))'/>" +
+            "  <xsl:if test='matches(., \"[0-9]+\")'> <xsl:value-of select='replace(., \"[^0-9]\", \"\")'/></xsl:if></p>" +
+            "</xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final String QUERY =
+            "declare variable $doc external; " +
+            "<summary>{ " +
+            "  for $i in $doc//item " +
+            "  let $p := xs:decimal($i/@price) " +
+            "  where $p > 1 " +
+            "  order by $i/@type, $p descending " +
+            "  return <line type='{$i/@type}' price='{$p}'>{string-join(tokenize($i, '\\s+'), '-')}</line> " +
+            "}</summary>";
+
+    private static final String DOCUMENT =
+            "<items>" +
+            "<item type='b' price='2.50'>second item 22</item>" +
+            "<item type='a' price='1.25'>first  item</item>" +
+            "<item type='c' price='10'>third &#xe9;l&#xe8;ve 3</item>" +
+            "<item type='a' price='0.75'>fourth item</item>" +
+            "</items>";
+
+    private static final String[] METHODS = {"xml", "html", "xhtml", "text"};
+
+    /**
+     * Main program, can be used directly from the command line.
+     * @param args Arguments supplied on the command line
+     */
+
+    public static void main(String[] args) throws Exception {
+        int count = 1;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].startsWith("-n:")) {
+                count = Integer.parseInt(args[i].substring(3));
+            } else {
+                System.err.println("Usage: java net.sf.saxon.Warmup [-n:count]");
+                System.exit(2);
+            }
+        }
+        long start = System.currentTimeMillis();
+        for (int i=0; i<count; i++) {
+            long[] times = runWorkload();
+            System.err.println("Run " + (i+1) + ": configuration " + (times[0] - start) + "ms, " +
+                    "first transformation " + (times[1] - start) + "ms, " +
+                    "complete " + (times[2] - start) + "ms");
+            start = System.currentTimeMillis();
+        }
+        long classes = getLoadedClassCount();
+        if (classes >= 0) {
+            System.err.println("Classes loaded: " + classes);
+        }
+    }
+
+    /**
+     * Run the workload once
+     * @return the times at which the Configuration was created, the first transformation
+     * finished, and all the work finished
+     */
+
+    private static long[] runWorkload() throws TransformerException, XPathException {
+        long[] times = new long[3];
+        TransformerFactoryImpl factory = new TransformerFactoryImpl();
+        Configuration config = factory.getConfiguration();
+        times[0] = System.currentTimeMillis();
+
+        Templates templates = factory.newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+        for (int m=0; m<METHODS.length; m++) {
+            Transformer transformer = templates.newTransformer();
+            transformer.setOutputProperty(OutputKeys.METHOD, METHODS[m]);
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new StreamSource(new StringReader(DOCUMENT)),
+                    new StreamResult(new StringWriter()));
+            if (m == 0) {
+                times[1] = System.currentTimeMillis();
+            }
+        }
+
+        StaticQueryContext env = new StaticQueryContext(config);
+        XQueryExpression query = env.compileQuery(QUERY);
+        DynamicQueryContext dynamicEnv = new DynamicQueryContext(config);
+        dynamicEnv.setParameter("doc", env.buildDocument(new StreamSource(new StringReader(DOCUMENT))));
+        Properties props = new Properties();
+        props.setProperty(OutputKeys.INDENT, "yes");
+        query.run(dynamicEnv, new StreamResult(new StringWriter()), props);
+        times[2] = System.currentTimeMillis();
+        return times;
+    }
+
+    /**
+     * Get the number of classes loaded by the JVM, using the management interface if it is
+     * available (it requires JDK 1.5)
+     * @return the number of classes currently loaded, or -1 if this cannot be determined
+     */
+
+    private static long getLoadedClassCount() {
+        try {
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getClassLoadingMXBean", new Class[0]).invoke(null, new Object[0]);
+            Method count = Class.forName("java.lang.management.ClassLoadingMXBean")
+                    .getMethod("getTotalLoadedClassCount", new Class[0]);
+            return ((Long)count.invoke(bean, new Object[0])).longValue();
+        } catch (Exception err) {
+            return -1;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,498 @@
+package net.sf.saxon.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A ClassFileWriter is a minimal assembler for Java class files. It supports just what the
+ * {@link ExpressionCompiler} needs: a constant pool, a single superclass, and methods consisting
+ * of a Code attribute with forward and backward branches. The class files are generated with
+ * version 48.0 (JDK 1.4) so that they are checked by the type-inferencing verifier and no
+ * StackMapTable attributes are needed.
+ */
+
+final class ClassFileWriter {
+
+    private static final int MAJOR_VERSION = 48;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream(512);
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private int poolCount = 1;
+    private HashMap poolIndex = new HashMap(40);
+    private int thisClass;
+    private int superClass;
+    private List methods = new ArrayList(4);
+
+    /**
+     * Create a ClassFileWriter for a public final class
+     * @param className the internal name of the class, for example <code>a/b/C</code>
+     * @param superName the internal name of the superclass
+     */
+
+    public ClassFileWriter(String className, String superName) {
+        thisClass = classRef(className);
+        superClass = classRef(superName);
+    }
+
+    /**
+     * Add a UTF8 entry to the constant pool
+     */
+
+    public int utf8(String s) {
+        String key = "U" + s;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return addEntry(key, 1);
+    }
+
+    /**
+     * Add a Class entry to the constant pool
+     */
+
+    public int classRef(String internalName) {
+        String key = "C" + internalName;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        int name = utf8(internalName);
+        write(7, name, -1);
+        return addEntry(key, 1);
+    }
+
+    /**
+     * Add an Integer entry to the constant pool
+     */
+
+    public int intConstant(int value) {
+        String key = "I" + value;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        try {
+            pool.writeByte(3);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return addEntry(key, 1);
+    }
+
+    /**
+     * Add a Long entry to the constant pool
+     */
+
+    public int longConstant(long value) {
+        String key = "J" + value;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        try {
+            pool.writeByte(5);
+            pool.writeLong(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return addEntry(key, 2);
+    }
+
+    /**
+     * Add a Double entry to the constant pool
+     */
+
+    public int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        String key = "D" + bits;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        try {
+            pool.writeByte(6);
+            pool.writeLong(bits);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return addEntry(key, 2);
+    }
+
+    /**
+     * Add a Methodref entry to the constant pool
+     * @param owner the internal name of the class containing the method
+     * @param name the name of the method
+     * @param descriptor the method descriptor
+     */
+
+    public int methodRef(String owner, String name, String descriptor) {
+        String key = "M" + owner + '.' + name + descriptor;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        write(10, c, nt);
+        return addEntry(key, 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + ' ' + descriptor;
+        Integer index = (Integer)poolIndex.get(key);
+        if (index != null) {
+            return index.intValue();
+        }
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        write(12, n, d);
+        return addEntry(key, 1);
+    }
+
+    private void write(int tag, int a, int b) {
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(a);
+            if (b >= 0) {
+                pool.writeShort(b);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private int addEntry(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xffff) {
+            throw new IllegalStateException("Constant pool overflow");
+        }
+        poolIndex.put(key, new Integer(index));
+        return index;
+    }
+
+    /**
+     * Start a new public method
+     * @param name the method name
+     * @param descriptor the method descriptor
+     * @param argumentSlots the number of local variable slots occupied by "this" and the arguments
+     */
+
+    public MethodWriter newMethod(String name, String descriptor, int argumentSlots) {
+        MethodWriter m = new MethodWriter(this, utf8(name), utf8(descriptor), argumentSlots);
+        methods.add(m);
+        return m;
+    }
+
+    /**
+     * Get the completed class file
+     */
+
+    public byte[] toByteArray() {
+        try {
+            int code = utf8("Code");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(poolBytes.size() + 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(0x0031);         // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);              // interfaces
+            out.writeShort(0);              // fields
+            out.writeShort(methods.size());
+            for (int i=0; i<methods.size(); i++) {
+                ((MethodWriter)methods.get(i)).write(out, code);
+            }
+            out.writeShort(0);              // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * A Label marks a position in the bytecode of a method that can be the target of a branch
+     */
+
+    static final class Label {
+        int position = -1;
+        int stackDepth = -1;
+        int[] fixups = new int[4];
+        int fixupCount = 0;
+    }
+
+    /**
+     * A MethodWriter accumulates the bytecode of one method, keeping track of the maximum
+     * operand stack depth and the number of local variable slots used
+     */
+
+    static final class MethodWriter {
+
+        private ClassFileWriter owner;
+        private int name;
+        private int descriptor;
+        private byte[] code = new byte[256];
+        private int size = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private boolean reachable = true;
+
+        MethodWriter(ClassFileWriter owner, int name, int descriptor, int argumentSlots) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots;
+        }
+
+        /**
+         * Get the ClassFileWriter that owns this method
+         */
+
+        public ClassFileWriter getOwner() {
+            return owner;
+        }
+
+        /**
+         * Allocate local variable slots
+         * @param size the number of slots: 2 for a long or double
+         * @return the number of the first slot allocated
+         */
+
+        public int allocateLocal(int size) {
+            int slot = maxLocals;
+            maxLocals += size;
+            if (maxLocals > 255) {
+                throw new IllegalStateException("Too many local variables");
+            }
+            return slot;
+        }
+
+        /**
+         * Emit an instruction with no operands
+         * @param opcode the instruction
+         * @param stackChange the net effect of the instruction on the depth of the operand stack
+         */
+
+        public void op(int opcode, int stackChange) {
+            put(opcode);
+            adjustStack(stackChange);
+        }
+
+        /**
+         * Emit an instruction with a one-byte operand
+         */
+
+        public void op1(int opcode, int operand, int stackChange) {
+            put(opcode);
+            put(operand);
+            adjustStack(stackChange);
+        }
+
+        /**
+         * Emit an instruction with a two-byte operand, typically a constant pool index
+         */
+
+        public void op2(int opcode, int operand, int stackChange) {
+            put(opcode);
+            put(operand >> 8);
+            put(operand);
+            adjustStack(stackChange);
+        }
+
+        /**
+         * Emit code to push an int constant
+         */
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);                    // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op1(0x10, value, 1);                    // bipush
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op2(0x11, value, 1);                    // sipush
+            } else {
+                op2(0x13, owner.intConstant(value), 1); // ldc_w
+            }
+        }
+
+        /**
+         * Emit code to push a long constant
+         */
+
+        public void pushLong(long value) {
+            if (value == 0 || value == 1) {
+                op(0x09 + (int)value, 2);               // lconst_<n>
+            } else {
+                op2(0x14, owner.longConstant(value), 2);   // ldc2_w
+            }
+        }
+
+        /**
+         * Emit code to push a double constant
+         */
+
+        public void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(0x0e, 2);                            // dconst_0
+            } else if (value == 1.0) {
+                op(0x0f, 2);                            // dconst_1
+            } else {
+                op2(0x14, owner.doubleConstant(value), 2); // ldc2_w
+            }
+        }
+
+        /**
+         * Emit a method call
+         * @param opcode invokevirtual, invokespecial, or invokestatic
+         * @param className the internal name of the class containing the method
+         * @param methodName the name of the method
+         * @param descriptor the method descriptor
+         * @param stackChange the net effect of the call on the depth of the operand stack
+         */
+
+        public void invoke(int opcode, String className, String methodName, String descriptor, int stackChange) {
+            op2(opcode, owner.methodRef(className, methodName, descriptor), stackChange);
+        }
+
+        /**
+         * Emit a branch instruction
+         * @param opcode the conditional or unconditional branch instruction
+         * @param target the label to which control is transferred
+         * @param stackChange the net effect of the instruction on the depth of the operand stack
+         */
+
+        public void branch(int opcode, Label target, int stackChange) {
+            int pos = size;
+            put(opcode);
+            adjustStack(stackChange);
+            if (target.stackDepth < 0) {
+                target.stackDepth = stack;
+            }
+            if (target.position >= 0) {
+                writeOffset(target.position - pos);
+            } else {
+                if (target.fixupCount == target.fixups.length) {
+                    int[] f = new int[target.fixupCount * 2];
+                    System.arraycopy(target.fixups, 0, f, 0, target.fixupCount);
+                    target.fixups = f;
+                }
+                target.fixups[target.fixupCount++] = pos;
+                writeOffset(0);
+            }
+            if (opcode == 0xa7) {                       // goto
+                reachable = false;
+            }
+        }
+
+        /**
+         * Emit a return instruction, or another instruction after which control does not continue
+         */
+
+        public void terminate(int opcode) {
+            put(opcode);
+            stack = 0;
+            reachable = false;
+        }
+
+        /**
+         * Mark the current position as the target of the label
+         */
+
+        public void mark(Label label) {
+            label.position = size;
+            for (int i=0; i<label.fixupCount; i++) {
+                int pos = label.fixups[i];
+                int offset = size - pos;
+                if (offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Method too large");
+                }
+                code[pos+1] = (byte)(offset >> 8);
+                code[pos+2] = (byte)offset;
+            }
+            label.fixupCount = 0;
+            if (!reachable || stack < 0) {
+                stack = label.stackDepth;
+            }
+            if (label.stackDepth < 0) {
+                label.stackDepth = stack;
+            }
+            reachable = true;
+        }
+
+        private void writeOffset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Method too large");
+            }
+            put(offset >> 8);
+            put(offset);
+        }
+
+        private void put(int b) {
+            if (size == code.length) {
+                byte[] c = new byte[size * 2];
+                System.arraycopy(code, 0, c, 0, size);
+                code = c;
+            }
+            code[size++] = (byte)b;
+        }
+
+        private void adjustStack(int change) {
+            stack += change;
+            if (stack > maxStack) {
+                maxStack = stack;
+            }
+        }
+
+        void write(DataOutputStream out, int codeName) throws IOException {
+            out.writeShort(0x0001);                     // ACC_PUBLIC
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + size);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(0);                          // exception table
+            out.writeShort(0);                          // attributes
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,216 @@
+package net.sf.saxon.codegen;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.Value;
+
+/**
+ * CompiledEvaluator is the superclass of the classes generated by the {@link ExpressionCompiler}.
+ * A generated class overrides one of the methods {@link #evaluateLong}, {@link #evaluateDouble}, or
+ * {@link #effectiveBooleanValue}, depending on the static type of the expression it implements. The
+ * other two methods throw {@link #FALLBACK}, so a call on one of them is handled by the interpreter.
+ *
+ * <p>The generated code calls back to the methods in this class to evaluate the subexpressions that were
+ * not compiled (the "operands"), and to read and write local variables in the XPath stack frame.</p>
+ *
+ * <p>The generated code handles only the common case of each operation. When it encounters a case that it
+ * does not handle, for example integer overflow, division by zero, or an integer operand that is outside the
+ * range of a Java long, it throws {@link #FALLBACK}, and the caller evaluates the original expression
+ * using the interpreter, which produces the correct result or error.</p>
+ */
+
+public abstract class CompiledEvaluator {
+
+    /**
+     * The exception thrown by generated code when it cannot complete the evaluation
+     */
+
+    public static final class Fallback extends RuntimeException {
+
+        private Fallback() {
+            super("Compiled code cannot evaluate this expression");
+        }
+
+        /**
+         * The stack trace is never needed, so don't waste time filling it in
+         */
+
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    public static final Fallback FALLBACK = new Fallback();
+
+    /**
+     * The subexpressions that are evaluated by the interpreter
+     */
+
+    protected Expression[] operands;
+
+    protected CompiledEvaluator() {}
+
+    /**
+     * Set the subexpressions that are evaluated by the interpreter
+     */
+
+    public final void setOperands(Expression[] operands) {
+        this.operands = operands;
+    }
+
+    /**
+     * Evaluate an expression whose static type is xs:integer
+     * @throws Fallback if the generated class does not implement this method
+     */
+
+    public long evaluateLong(XPathContext context) throws XPathException {
+        throw FALLBACK;
+    }
+
+    /**
+     * Evaluate an expression whose static type is xs:double
+     * @throws Fallback if the generated class does not implement this method
+     */
+
+    public double evaluateDouble(XPathContext context) throws XPathException {
+        throw FALLBACK;
+    }
+
+    /**
+     * Evaluate an expression whose static type is xs:boolean, or compute the effective
+     * boolean value of a condition
+     * @throws Fallback if the generated class does not implement this method
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        throw FALLBACK;
+    }
+
+    // Methods called from generated code
+
+    public final long operandLong(int operand, XPathContext context) throws XPathException {
+        try {
+            return operands[operand].evaluateAsLong(context);
+        } catch (ArithmeticException err) {
+            throw FALLBACK;
+        }
+    }
+
+    public final double operandDouble(int operand, XPathContext context) throws XPathException {
+        try {
+            return operands[operand].evaluateAsDouble(context);
+        } catch (ArithmeticException err) {
+            throw FALLBACK;
+        }
+    }
+
+    public final boolean operandBoolean(int operand, XPathContext context) throws XPathException {
+        return operands[operand].effectiveBooleanValue(context);
+    }
+
+    public final long localLong(int slot, XPathContext context) throws XPathException {
+        ValueRepresentation val = context.evaluateLocalVariable(slot);
+        if (val instanceof IntegerValue) {
+            return ((IntegerValue)val).longValue();
+        }
+        return toLong(Value.asIterator(val, context).next());
+    }
+
+    public final double localDouble(int slot, XPathContext context) throws XPathException {
+        ValueRepresentation val = context.evaluateLocalVariable(slot);
+        Item item = (val instanceof NumericValue ? (Item)val : Value.asIterator(val, context).next());
+        if (item instanceof NumericValue) {
+            return ((NumericValue)item).getDoubleValue();
+        }
+        throw FALLBACK;
+    }
+
+    public final void setLocalLong(int slot, long value, XPathContext context) {
+        context.setLocalVariable(slot, IntegerValue.makeIntegerValue(value));
+    }
+
+    public final void setLocalDouble(int slot, double value, XPathContext context) {
+        context.setLocalVariable(slot, new DoubleValue(value));
+    }
+
+    private static long toLong(Item item) {
+        if (item instanceof IntegerValue) {
+            return ((IntegerValue)item).longValue();
+        }
+        // an empty sequence (for example from a tail call) or a BigIntegerValue
+        throw FALLBACK;
+    }
+
+    public static long plus(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) {
+            throw FALLBACK;
+        }
+        return r;
+    }
+
+    public static long minus(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            throw FALLBACK;
+        }
+        return r;
+    }
+
+    public static long times(long a, long b) {
+        long r = a * b;
+        long aa = Math.abs(a);
+        long ab = Math.abs(b);
+        if (((aa | ab) >>> 31 != 0)) {
+            if ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                throw FALLBACK;
+            }
+        }
+        return r;
+    }
+
+    public static long idiv(long a, long b) {
+        if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+            throw FALLBACK;
+        }
+        return a / b;
+    }
+
+    public static long mod(long a, long b) {
+        if (b == 0) {
+            throw FALLBACK;
+        }
+        return a % b;
+    }
+
+    public static long negate(long a) {
+        if (a == Long.MIN_VALUE) {
+            throw FALLBACK;
+        }
+        return -a;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
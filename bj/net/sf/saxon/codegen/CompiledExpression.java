@@ -0,0 +1,192 @@
+package net.sf.saxon.codegen;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.SingletonIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.IntegerValue;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A CompiledExpression replaces an expression in the tree for which the {@link ExpressionCompiler}
+ * has generated Java bytecode. It delegates evaluation to the generated {@link CompiledEvaluator}, and
+ * retains the original expression, which is used if the generated code cannot complete the evaluation
+ * (for example on integer overflow) and after the compiled stylesheet or query has been serialized,
+ * since the generated classes are not serialized.
+ *
+ * <p>The subexpressions of a CompiledExpression, as far as the rest of the system is concerned, are the
+ * operands that the generated code evaluates using the interpreter, and the references to variables
+ * that the generated code reads directly.</p>
+ */
+
+public final class CompiledExpression extends ComputedExpression {
+
+    private Expression original;
+    private Expression[] operands;
+    private int resultKind;
+    private transient CompiledEvaluator evaluator;
+
+    /**
+     * Create a CompiledExpression
+     * @param original the expression that was compiled
+     * @param operands the subexpressions evaluated by the interpreter, and variable references read
+     * by the generated code
+     * @param resultKind one of {@link ExpressionCompiler#LONG}, {@link ExpressionCompiler#DOUBLE},
+     * {@link ExpressionCompiler#BOOLEAN}
+     * @param evaluator the instance of the generated class
+     */
+
+    public CompiledExpression(Expression original, Expression[] operands, int resultKind, CompiledEvaluator evaluator) {
+        this.original = original;
+        this.operands = operands;
+        this.resultKind = resultKind;
+        this.evaluator = evaluator;
+        evaluator.setOperands(operands);
+        ExpressionTool.copyLocationInfo(original, this);
+        for (int i=0; i<operands.length; i++) {
+            adoptChildExpression(operands[i]);
+        }
+    }
+
+    /**
+     * Get the original (interpreted) expression
+     */
+
+    public Expression getOriginalExpression() {
+        return original;
+    }
+
+    public Expression simplify(StaticContext env) throws XPathException {
+        return this;
+    }
+
+    public Expression typeCheck(StaticContext env, ItemType contextItemType) throws XPathException {
+        return this;
+    }
+
+    public Expression optimize(Optimizer opt, StaticContext env, ItemType contextItemType) throws XPathException {
+        return this;
+    }
+
+    public ItemType getItemType(TypeHierarchy th) {
+        return original.getItemType(th);
+    }
+
+    public int computeCardinality() {
+        return original.getCardinality();
+    }
+
+    public int computeSpecialProperties() {
+        return original.getSpecialProperties();
+    }
+
+    public int computeDependencies() {
+        return original.getDependencies();
+    }
+
+    public int getImplementationMethod() {
+        return EVALUATE_METHOD;
+    }
+
+    public Iterator iterateSubExpressions() {
+        return Arrays.asList(operands).iterator();
+    }
+
+    public boolean replaceSubExpression(Expression original, Expression replacement) {
+        boolean found = false;
+        for (int i=0; i<operands.length; i++) {
+            if (operands[i] == original) {
+                operands[i] = replacement;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        if (evaluator == null) {
+            return original.evaluateItem(context);
+        }
+        try {
+            switch (resultKind) {
+                case ExpressionCompiler.LONG:
+                    return IntegerValue.makeIntegerValue(evaluator.evaluateLong(context));
+                case ExpressionCompiler.DOUBLE:
+                    return new DoubleValue(evaluator.evaluateDouble(context));
+                default:
+                    return BooleanValue.get(evaluator.effectiveBooleanValue(context));
+            }
+        } catch (CompiledEvaluator.Fallback f) {
+            return original.evaluateItem(context);
+        }
+    }
+
+    public long evaluateAsLong(XPathContext context) throws XPathException {
+        if (evaluator == null || resultKind != ExpressionCompiler.LONG) {
+            return original.evaluateAsLong(context);
+        }
+        try {
+            return evaluator.evaluateLong(context);
+        } catch (CompiledEvaluator.Fallback f) {
+            return original.evaluateAsLong(context);
+        }
+    }
+
+    public double evaluateAsDouble(XPathContext context) throws XPathException {
+        if (evaluator == null || resultKind != ExpressionCompiler.DOUBLE) {
+            return original.evaluateAsDouble(context);
+        }
+        try {
+            return evaluator.evaluateDouble(context);
+        } catch (CompiledEvaluator.Fallback f) {
+            return original.evaluateAsDouble(context);
+        }
+    }
+
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        return SingletonIterator.makeIterator(evaluateItem(context));
+    }
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        if (evaluator == null || resultKind != ExpressionCompiler.BOOLEAN) {
+            return original.effectiveBooleanValue(context);
+        }
+        try {
+            return evaluator.effectiveBooleanValue(context);
+        } catch (CompiledEvaluator.Fallback f) {
+            return original.effectiveBooleanValue(context);
+        }
+    }
+
+    public void display(int level, PrintStream out, Configuration config) {
+        out.println(ExpressionTool.indent(level) + "compiled");
+        original.display(level+1, out, config);
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,736 @@
+package net.sf.saxon.codegen;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.functions.BooleanFn;
+import net.sf.saxon.instruct.Procedure;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DecimalValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.Value;
+
+import java.util.*;
+
+/**
+ * The ExpressionCompiler generates Java bytecode for parts of a compiled expression tree. It is used
+ * when {@link Configuration#isGenerateByteCode()} is set, after a stylesheet or query has been compiled
+ * and optimized in the usual way.
+ *
+ * <p>The compiler looks for maximal subtrees ("regions") consisting of numeric and boolean operations
+ * whose operands are statically known to be single values of type xs:integer, xs:double, or xs:boolean:
+ * arithmetic, value and general comparisons, and/or/not, conditional expressions, and let expressions.
+ * Each such region is compiled into a subclass of {@link CompiledEvaluator} in which the values are
+ * held in Java primitives, integer arithmetic uses Java longs, and variables bound within the region
+ * are held in JVM local variables rather than in the XPath stack frame. The region is then replaced in the
+ * tree by a {@link CompiledExpression}. Subexpressions of any other kind (path expressions, function
+ * calls, and so on) remain in the tree as operands of the compiled code and are evaluated by the
+ * interpreter; they are themselves searched for regions that can be compiled.</p>
+ *
+ * <p>This typically benefits predicates, function bodies, and template bodies that perform
+ * numeric computation, especially recursive functions. Expressions involving nodes and strings are
+ * left unchanged.</p>
+ */
+
+public class ExpressionCompiler {
+
+    public static final int NONE = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+    public static final int BOOLEAN = 3;
+    private static final int DECIMAL = 4;   // a decimal literal, usable only where it is promoted to double
+
+    private static final String EVALUATOR = "net/sf/saxon/codegen/CompiledEvaluator";
+    private static final String CONTEXT = "Lnet/sf/saxon/expr/XPathContext;";
+    private static final String PACKAGE = "net/sf/saxon/codegen/gen/";
+
+    // opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int LLOAD = 0x16;
+    private static final int DLOAD = 0x18;
+    private static final int LSTORE = 0x37;
+    private static final int DSTORE = 0x39;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DREM = 0x73;
+    private static final int DNEG = 0x77;
+    private static final int L2D = 0x8a;
+    private static final int LCMP = 0x94;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int LRETURN = 0xad;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private static int nextClassNumber = 0;
+
+    private TypeHierarchy th;
+    private GeneratedClassLoader loader;
+    private IdentityHashMap kinds = new IdentityHashMap(100);
+
+    /**
+     * Create an ExpressionCompiler. A new ExpressionCompiler should be used for each stylesheet or
+     * query; the generated classes are unloaded when the stylesheet or query is no longer reachable.
+     * @param config the Saxon configuration
+     */
+
+    public ExpressionCompiler(Configuration config) {
+        th = config.getTypeHierarchy();
+        loader = new GeneratedClassLoader(CompiledEvaluator.class.getClassLoader());
+    }
+
+    /**
+     * Compile the body of a template or function
+     * @param proc the template or function
+     */
+
+    public void compileProcedure(Procedure proc) {
+        Expression body = proc.getBody();
+        if (body != null) {
+            Expression compiled = compile(body);
+            if (compiled != body) {
+                proc.setBody(compiled);
+            }
+        }
+    }
+
+    /**
+     * Compile those parts of an expression tree for which bytecode can usefully be generated
+     * @param exp the root of the expression tree. The tree is modified in situ.
+     * @return the root of the modified tree: either the original expression, or a
+     * {@link CompiledExpression} that replaces it
+     */
+
+    public Expression compile(Expression exp) {
+        if (opKind(exp) != NONE && !(exp instanceof Value) && !(exp instanceof VariableReference)) {
+            Expression compiled = compileRegion(exp);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        if (exp instanceof ComputedExpression) {
+            ComputedExpression parent = (ComputedExpression)exp;
+            List children = new ArrayList(4);
+            for (Iterator it = exp.iterateSubExpressions(); it.hasNext();) {
+                children.add(it.next());
+            }
+            for (int i=0; i<children.size(); i++) {
+                Expression child = (Expression)children.get(i);
+                Expression compiled = compile(child);
+                if (compiled != child) {
+                    try {
+                        if (parent.replaceSubExpression(child, compiled)) {
+                            parent.adoptChildExpression(compiled);
+                        }
+                    } catch (IllegalArgumentException err) {
+                        // the parent doesn't support replacement of this subexpression; leave it alone
+                    }
+                }
+            }
+        }
+        return exp;
+    }
+
+    /**
+     * Generate bytecode for a region
+     * @return the CompiledExpression that replaces the region, or null if it is not worth compiling
+     */
+
+    private Expression compileRegion(Expression exp) {
+        int kind = opKind(exp);
+        Generator gen;
+        try {
+            // The first pass determines which subexpressions are left to the interpreter, and therefore
+            // which of the variables bound in the region also need to be held in the XPath stack frame
+            Generator trial = new Generator(null);
+            trial.generate(exp, kind);
+            if (trial.operationCount < 2 && trial.interpretedCount > 0) {
+                return null;
+            }
+            IdentityHashMap sharedVariables = new IdentityHashMap(4);
+            for (Iterator lets = trial.locals.keySet().iterator(); lets.hasNext();) {
+                Object let = lets.next();
+                for (int i=0; i<trial.operands.size(); i++) {
+                    if (references((Expression)trial.operands.get(i), let)) {
+                        sharedVariables.put(let, let);
+                    }
+                }
+            }
+            gen = new Generator(sharedVariables);
+            gen.generate(exp, kind);
+        } catch (IllegalStateException err) {
+            // the region is too large, or contains an operation for which no code can be generated
+            return null;
+        }
+
+        CompiledEvaluator evaluator;
+        try {
+            Class c = loader.define(gen.className.replace('/', '.'), gen.writer.toByteArray());
+            evaluator = (CompiledEvaluator)c.newInstance();
+        } catch (Exception err) {
+            return null;
+        } catch (LinkageError err) {
+            return null;
+        }
+
+        Expression[] operands = new Expression[gen.operands.size()];
+        for (int i=0; i<operands.length; i++) {
+            operands[i] = (Expression)gen.operands.get(i);
+            if (!(operands[i] instanceof VariableReference)) {
+                operands[i] = compile(operands[i]);
+            }
+        }
+        return new CompiledExpression(exp, operands, kind, evaluator);
+    }
+
+    /**
+     * Determine whether an expression contains a reference to a given variable
+     */
+
+    private static boolean references(Expression exp, Object binding) {
+        if (exp instanceof VariableReference) {
+            return ((VariableReference)exp).getBinding() == binding;
+        }
+        for (Iterator it = exp.iterateSubExpressions(); it.hasNext();) {
+            if (references((Expression)it.next(), binding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether an expression contains a tail call. The value of a tail call is delivered
+     * other than as the result of the call, so the generated code cannot use it.
+     */
+
+    private static boolean containsTailCall(Expression exp) {
+        if (exp instanceof UserFunctionCall) {
+            return ((UserFunctionCall)exp).isTailCall();
+        }
+        for (Iterator it = exp.iterateSubExpressions(); it.hasNext();) {
+            if (containsTailCall((Expression)it.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the kind of primitive value computed by an expression that can be compiled as an
+     * operation in a region
+     * @return LONG, DOUBLE, BOOLEAN, or NONE if the expression is not an operation that can be compiled
+     */
+
+    private int opKind(Expression exp) {
+        Integer known = (Integer)kinds.get(exp);
+        if (known != null) {
+            return known.intValue();
+        }
+        int kind = computeOpKind(exp);
+        kinds.put(exp, new Integer(kind));
+        return kind;
+    }
+
+    private int computeOpKind(Expression exp) {
+        if (exp instanceof IntegerValue) {
+            return LONG;
+        } else if (exp instanceof DoubleValue) {
+            return DOUBLE;
+        } else if (exp instanceof BooleanValue) {
+            return BOOLEAN;
+        } else if (exp instanceof DecimalValue) {
+            return DECIMAL;
+        } else if (exp.getClass() == ArithmeticExpression.class ||
+                (exp instanceof ArithmeticExpression.NumericArithmetic &&
+                    !((ArithmeticExpression.NumericArithmetic)exp).isBackwardsCompatible())) {
+            ArithmeticExpression arith = (ArithmeticExpression)exp;
+            Expression[] ops = arith.getOperands();
+            int k1 = valueKind(ops[1]);
+            if (arith.getOperator() == Token.NEGATE) {
+                return (k1 == LONG || k1 == DOUBLE ? k1 : NONE);
+            }
+            int k0 = valueKind(ops[0]);
+            if (!isNumeric(k0, k1)) {
+                return NONE;
+            }
+            switch (arith.getOperator()) {
+                case Token.PLUS:
+                case Token.MINUS:
+                case Token.MULT:
+                case Token.MOD:
+                    return (k0 == LONG && k1 == LONG ? LONG : DOUBLE);
+                case Token.DIV:
+                    // integer division produces a decimal
+                    return (k0 == LONG && k1 == LONG ? NONE : DOUBLE);
+                case Token.IDIV:
+                    return (k0 == LONG && k1 == LONG ? LONG : NONE);
+                default:
+                    return NONE;
+            }
+        } else if (exp instanceof ComparisonExpression && !(exp instanceof CompiledExpression)) {
+            ComparisonExpression comp = (ComparisonExpression)exp;
+            if (comparisonOperator(comp.getSingletonOperator()) < 0) {
+                return NONE;
+            }
+            Expression[] ops = comp.getOperands();
+            return (isNumeric(valueKind(ops[0]), valueKind(ops[1])) ? BOOLEAN : NONE);
+        } else if (exp instanceof BooleanExpression) {
+            return BOOLEAN;
+        } else if (exp instanceof BooleanFn) {
+            int op = ((BooleanFn)exp).getDetails().opcode;
+            return (op == BooleanFn.NOT || op == BooleanFn.BOOLEAN ? BOOLEAN : NONE);
+        } else if (exp instanceof IfExpression) {
+            IfExpression ifx = (IfExpression)exp;
+            int k1 = valueKind(ifx.getThenExpression());
+            int k2 = valueKind(ifx.getElseExpression());
+            return (k1 == k2 && k1 != DECIMAL ? k1 : NONE);
+        } else if (exp instanceof LetExpression) {
+            LetExpression let = (LetExpression)exp;
+            int k = valueKind(let.getSequence());
+            int ka = valueKind(let.getAction());
+            return ((k == LONG || k == DOUBLE) && ka != DECIMAL ? ka : NONE);
+        } else {
+            return NONE;
+        }
+    }
+
+    /**
+     * Determine whether the operands of a binary arithmetic operator or comparison can be handled
+     * as Java numbers: a decimal literal is acceptable only if the other operand is a double
+     */
+
+    private static boolean isNumeric(int k0, int k1) {
+        return ((k0 == LONG || k0 == DOUBLE) && (k1 == LONG || k1 == DOUBLE)) ||
+                (k0 == DECIMAL && k1 == DOUBLE) || (k0 == DOUBLE && k1 == DECIMAL);
+    }
+
+    /**
+     * Get the kind of primitive value computed by an expression, either as an operation in a
+     * region, or as an operand evaluated by the interpreter
+     */
+
+    private int valueKind(Expression exp) {
+        int k = opKind(exp);
+        return (k == NONE ? leafKind(exp) : k);
+    }
+
+    /**
+     * Get the kind of primitive value delivered by an expression evaluated by the interpreter,
+     * based on its static type
+     */
+
+    private int leafKind(Expression exp) {
+        if (exp.getCardinality() != StaticProperty.EXACTLY_ONE) {
+            return NONE;
+        }
+        ItemType type = exp.getItemType(th);
+        int kind;
+        if (th.isSubType(type, Type.INTEGER_TYPE)) {
+            kind = LONG;
+        } else if (th.isSubType(type, Type.DOUBLE_TYPE)) {
+            kind = DOUBLE;
+        } else if (th.isSubType(type, Type.BOOLEAN_TYPE)) {
+            kind = BOOLEAN;
+        } else {
+            return NONE;
+        }
+        return (containsTailCall(exp) ? NONE : kind);
+    }
+
+    /**
+     * Normalize a comparison operator to one of Token.FEQ, FNE, FLT, FGT, FLE, FGE
+     * @return the normalized operator, or -1 if it is not one of the six comparison operators
+     */
+
+    private static int comparisonOperator(int op) {
+        switch (op) {
+            case Token.FEQ:
+            case Token.EQUALS:
+                return Token.FEQ;
+            case Token.FNE:
+            case Token.NE:
+                return Token.FNE;
+            case Token.FLT:
+            case Token.LT:
+                return Token.FLT;
+            case Token.FGT:
+            case Token.GT:
+                return Token.FGT;
+            case Token.FLE:
+            case Token.LE:
+                return Token.FLE;
+            case Token.FGE:
+            case Token.GE:
+                return Token.FGE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * A Generator produces the class for one region
+     */
+
+    private class Generator {
+
+        ClassFileWriter writer;
+        ClassFileWriter.MethodWriter m;
+        String className;
+        List operands = new ArrayList(4);
+        IdentityHashMap locals = new IdentityHashMap(4);     // LetExpression -> int[] {JVM local, kind}
+        IdentityHashMap sharedVariables;
+        int operationCount = 0;
+        int interpretedCount = 0;
+
+        Generator(IdentityHashMap sharedVariables) {
+            this.sharedVariables = sharedVariables;
+            if (sharedVariables == null) {
+                className = PACKAGE + "Trial";
+            } else {
+                synchronized (ExpressionCompiler.class) {
+                    className = PACKAGE + "Expression" + (nextClassNumber++);
+                }
+            }
+            writer = new ClassFileWriter(className, EVALUATOR);
+        }
+
+        void generate(Expression exp, int kind) {
+            ClassFileWriter.MethodWriter init = writer.newMethod("<init>", "()V", 1);
+            init.op(ALOAD_0, 1);
+            init.invoke(INVOKESPECIAL, EVALUATOR, "<init>", "()V", -1);
+            init.terminate(RETURN);
+
+            switch (kind) {
+                case LONG:
+                    m = writer.newMethod("evaluateLong", '(' + CONTEXT + ")J", 2);
+                    genValue(exp, LONG);
+                    m.terminate(LRETURN);
+                    break;
+                case DOUBLE:
+                    m = writer.newMethod("evaluateDouble", '(' + CONTEXT + ")D", 2);
+                    genValue(exp, DOUBLE);
+                    m.terminate(DRETURN);
+                    break;
+                default:
+                    m = writer.newMethod("effectiveBooleanValue", '(' + CONTEXT + ")Z", 2);
+                    ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+                    genBranch(exp, false, isFalse);
+                    m.pushInt(1);
+                    m.terminate(IRETURN);
+                    m.mark(isFalse);
+                    m.pushInt(0);
+                    m.terminate(IRETURN);
+            }
+        }
+
+        /**
+         * Generate code to leave the value of an expression on the stack as a long, double, or int
+         * (for a boolean)
+         */
+
+        void genValue(Expression exp, int want) {
+            int k = opKind(exp);
+            if (k != NONE) {
+                genOperation(exp, k);
+            } else {
+                k = leafKind(exp);
+                genOperand(exp, k);
+            }
+            if (k == LONG && want == DOUBLE) {
+                m.op(L2D, 0);
+            }
+        }
+
+        /**
+         * Generate code to evaluate an operand of the region
+         */
+
+        void genOperand(Expression exp, int k) {
+            if (exp instanceof VariableReference && k != BOOLEAN) {
+                int[] local = (int[])locals.get(((VariableReference)exp).getBinding());
+                if (local != null) {
+                    m.op1(local[1] == LONG ? LLOAD : DLOAD, local[0], 2);
+                    return;
+                }
+                if (exp instanceof LocalVariableReference) {
+                    operands.add(exp);
+                    m.op(ALOAD_0, 1);
+                    m.pushInt(((LocalVariableReference)exp).getSlotNumber());
+                    m.op(ALOAD_1, 1);
+                    if (k == LONG) {
+                        m.invoke(INVOKEVIRTUAL, EVALUATOR, "localLong", "(I" + CONTEXT + ")J", -1);
+                    } else {
+                        m.invoke(INVOKEVIRTUAL, EVALUATOR, "localDouble", "(I" + CONTEXT + ")D", -1);
+                    }
+                    return;
+                }
+            }
+            interpretedCount++;
+            operands.add(exp);
+            m.op(ALOAD_0, 1);
+            m.pushInt(operands.size() - 1);
+            m.op(ALOAD_1, 1);
+            switch (k) {
+                case LONG:
+                    m.invoke(INVOKEVIRTUAL, EVALUATOR, "operandLong", "(I" + CONTEXT + ")J", -1);
+                    break;
+                case DOUBLE:
+                    m.invoke(INVOKEVIRTUAL, EVALUATOR, "operandDouble", "(I" + CONTEXT + ")D", -1);
+                    break;
+                default:
+                    m.invoke(INVOKEVIRTUAL, EVALUATOR, "operandBoolean", "(I" + CONTEXT + ")Z", -2);
+            }
+        }
+
+        /**
+         * Generate code for an operation of a given kind
+         */
+
+        void genOperation(Expression exp, int k) {
+            if (exp instanceof IntegerValue) {
+                m.pushLong(((IntegerValue)exp).longValue());
+            } else if (exp instanceof DoubleValue || exp instanceof DecimalValue) {
+                m.pushDouble(((NumericValue)exp).getDoubleValue());
+            } else if (exp instanceof BooleanValue) {
+                m.pushInt(((BooleanValue)exp).getBooleanValue() ? 1 : 0);
+            } else if (exp instanceof ArithmeticExpression) {
+                operationCount++;
+                ArithmeticExpression arith = (ArithmeticExpression)exp;
+                Expression[] ops = arith.getOperands();
+                int op = arith.getOperator();
+                if (op == Token.NEGATE) {
+                    genValue(ops[1], k);
+                    if (k == LONG) {
+                        m.invoke(INVOKESTATIC, EVALUATOR, "negate", "(J)J", 0);
+                    } else {
+                        m.op(DNEG, 0);
+                    }
+                    return;
+                }
+                genValue(ops[0], k);
+                genValue(ops[1], k);
+                if (k == LONG) {
+                    String method;
+                    switch (op) {
+                        case Token.PLUS:
+                            method = "plus";
+                            break;
+                        case Token.MINUS:
+                            method = "minus";
+                            break;
+                        case Token.MULT:
+                            method = "times";
+                            break;
+                        case Token.IDIV:
+                            method = "idiv";
+                            break;
+                        case Token.MOD:
+                            method = "mod";
+                            break;
+                        default:
+                            throw new IllegalStateException("Unknown operator " + op);
+                    }
+                    m.invoke(INVOKESTATIC, EVALUATOR, method, "(JJ)J", -2);
+                } else {
+                    switch (op) {
+                        case Token.PLUS:
+                            m.op(DADD, -2);
+                            break;
+                        case Token.MINUS:
+                            m.op(DSUB, -2);
+                            break;
+                        case Token.MULT:
+                            m.op(DMUL, -2);
+                            break;
+                        case Token.DIV:
+                            m.op(DDIV, -2);
+                            break;
+                        case Token.MOD:
+                            m.op(DREM, -2);
+                            break;
+                        default:
+                            throw new IllegalStateException("Unknown operator " + op);
+                    }
+                }
+            } else if (exp instanceof IfExpression) {
+                operationCount++;
+                IfExpression ifx = (IfExpression)exp;
+                ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+                ClassFileWriter.Label end = new ClassFileWriter.Label();
+                genBranch(ifx.getCondition(), false, isFalse);
+                genValue(ifx.getThenExpression(), k);
+                m.branch(GOTO, end, 0);
+                m.mark(isFalse);
+                genValue(ifx.getElseExpression(), k);
+                m.mark(end);
+            } else if (exp instanceof LetExpression) {
+                operationCount++;
+                LetExpression let = (LetExpression)exp;
+                int vk = valueKind(let.getSequence());
+                genValue(let.getSequence(), vk);
+                int local = m.allocateLocal(2);
+                m.op1(vk == LONG ? LSTORE : DSTORE, local, -2);
+                if (sharedVariables != null && sharedVariables.containsKey(let)) {
+                    // the variable is also referenced from interpreted code
+                    m.op(ALOAD_0, 1);
+                    m.pushInt(let.getLocalSlotNumber());
+                    m.op1(vk == LONG ? LLOAD : DLOAD, local, 2);
+                    m.op(ALOAD_1, 1);
+                    m.invoke(INVOKEVIRTUAL, EVALUATOR, (vk == LONG ? "setLocalLong" : "setLocalDouble"),
+                            (vk == LONG ? "(IJ" : "(ID") + CONTEXT + ")V", -5);
+                }
+                locals.put(let, new int[]{local, vk});
+                genValue(let.getAction(), k);
+            } else {
+                // a boolean operation used as a value
+                ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+                ClassFileWriter.Label end = new ClassFileWriter.Label();
+                genBranch(exp, false, isFalse);
+                m.pushInt(1);
+                m.branch(GOTO, end, 0);
+                m.mark(isFalse);
+                m.pushInt(0);
+                m.mark(end);
+            }
+        }
+
+        /**
+         * Generate code to evaluate the effective boolean value of an expression, and jump
+         * to the target label if it is equal to jumpWhen
+         */
+
+        void genBranch(Expression exp, boolean jumpWhen, ClassFileWriter.Label target) {
+            int k = opKind(exp);
+            if (k == BOOLEAN) {
+                if (exp instanceof BooleanValue) {
+                    if (((BooleanValue)exp).getBooleanValue() == jumpWhen) {
+                        m.branch(GOTO, target, 0);
+                    }
+                } else if (exp instanceof BooleanExpression) {
+                    operationCount++;
+                    BooleanExpression bool = (BooleanExpression)exp;
+                    Expression[] ops = bool.getOperands();
+                    boolean isAnd = bool.getOperator() == Token.AND;
+                    if (isAnd != jumpWhen) {
+                        // "and" jumping when false, or "or" jumping when true
+                        genBranch(ops[0], jumpWhen, target);
+                        genBranch(ops[1], jumpWhen, target);
+                    } else {
+                        ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                        genBranch(ops[0], !jumpWhen, skip);
+                        genBranch(ops[1], jumpWhen, target);
+                        m.mark(skip);
+                    }
+                } else if (exp instanceof BooleanFn) {
+                    operationCount++;
+                    boolean not = ((BooleanFn)exp).getDetails().opcode == BooleanFn.NOT;
+                    genBranch(((BooleanFn)exp).getArguments()[0], (not ? !jumpWhen : jumpWhen), target);
+                } else if (exp instanceof ComparisonExpression) {
+                    operationCount++;
+                    genComparison((ComparisonExpression)exp, jumpWhen, target);
+                } else {
+                    genOperation(exp, BOOLEAN);
+                    m.branch(jumpWhen ? IFNE : IFEQ, target, -1);
+                }
+            } else if (valueKind(exp) == LONG) {
+                genValue(exp, LONG);
+                m.pushLong(0);
+                m.op(LCMP, -3);
+                m.branch(jumpWhen ? IFNE : IFEQ, target, -1);
+            } else {
+                genOperand(exp, BOOLEAN);
+                m.branch(jumpWhen ? IFNE : IFEQ, target, -1);
+            }
+        }
+
+        void genComparison(ComparisonExpression comp, boolean jumpWhen, ClassFileWriter.Label target) {
+            Expression[] ops = comp.getOperands();
+            int op = comparisonOperator(comp.getSingletonOperator());
+            int k = (valueKind(ops[0]) == LONG && valueKind(ops[1]) == LONG ? LONG : DOUBLE);
+            genValue(ops[0], k);
+            genValue(ops[1], k);
+            if (k == LONG) {
+                m.op(LCMP, -3);
+            } else {
+                // choose the instruction that makes comparisons involving NaN false
+                m.op(op == Token.FLT || op == Token.FLE ? DCMPG : DCMPL, -3);
+            }
+            int branch;
+            switch (op) {
+                case Token.FEQ:
+                    branch = (jumpWhen ? IFEQ : IFNE);
+                    break;
+                case Token.FNE:
+                    branch = (jumpWhen ? IFNE : IFEQ);
+                    break;
+                case Token.FLT:
+                    branch = (jumpWhen ? IFLT : IFGE);
+                    break;
+                case Token.FGE:
+                    branch = (jumpWhen ? IFGE : IFLT);
+                    break;
+                case Token.FGT:
+                    branch = (jumpWhen ? IFGT : IFLE);
+                    break;
+                case Token.FLE:
+                    branch = (jumpWhen ? IFLE : IFGT);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator " + comp.getSingletonOperator());
+            }
+            m.branch(branch, target, -1);
+        }
+    }
+
+    /**
+     * The ClassLoader used to load the generated classes
+     */
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,145 @@
+package net.sf.saxon.codenorm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compact table mapping Unicode code points to small non-negative integer values (0 to 255).
+ * The table is held as a two-stage trie: the code point range is divided into blocks of 128 code points,
+ * the first stage maps each block to an entry in the second stage, and blocks with identical content
+ * (in particular the many blocks in which every value is zero) share the same entry. A lookup is two
+ * array accesses, with no hashing and no boxing.
+ *
+ * <p>The table is populated using {@link #put}, and must then be frozen using {@link #compact} before
+ * {@link #get} is called. A frozen table can be saved using {@link #write} and restored using
+ * {@link #read}.</p>
+ */
+
+final class CodepointTable {
+
+    private static final int SHIFT = 7;
+    private static final int BLOCK_SIZE = 1 << SHIFT;
+    private static final int MASK = BLOCK_SIZE - 1;
+    private static final int BLOCKS = 0x110000 >> SHIFT;
+
+    private byte[][] building = new byte[BLOCKS][];
+    private char[] index;
+    private byte[] values;
+
+    CodepointTable() {}
+
+    /**
+     * Set the value for a code point. Must not be called after {@link #compact}.
+     * @param codepoint the code point, in the range 0 to 0x10FFFF
+     * @param value the value, in the range 0 to 255
+     */
+
+    void put(int codepoint, int value) {
+        int block = codepoint >> SHIFT;
+        if (building[block] == null) {
+            if (value == 0) {
+                return;
+            }
+            building[block] = new byte[BLOCK_SIZE];
+        }
+        building[block][codepoint & MASK] = (byte)value;
+    }
+
+    /**
+     * Build the two-stage lookup arrays, sharing identical blocks
+     */
+
+    void compact() {
+        ArrayList distinct = new ArrayList(50);
+        distinct.add(new byte[BLOCK_SIZE]);
+        index = new char[BLOCKS];
+        for (int b=0; b<BLOCKS; b++) {
+            byte[] block = building[b];
+            if (block == null) {
+                continue;
+            }
+            int found = -1;
+            for (int d=0; d<distinct.size(); d++) {
+                if (Arrays.equals(block, (byte[])distinct.get(d))) {
+                    found = d;
+                    break;
+                }
+            }
+            if (found < 0) {
+                found = distinct.size();
+                distinct.add(block);
+            }
+            index[b] = (char)found;
+        }
+        values = new byte[distinct.size() * BLOCK_SIZE];
+        for (int d=0; d<distinct.size(); d++) {
+            System.arraycopy(distinct.get(d), 0, values, d * BLOCK_SIZE, BLOCK_SIZE);
+        }
+        building = null;
+    }
+
+    /**
+     * Get the value for a code point
+     * @param codepoint the code point. Values outside the range 0 to 0x10FFFF return zero.
+     * @return the value set for this code point, or zero if none was set
+     */
+
+    int get(int codepoint) {
+        if (codepoint < 0 || codepoint > 0x10FFFF) {
+            return 0;
+        }
+        return values[(index[codepoint >> SHIFT] << SHIFT) | (codepoint & MASK)] & 0xff;
+    }
+
+    /**
+     * Write the frozen table to a data stream
+     * @param out the destination
+     */
+
+    void write(DataOutputStream out) throws IOException {
+        for (int b=0; b<BLOCKS; b++) {
+            out.writeChar(index[b]);
+        }
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    /**
+     * Read a table previously saved using {@link #write}
+     * @param in the source
+     * @return the table, which is frozen
+     */
+
+    static CodepointTable read(DataInputStream in) throws IOException {
+        CodepointTable table = new CodepointTable();
+        table.building = null;
+        table.index = new char[BLOCKS];
+        for (int b=0; b<BLOCKS; b++) {
+            table.index[b] = in.readChar();
+        }
+        table.values = new byte[in.readInt()];
+        in.readFully(table.values);
+        return table;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -23,9 +23,6 @@ public class Normalizer {
      */
     public Normalizer(byte form) {
         this.form = form;
-        if (data == null) {
-            data = UnicodeDataParser.build(); // load 1st time
-        }
     }
 
     /**
@@ -56,9 +53,10 @@ public class Normalizer {
         // then compose if the form requires.
 
         if (source.length() != 0) {
-            internalDecompose(source, target);
+            loadData();
+            internalDecompose(source, 0, source.length(), target);
             if ((form & COMPOSITION_MASK) != 0) {
-                internalCompose(target);
+                internalCompose(target, 0);
             }
         }
         return target;
@@ -67,10 +65,212 @@ public class Normalizer {
     /**
     * Normalizes text according to the chosen form
     * @param   source      the original text, unnormalized
-    * @return  target      the resulting normalized text
+    * @return  target      the resulting normalized text. If the source text is already normalized,
+    * it is returned unchanged.
     */
     public CharSequence normalize(CharSequence source) {
-        return normalize(source, new StringBuffer(source.length()+8));
+        int start = quickCheck(source, 0);
+        if (start == source.length()) {
+            return source;
+        }
+
+        // The character before the first one that needs attention is a starter that is not affected
+        // by anything before it, so everything up to that point can be copied unchanged
+
+        if (start > 0) {
+            start--;
+            if (XMLChar.isLowSurrogate(source.charAt(start)) && start > 0) {
+                start--;
+            }
+        }
+        StringBuffer target = new StringBuffer(source.length()+8);
+        target.append(source.subSequence(0, start));
+        internalDecompose(source, start, source.length(), target);
+        if ((form & COMPOSITION_MASK) != 0) {
+            internalCompose(target, start);
+        }
+        return target;
+    }
+
+    /**
+     * Test whether text is already normalized according to the chosen form. This is a quick
+     * check: it returns false for some strings that are in fact normalized, for example a string
+     * containing a combining character that happens to be in the correct position.
+     * @param source the text to be tested
+     * @return true if the text is known to be normalized
+     */
+
+    public boolean isNormalized(CharSequence source) {
+        return quickCheck(source, 0) == source.length();
+    }
+
+    /**
+     * Find the start of the next run of characters that need to be normalized. This is used, together
+     * with {@link #getRunEnd} and {@link #normalizeRun}, to normalize text a run at a time, passing on the
+     * characters between the runs without copying them. The text outside the runs is already normalized.
+     * @param source the text to be normalized
+     * @param from the offset at which to start looking: either zero, or the end of the previous run
+     * @return the offset of the first character of the run, or the length of the text if the rest of the
+     * text is already normalized
+     */
+
+    public int getRunStart(CharSequence source, int from) {
+        int start = quickCheck(source, from);
+        if (start > from && start < source.length()) {
+            // the previous character is a starter that may combine with the character found
+            start--;
+            if (XMLChar.isLowSurrogate(source.charAt(start)) && start > from) {
+                start--;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Find the end of a run of characters that need to be normalized. The run ends before the first
+     * character, after the one that needs attention, that is unchanged by normalization and cannot
+     * affect the normalization of the characters before it. The normalization of the run is therefore
+     * independent of the text that follows it.
+     * @param source the text to be normalized
+     * @param start the start of the run, as returned by {@link #getRunStart}
+     * @return the offset of the character after the end of the run
+     */
+
+    public int getRunEnd(CharSequence source, int start) {
+        int len = source.length();
+        int i = quickCheck(source, start);
+        if (i < len) {
+            i += (XMLChar.isHighSurrogate(source.charAt(i)) && i+1 < len ? 2 : 1);
+        }
+        int threshold = SAFE_BELOW[form];
+        CodepointTable table = getQuickCheckTable(form);
+        while (i < len) {
+            int ch = source.charAt(i);
+            if (ch < threshold) {
+                break;
+            }
+            int width = 1;
+            if (XMLChar.isHighSurrogate(ch) && i+1 < len && XMLChar.isLowSurrogate(source.charAt(i+1))) {
+                ch = XMLChar.supplemental((char)ch, source.charAt(i+1));
+                width = 2;
+            }
+            if (table.get(ch) == 0) {
+                break;
+            }
+            i += width;
+        }
+        return i;
+    }
+
+    /**
+     * Normalize a run of characters found using {@link #getRunStart} and {@link #getRunEnd}
+     * @param source the text to be normalized
+     * @param start the start of the run
+     * @param end the end of the run
+     * @param target a buffer to which the normalized run is appended
+     */
+
+    public void normalizeRun(CharSequence source, int start, int end, StringBuffer target) {
+        loadData();
+        int from = target.length();
+        internalDecompose(source, start, end, target);
+        if ((form & COMPOSITION_MASK) != 0 && target.length() > from) {
+            internalCompose(target, from);
+        }
+    }
+
+    /**
+     * Scan text to find the first character that might need to be changed by normalization, or that
+     * might affect the normalization of the previous character. Characters below a threshold that depends
+     * on the form are handled without reference to the Unicode data, so for text consisting only of such
+     * characters the data is never loaded.
+     * @param source the text to be scanned
+     * @param from the offset at which scanning starts
+     * @return the offset of the first character that needs attention, or the length of the text
+     * if no character needs attention, in which case the text is already normalized
+     */
+
+    private int quickCheck(CharSequence source, int from) {
+        int threshold = SAFE_BELOW[form];
+        int len = source.length();
+        CodepointTable table = null;
+        for (int i=from; i<len; i++) {
+            int ch = source.charAt(i);
+            if (ch < threshold) {
+                continue;
+            }
+            if (table == null) {
+                table = getQuickCheckTable(form);
+            }
+            if (XMLChar.isHighSurrogate(ch) && i+1 < len && XMLChar.isLowSurrogate(source.charAt(i+1))) {
+                if (table.get(XMLChar.supplemental((char)ch, source.charAt(i+1))) != 0) {
+                    return i;
+                }
+                i++;
+            } else if (table.get(ch) != 0) {
+                return i;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * For each form, the lowest character that can need attention during normalization: characters
+     * below this are unchanged by normalization and do not combine with their neighbours
+     */
+
+    private static final int[] SAFE_BELOW = {0xC0, 0xA0, 0x300, 0xA0};
+
+    /**
+     * Load the Unicode data, if this has not already been done
+     */
+
+    private static synchronized void loadData() {
+        if (data == null) {
+            if (usePrecompiledData) {
+                data = NormalizerDataFile.load(quickCheckTables);
+            }
+            if (data == null) {
+                data = UnicodeDataParser.build();
+            }
+        }
+    }
+
+    /**
+     * Say whether the Unicode data, when it is first needed, is to be loaded from the precompiled
+     * resource normalizer.dat (if it is available) rather than being built from the Unicode database.
+     * The two give the same results; the precompiled form is faster to load. This is set by a Configuration
+     * whose initialization is deferred: see {@link net.sf.saxon.Configuration#setDeferredInitialization}.
+     * @param use true if the precompiled data is to be used
+     */
+
+    public static synchronized void setUsePrecompiledData(boolean use) {
+        usePrecompiledData = use;
+    }
+
+    /**
+     * Set the Unicode data to be used, discarding any quick-check tables. This is used only when
+     * generating the binary form of the data, to ensure that it is derived from UnicodeData.
+     */
+
+    static synchronized void setData(NormalizerData normalizerData) {
+        data = normalizerData;
+        quickCheckTables = new CodepointTable[4];
+    }
+
+    /**
+     * Get the quick-check table for a normalization form, building it the first time it is needed
+     */
+
+    static synchronized CodepointTable getQuickCheckTable(byte form) {
+        if (quickCheckTables[form] == null) {
+            loadData();
+            // loading the data may supply the table ready-made
+            if (quickCheckTables[form] == null) {
+                quickCheckTables[form] = data.makeQuickCheckTable(new Normalizer(form), form);
+            }
+        }
+        return quickCheckTables[form];
     }
 
     // ======================================
@@ -90,18 +290,20 @@ public class Normalizer {
 //    *                      compatibility decomposition, otherwise selects
 //    *                      the recursive canonical decomposition.
     * @param   source      the original text, unnormalized
+    * @param   start       the offset in the source of the first character to be decomposed
+    * @param   end         the offset in the source of the character after the last one to be decomposed
     * @param   target      the resulting normalized text
     */
-    private void internalDecompose(CharSequence source, StringBuffer target) {
+    private void internalDecompose(CharSequence source, int start, int end, StringBuffer target) {
         StringBuffer buffer = new StringBuffer(8);
         boolean canonical = (form & COMPATIBILITY_MASK) == 0;
         int ch32;
         //for (int i = 0; i < source.length(); i += (ch32<65536 ? 1 : 2)) {
-        for (int i = 0; i < source.length();) {
+        for (int i = start; i < end;) {
             buffer.setLength(0);
             //ch32 = UTF16.charAt(source, i);
             ch32 = source.charAt(i++);
-            if (XMLChar.isHighSurrogate(ch32)) {
+            if (XMLChar.isHighSurrogate(ch32) && i < end) {
                 char low = source.charAt(i++);
                 ch32 = XMLChar.supplemental((char)ch32, low);
             }
@@ -116,7 +318,7 @@ public class Normalizer {
             for (int j = 0; j < buffer.length();) {
                 //ch = UTF16.charAt(buffer, j);
                 ch = buffer.charAt(j++);
-                if (XMLChar.isHighSurrogate(ch32)) {
+                if (XMLChar.isHighSurrogate(ch)) {
                     char low = buffer.charAt(j++);
                     ch = XMLChar.supplemental((char)ch, low);
                 }
@@ -129,13 +331,14 @@ public class Normalizer {
                     int ch2;
                     while (k > 0) {
                         ch2 = target.charAt(k-1);
-                        if (XMLChar.isSurrogate(ch2)) {
-                            k--;
-                            char high = buffer.charAt(k-1);
+                        int width = 1;
+                        if (XMLChar.isLowSurrogate(ch2) && k > 1) {
+                            char high = target.charAt(k-2);
                             ch2 = XMLChar.supplemental(high, (char)ch2);
+                            width = 2;
                         }
                         if (data.getCanonicalClass(ch2) <= chClass) break;
-                        k--;
+                        k -= width;
                     }
 //                    for (; k > 0; k -= (ch2<65536 ? 1 : 2)) {
 //                        ch2 = UTF16.charAt(target, k-1);
@@ -158,16 +361,17 @@ public class Normalizer {
     * have been decomposed.
     * @param   target      input: decomposed text.
     *                      output: the resulting normalized text.
+    * @param   start       the offset in the target of the first character to be composed
     */
-    private void internalCompose(StringBuffer target) {
+    private void internalCompose(StringBuffer target, int start) {
 
-        int starterPos = 0;
+        int starterPos = start;
         //int starterCh = UTF16.charAt(target,0);
         //int compPos = (starterCh<65536 ? 1 : 2); // length of last composition
-        int starterCh = target.charAt(0);
-        int compPos = 1;
+        int starterCh = target.charAt(start);
+        int compPos = start + 1;
         if (XMLChar.isHighSurrogate(starterCh)) {
-            starterCh = XMLChar.supplemental((char)starterCh, target.charAt(1));
+            starterCh = XMLChar.supplemental((char)starterCh, target.charAt(start+1));
             compPos++;
         }
         int lastClass = data.getCanonicalClass(starterCh);
@@ -239,10 +443,23 @@ public class Normalizer {
     */
     private static NormalizerData data = null;
 
+    /**
+     * Quick-check tables, indexed by normalization form, built when first needed
+     */
+
+    private static CodepointTable[] quickCheckTables = new CodepointTable[4];
+
+    /**
+     * True if the Unicode data is to be loaded from the precompiled resource
+     */
+
+    private static boolean usePrecompiledData = false;
+
     /**
     * Just accessible for testing.
     */
     boolean getExcluded (char ch) {
+        loadData();
         return data.getExcluded(ch);
     }
 
@@ -250,6 +467,7 @@ public class Normalizer {
     * Just accessible for testing.
     */
     String getRawDecompositionMapping (char ch) {
+        loadData();
         return data.getRawDecompositionMapping(ch);
     }
 }
\ No newline at end of file
@@ -2,8 +2,12 @@ package net.sf.saxon.codenorm;
 
 import net.sf.saxon.om.XMLChar;
 import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.sort.IntIterator;
 import net.sf.saxon.sort.IntToIntHashMap;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.BitSet;
 
 /**
@@ -42,7 +46,23 @@ public class NormalizerData {
     * @return          composite (e.g. '')
     */
     public char getPairwiseComposition(int first, int second) {
-    	if (first < 0 || first > 0x10FFFF || second < 0 || second > 0x10FFFF) return NOT_COMPOSITE;
+    	if (first < 0 || first > 0xFFFF || second < 0 || second > 0xFFFF) return NOT_COMPOSITE;
+        // Hangul syllables are composed algorithmically
+        int LIndex = first - LBase;
+        if (LIndex >= 0 && LIndex < LCount) {
+            int VIndex = second - VBase;
+            if (VIndex >= 0 && VIndex < VCount) {
+                return (char)(SBase + (LIndex * VCount + VIndex) * TCount);
+            }
+        } else {
+            int SIndex = first - SBase;
+            if (SIndex >= 0 && SIndex < SCount && (SIndex % TCount) == 0) {
+                int TIndex = second - TBase;
+                if (TIndex > 0 && TIndex < TCount) {
+                    return (char)(first + TIndex);
+                }
+            }
+        }
         return (char)compose.get((first << 16) | second);
     }
 
@@ -57,10 +77,26 @@ public class NormalizerData {
     * @param   buffer  buffer to be filled with the decomposition
     */
     public void getRecursiveDecomposition(boolean canonical, int ch, StringBuffer buffer) {
+        if (isHangulSyllable(ch)) {
+            // Hangul syllables are decomposed algorithmically
+            int SIndex = ch - SBase;
+            buffer.append((char)(LBase + SIndex / NCount));
+            buffer.append((char)(VBase + (SIndex % NCount) / TCount));
+            int TIndex = SIndex % TCount;
+            if (TIndex != 0) {
+                buffer.append((char)(TBase + TIndex));
+            }
+            return;
+        }
         String decomp = (String)decompose.get(ch);
         if (decomp != null && !(canonical && isCompatibility.get(ch))) {
             for (int i = 0; i < decomp.length(); ++i) {
-                getRecursiveDecomposition(canonical, decomp.charAt(i), buffer);
+                int c = decomp.charAt(i);
+                if (XMLChar.isHighSurrogate(c)) {
+                    // the decomposition contains a supplementary character
+                    c = XMLChar.supplemental((char)c, decomp.charAt(++i));
+                }
+                getRecursiveDecomposition(canonical, c, buffer);
             }
         } else {                    // if no decomp, append
         	//UTF16.append(buffer, ch);
@@ -73,14 +109,33 @@ public class NormalizerData {
         }
     }
 
+    /**
+     * Test whether a character is a Hangul syllable, whose decomposition is algorithmic
+     */
+
+    static boolean isHangulSyllable(int ch) {
+        return ch >= SBase && ch < SBase + SCount;
+    }
+
     // =================================================
     //                   PRIVATES
     // =================================================
 
+    /**
+     * Hangul composition constants.
+     * This fragment code is copied from the normalization code published by Unicode consortium.
+     * See module net.sf.saxon.codenorm.Normalizer for applicable copyright information.
+     */
+    private static final int
+        SBase = 0xAC00, LBase = 0x1100, VBase = 0x1161, TBase = 0x11A7,
+        LCount = 19, VCount = 21, TCount = 28,
+        NCount = VCount * TCount,   // 588
+        SCount = LCount * NCount;   // 11172
+
     /**
      * Only accessed by NormalizerBuilder.
      */
-    NormalizerData(IntToIntHashMap canonicalClass, IntHashMap decompose,
+    NormalizerData(CodepointTable canonicalClass, IntHashMap decompose,
       IntToIntHashMap compose, BitSet isCompatibility, BitSet isExcluded) {
         this.canonicalClass = canonicalClass;
         this.decompose = decompose;
@@ -89,6 +144,137 @@ public class NormalizerData {
         this.isExcluded = isExcluded;
     }
 
+    /**
+     * Build the quick-check table for a normalization form. The table has a non-zero entry for every
+     * character that may need to be changed by normalization, or that may affect the normalization of
+     * the preceding character: that is, a character with a non-zero combining class, a character whose
+     * decomposition is not reversed by the normalization form, and (for the composed forms) a character
+     * that can combine with a preceding character. A string that contains no such character is already
+     * normalized.
+     * @param normalizer a Normalizer for the required form, used to establish which characters are
+     * unchanged by normalization
+     * @param form the normalization form
+     * @return the quick-check table
+     */
+
+    CodepointTable makeQuickCheckTable(Normalizer normalizer, byte form) {
+        boolean canonical = (form & Normalizer.COMPATIBILITY_MASK) == 0;
+        boolean composing = (form & Normalizer.COMPOSITION_MASK) != 0;
+        CodepointTable table = new CodepointTable();
+
+        // characters that can be the second character of a composition pair
+
+        BitSet combining = new BitSet(0x3000);
+        if (composing) {
+            IntIterator keys = decompose.keyIterator();
+            while (keys.hasNext()) {
+                int key = keys.next();
+                String value = (String)decompose.get(key);
+                if (value.length() > 1 && !isCompatibility.get(key) && !isExcluded.get(key)) {
+                    combining.set(value.charAt(1));
+                }
+            }
+            // the vowel and trailing consonant jamo combine with a preceding Hangul character
+            combining.set(VBase, VBase + VCount);
+            combining.set(TBase + 1, TBase + TCount);
+        }
+
+        // characters with a non-zero combining class, combining characters, and surrogates (which
+        // only reach the table when they are unpaired)
+
+        for (int ch=0; ch<=0x10FFFF; ch++) {
+            if (getCanonicalClass(ch) != 0 || combining.get(ch) || (ch >= 0xD800 && ch <= 0xDFFF)) {
+                table.put(ch, 1);
+            }
+        }
+
+        // characters with a decomposition that is not reversed by this normalization form. Hangul
+        // syllables are always recomposed from their algorithmic decomposition.
+
+        if (!composing) {
+            for (int ch=SBase; ch<SBase+SCount; ch++) {
+                table.put(ch, 1);
+            }
+        }
+        StringBuffer buffer = new StringBuffer(20);
+        IntIterator keys = decompose.keyIterator();
+        while (keys.hasNext()) {
+            int ch = keys.next();
+            if (canonical && isCompatibility.get(ch)) {
+                continue;
+            }
+            boolean unsafe = true;
+            if (composing) {
+                buffer.setLength(0);
+                getRecursiveDecomposition(canonical, ch, buffer);
+                String original = (ch < 65536 ? String.valueOf((char)ch) :
+                        "" + XMLChar.highSurrogate(ch) + XMLChar.lowSurrogate(ch));
+                unsafe = getCanonicalClass(buffer.charAt(0)) != 0 ||
+                        !normalizer.normalize(original, new StringBuffer(8)).toString().equals(original);
+            }
+            if (unsafe) {
+                table.put(ch, 1);
+            }
+        }
+        table.compact();
+        return table;
+    }
+
+    /**
+     * Write the data to a data stream, in the form read by {@link #read}
+     * @param out the destination
+     */
+
+    void write(DataOutputStream out) throws IOException {
+        canonicalClass.write(out);
+        writeBitSet(isCompatibility, out);
+        writeBitSet(isExcluded, out);
+        out.writeInt(decompose.size());
+        IntIterator keys = decompose.keyIterator();
+        while (keys.hasNext()) {
+            int key = keys.next();
+            out.writeInt(key);
+            out.writeUTF((String)decompose.get(key));
+        }
+    }
+
+    /**
+     * Read data previously saved using {@link #write}
+     * @param in the source
+     * @return the normalization data
+     */
+
+    static NormalizerData read(DataInputStream in) throws IOException {
+        CodepointTable canonicalClass = CodepointTable.read(in);
+        BitSet isCompatibility = readBitSet(in);
+        BitSet isExcluded = readBitSet(in);
+        IntHashMap decompose = new IntHashMap(UnicodeDataParser.DECOMPOSITIONS);
+        IntToIntHashMap compose = new IntToIntHashMap(UnicodeDataParser.COMPOSITIONS);
+        compose.setDefaultValue(NOT_COMPOSITE);
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            int key = in.readInt();
+            UnicodeDataParser.addDecomposition(key, in.readUTF(), decompose, compose, isExcluded, isCompatibility);
+        }
+        return new NormalizerData(canonicalClass, decompose, compose, isCompatibility, isExcluded);
+    }
+
+    private static void writeBitSet(BitSet bits, DataOutputStream out) throws IOException {
+        out.writeInt(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)) {
+            out.writeInt(i);
+        }
+    }
+
+    private static BitSet readBitSet(DataInputStream in) throws IOException {
+        BitSet bits = new BitSet(128000);
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            bits.set(in.readInt());
+        }
+        return bits;
+    }
+
     /**
     * Just accessible for testing.
     */
@@ -104,10 +290,9 @@ public class NormalizerData {
     }
 
     /**
-    * For now, just use IntHashtable
-    * Two-stage tables would be used in an optimized implementation.
+    * Maps characters to their canonical combining class
     */
-    private IntToIntHashMap canonicalClass;
+    private CodepointTable canonicalClass;
 
     /**
     * The main data table maps chars to a 32-bit int.
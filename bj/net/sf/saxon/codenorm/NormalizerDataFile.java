@@ -0,0 +1,115 @@
+package net.sf.saxon.codenorm;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class reads and writes a compact binary form of the normalization data, held as the resource
+ * <code>normalizer.dat</code> alongside this class. Loading the tables from this resource is much faster
+ * than building them from the Java module {@link UnicodeData}, because the text of that module does not
+ * need to be parsed, and the quick-check tables for the four normalization forms are stored ready-made
+ * rather than being computed.
+ * <p>
+ * The resource is created, by running the main() method of this class, at the time Saxon is built. It
+ * only needs to be rerun when UnicodeData.java has been regenerated. If the resource is absent or unreadable,
+ * the data is built from UnicodeData instead.
+ */
+
+final class NormalizerDataFile {
+
+    private static final String RESOURCE = "normalizer.dat";
+    private static final int MAGIC = 0x53784e31;    // "SxN1"
+
+    // This class is never instantiated
+    private NormalizerDataFile() {}
+
+    /**
+     * Load the normalization data from the binary resource
+     * @param quickCheckTables an array, indexed by normalization form, to receive the quick-check tables.
+     * The array is not changed unless the data is loaded successfully.
+     * @return the normalization data, or null if the resource is not available
+     */
+
+    static NormalizerData load(CodepointTable[] quickCheckTables) {
+        InputStream resource = NormalizerDataFile.class.getResourceAsStream(RESOURCE);
+        if (resource == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new GZIPInputStream(resource), 16384));
+            try {
+                if (in.readInt() != MAGIC) {
+                    return null;
+                }
+                NormalizerData data = NormalizerData.read(in);
+                CodepointTable[] tables = new CodepointTable[4];
+                for (int form=0; form<4; form++) {
+                    tables[form] = CodepointTable.read(in);
+                }
+                System.arraycopy(tables, 0, quickCheckTables, 0, 4);
+                return data;
+            } finally {
+                in.close();
+            }
+        } catch (IOException err) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the normalization data from UnicodeData, and write it in binary form
+     * @param out the destination
+     */
+
+    static void write(OutputStream out) throws IOException {
+        NormalizerData data = UnicodeDataParser.build();
+        Normalizer.setData(data);
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        DataOutputStream o = new DataOutputStream(new BufferedOutputStream(zip));
+        o.writeInt(MAGIC);
+        data.write(o);
+        for (byte form=0; form<4; form++) {
+            Normalizer.getQuickCheckTable(form).write(o);
+        }
+        o.flush();
+        zip.finish();
+    }
+
+    /**
+     * Create the binary resource.
+     * @param args the file name of the resource to be written
+     */
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java net.sf.saxon.codenorm.NormalizerDataFile normalizer.dat");
+            System.exit(2);
+        }
+        OutputStream out = new FileOutputStream(new File(args[0]));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -2055,7 +2055,7 @@ public static final String[] decompositionValues = {
 "\u6108", "\u618e", "\u6160", "\u61f2", "\u6234", "\u63c4", "\u641c", "\u6452", "\u6556", "\u6674", "\u6717", "\u671b", "\u6756", "\u6b79", "\u6bba", "\u6d41", "\u6edb", "\u6ecb", "\u6f22", "\u701e",
 "\u716e", "\u77a7", "\u7235", "\u72af", "\u732a", "\u7471", "\u7506", "\u753b", "\u761d", "\u761f", "\u76ca", "\u76db", "\u76f4", "\u774a", "\u7740", "\u78cc", "\u7ab1", "\u7bc0", "\u7c7b", "\u7d5b",
 "\u7df4", "\u7f3e", "\u8005", "\u8352", "\u83ef", "\u8779", "\u8941", "\u8986", "\u8996", "\u8abf", "\u8af8", "\u8acb", "\u8b01", "\u8afe", "\u8aed", "\u8b39", "\u8b8a", "\u8d08", "\u8f38", "\u9072",
-"\u9199", "\u9276", "\u967c", "\u96e3", "\u9756", "\u97db", "\u97ff", "\u980b", "\u983b", "\u9b12", "\u9f9c", "\u284a", "\u2844", "\u33d5", "\u3b9d", "\u4018", "\u4039", "\u5249", "\u5cd0", "\u7ed3",
+"\u9199", "\u9276", "\u967c", "\u96e3", "\u9756", "\u97db", "\u97ff", "\u980b", "\u983b", "\u9b12", "\u9f9c", "\ud84a\udc4a", "\ud84a\udc44", "\ud84c\udfd5", "\u3b9d", "\u4018", "\u4039", "\ud854\ude49", "\ud857\udcd0", "\ud85f\uded3",
 "\u9f43", "\u9f8e", "ff", "fi", "fl", "ffi", "ffl", "\u017ft", "st", "\u0574\u0576", "\u0574\u0565", "\u0574\u056b", "\u057e\u0576", "\u0574\u056d", "\u05d9\u05b4", "\u05f2\u05b7", "\u05e2", "\u05d0", "\u05d3", "\u05d4",
 "\u05db", "\u05dc", "\u05dd", "\u05e8", "\u05ea", "+", "\u05e9\u05c1", "\u05e9\u05c2", "\ufb49\u05c1", "\ufb49\u05c2", "\u05d0\u05b7", "\u05d0\u05b8", "\u05d0\u05bc", "\u05d1\u05bc", "\u05d2\u05bc", "\u05d3\u05bc", "\u05d4\u05bc", "\u05d5\u05bc", "\u05d6\u05bc", "\u05d8\u05bc",
 "\u05d9\u05bc", "\u05da\u05bc", "\u05db\u05bc", "\u05dc\u05bc", "\u05de\u05bc", "\u05e0\u05bc", "\u05e1\u05bc", "\u05e3\u05bc", "\u05e4\u05bc", "\u05e6\u05bc", "\u05e7\u05bc", "\u05e8\u05bc", "\u05e9\u05bc", "\u05ea\u05bc", "\u05d5\u05b9", "\u05d1\u05bf", "\u05db\u05bf", "\u05e4\u05bf", "\u05d0\u05dc", "\u0671",
@@ -2110,7 +2110,7 @@ public static final String[] decompositionValues = {
 "\u3135", "\u3136", "\u3137", "\u3138", "\u3139", "\u313a", "\u313b", "\u313c", "\u313d", "\u313e", "\u313f", "\u3140", "\u3141", "\u3142", "\u3143", "\u3144", "\u3145", "\u3146", "\u3147", "\u3148",
 "\u3149", "\u314a", "\u314b", "\u314c", "\u314d", "\u314e", "\u314f", "\u3150", "\u3151", "\u3152", "\u3153", "\u3154", "\u3155", "\u3156", "\u3157", "\u3158", "\u3159", "\u315a", "\u315b", "\u315c",
 "\u315d", "\u315e", "\u315f", "\u3160", "\u3161", "\u3162", "\u3163", "\u00a2", "\u00a3", "\u00ac", "\u00af", "\u00a6", "\u00a5", "\u20a9", "\u2502", "\u2190", "\u2191", "\u2192", "\u2193", "\u25a0",
-"\u25cb", "\ud157\ud165", "\ud158\ud165", "\ud15f\ud16e", "\ud15f\ud16f", "\ud15f\ud170", "\ud15f\ud171", "\ud15f\ud172", "\ud1b9\ud165", "\ud1ba\ud165", "\ud1bb\ud16e", "\ud1bc\ud16e", "\ud1bb\ud16f", "\ud1bc\ud16f", "A", "B", "C", "D", "E", "F",
+"\u25cb", "\ud834\udd57\ud834\udd65", "\ud834\udd58\ud834\udd65", "\ud834\udd5f\ud834\udd6e", "\ud834\udd5f\ud834\udd6f", "\ud834\udd5f\ud834\udd70", "\ud834\udd5f\ud834\udd71", "\ud834\udd5f\ud834\udd72", "\ud834\uddb9\ud834\udd65", "\ud834\uddba\ud834\udd65", "\ud834\uddbb\ud834\udd6e", "\ud834\uddbc\ud834\udd6e", "\ud834\uddbb\ud834\udd6f", "\ud834\uddbc\ud834\udd6f", "A", "B", "C", "D", "E", "F",
 "G", "H", "I", "J", "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X", "Y", "Z",
 "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t",
 "u", "v", "w", "x", "y", "z", "A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N",
@@ -2160,34 +2160,34 @@ public static final String[] decompositionValues = {
 "\u03bf", "\u03c0", "\u03c1", "\u03c2", "\u03c3", "\u03c4", "\u03c5", "\u03c6", "\u03c7", "\u03c8", "\u03c9", "\u2202", "\u03f5", "\u03d1", "\u03f0", "\u03d5", "\u03f1", "\u03d6", "0", "1",
 "2", "3", "4", "5", "6", "7", "8", "9", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "0", "1",
 "2", "3", "4", "5", "6", "7", "8", "9", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "0", "1",
-"2", "3", "4", "5", "6", "7", "8", "9", "\u4e3d", "\u4e38", "\u4e41", "\u0122", "\u4f60", "\u4fae", "\u4fbb", "\u5002", "\u507a", "\u5099", "\u50e7", "\u50cf",
-"\u349e", "\u063a", "\u514d", "\u5154", "\u5164", "\u5177", "\u051c", "\u34b9", "\u5167", "\u518d", "\u054b", "\u5197", "\u51a4", "\u4ecc", "\u51ac", "\u51b5", "\u91df", "\u51f5", "\u5203", "\u34df",
+"2", "3", "4", "5", "6", "7", "8", "9", "\u4e3d", "\u4e38", "\u4e41", "\ud840\udd22", "\u4f60", "\u4fae", "\u4fbb", "\u5002", "\u507a", "\u5099", "\u50e7", "\u50cf",
+"\u349e", "\ud841\ude3a", "\u514d", "\u5154", "\u5164", "\u5177", "\ud841\udd1c", "\u34b9", "\u5167", "\u518d", "\ud841\udd4b", "\u5197", "\u51a4", "\u4ecc", "\u51ac", "\u51b5", "\ud864\udddf", "\u51f5", "\u5203", "\u34df",
 "\u523b", "\u5246", "\u5272", "\u5277", "\u3515", "\u52c7", "\u52c9", "\u52e4", "\u52fa", "\u5305", "\u5306", "\u5317", "\u5349", "\u5351", "\u535a", "\u5373", "\u537d", "\u537f", "\u537f", "\u537f",
-"\u0a2c", "\u7070", "\u53ca", "\u53df", "\u0b63", "\u53eb", "\u53f1", "\u5406", "\u549e", "\u5438", "\u5448", "\u5468", "\u54a2", "\u54f6", "\u5510", "\u5553", "\u5563", "\u5584", "\u5584", "\u5599",
-"\u55ab", "\u55b3", "\u55c2", "\u5716", "\u5606", "\u5717", "\u5651", "\u5674", "\u5207", "\u58ee", "\u57ce", "\u57f4", "\u580d", "\u578b", "\u5832", "\u5831", "\u58ac", "\u14e4", "\u58f2", "\u58f7",
-"\u5906", "\u591a", "\u5922", "\u5962", "\u16a8", "\u16ea", "\u59ec", "\u5a1b", "\u5a27", "\u59d8", "\u5a66", "\u36ee", "\u36fc", "\u5b08", "\u5b3e", "\u5b3e", "\u19c8", "\u5bc3", "\u5bd8", "\u5be7",
-"\u5bf3", "\u1b18", "\u5bff", "\u5c06", "\u5f53", "\u5c22", "\u3781", "\u5c60", "\u5c6e", "\u5cc0", "\u5c8d", "\u1de4", "\u5d43", "\u1de6", "\u5d6e", "\u5d6b", "\u5d7c", "\u5de1", "\u5de2", "\u382f",
-"\u5dfd", "\u5e28", "\u5e3d", "\u5e69", "\u3862", "\u2183", "\u387c", "\u5eb0", "\u5eb3", "\u5eb6", "\u5eca", "\ua392", "\u5efe", "\u2331", "\u2331", "\u8201", "\u5f22", "\u5f22", "\u38c7", "\u32b8",
-"\u61da", "\u5f62", "\u5f6b", "\u38e3", "\u5f9a", "\u5fcd", "\u5fd7", "\u5ff9", "\u6081", "\u393a", "\u391c", "\u6094", "\u26d4", "\u60c7", "\u6148", "\u614c", "\u614e", "\u614c", "\u617a", "\u618e",
-"\u61b2", "\u61a4", "\u61af", "\u61de", "\u61f2", "\u61f6", "\u6210", "\u621b", "\u625d", "\u62b1", "\u62d4", "\u6350", "\u2b0c", "\u633d", "\u62fc", "\u6368", "\u6383", "\u63e4", "\u2bf1", "\u6422",
-"\u63c5", "\u63a9", "\u3a2e", "\u6469", "\u647e", "\u649d", "\u6477", "\u3a6c", "\u654f", "\u656c", "\u300a", "\u65e3", "\u66f8", "\u6649", "\u3b19", "\u6691", "\u3b08", "\u3ae4", "\u5192", "\u5195",
-"\u6700", "\u669c", "\u80ad", "\u43d9", "\u6717", "\u671b", "\u6721", "\u675e", "\u6753", "\u33c3", "\u3b49", "\u67fa", "\u6785", "\u6852", "\u6885", "\u346d", "\u688e", "\u681f", "\u6914", "\u3b9d",
-"\u6942", "\u69a3", "\u69ea", "\u6aa8", "\u36a3", "\u6adb", "\u3c18", "\u6b21", "\u38a7", "\u6b54", "\u3c4e", "\u6b72", "\u6b9f", "\u6bba", "\u6bbb", "\u3a8d", "\u1d0b", "\u3afa", "\u6c4e", "\u3cbc",
-"\u6cbf", "\u6ccd", "\u6c67", "\u6d16", "\u6d3e", "\u6d77", "\u6d41", "\u6d69", "\u6d78", "\u6d85", "\u3d1e", "\u6d34", "\u6e2f", "\u6e6e", "\u3d33", "\u6ecb", "\u6ec7", "\u3ed1", "\u6df9", "\u6f6e",
-"\u3f5e", "\u3f8e", "\u6fc6", "\u7039", "\u701e", "\u701b", "\u3d96", "\u704a", "\u707d", "\u7077", "\u70ad", "\u0525", "\u7145", "\u4263", "\u719c", "\u43ab", "\u7228", "\u7235", "\u7250", "\u4608",
-"\u7280", "\u7295", "\u4735", "\u4814", "\u737a", "\u738b", "\u3eac", "\u73a5", "\u3eb8", "\u3eb8", "\u7447", "\u745c", "\u7471", "\u7485", "\u74ca", "\u3f1b", "\u7524", "\u4c36", "\u753e", "\u4c92",
-"\u7570", "\u219f", "\u7610", "\u4fa1", "\u4fb8", "\u5044", "\u3ffc", "\u4008", "\u76f4", "\u50f3", "\u50f2", "\u5119", "\u5133", "\u771e", "\u771f", "\u771f", "\u774a", "\u4039", "\u778b", "\u4046",
-"\u4096", "\u541d", "\u784e", "\u788c", "\u78cc", "\u40e3", "\u5626", "\u7956", "\u569a", "\u56c5", "\u798f", "\u79eb", "\u412f", "\u7a40", "\u7a4a", "\u7a4f", "\u597c", "\u5aa7", "\u5aa7", "\u7aee",
-"\u4202", "\u5bab", "\u7bc6", "\u7bc9", "\u4227", "\u5c80", "\u7cd2", "\u42a0", "\u7ce8", "\u7ce3", "\u7d00", "\u5f86", "\u7d63", "\u4301", "\u7dc7", "\u7e02", "\u7e45", "\u4334", "\u6228", "\u6247",
-"\u4359", "\u62d9", "\u7f7a", "\u633e", "\u7f95", "\u7ffa", "\u8005", "\u64da", "\u6523", "\u8060", "\u65a8", "\u8070", "\u335f", "\u43d5", "\u80b2", "\u8103", "\u440b", "\u813e", "\u5ab5", "\u67a7",
-"\u67b5", "\u3393", "\u339c", "\u8201", "\u8204", "\u8f9e", "\u446b", "\u8291", "\u828b", "\u829d", "\u52b3", "\u82b1", "\u82b3", "\u82bd", "\u82e6", "\u6b3c", "\u82e5", "\u831d", "\u8363", "\u83ad",
-"\u8323", "\u83bd", "\u83e7", "\u8457", "\u8353", "\u83ca", "\u83cc", "\u83dc", "\u6c36", "\u6d6b", "\u6cd5", "\u452b", "\u84f1", "\u84f3", "\u8516", "\u73ca", "\u8564", "\u6f2c", "\u455d", "\u4561",
-"\u6fb1", "\u70d2", "\u456b", "\u8650", "\u865c", "\u8667", "\u8669", "\u86a9", "\u8688", "\u870e", "\u86e2", "\u8779", "\u8728", "\u876b", "\u8786", "\u45d7", "\u87e1", "\u8801", "\u45f9", "\u8860",
-"\u8863", "\u7667", "\u88d7", "\u88de", "\u4635", "\u88fa", "\u34bb", "\u78ae", "\u7966", "\u46be", "\u46c7", "\u8aa0", "\u8aed", "\u8b8a", "\u8c55", "\u7ca8", "\u8cab", "\u8cc1", "\u8d1b", "\u8d77",
-"\u7f2f", "\u0804", "\u8dcb", "\u8dbc", "\u8df0", "\u08de", "\u8ed4", "\u8f38", "\u85d2", "\u85ed", "\u9094", "\u90f1", "\u9111", "\u872e", "\u911b", "\u9238", "\u92d7", "\u92d8", "\u927c", "\u93f9",
-"\u9415", "\u8bfa", "\u958b", "\u4995", "\u95b7", "\u8d77", "\u49e6", "\u96c3", "\u5db2", "\u9723", "\u9145", "\u921a", "\u4a6e", "\u4a76", "\u97e0", "\u940a", "\u4ab2", "\u9496", "\u980b", "\u980b",
-"\u9829", "\u95b6", "\u98e2", "\u4b33", "\u9929", "\u99a7", "\u99c2", "\u99fe", "\u4bce", "\u9b30", "\u9b12", "\u9c40", "\u9cfd", "\u4cce", "\u4ced", "\u9d67", "\ua0ce", "\u4cf8", "\ua105", "\ua20e",
-"\ua291", "\u9ebb", "\u4d56", "\u9ef9", "\u9efe", "\u9f05", "\u9f0f", "\u9f16", "\u9f3b", "\ua600"
+"\ud842\ude2c", "\u7070", "\u53ca", "\u53df", "\ud842\udf63", "\u53eb", "\u53f1", "\u5406", "\u549e", "\u5438", "\u5448", "\u5468", "\u54a2", "\u54f6", "\u5510", "\u5553", "\u5563", "\u5584", "\u5584", "\u5599",
+"\u55ab", "\u55b3", "\u55c2", "\u5716", "\u5606", "\u5717", "\u5651", "\u5674", "\u5207", "\u58ee", "\u57ce", "\u57f4", "\u580d", "\u578b", "\u5832", "\u5831", "\u58ac", "\ud845\udce4", "\u58f2", "\u58f7",
+"\u5906", "\u591a", "\u5922", "\u5962", "\ud845\udea8", "\ud845\udeea", "\u59ec", "\u5a1b", "\u5a27", "\u59d8", "\u5a66", "\u36ee", "\u36fc", "\u5b08", "\u5b3e", "\u5b3e", "\ud846\uddc8", "\u5bc3", "\u5bd8", "\u5be7",
+"\u5bf3", "\ud846\udf18", "\u5bff", "\u5c06", "\u5f53", "\u5c22", "\u3781", "\u5c60", "\u5c6e", "\u5cc0", "\u5c8d", "\ud847\udde4", "\u5d43", "\ud847\udde6", "\u5d6e", "\u5d6b", "\u5d7c", "\u5de1", "\u5de2", "\u382f",
+"\u5dfd", "\u5e28", "\u5e3d", "\u5e69", "\u3862", "\ud848\udd83", "\u387c", "\u5eb0", "\u5eb3", "\u5eb6", "\u5eca", "\ud868\udf92", "\u5efe", "\ud848\udf31", "\ud848\udf31", "\u8201", "\u5f22", "\u5f22", "\u38c7", "\ud84c\udeb8",
+"\ud858\uddda", "\u5f62", "\u5f6b", "\u38e3", "\u5f9a", "\u5fcd", "\u5fd7", "\u5ff9", "\u6081", "\u393a", "\u391c", "\u6094", "\ud849\uded4", "\u60c7", "\u6148", "\u614c", "\u614e", "\u614c", "\u617a", "\u618e",
+"\u61b2", "\u61a4", "\u61af", "\u61de", "\u61f2", "\u61f6", "\u6210", "\u621b", "\u625d", "\u62b1", "\u62d4", "\u6350", "\ud84a\udf0c", "\u633d", "\u62fc", "\u6368", "\u6383", "\u63e4", "\ud84a\udff1", "\u6422",
+"\u63c5", "\u63a9", "\u3a2e", "\u6469", "\u647e", "\u649d", "\u6477", "\u3a6c", "\u654f", "\u656c", "\ud84c\udc0a", "\u65e3", "\u66f8", "\u6649", "\u3b19", "\u6691", "\u3b08", "\u3ae4", "\u5192", "\u5195",
+"\u6700", "\u669c", "\u80ad", "\u43d9", "\u6717", "\u671b", "\u6721", "\u675e", "\u6753", "\ud84c\udfc3", "\u3b49", "\u67fa", "\u6785", "\u6852", "\u6885", "\ud84d\udc6d", "\u688e", "\u681f", "\u6914", "\u3b9d",
+"\u6942", "\u69a3", "\u69ea", "\u6aa8", "\ud84d\udea3", "\u6adb", "\u3c18", "\u6b21", "\ud84e\udca7", "\u6b54", "\u3c4e", "\u6b72", "\u6b9f", "\u6bba", "\u6bbb", "\ud84e\ude8d", "\ud847\udd0b", "\ud84e\udefa", "\u6c4e", "\ud84f\udcbc",
+"\u6cbf", "\u6ccd", "\u6c67", "\u6d16", "\u6d3e", "\u6d77", "\u6d41", "\u6d69", "\u6d78", "\u6d85", "\ud84f\udd1e", "\u6d34", "\u6e2f", "\u6e6e", "\u3d33", "\u6ecb", "\u6ec7", "\ud84f\uded1", "\u6df9", "\u6f6e",
+"\ud84f\udf5e", "\ud84f\udf8e", "\u6fc6", "\u7039", "\u701e", "\u701b", "\u3d96", "\u704a", "\u707d", "\u7077", "\u70ad", "\ud841\udd25", "\u7145", "\ud850\ude63", "\u719c", "\ud850\udfab", "\u7228", "\u7235", "\u7250", "\ud851\ude08",
+"\u7280", "\u7295", "\ud851\udf35", "\ud852\udc14", "\u737a", "\u738b", "\u3eac", "\u73a5", "\u3eb8", "\u3eb8", "\u7447", "\u745c", "\u7471", "\u7485", "\u74ca", "\u3f1b", "\u7524", "\ud853\udc36", "\u753e", "\ud853\udc92",
+"\u7570", "\ud848\udd9f", "\u7610", "\ud853\udfa1", "\ud853\udfb8", "\ud854\udc44", "\u3ffc", "\u4008", "\u76f4", "\ud854\udcf3", "\ud854\udcf2", "\ud854\udd19", "\ud854\udd33", "\u771e", "\u771f", "\u771f", "\u774a", "\u4039", "\u778b", "\u4046",
+"\u4096", "\ud855\udc1d", "\u784e", "\u788c", "\u78cc", "\u40e3", "\ud855\ude26", "\u7956", "\ud855\ude9a", "\ud855\udec5", "\u798f", "\u79eb", "\u412f", "\u7a40", "\u7a4a", "\u7a4f", "\ud856\udd7c", "\ud856\udea7", "\ud856\udea7", "\u7aee",
+"\u4202", "\ud856\udfab", "\u7bc6", "\u7bc9", "\u4227", "\ud857\udc80", "\u7cd2", "\u42a0", "\u7ce8", "\u7ce3", "\u7d00", "\ud857\udf86", "\u7d63", "\u4301", "\u7dc7", "\u7e02", "\u7e45", "\u4334", "\ud858\ude28", "\ud858\ude47",
+"\u4359", "\ud858\uded9", "\u7f7a", "\ud858\udf3e", "\u7f95", "\u7ffa", "\u8005", "\ud859\udcda", "\ud859\udd23", "\u8060", "\ud859\udda8", "\u8070", "\ud84c\udf5f", "\u43d5", "\u80b2", "\u8103", "\u440b", "\u813e", "\u5ab5", "\ud859\udfa7",
+"\ud859\udfb5", "\ud84c\udf93", "\ud84c\udf9c", "\u8201", "\u8204", "\u8f9e", "\u446b", "\u8291", "\u828b", "\u829d", "\u52b3", "\u82b1", "\u82b3", "\u82bd", "\u82e6", "\ud85a\udf3c", "\u82e5", "\u831d", "\u8363", "\u83ad",
+"\u8323", "\u83bd", "\u83e7", "\u8457", "\u8353", "\u83ca", "\u83cc", "\u83dc", "\ud85b\udc36", "\ud85b\udd6b", "\ud85b\udcd5", "\u452b", "\u84f1", "\u84f3", "\u8516", "\ud85c\udfca", "\u8564", "\ud85b\udf2c", "\u455d", "\u4561",
+"\ud85b\udfb1", "\ud85c\udcd2", "\u456b", "\u8650", "\u865c", "\u8667", "\u8669", "\u86a9", "\u8688", "\u870e", "\u86e2", "\u8779", "\u8728", "\u876b", "\u8786", "\u45d7", "\u87e1", "\u8801", "\u45f9", "\u8860",
+"\u8863", "\ud85d\ude67", "\u88d7", "\u88de", "\u4635", "\u88fa", "\u34bb", "\ud85e\udcae", "\ud85e\udd66", "\u46be", "\u46c7", "\u8aa0", "\u8aed", "\u8b8a", "\u8c55", "\ud85f\udca8", "\u8cab", "\u8cc1", "\u8d1b", "\u8d77",
+"\ud85f\udf2f", "\ud842\udc04", "\u8dcb", "\u8dbc", "\u8df0", "\ud842\udcde", "\u8ed4", "\u8f38", "\ud861\uddd2", "\ud861\udded", "\u9094", "\u90f1", "\u9111", "\ud861\udf2e", "\u911b", "\u9238", "\u92d7", "\u92d8", "\u927c", "\u93f9",
+"\u9415", "\ud862\udffa", "\u958b", "\u4995", "\u95b7", "\ud863\udd77", "\u49e6", "\u96c3", "\u5db2", "\u9723", "\ud864\udd45", "\ud864\ude1a", "\u4a6e", "\u4a76", "\u97e0", "\ud865\udc0a", "\u4ab2", "\ud865\udc96", "\u980b", "\u980b",
+"\u9829", "\ud865\uddb6", "\u98e2", "\u4b33", "\u9929", "\u99a7", "\u99c2", "\u99fe", "\u4bce", "\ud866\udf30", "\u9b12", "\u9c40", "\u9cfd", "\u4cce", "\u4ced", "\u9d67", "\ud868\udcce", "\u4cf8", "\ud868\udd05", "\ud868\ude0e",
+"\ud868\ude91", "\u9ebb", "\u4d56", "\u9ef9", "\u9efe", "\u9f05", "\u9f0f", "\u9f16", "\u9f3b", "\ud869\ude00"
 };
 public static final String[] exclusionList = {
 "2ao,2ap,2aq,2ar,2as,2at,2au,2av,2es,2et,2ev,2hj,2hm,2ip,2iq,2ir,2iu,2qs,2qt,",
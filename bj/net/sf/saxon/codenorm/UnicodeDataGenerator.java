@@ -1,6 +1,7 @@
 package net.sf.saxon.codenorm;
 
 import net.sf.saxon.om.FastStringBuffer;
+import net.sf.saxon.om.XMLChar;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -171,7 +172,13 @@ class UnicodeDataGenerator {
 
                 // check consistency: all canon decomps must be singles or pairs!
 
-                if (decomp.length() < 1 || decomp.length() > 2 && !compat) {
+                int chars = decomp.length();
+                for (int i=0; i<decomp.length(); i++) {
+                    if (XMLChar.isHighSurrogate(decomp.charAt(i))) {
+                        chars--;
+                    }
+                }
+                if (chars < 1 || chars > 2 && !compat) {
                     System.err.println("Bad decomp at: " + line);
                 }
 
@@ -258,7 +265,13 @@ class UnicodeDataGenerator {
                         z = source.length();
                     }
                     try {
-                        result.append((char)Integer.parseInt(source.substring(i, z),16));
+                        int cp = Integer.parseInt(source.substring(i, z),16);
+                        if (cp > 0xFFFF) {
+                            result.append(XMLChar.highSurrogate(cp));
+                            result.append(XMLChar.lowSurrogate(cp));
+                        } else {
+                            result.append((char)cp);
+                        }
                     } catch (NumberFormatException e) {
                         throw new IllegalArgumentException("Bad hex value in " + source);
                     }
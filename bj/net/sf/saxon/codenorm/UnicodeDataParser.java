@@ -1,5 +1,6 @@
 package net.sf.saxon.codenorm;
 
+import net.sf.saxon.om.XMLChar;
 import net.sf.saxon.sort.IntHashMap;
 import net.sf.saxon.sort.IntToIntHashMap;
 
@@ -18,15 +19,19 @@ class UnicodeDataParser {
     // This class is never instantiated
     private UnicodeDataParser(){}
 
+    // Initial sizes of the decomposition and composition tables
+
+    static final int DECOMPOSITIONS = 8000;
+    static final int COMPOSITIONS = 2000;
+
     /**
      * Called exactly once by NormalizerData to build the static data
      */
 
     static NormalizerData build() {
-        IntToIntHashMap canonicalClass = new IntToIntHashMap(400);
-        canonicalClass.setDefaultValue(0);
-        IntHashMap decompose = new IntHashMap(18000);
-        IntToIntHashMap compose = new IntToIntHashMap(15000);
+        CodepointTable canonicalClass = new CodepointTable();
+        IntHashMap decompose = new IntHashMap(DECOMPOSITIONS);
+        IntToIntHashMap compose = new IntToIntHashMap(COMPOSITIONS);
         compose.setDefaultValue(NormalizerData.NOT_COMPOSITE);
         BitSet isCompatibility = new BitSet(128000);
         BitSet isExcluded = new BitSet(128000);
@@ -35,6 +40,7 @@ class UnicodeDataParser {
         readCompatibilityList(isCompatibility);
         readCanonicalClassTable(canonicalClass);
         readDecompositionTable(decompose, compose, isExcluded, isCompatibility);
+        canonicalClass.compact();
 
         return new NormalizerData(canonicalClass, decompose, compose,
               isCompatibility, isExcluded);
@@ -76,7 +82,7 @@ class UnicodeDataParser {
      * Read canonical class table (mapping from character codes to their canonical class)
      */
 
-    private static void readCanonicalClassTable(IntToIntHashMap canonicalClasses) {
+    private static void readCanonicalClassTable(CodepointTable canonicalClasses) {
         ArrayList keys = new ArrayList(5000);
         for (int i=0; i<UnicodeData.canonicalClassKeys.length; i++) {
             String s = UnicodeData.canonicalClassKeys[i];
@@ -113,57 +119,49 @@ class UnicodeDataParser {
                 String tok = st.nextToken();
                 int key = Integer.parseInt(tok, 32);
                 String value = UnicodeData.decompositionValues[k++];
-                decompose.put(key, value);
-                                // only compositions are canonical pairs
-                // skip if script exclusion
-
-                if (!isCompatibility.get(key) && !isExcluded.get(key)) {
-                    char first = '\u0000';
-                    char second = value.charAt(0);
-                    if (value.length() > 1) {
-                        first = second;
-                        second = value.charAt(1);
-                    }
-
-                    // store composition pair in single integer
-
-                    int pair = (first << 16) | second;
-                    compose.put(pair, key);
-                }
+                addDecomposition(key, value, decompose, compose, isExcluded, isCompatibility);
             }
         }
+        // Hangul syllables are not entered in the tables: their decompositions are algorithmic
+    }
 
-        // Add algorithmic Hangul decompositions
-        // This fragment code is copied from the normalization code published by Unicode consortium.
-        // See module net.sf.saxon.codenorm.Normalizer for applicable copyright information.
-
-        for (int SIndex = 0; SIndex < SCount; ++SIndex) {
-            int TIndex = SIndex % TCount;
-            char first, second;
-            if (TIndex != 0) { // triple
-                first = (char)(SBase + SIndex - TIndex);
-                second = (char)(TBase + TIndex);
-            } else {
-                first = (char)(LBase + SIndex / NCount);
-                second = (char)(VBase + (SIndex % NCount) / TCount);
+    /**
+     * Add a decomposition to the tables, together with the corresponding composition
+     * if it is a canonical pair
+     */
+
+    static void addDecomposition(int key, String value, IntHashMap decompose, IntToIntHashMap compose,
+                                 BitSet isExcluded, BitSet isCompatibility) {
+        decompose.put(key, value);
+                        // only compositions are canonical pairs
+        // skip if script exclusion
+
+        // only BMP characters compose (see NormalizerData.getPairwiseComposition), so a decomposition
+        // containing a supplementary character is not entered in the composition table
+
+        if (!isCompatibility.get(key) && !isExcluded.get(key) && !containsSurrogate(value)) {
+            char first = '\u0000';
+            char second = value.charAt(0);
+            if (value.length() > 1) {
+                first = second;
+                second = value.charAt(1);
             }
+
+            // store composition pair in single integer
+
             int pair = (first << 16) | second;
-            int key = SIndex + SBase;
-            decompose.put(key, String.valueOf(first) + second);
             compose.put(pair, key);
         }
     }
 
-    /**
-     * Hangul composition constants
-     */
-    private static final int
-        SBase = 0xAC00, LBase = 0x1100, VBase = 0x1161, TBase = 0x11A7,
-        LCount = 19, VCount = 21, TCount = 28,
-        NCount = VCount * TCount,   // 588
-        SCount = LCount * NCount;   // 11172
-
-    // end of Unicode consortium code
+    private static boolean containsSurrogate(String value) {
+        for (int i=0; i<value.length(); i++) {
+            if (XMLChar.isSurrogate(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
 }
 
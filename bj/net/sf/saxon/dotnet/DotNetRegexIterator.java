@@ -154,7 +154,7 @@ public class DotNetRegexIterator implements RegexIterator {
     * within the regular expression
     */
 
-    public String getRegexGroup(int number) {
+    public CharSequence getRegexGroup(int number) {
         if (!isMatching()) return null;
         GroupCollection groups = match.get_Groups();
         if (number > groups.get_Count() || number < 0) return "";
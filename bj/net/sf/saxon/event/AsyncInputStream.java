@@ -0,0 +1,267 @@
+package net.sf.saxon.event;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An AsyncInputStream reads an underlying input stream using a separate thread, so that the work
+ * done in reading the underlying stream (typically, decompressing it) proceeds in parallel with the
+ * work done by the consumer (typically, parsing the XML). It is the input counterpart of
+ * {@link AsyncOutputStream}.
+ *
+ * <p>The helper thread fills a set of buffers, which are passed to the consumer in turn. The helper
+ * thread waits when all the buffers are full, and the consumer waits when they are all empty. When the
+ * helper thread reaches the end of the underlying stream, it closes the underlying stream.</p>
+ *
+ * <p>A failure reading the underlying stream, including an unchecked exception thrown by the underlying
+ * stream, is reported to the consumer as an IOException once it has read all the data that was
+ * successfully read before the failure.</p>
+ *
+ * <p>The methods of this class must all be called from the same (consumer) thread.</p>
+ */
+
+public class AsyncInputStream extends InputStream implements Runnable {
+
+    private InputStream base;
+    private int bufferSize;
+    private int maxBuffers;
+    private int buffersAllocated = 0;
+
+    // The buffer currently being read by the consumer
+    private byte[] current;
+    private int currentLength = 0;
+    private int position = 0;
+
+    // Buffers that are available to be filled
+    private byte[][] free;
+    private int freeCount = 0;
+
+    // Buffers waiting to be read, held as a circular queue
+    private byte[][] full;
+    private int[] fullLength;
+    private int fullStart = 0;
+    private int fullCount = 0;
+
+    private boolean endOfInput = false;     // true when the helper thread has reached the end of the input
+    private boolean closed = false;         // true when the consumer has closed the stream
+    private IOException error = null;
+    private Thread thread = null;
+
+    /**
+     * Create an AsyncInputStream
+     * @param base the underlying input stream
+     * @param bufferCount the number of buffers to be used (at least 2)
+     * @param bufferSize the size of each buffer, in bytes
+     */
+
+    public AsyncInputStream(InputStream base, int bufferCount, int bufferSize) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("An AsyncInputStream needs at least two buffers");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.base = base;
+        this.maxBuffers = bufferCount;
+        this.bufferSize = bufferSize;
+        free = new byte[bufferCount][];
+        full = new byte[bufferCount][];
+        fullLength = new int[bufferCount];
+    }
+
+    public int read() throws IOException {
+        if (position == currentLength && !nextBuffer()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == currentLength && !nextBuffer()) {
+            return -1;
+        }
+        int n = Math.min(len, currentLength - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    public int available() throws IOException {
+        return currentLength - position;
+    }
+
+    /**
+     * Return the buffer that the consumer has finished with, and get the next buffer of input,
+     * waiting if necessary until the helper thread has filled it
+     * @return false if the end of the input has been reached
+     */
+
+    private boolean nextBuffer() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Input stream has been closed");
+            }
+            if (thread == null) {
+                thread = new Thread(this, "Saxon asynchronous input");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            if (current != null) {
+                free[freeCount++] = current;
+                current = null;
+                currentLength = 0;
+                position = 0;
+                notifyAll();
+            }
+            while (fullCount == 0 && !endOfInput) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for input");
+                }
+            }
+            if (fullCount == 0) {
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            current = full[fullStart];
+            currentLength = fullLength[fullStart];
+            full[fullStart] = null;
+            fullStart = (fullStart + 1) % maxBuffers;
+            fullCount--;
+            position = 0;
+            notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Close the stream. This stops the helper thread and closes the underlying stream.
+     */
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = null;
+            notifyAll();
+            if (thread != null) {
+                // the helper thread closes the underlying stream
+                return;
+            }
+        }
+        base.close();
+    }
+
+    /**
+     * The body of the helper thread
+     */
+
+    public void run() {
+        try {
+            while (true) {
+                byte[] buffer;
+                synchronized (this) {
+                    while (freeCount == 0 && buffersAllocated == maxBuffers && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                    if (freeCount > 0) {
+                        buffer = free[--freeCount];
+                    } else {
+                        buffer = new byte[bufferSize];
+                        buffersAllocated++;
+                    }
+                }
+                int length = 0;
+                IOException failure = null;
+                try {
+                    while (length < bufferSize) {
+                        int n = base.read(buffer, length, bufferSize - length);
+                        if (n < 0) {
+                            break;
+                        }
+                        length += n;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } catch (Throwable e) {
+                    failure = makeIOException(e);
+                }
+                synchronized (this) {
+                    if (length > 0) {
+                        full[(fullStart + fullCount) % maxBuffers] = buffer;
+                        fullLength[(fullStart + fullCount) % maxBuffers] = length;
+                        fullCount++;
+                    }
+                    if (failure != null) {
+                        error = failure;
+                    }
+                    if (length < bufferSize || failure != null) {
+                        endOfInput = true;
+                    }
+                    notifyAll();
+                    if (endOfInput) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Asynchronous input thread interrupted"));
+        } catch (Throwable e) {
+            fail(makeIOException(e));
+        } finally {
+            try {
+                base.close();
+            } catch (IOException e) {
+                // ignore the failure
+            }
+        }
+    }
+
+    /**
+     * Record a failure of the helper thread, so that the consumer is not left waiting for more input
+     */
+
+    private synchronized void fail(IOException failure) {
+        if (error == null) {
+            error = failure;
+        }
+        endOfInput = true;
+        notifyAll();
+    }
+
+    private static IOException makeIOException(Throwable e) {
+        IOException ioe = new IOException("Failure in asynchronous input: " + e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
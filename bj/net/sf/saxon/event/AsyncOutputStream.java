@@ -0,0 +1,332 @@
+package net.sf.saxon.event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An AsyncOutputStream is a buffering OutputStream that writes to the underlying stream using a separate
+ * thread. Output is accumulated in a set of large buffers: when one buffer is full it is passed to the
+ * writer thread, and the producer carries on filling the next. The producer only waits when all the
+ * buffers are waiting to be written, so the transformation and the I/O proceed in parallel, and a slow
+ * disk only holds up the transformation when it falls more than the whole of the buffer space behind.
+ *
+ * <p>The stream is used when the serialization property <code>saxon:async-output="yes"</code> is set
+ * and the output is written to a file or to an OutputStream. It is created by
+ * {@link Emitter#setOutputStream}.</p>
+ *
+ * <p>No thread is started until the first buffer has been filled, so output that fits in a single buffer
+ * is written synchronously, when the stream is flushed, without the cost of starting a thread.</p>
+ *
+ * <p>A failure while writing the underlying stream is remembered, and is reported to the producer by
+ * the next call on write(), flush(), finish() or close(); output that has not yet been written at that
+ * point is discarded, and the writer thread stops. Because the work is done asynchronously, the exception will usually be reported
+ * some time after the data that could not be written was supplied, and it will be reported at the
+ * latest when the stream is flushed or closed.</p>
+ *
+ * <p>The writer thread runs until the stream is finished or closed, or until {@link #abort} is called.
+ * If the producer fails, the stream must therefore be aborted: the {@link net.sf.saxon.Controller} does
+ * this for any stream that has not been finished when a transformation or query ends.</p>
+ *
+ * <p>Apart from abort(), the methods of this class must all be called from the same (producer) thread.</p>
+ */
+
+public class AsyncOutputStream extends OutputStream implements Runnable {
+
+    private OutputStream base;
+    private int bufferSize;
+    private int buffersAllocated = 0;
+    private int maxBuffers;
+
+    // The buffer currently being filled by the producer, and the number of bytes it holds
+    private byte[] current;
+    private int used = 0;
+
+    // Buffers that are available to be filled
+    private byte[][] free;
+    private int freeCount = 0;
+
+    // Buffers waiting to be written, held as a circular queue
+    private byte[][] full;
+    private int[] fullLength;
+    private int fullStart = 0;
+    private int fullCount = 0;
+
+    private boolean writing = false;        // true while the writer thread is writing a buffer
+    private boolean finished = false;       // true when the producer has no more output
+    private Thread thread = null;
+    private IOException error = null;
+
+    /**
+     * Create an AsyncOutputStream
+     * @param base the underlying output stream
+     * @param bufferCount the number of buffers to be used (at least 2)
+     * @param bufferSize the size of each buffer, in bytes
+     */
+
+    public AsyncOutputStream(OutputStream base, int bufferCount, int bufferSize) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("An AsyncOutputStream needs at least two buffers");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.base = base;
+        this.maxBuffers = bufferCount;
+        this.bufferSize = bufferSize;
+        free = new byte[bufferCount][];
+        full = new byte[bufferCount][];
+        fullLength = new int[bufferCount];
+    }
+
+    /**
+     * Get the underlying output stream
+     */
+
+    public OutputStream getUnderlyingOutputStream() {
+        return base;
+    }
+
+    public void write(int b) throws IOException {
+        if (current == null || used == bufferSize) {
+            nextBuffer();
+        }
+        current[used++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current == null || used == bufferSize) {
+                nextBuffer();
+            }
+            int n = Math.min(len, bufferSize - used);
+            System.arraycopy(b, off, current, used, n);
+            used += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Pass the current buffer (if any) to the writer thread, and get an empty buffer to fill,
+     * waiting if necessary until one is available
+     */
+
+    private void nextBuffer() throws IOException {
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            if (finished) {
+                throw new IOException("Output stream has been closed");
+            }
+            if (current != null) {
+                queue();
+            }
+            while (freeCount == 0 && buffersAllocated == maxBuffers && error == null) {
+                waitForWriter();
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (freeCount > 0) {
+                current = free[--freeCount];
+            } else {
+                current = new byte[bufferSize];
+                buffersAllocated++;
+            }
+            used = 0;
+        }
+    }
+
+    /**
+     * Add the current buffer to the queue of buffers waiting to be written, starting the writer
+     * thread if this is the first. Called while holding the lock.
+     */
+
+    private void queue() {
+        full[(fullStart + fullCount) % maxBuffers] = current;
+        fullLength[(fullStart + fullCount) % maxBuffers] = used;
+        fullCount++;
+        current = null;
+        used = 0;
+        if (thread == null) {
+            thread = new Thread(this, "Saxon asynchronous output");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    private void waitForWriter() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw new java.io.InterruptedIOException("Interrupted while waiting for output to be written");
+        }
+    }
+
+    /**
+     * Write all the output supplied so far to the underlying stream, and flush it. This waits until all
+     * the output has been written.
+     * @throws IOException if any failure has occurred writing the output
+     */
+
+    public void flush() throws IOException {
+        synchronized (this) {
+            if (thread == null) {
+                // Nothing has yet been handed to the writer thread: write the output synchronously
+                if (error != null) {
+                    throw error;
+                }
+                if (current != null && used > 0) {
+                    base.write(current, 0, used);
+                    used = 0;
+                }
+            } else {
+                if (current != null && used > 0) {
+                    queue();
+                }
+                while ((fullCount > 0 || writing) && error == null) {
+                    waitForWriter();
+                }
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+        base.flush();
+    }
+
+    /**
+     * Write all the output supplied so far to the underlying stream, flush it, and stop the writer
+     * thread. The underlying stream is not closed. No further output may be written.
+     * @throws IOException if any failure has occurred writing the output
+     */
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                finished = true;
+                current = null;
+                free = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Discard any output that has not yet been written, and stop the writer thread. This is used when
+     * the producer of the output has failed. The underlying stream is not closed. This method may be
+     * called from any thread, and has no effect if the stream has already been finished.
+     */
+
+    public synchronized void abort() {
+        finished = true;
+        current = null;
+        free = null;
+        discardQueue();
+        notifyAll();
+    }
+
+    /**
+     * Discard the buffers waiting to be written. Called while holding the lock.
+     */
+
+    private void discardQueue() {
+        for (int i=0; i<maxBuffers; i++) {
+            full[i] = null;
+        }
+        fullCount = 0;
+    }
+
+    /**
+     * Write all the output supplied so far to the underlying stream, stop the writer thread,
+     * and close the underlying stream
+     * @throws IOException if any failure has occurred writing the output
+     */
+
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            base.close();
+        }
+    }
+
+    /**
+     * The body of the writer thread
+     */
+
+    public void run() {
+        while (true) {
+            byte[] buffer;
+            int length;
+            synchronized (this) {
+                while (fullCount == 0 && !finished) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        error = new java.io.InterruptedIOException("Asynchronous output thread interrupted");
+                        finished = true;
+                    }
+                }
+                if (fullCount == 0 || error != null) {
+                    return;
+                }
+                buffer = full[fullStart];
+                length = fullLength[fullStart];
+                full[fullStart] = null;
+                fullStart = (fullStart + 1) % maxBuffers;
+                fullCount--;
+                writing = true;
+            }
+            IOException failure = null;
+            try {
+                base.write(buffer, 0, length);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException("Failure in asynchronous output: " + e.getMessage());
+                failure.initCause(e);
+            }
+            synchronized (this) {
+                writing = false;
+                if (failure != null) {
+                    // the producer will be told at its next call; nothing more will be written
+                    error = failure;
+                    discardQueue();
+                    notifyAll();
+                    return;
+                }
+                if (!finished) {
+                    free[freeCount++] = buffer;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -219,6 +219,25 @@ public abstract class Builder implements Receiver {
      */
 
     public static NodeInfo build(Source source, Stripper stripper, PipelineConfiguration pipe)
+    throws XPathException {
+        return build(source, stripper, null, pipe);
+    }
+
+    /**
+     * Static method to build a document from any kind of Source object, discarding the parts of the
+     * document that are not needed according to a projection specification. If the source
+     * is already in the form of a tree, it is wrapped as required, and the projection is not applied.
+     * @param source Any javax.xml.transform.Source object
+     * @param stripper A stripper object, if whitespace text nodes are to be stripped;
+     * otherwise null.
+     * @param projection A projection specification, if the document is to be projected;
+     * otherwise null.
+     * @param pipe The PipelineConfiguration object
+     * @return the NodeInfo of the start node in the resulting document object.
+     */
+
+    public static NodeInfo build(Source source, Stripper stripper, ProjectionSpecification projection,
+                                 PipelineConfiguration pipe)
     throws XPathException {
         Configuration config = pipe.getConfiguration();
         if (source == null) {
@@ -252,6 +271,9 @@ public abstract class Builder implements Receiver {
                 stripper.setUnderlyingReceiver(b);
                 receiver = stripper;
             }
+            if (projection != null) {
+                receiver = projection.makeFilter(receiver);
+            }
             try {
                 new Sender(pipe).send(source, receiver);
             } catch (XPathException err) {
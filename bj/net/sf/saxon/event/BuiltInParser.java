@@ -0,0 +1,1179 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.expr.ExpressionLocation;
+import net.sf.saxon.om.*;
+import net.sf.saxon.style.StandardNames;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.SaxonErrorCode;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * BuiltInParser is a simple, fast, non-validating XML parser that sends events directly to a
+ * {@link Receiver}, without going through the SAX interfaces. It handles the common case of a
+ * document that has no DOCTYPE declaration and is encoded in UTF-8, US-ASCII, or ISO-8859-1; it checks
+ * that the document is namespace-well-formed XML 1.0 or XML 1.1.
+ *
+ * <p>The parser works directly on the bytes of the input. Element and attribute names are resolved to
+ * name codes using a cache held for the duration of the parse, keyed on the bytes of the lexical QName,
+ * so that no String objects need to be created for names that have been seen before.</p>
+ *
+ * <p>Before any events are sent, the parser examines the XML declaration and the prolog of the document.
+ * If it finds anything it cannot handle (a DOCTYPE declaration, or an encoding other than those listed
+ * above), the {@link #parse} method returns false without notifying any events, and the caller can
+ * obtain the unconsumed input by calling {@link #getUnparsedInput} and pass it to a SAX parser.</p>
+ */
+
+public class BuiltInParser implements SaxonLocator, SourceLocationProvider {
+
+    private static final int UTF8 = 0;
+    private static final int LATIN1 = 1;
+    private static final int ASCII = 2;
+
+    private static final String[] CHARSET_NAMES = {"UTF-8", "ISO-8859-1", "US-ASCII"};
+
+    private static final boolean[] NAME_BYTE = new boolean[128];
+
+    static {
+        for (int c='a'; c<='z'; c++) {
+            NAME_BYTE[c] = true;
+        }
+        for (int c='A'; c<='Z'; c++) {
+            NAME_BYTE[c] = true;
+        }
+        for (int c='0'; c<='9'; c++) {
+            NAME_BYTE[c] = true;
+        }
+        NAME_BYTE['.'] = true;
+        NAME_BYTE['-'] = true;
+        NAME_BYTE['_'] = true;
+        NAME_BYTE[':'] = true;
+    }
+
+    private InputStream in;
+    private byte[] buf = new byte[65536];
+    private int pos;
+    private int limit;
+    private int mark = -1;              // start of a name or other token that must be kept in the buffer
+    private boolean retainAll;          // true while examining the prolog: nothing is discarded from the buffer
+    private int encoding;
+    private boolean xml11;
+    private NameChecker checker;
+
+    private String systemId;
+    private int lineNumber;
+    private int lineStart;              // offset in the buffer of the start of the current line
+
+    private Receiver receiver;
+    private NamePool pool;
+    private FastStringBuffer text = new FastStringBuffer(1024);
+    private FastStringBuffer value = new FastStringBuffer(100);
+
+    // cache of names used in the document
+
+    private NameEntry[] names = new NameEntry[256];
+    private int nameCount;
+
+    // in-scope namespace bindings
+
+    private String[] nsPrefixes = new String[20];
+    private short[] nsURICodes = new short[20];
+    private int nsCount;
+
+    // stack of open elements
+
+    private NameEntry[] elementStack = new NameEntry[50];
+    private int[] nsCountStack = new int[50];
+    private int depth;
+
+    // details of the start tag currently being parsed
+
+    private NameEntry[] attNames = new NameEntry[10];
+    private String[] attValues = new String[10];
+    private int[] attCodes = new int[10];
+    private int attCount;
+    private int[] nsDeclarations = new int[10];
+    private int nsDeclarationCount;
+
+    /**
+     * Create a BuiltInParser. A parser can be used to parse one document only.
+     */
+
+    public BuiltInParser() {
+    }
+
+    /**
+     * Parse a document, sending the events to a Receiver
+     * @param input the input stream containing the lexical XML. The stream is not closed.
+     * @param systemId the system identifier (base URI) of the document
+     * @param receiver the Receiver to which events are to be sent
+     * @param pipe the pipeline configuration
+     * @return true if the document was parsed. False if the document uses features that this parser does
+     * not handle (a DOCTYPE declaration, or an unsupported character encoding), in which case no events will
+     * have been sent to the Receiver. In this case the input must be read by calling {@link #getUnparsedInput}.
+     * @throws XPathException if the document is not well-formed, or if the Receiver reports an error
+     */
+
+    public boolean parse(InputStream input, String systemId, Receiver receiver, PipelineConfiguration pipe)
+    throws XPathException {
+        in = input;
+        this.systemId = systemId;
+        this.receiver = receiver;
+        pool = pipe.getConfiguration().getNamePool();
+        pos = 0;
+        limit = 0;
+        lineNumber = 1;
+        lineStart = 0;
+        retainAll = true;
+        checker = Name10Checker.getInstance();
+        nsCount = 0;
+        bindNamespace("xml", NamespaceConstant.XML_CODE);
+
+        if (!readXMLDeclaration()) {
+            return false;
+        }
+        int prologStart = pos;
+        int prologLine = lineNumber;
+        int prologLineStart = lineStart;
+        if (!scanProlog()) {
+            return false;
+        }
+        pos = prologStart;
+        lineNumber = prologLine;
+        lineStart = prologLineStart;
+        retainAll = false;
+
+        pipe.setLocationProvider(this);
+        receiver.setPipelineConfiguration(pipe);
+        receiver.open();
+        receiver.startDocument(0);
+        parseDocument();
+        receiver.endDocument();
+        receiver.close();
+        return true;
+    }
+
+    /**
+     * After {@link #parse} has returned false, get an input stream that delivers the complete
+     * content of the original input, including the part already read by this parser
+     */
+
+    public InputStream getUnparsedInput() {
+        return new SequenceInputStream(new ByteArrayInputStream(buf, 0, limit), in);
+    }
+
+    //-----------------------------------------------------------------------------------------
+    // Reading the XML declaration and the prolog
+    //-----------------------------------------------------------------------------------------
+
+    /**
+     * Read the byte order mark and the XML declaration if present, setting the encoding and XML version
+     * @return false if the encoding is not supported
+     */
+
+    private boolean readXMLDeclaration() throws XPathException {
+        encoding = UTF8;
+        ensure(4);
+        if (limit >= 2) {
+            int b0 = buf[0] & 0xff;
+            int b1 = buf[1] & 0xff;
+            if ((b0 == 0xfe && b1 == 0xff) || (b0 == 0xff && b1 == 0xfe) || b0 == 0 || b1 == 0) {
+                // UTF-16 or UTF-32
+                return false;
+            }
+            if (limit >= 3 && b0 == 0xef && b1 == 0xbb && (buf[2] & 0xff) == 0xbf) {
+                pos = 3;
+                lineStart = 3;
+            }
+        }
+        if (!lookingAt("<?xml") || !ensure(6) || !isWhitespace(buf[pos + 5])) {
+            return true;
+        }
+        pos += 5;
+        String version = null;
+        String encodingName = null;
+        while (true) {
+            skipWhitespace();
+            if (lookingAt("?>")) {
+                pos += 2;
+                break;
+            }
+            String name = readPseudoAttributeName();
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            String val = readPseudoAttributeValue();
+            if (name.equals("version") && version == null && encodingName == null) {
+                version = val;
+            } else if (name.equals("encoding") && encodingName == null) {
+                encodingName = val;
+            } else if (name.equals("standalone")) {
+                if (!val.equals("yes") && !val.equals("no")) {
+                    error("Invalid value for standalone in XML declaration");
+                }
+            } else {
+                error("Invalid XML declaration");
+            }
+        }
+        if (version == null) {
+            error("XML declaration must include a version");
+        } else if (version.equals("1.1")) {
+            xml11 = true;
+            checker = Name11Checker.getInstance();
+        } else if (!version.startsWith("1.")) {
+            error("Unsupported XML version " + version);
+        }
+        if (encodingName != null) {
+            String e = encodingName.toUpperCase();
+            if (e.equals("UTF-8") || e.equals("UTF8")) {
+                encoding = UTF8;
+            } else if (e.equals("ISO-8859-1") || e.equals("ISO8859-1") || e.equals("ISO-LATIN-1") || e.equals("LATIN1")) {
+                encoding = LATIN1;
+            } else if (e.equals("US-ASCII") || e.equals("ASCII")) {
+                encoding = ASCII;
+            } else {
+                return false;
+            }
+            if (pos > 0 && buf[0] == (byte)0xef && encoding != UTF8) {
+                error("Encoding " + encodingName + " is inconsistent with the UTF-8 byte order mark");
+            }
+        }
+        return true;
+    }
+
+    private String readPseudoAttributeName() throws XPathException {
+        int start = pos;
+        while ((pos < limit || fill()) && buf[pos] >= 'a' && buf[pos] <= 'z') {
+            pos++;
+        }
+        if (pos == start) {
+            error("Invalid XML declaration");
+        }
+        return asciiString(start, pos);
+    }
+
+    private String readPseudoAttributeValue() throws XPathException {
+        if (pos == limit && !fill()) {
+            error("Invalid XML declaration");
+        }
+        byte quote = buf[pos++];
+        if (quote != '"' && quote != '\'') {
+            error("Invalid XML declaration");
+        }
+        int start = pos;
+        while (true) {
+            if (pos == limit && !fill()) {
+                error("Invalid XML declaration");
+            }
+            byte b = buf[pos];
+            if (b == quote) {
+                break;
+            }
+            if (b < 0x20) {
+                error("Invalid XML declaration");
+            }
+            pos++;
+        }
+        String s = asciiString(start, pos);
+        pos++;
+        return s;
+    }
+
+    /**
+     * Examine the prolog of the document (the part before the start tag of the document element)
+     * without sending any events, to check that it contains nothing that this parser cannot handle
+     * @return false if a DOCTYPE declaration was found
+     */
+
+    private boolean scanProlog() throws XPathException {
+        while (true) {
+            skipWhitespace();
+            if (pos == limit && !fill()) {
+                error("The document contains no document element");
+            }
+            if (buf[pos] != '<') {
+                error("Content is not allowed in the prolog");
+            }
+            if (lookingAt("<!DOCTYPE")) {
+                return false;
+            } else if (lookingAt("<!--")) {
+                pos += 4;
+                skipTo("--", true);
+            } else if (lookingAt("<?")) {
+                pos += 2;
+                skipTo("?>", false);
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private void skipTo(String terminator, boolean isComment) throws XPathException {
+        while (!lookingAt(terminator)) {
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file");
+            }
+            pos++;
+        }
+        pos += terminator.length();
+        if (isComment) {
+            if (!lookingAt(">")) {
+                error("The string \"--\" is not permitted within comments");
+            }
+            pos++;
+        }
+    }
+
+    //-----------------------------------------------------------------------------------------
+    // Parsing the document
+    //-----------------------------------------------------------------------------------------
+
+    private void parseDocument() throws XPathException {
+        boolean seenDocumentElement = false;
+        // outer loop handles the prolog, the document element, and the trailing comments and PIs
+        while (true) {
+            parseContent();
+            if (pos == limit && !fill()) {
+                break;
+            }
+            // positioned at a '<' at the top level
+            pos++;
+            int b = peek();
+            if (b == '!') {
+                if (lookingAt("!--")) {
+                    pos += 3;
+                    parseComment();
+                } else {
+                    error("Markup not permitted outside the document element");
+                }
+            } else if (b == '?') {
+                pos++;
+                parseProcessingInstruction();
+            } else if (b == '/') {
+                error("End tag found outside the document element");
+            } else {
+                if (seenDocumentElement) {
+                    error("Only one document element is permitted");
+                }
+                seenDocumentElement = true;
+                parseElement();
+            }
+        }
+        if (!seenDocumentElement) {
+            error("The document contains no document element");
+        }
+    }
+
+    /**
+     * Parse the document element, including all its content
+     */
+
+    private void parseElement() throws XPathException {
+        // positioned just after the '<' of the start tag of the document element
+        if (!parseStartTag()) {
+            return;
+        }
+        while (depth > 0) {
+            parseContent();
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file: element " + elementStack[depth-1].qname + " is not closed");
+            }
+            pos++;
+            int b = peek();
+            if (b == '/') {
+                pos++;
+                parseEndTag();
+            } else if (b == '!') {
+                if (lookingAt("!--")) {
+                    pos += 3;
+                    parseComment();
+                } else if (lookingAt("![CDATA[")) {
+                    pos += 8;
+                    parseCDATASection();
+                } else {
+                    error("Invalid markup in element content");
+                }
+            } else if (b == '?') {
+                pos++;
+                parseProcessingInstruction();
+            } else {
+                parseStartTag();
+            }
+        }
+    }
+
+    /**
+     * Parse character data up to the next '<' or the end of the input. At the top level,
+     * only whitespace is permitted; within an element, the characters are added to the text buffer,
+     * which is flushed before markup other than a CDATA section is processed.
+     */
+
+    private void parseContent() throws XPathException {
+        FastStringBuffer text = this.text;
+        int brackets = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            int b = buf[pos] & 0xff;
+            if (b == '<') {
+                if (depth == 0 || !lookingAt("<![CDATA[")) {
+                    break;
+                }
+                pos += 9;
+                parseCDATASection();
+                brackets = 0;
+                continue;
+            }
+            if (b >= 0x20 && b < 0x80 && b != '&' && b != ']' && b != '>') {
+                pos++;
+                text.append((char)b);
+                brackets = 0;
+                continue;
+            }
+            if (b == '&') {
+                pos++;
+                readReference(text);
+                brackets = 0;
+                continue;
+            }
+            if (b == ']') {
+                brackets++;
+            } else if (b == '>') {
+                if (brackets >= 2) {
+                    error("The character sequence \"]]>\" must not appear in content");
+                }
+                brackets = 0;
+            } else {
+                brackets = 0;
+            }
+            int c = readChar();
+            text.appendWideChar(c);
+        }
+        if (depth == 0) {
+            for (int i=0; i<text.length(); i++) {
+                if (!isWhitespace(text.charAt(i))) {
+                    error("Content is not allowed outside the document element");
+                }
+            }
+            text.setLength(0);
+        }
+    }
+
+    private void flushText() throws XPathException {
+        if (text.length() > 0) {
+            receiver.characters(text, 0, 0);
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Parse a start tag
+     * @return true if the element has content, false if it was an empty-element tag
+     */
+
+    private boolean parseStartTag() throws XPathException {
+        // positioned just after the '<'
+        flushText();
+        NameEntry elementName = readName();
+        attCount = 0;
+        nsDeclarationCount = 0;
+        int nsMark = nsCount;
+        boolean empty;
+        while (true) {
+            boolean space = skipWhitespace();
+            int b = peek();
+            if (b == '>') {
+                pos++;
+                empty = false;
+                break;
+            } else if (b == '/') {
+                pos++;
+                expect('>');
+                empty = true;
+                break;
+            } else if (b == -1) {
+                error("Unexpected end of file within start tag");
+            }
+            if (!space) {
+                error("Whitespace is required between attributes");
+            }
+            NameEntry attName = readName();
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            String val = readAttributeValue();
+            if (attName.isNamespaceDeclaration) {
+                declareNamespace(attName, val, nsMark);
+            } else {
+                for (int a=0; a<attCount; a++) {
+                    if (attNames[a] == attName) {
+                        error("Attribute " + attName.qname + " appears more than once in the start tag");
+                    }
+                }
+                if (attCount == attNames.length) {
+                    int n = attCount * 2;
+                    NameEntry[] n2 = new NameEntry[n];
+                    System.arraycopy(attNames, 0, n2, 0, attCount);
+                    attNames = n2;
+                    String[] v2 = new String[n];
+                    System.arraycopy(attValues, 0, v2, 0, attCount);
+                    attValues = v2;
+                    attCodes = new int[n];
+                }
+                attNames[attCount] = attName;
+                attValues[attCount++] = val;
+            }
+        }
+
+        int nameCode = getNameCode(elementName, true);
+        for (int a=0; a<attCount; a++) {
+            int code = getNameCode(attNames[a], false);
+            int fp = code & NamePool.FP_MASK;
+            for (int b=0; b<a; b++) {
+                if ((attCodes[b] & NamePool.FP_MASK) == fp) {
+                    error("Attributes " + attNames[b].qname + " and " + attNames[a].qname +
+                            " have the same expanded name");
+                }
+            }
+            attCodes[a] = code;
+        }
+
+        receiver.startElement(nameCode, StandardNames.XDT_UNTYPED, 0, 0);
+        for (int n=0; n<nsDeclarationCount; n++) {
+            receiver.namespace(nsDeclarations[n], 0);
+        }
+        for (int a=0; a<attCount; a++) {
+            receiver.attribute(attCodes[a], StandardNames.XDT_UNTYPED_ATOMIC, attValues[a], 0, 0);
+            attValues[a] = null;
+        }
+        receiver.startContent();
+
+        if (empty) {
+            receiver.endElement();
+            nsCount = nsMark;
+            return false;
+        }
+        if (depth == elementStack.length) {
+            NameEntry[] e2 = new NameEntry[depth * 2];
+            System.arraycopy(elementStack, 0, e2, 0, depth);
+            elementStack = e2;
+            int[] n2 = new int[depth * 2];
+            System.arraycopy(nsCountStack, 0, n2, 0, depth);
+            nsCountStack = n2;
+        }
+        elementStack[depth] = elementName;
+        nsCountStack[depth++] = nsMark;
+        return true;
+    }
+
+    /**
+     * Process a namespace declaration appearing in a start tag
+     */
+
+    private void declareNamespace(NameEntry attName, String uri, int nsMark) throws XPathException {
+        String prefix = (attName.prefix.length() == 0 ? "" : attName.local);
+        for (int i=nsMark; i<nsCount; i++) {
+            if (nsPrefixes[i].equals(prefix)) {
+                error("Namespace prefix " + prefix + " is declared more than once in the start tag");
+            }
+        }
+        if (prefix.equals("xmlns")) {
+            error("The prefix xmlns must not be declared");
+        }
+        if (prefix.equals("xml") != uri.equals(NamespaceConstant.XML)) {
+            error("The prefix xml must be bound only to the namespace " + NamespaceConstant.XML);
+        }
+        if (uri.equals(NamespaceConstant.XMLNS)) {
+            error("No prefix may be bound to the namespace " + NamespaceConstant.XMLNS);
+        }
+        if (uri.length() == 0 && prefix.length() != 0 && !xml11) {
+            error("The namespace prefix " + prefix + " cannot be undeclared in XML 1.0");
+        }
+        if (prefix.equals("xml")) {
+            return;
+        }
+        bindNamespace(prefix, pool.allocateCodeForURI(uri));
+        if (nsDeclarationCount == nsDeclarations.length) {
+            int[] n2 = new int[nsDeclarationCount * 2];
+            System.arraycopy(nsDeclarations, 0, n2, 0, nsDeclarationCount);
+            nsDeclarations = n2;
+        }
+        nsDeclarations[nsDeclarationCount++] = pool.allocateNamespaceCode(prefix, uri);
+    }
+
+    private void bindNamespace(String prefix, short uriCode) {
+        if (nsCount == nsPrefixes.length) {
+            String[] p2 = new String[nsCount * 2];
+            System.arraycopy(nsPrefixes, 0, p2, 0, nsCount);
+            nsPrefixes = p2;
+            short[] u2 = new short[nsCount * 2];
+            System.arraycopy(nsURICodes, 0, u2, 0, nsCount);
+            nsURICodes = u2;
+        }
+        nsPrefixes[nsCount] = prefix;
+        nsURICodes[nsCount++] = uriCode;
+    }
+
+    /**
+     * Get the name code for an element or attribute name, using the in-scope namespace bindings
+     */
+
+    private int getNameCode(NameEntry name, boolean isElement) throws XPathException {
+        String prefix = name.prefix;
+        short uriCode = NamespaceConstant.NULL_CODE;
+        if (prefix.length() != 0 || isElement) {
+            int i = nsCount - 1;
+            while (i >= 0 && !nsPrefixes[i].equals(prefix)) {
+                i--;
+            }
+            if (i >= 0) {
+                uriCode = nsURICodes[i];
+            }
+            if (uriCode == NamespaceConstant.NULL_CODE && prefix.length() != 0) {
+                error("Namespace prefix " + prefix + " has not been declared");
+            }
+        }
+        if (name.uriCode != uriCode) {
+            name.nameCode = pool.allocate(prefix, uriCode, name.local);
+            name.uriCode = uriCode;
+        }
+        return name.nameCode;
+    }
+
+    private void parseEndTag() throws XPathException {
+        // positioned just after the "</"
+        flushText();
+        NameEntry name = readName();
+        skipWhitespace();
+        expect('>');
+        NameEntry expected = elementStack[--depth];
+        if (name != expected) {
+            error("End tag </" + name.qname + "> does not match start tag <" + expected.qname + '>');
+        }
+        elementStack[depth] = null;
+        nsCount = nsCountStack[depth];
+        receiver.endElement();
+    }
+
+    private void parseCDATASection() throws XPathException {
+        // positioned just after the "<![CDATA["
+        while (true) {
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file within CDATA section");
+            }
+            int b = buf[pos] & 0xff;
+            if (b == ']' && lookingAt("]]>")) {
+                pos += 3;
+                return;
+            }
+            if (b >= 0x20 && b < 0x80) {
+                pos++;
+                text.append((char)b);
+            } else {
+                text.appendWideChar(readChar());
+            }
+        }
+    }
+
+    private void parseComment() throws XPathException {
+        // positioned just after the "<!--"
+        flushText();
+        value.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file within comment");
+            }
+            if (buf[pos] == '-' && lookingAt("--")) {
+                pos += 2;
+                if (peek() != '>') {
+                    error("The string \"--\" is not permitted within comments");
+                }
+                pos++;
+                break;
+            }
+            value.appendWideChar(readChar());
+        }
+        receiver.comment(value, 0, 0);
+    }
+
+    private void parseProcessingInstruction() throws XPathException {
+        // positioned just after the "<?"
+        flushText();
+        NameEntry name = readName();
+        String target = name.qname;
+        if (target.equalsIgnoreCase("xml")) {
+            error("The XML declaration must appear only at the start of the document");
+        }
+        if (target.indexOf(':') >= 0) {
+            error("A processing instruction name must not contain a colon");
+        }
+        value.setLength(0);
+        if (!skipWhitespace() && !lookingAt("?>")) {
+            error("Whitespace is required after the processing instruction name");
+        }
+        while (true) {
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file within processing instruction");
+            }
+            if (buf[pos] == '?' && lookingAt("?>")) {
+                pos += 2;
+                break;
+            }
+            value.appendWideChar(readChar());
+        }
+        receiver.processingInstruction(target, value, 0, 0);
+    }
+
+    /**
+     * Read an attribute value, normalizing whitespace and expanding references
+     */
+
+    private String readAttributeValue() throws XPathException {
+        int quote = peek();
+        if (quote != '"' && quote != '\'') {
+            error("Attribute value must be enclosed in quotes");
+        }
+        pos++;
+        FastStringBuffer value = this.value;
+        value.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) {
+                error("Unexpected end of file within attribute value");
+            }
+            int b = buf[pos] & 0xff;
+            if (b == quote) {
+                pos++;
+                break;
+            }
+            if (b >= 0x20 && b < 0x80 && b != '&' && b != '<') {
+                pos++;
+                value.append((char)b);
+            } else if (b == '&') {
+                pos++;
+                readReference(value);
+            } else if (b == '<') {
+                error("The character '<' is not allowed in an attribute value");
+            } else {
+                int c = readChar();
+                if (c == '\n' || c == '\t') {
+                    c = ' ';
+                }
+                value.appendWideChar(c);
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Read a character reference or a reference to one of the predefined entities, appending the
+     * replacement text to a buffer
+     */
+
+    private void readReference(FastStringBuffer sb) throws XPathException {
+        // positioned just after the '&'
+        if (peek() == '#') {
+            pos++;
+            int radix = 10;
+            if (peek() == 'x') {
+                pos++;
+                radix = 16;
+            }
+            int c = 0;
+            int digits = 0;
+            while (true) {
+                int b = peek();
+                int d = Character.digit((char)b, radix);
+                if (b == ';' || b == -1 || d < 0) {
+                    break;
+                }
+                c = c * radix + d;
+                if (c > 0x10ffff) {
+                    error("Invalid character reference");
+                }
+                digits++;
+                pos++;
+            }
+            expect(';');
+            if (digits == 0 || !checker.isValidChar(c)) {
+                error("Character reference does not identify a valid XML character");
+            }
+            sb.appendWideChar(c);
+        } else {
+            mark = pos;
+            while ((pos < limit || fill()) && buf[pos] >= 'a' && buf[pos] <= 'z') {
+                pos++;
+            }
+            String name = asciiString(mark, pos);
+            mark = -1;
+            expect(';');
+            if (name.equals("lt")) {
+                sb.append('<');
+            } else if (name.equals("gt")) {
+                sb.append('>');
+            } else if (name.equals("amp")) {
+                sb.append('&');
+            } else if (name.equals("quot")) {
+                sb.append('"');
+            } else if (name.equals("apos")) {
+                sb.append('\'');
+            } else {
+                error("Reference to undeclared entity " + name);
+            }
+        }
+    }
+
+    /**
+     * Read a name (an element or attribute name, or a processing instruction target),
+     * looking it up in the name cache
+     */
+
+    private NameEntry readName() throws XPathException {
+        mark = pos;
+        int hash = 0;
+        while (pos < limit || fill()) {
+            int b = buf[pos];
+            if (b >= 0 && !NAME_BYTE[b]) {
+                break;
+            }
+            hash = 31*hash + b;
+            pos++;
+        }
+        int start = mark;
+        mark = -1;
+        int length = pos - start;
+        if (length == 0) {
+            error("Expected a name");
+        }
+        int slot = hash & (names.length - 1);
+        NameEntry e = names[slot];
+        while (e != null) {
+            if (e.hash == hash && e.bytes.length == length) {
+                byte[] key = e.bytes;
+                int i = 0;
+                while (i < length && key[i] == buf[start + i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return e;
+                }
+            }
+            e = e.next;
+        }
+
+        // not found: create a new entry
+        e = new NameEntry();
+        e.hash = hash;
+        e.bytes = new byte[length];
+        System.arraycopy(buf, start, e.bytes, 0, length);
+        try {
+            e.qname = new String(e.bytes, CHARSET_NAMES[encoding]);
+        } catch (UnsupportedEncodingException err) {
+            throw new DynamicError(err);
+        }
+        if (!checker.isQName(e.qname)) {
+            error("Invalid XML name: " + e.qname);
+        }
+        int colon = e.qname.indexOf(':');
+        e.prefix = (colon < 0 ? "" : e.qname.substring(0, colon));
+        e.local = e.qname.substring(colon + 1);
+        e.isNamespaceDeclaration = (e.qname.equals("xmlns") || e.prefix.equals("xmlns"));
+        e.next = names[slot];
+        names[slot] = e;
+        if (++nameCount > names.length) {
+            rehash();
+        }
+        return e;
+    }
+
+    private void rehash() {
+        NameEntry[] n2 = new NameEntry[names.length * 2];
+        for (int i=0; i<names.length; i++) {
+            NameEntry e = names[i];
+            while (e != null) {
+                NameEntry next = e.next;
+                int slot = e.hash & (n2.length - 1);
+                e.next = n2[slot];
+                n2[slot] = e;
+                e = next;
+            }
+        }
+        names = n2;
+    }
+
+    //-----------------------------------------------------------------------------------------
+    // Low-level reading of bytes and characters
+    //-----------------------------------------------------------------------------------------
+
+    /**
+     * Read more data into the buffer. Data before the current position (or before the mark, if set)
+     * is discarded unless the prolog is being examined.
+     * @return false if there is no more data
+     */
+
+    private boolean fill() throws XPathException {
+        int keep = (retainAll ? 0 : (mark >= 0 ? mark : pos));
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            lineStart -= keep;
+            if (mark >= 0) {
+                mark -= keep;
+            }
+        }
+        if (limit == buf.length) {
+            byte[] b2 = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, b2, 0, limit);
+            buf = b2;
+        }
+        try {
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n <= 0) {
+                return false;
+            }
+            limit += n;
+            return true;
+        } catch (IOException err) {
+            throw new DynamicError(err);
+        }
+    }
+
+    /**
+     * Ensure that at least n bytes are available in the buffer following the current position
+     * @return false if the end of the input was reached first
+     */
+
+    private boolean ensure(int n) throws XPathException {
+        boolean setMark = (mark < 0);
+        if (setMark) {
+            mark = pos;
+        }
+        boolean more = true;
+        while (more && limit - pos < n) {
+            more = fill();
+        }
+        if (setMark) {
+            mark = -1;
+        }
+        return more;
+    }
+
+    private boolean lookingAt(String s) throws XPathException {
+        int n = s.length();
+        if (!ensure(n)) {
+            return false;
+        }
+        for (int i=0; i<n; i++) {
+            if (buf[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int peek() throws XPathException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xff;
+    }
+
+    private void expect(char c) throws XPathException {
+        if (peek() != c) {
+            error("Expected '" + c + '\'');
+        }
+        pos++;
+    }
+
+    private boolean skipWhitespace() throws XPathException {
+        boolean found = false;
+        while (pos < limit || fill()) {
+            byte b = buf[pos];
+            if (b == ' ' || b == '\t') {
+                pos++;
+            } else if (b == '\n' || b == '\r') {
+                readChar();
+            } else {
+                break;
+            }
+            found = true;
+        }
+        return found;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private String asciiString(int start, int end) {
+        char[] c = new char[end - start];
+        for (int i=0; i<c.length; i++) {
+            c[i] = (char)(buf[start + i] & 0x7f);
+        }
+        return new String(c);
+    }
+
+    /**
+     * Read one character, decoding it according to the encoding of the document and normalizing
+     * line endings
+     * @return the Unicode codepoint of the character
+     */
+
+    private int readChar() throws XPathException {
+        if (pos == limit && !fill()) {
+            error("Unexpected end of file");
+        }
+        int b = buf[pos++] & 0xff;
+        if (b < 0x80) {
+            if (b < 0x20) {
+                if (b == '\n') {
+                    lineNumber++;
+                    lineStart = pos;
+                } else if (b == '\r') {
+                    if ((pos < limit || fill()) && buf[pos] == '\n') {
+                        pos++;
+                    }
+                    lineNumber++;
+                    lineStart = pos;
+                    return '\n';
+                } else if (b != '\t') {
+                    error("Invalid XML character (x" + Integer.toHexString(b) + ')');
+                }
+            }
+            return b;
+        }
+        int c;
+        if (encoding == LATIN1) {
+            c = b;
+        } else if (encoding == ASCII) {
+            error("Invalid byte for US-ASCII encoding (x" + Integer.toHexString(b) + ')');
+            return 0;
+        } else {
+            c = decodeUTF8(b);
+        }
+        if (xml11 && c < 0xa0) {
+            if (c == 0x85) {
+                lineNumber++;
+                lineStart = pos;
+                return '\n';
+            }
+            error("Character x" + Integer.toHexString(c) + " must be written as a character reference in XML 1.1");
+        } else if (xml11 && c == 0x2028) {
+            lineNumber++;
+            lineStart = pos;
+            return '\n';
+        }
+        return c;
+    }
+
+    private int decodeUTF8(int b) throws XPathException {
+        int extra;
+        int c;
+        int min;
+        if ((b & 0xe0) == 0xc0) {
+            extra = 1;
+            c = b & 0x1f;
+            min = 0x80;
+        } else if ((b & 0xf0) == 0xe0) {
+            extra = 2;
+            c = b & 0x0f;
+            min = 0x800;
+        } else if ((b & 0xf8) == 0xf0) {
+            extra = 3;
+            c = b & 0x07;
+            min = 0x10000;
+        } else {
+            error("Invalid UTF-8 byte sequence");
+            return 0;
+        }
+        for (int i=0; i<extra; i++) {
+            if (pos == limit && !fill()) {
+                error("Invalid UTF-8 byte sequence");
+            }
+            int next = buf[pos++] & 0xff;
+            if ((next & 0xc0) != 0x80) {
+                error("Invalid UTF-8 byte sequence");
+            }
+            c = (c << 6) | (next & 0x3f);
+        }
+        if (c < min || c > 0x10ffff || (c >= 0xd800 && c < 0xe000) || c == 0xfffe || c == 0xffff) {
+            error("Invalid XML character (x" + Integer.toHexString(c) + ')');
+        }
+        return c;
+    }
+
+    private void error(String message) throws XPathException {
+        ExpressionLocation loc = new ExpressionLocation(systemId, lineNumber, getColumnNumber());
+        DynamicError err = new DynamicError("Error reported by XML parser: " + message, loc);
+        err.setErrorCode(SaxonErrorCode.SXXP0003);
+        throw err;
+    }
+
+    //-----------------------------------------------------------------------------------------
+    // Implementation of the locator interfaces
+    //-----------------------------------------------------------------------------------------
+
+    public String getPublicId() {
+        return null;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getColumnNumber() {
+        return pos - lineStart + 1;
+    }
+
+    public String getSystemId(int locationId) {
+        return systemId;
+    }
+
+    public int getLineNumber(int locationId) {
+        return lineNumber;
+    }
+
+    /**
+     * An entry in the cache of names used in the document
+     */
+
+    private static final class NameEntry {
+        byte[] bytes;
+        int hash;
+        String qname;
+        String prefix;
+        String local;
+        boolean isNamespaceDeclaration;
+        short uriCode = -1;         // the URI code used when the name code was last computed
+        int nameCode;
+        NameEntry next;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -74,6 +74,14 @@ public final class ComplexContentOutputter extends SequenceReceiver {
         this.receiver = receiver;
     }
 
+    /**
+     * Get the next receiver in the pipeline
+     */
+
+    public Receiver getReceiver() {
+        return receiver;
+    }
+
     /**
      * Test whether any content has been written to this ComplexContentOutputter
      */
@@ -0,0 +1,152 @@
+package net.sf.saxon.event;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class provides the support for compressed input and output files.
+ *
+ * <p>Any source document that is supplied by URI, and whose URI ends in ".gz", is decompressed by the
+ * {@link Sender} using gzip; similarly, any result document written to a file whose name ends in ".gz"
+ * is compressed by the {@link Emitter}. This applies to the doc(), document() and collection() functions,
+ * to xsl:result-document, and to the principal source and result documents.</p>
+ *
+ * <p>The compression method can also be chosen explicitly using the URI query parameter
+ * <code>compression=gzip|deflate|none</code>. This is recognized by the standard URI resolver (if
+ * recognition of query parameters is enabled), by the standard collection URI resolver, and by the
+ * standard output URI resolver.</p>
+ *
+ * <p>The decompression or compression is done on a separate thread, so that it proceeds in parallel
+ * with the parsing or serialization of the XML.</p>
+ */
+
+public final class Compression {
+
+    /**
+     * No compression
+     */
+
+    public static final int NONE = 0;
+
+    /**
+     * The gzip format (RFC 1952), as used by the gzip utility
+     */
+
+    public static final int GZIP = 1;
+
+    /**
+     * The zlib format (RFC 1950) produced by the deflate algorithm
+     */
+
+    public static final int DEFLATE = 2;
+
+    private static final int BUFFER_COUNT = 4;
+    private static final int BUFFER_SIZE = 65536;
+
+    // This class is never instantiated
+    private Compression() {}
+
+    /**
+     * Get the compression method identified by the value of the compression query parameter
+     * @param value the value of the parameter: "gzip", "deflate", or "none"
+     * @return one of {@link #NONE}, {@link #GZIP}, or {@link #DEFLATE}; or -1 if the value is not recognized
+     */
+
+    public static int getCompression(String value) {
+        if (value.equals("gzip")) {
+            return GZIP;
+        } else if (value.equals("deflate")) {
+            return DEFLATE;
+        } else if (value.equals("none")) {
+            return NONE;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Determine the compression method implied by a file name or URI
+     * @param name the file name or URI (without any query part)
+     * @return {@link #GZIP} if the name ends with ".gz", otherwise {@link #NONE}
+     */
+
+    public static int getCompressionForFileName(String name) {
+        return (name.endsWith(".gz") ? GZIP : NONE);
+    }
+
+    /**
+     * Get an input stream that decompresses a supplied input stream. The decompression is done
+     * on a separate thread.
+     * @param in the compressed input stream
+     * @param compression the compression method
+     * @return a stream delivering the uncompressed data. If the compression method is {@link #NONE},
+     * the supplied stream is returned unchanged.
+     */
+
+    public static InputStream openInputStream(InputStream in, int compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return readAhead(new GZIPInputStream(in, BUFFER_SIZE));
+            case DEFLATE:
+                return readAhead(new InflaterInputStream(in));
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Get an input stream that reads a supplied input stream on a separate thread. This is useful
+     * when reading the supplied stream is expensive, for example because it is already decompressing
+     * its input.
+     * @param in the input stream to be read
+     * @return a stream delivering the same data
+     */
+
+    public static InputStream readAhead(InputStream in) {
+        return new AsyncInputStream(in, BUFFER_COUNT, BUFFER_SIZE);
+    }
+
+    /**
+     * Get an output stream that compresses its output before writing it to a supplied output stream.
+     * The compression is done on a separate thread. Closing the returned stream completes the compressed
+     * data and closes the supplied stream.
+     * @param out the destination for the compressed output
+     * @param compression the compression method
+     * @return a stream to which the uncompressed data can be written. If the compression method is
+     * {@link #NONE}, the supplied stream is returned unchanged.
+     */
+
+    public static OutputStream openOutputStream(OutputStream out, int compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new AsyncOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_COUNT, BUFFER_SIZE);
+            case DEFLATE:
+                return new AsyncOutputStream(new DeflaterOutputStream(out), BUFFER_COUNT, BUFFER_SIZE);
+            default:
+                return out;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -148,12 +148,19 @@ public abstract class Emitter implements Result, Receiver
                     }
                 }
                 File file = new File(uri);
-                setOutputStream(new FileOutputStream(file));
+                OutputStream stream = new FileOutputStream(file);
+                int compression = Compression.getCompressionForFileName(file.getName());
+                if (compression != Compression.NONE) {
+                    stream = Compression.openOutputStream(stream, compression);
+                }
+                setOutputStream(stream);
                 // Set the outputstream in the StreamResult object so that the
                 // call on OutputURIResolver.close() can close it
                 streamResult.setOutputStream(outputStream);
             } catch (FileNotFoundException fnf) {
                 throw new DynamicError(fnf);
+            } catch (IOException ioe) {
+                throw new DynamicError(ioe);
             } catch (URISyntaxException use) {
                 throw new DynamicError(use);
             } catch (IllegalArgumentException iae) {
@@ -198,10 +205,23 @@ public abstract class Emitter implements Result, Receiver
     }
 
     /**
-    * Set the output destination as a byte stream
+    * Set the output destination as a byte stream. If the serialization property saxon:async-output
+    * is set to "yes", the stream is wrapped in an {@link AsyncOutputStream} so that the output is
+    * written by a separate thread. This is done only when the output is produced by a transformation or
+    * query (that is, when the pipeline has a Controller), because the Controller is responsible for
+    * stopping the writer thread if the transformation fails.
     */
 
     public void setOutputStream(OutputStream stream) throws XPathException {
+        if (outputProperties != null && pipelineConfig != null && pipelineConfig.getController() != null &&
+                "yes".equals(outputProperties.getProperty(SaxonOutputKeys.ASYNC_OUTPUT)) &&
+                !(stream instanceof AsyncOutputStream)) {
+            Configuration config = getConfiguration();
+            AsyncOutputStream async = new AsyncOutputStream(stream,
+                    config.getAsyncOutputBufferCount(), config.getAsyncOutputBufferSize());
+            pipelineConfig.getController().registerAsyncOutputStream(async);
+            stream = async;
+        }
         this.outputStream = stream;
 
         // If the user supplied an OutputStream, but the Emitter is written to
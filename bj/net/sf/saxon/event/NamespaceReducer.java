@@ -188,12 +188,12 @@ public class NamespaceReducer extends ProxyReceiver implements NamespaceResolver
 
     /**
      * Get the URI code corresponding to a given prefix code, by searching the
-     * in-scope namespaces. This is a service provided to subclasses.
+     * in-scope namespaces.
      * @param prefixCode the 16-bit prefix code required
      * @return the 16-bit URI code, or -1 if the prefix is not found
      */
 
-    protected short getURICode(short prefixCode) {
+    public short getURICode(short prefixCode) {
         for (int i=namespacesSize-1; i>=0; i--) {
         	if ((namespaces[i]>>16) == (prefixCode)) {
         		return (short)(namespaces[i]&0xffff);
@@ -0,0 +1,358 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.om.AttributeCollectionImpl;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * A ProjectingFilter is a ProxyReceiver that discards the parts of a document that are not needed
+ * by a stylesheet or query, as defined by a {@link ProjectionSpecification}. It is placed in the
+ * pipeline between the parser and the Builder, so that the discarded nodes are never built.
+ *
+ * <p>An element that is reached only while searching for descendants (for example, the elements
+ * between the document node and the targets of a path such as //price) is buffered until it is known
+ * whether any of its descendants are retained. If none are, the element is discarded.</p>
+ */
+
+public class ProjectingFilter extends ProxyReceiver {
+
+    private static final int EMIT = 0;
+    private static final int PENDING = 1;
+
+    private ProjectionSpecification spec;
+    private Frame[] frames = new Frame[50];
+    private int top = 0;                // index of the frame for the innermost open element
+    private int skipDepth = 0;          // > 0 while discarding the subtree of an unwanted element
+    private int pendingFrom = -1;       // index of the outermost frame whose start tag is buffered
+    private int nodesSeen = 0;
+    private int nodesSkipped = 0;
+
+    /**
+     * Create a ProjectingFilter
+     * @param spec the specification of the parts of the document that are to be retained
+     */
+
+    public ProjectingFilter(ProjectionSpecification spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Get the number of nodes (other than attributes and namespaces) that were discarded
+     */
+
+    public int getNodesSkipped() {
+        return nodesSkipped;
+    }
+
+    /**
+     * Get the number of nodes (other than attributes and namespaces) that were notified to this filter
+     */
+
+    public int getNodesSeen() {
+        return nodesSeen;
+    }
+
+    public void open() throws XPathException {
+        top = 0;
+        skipDepth = 0;
+        pendingFrom = -1;
+        Frame root = frame(0);
+        root.reset();
+        root.addState(spec.getRootState());
+        root.disposition = EMIT;
+        super.open();
+    }
+
+    public void startElement(int nameCode, int typeCode, int locationId, int properties) throws XPathException {
+        nodesSeen++;
+        if (skipDepth > 0) {
+            skipDepth++;
+            nodesSkipped++;
+            return;
+        }
+        Frame parent = frames[top];
+        Frame f = frame(top + 1);
+        f.reset();
+        if (parent.subtree) {
+            f.subtree = true;
+        } else {
+            int fp = nameCode & NamePool.FP_MASK;
+            for (int i=0; i<parent.stateCount; i++) {
+                ProjectionSpecification.State s = parent.states[i];
+                f.addState(s.getChildState(fp));
+                f.addState(s.getAnyChildState());
+                if (s.hasDescendantSteps()) {
+                    f.addSearching(s);
+                }
+            }
+            for (int i=0; i<parent.searchingCount; i++) {
+                f.addSearching(parent.searching[i]);
+            }
+            for (int i=0; i<f.searchingCount; i++) {
+                ProjectionSpecification.State s = f.searching[i];
+                f.addState(s.getDescendantState(fp));
+                f.addState(s.getAnyDescendantState());
+            }
+            if (f.stateCount == 0 && f.searchingCount == 0) {
+                // nothing in this subtree can be needed
+                skipDepth = 1;
+                nodesSkipped++;
+                return;
+            }
+        }
+        if (f.subtree || f.stateCount > 0) {
+            flushPending();
+            top++;
+            f.disposition = EMIT;
+            nextReceiver.startElement(nameCode, typeCode, locationId, properties);
+        } else {
+            top++;
+            f.disposition = PENDING;
+            f.nameCode = nameCode;
+            f.typeCode = typeCode;
+            f.locationId = locationId;
+            f.properties = properties;
+            if (pendingFrom < 0) {
+                pendingFrom = top;
+            }
+        }
+    }
+
+    public void namespace(int namespaceCode, int properties) throws XPathException {
+        if (skipDepth > 0) {
+            return;
+        }
+        Frame f = frames[top];
+        if (f.disposition == PENDING) {
+            f.addNamespace(namespaceCode);
+        } else {
+            nextReceiver.namespace(namespaceCode, properties);
+        }
+    }
+
+    public void attribute(int nameCode, int typeCode, CharSequence value, int locationId, int properties)
+            throws XPathException {
+        if (skipDepth > 0) {
+            return;
+        }
+        Frame f = frames[top];
+        if (f.disposition == PENDING) {
+            if (f.attributes == null) {
+                f.attributes = new AttributeCollectionImpl(getNamePool());
+            }
+            f.attributes.addAttribute(nameCode, typeCode, value.toString(), locationId, properties);
+        } else {
+            nextReceiver.attribute(nameCode, typeCode, value, locationId, properties);
+        }
+    }
+
+    public void startContent() throws XPathException {
+        if (skipDepth == 0 && frames[top].disposition == EMIT) {
+            nextReceiver.startContent();
+        }
+    }
+
+    public void endElement() throws XPathException {
+        if (skipDepth > 0) {
+            skipDepth--;
+            return;
+        }
+        if (frames[top].disposition == EMIT) {
+            nextReceiver.endElement();
+        } else {
+            // none of the descendants of this element were needed
+            nodesSkipped++;
+            if (pendingFrom == top) {
+                pendingFrom = -1;
+            }
+        }
+        top--;
+    }
+
+    public void characters(CharSequence chars, int locationId, int properties) throws XPathException {
+        nodesSeen++;
+        if (skipDepth == 0 && frames[top].subtree) {
+            nextReceiver.characters(chars, locationId, properties);
+        } else {
+            nodesSkipped++;
+        }
+    }
+
+    public void processingInstruction(String target, CharSequence data, int locationId, int properties) throws XPathException {
+        nodesSeen++;
+        if (skipDepth == 0 && frames[top].subtree) {
+            nextReceiver.processingInstruction(target, data, locationId, properties);
+        } else {
+            nodesSkipped++;
+        }
+    }
+
+    public void comment(CharSequence chars, int locationId, int properties) throws XPathException {
+        nodesSeen++;
+        if (skipDepth == 0 && frames[top].subtree) {
+            nextReceiver.comment(chars, locationId, properties);
+        } else {
+            nodesSkipped++;
+        }
+    }
+
+    public void close() throws XPathException {
+        if (getConfiguration().isTiming()) {
+            System.err.println("Document projection discarded " + nodesSkipped + " of " + nodesSeen + " nodes");
+        }
+        super.close();
+    }
+
+    /**
+     * Output the buffered start tags of the open elements that have not yet been written,
+     * because a descendant element is to be retained. This must be called before the frame for the
+     * new element is pushed.
+     */
+
+    private void flushPending() throws XPathException {
+        if (pendingFrom < 0) {
+            return;
+        }
+        for (int i=pendingFrom; i<=top; i++) {
+            Frame f = frames[i];
+            if (f.disposition != PENDING) {
+                continue;
+            }
+            nextReceiver.startElement(f.nameCode, f.typeCode, f.locationId, f.properties);
+            for (int n=0; n<f.namespaceCount; n++) {
+                nextReceiver.namespace(f.namespaces[n], 0);
+            }
+            if (f.attributes != null) {
+                for (int a=0; a<f.attributes.getLength(); a++) {
+                    nextReceiver.attribute(f.attributes.getNameCode(a),
+                            f.attributes.getTypeAnnotation(a),
+                            f.attributes.getValue(a),
+                            f.attributes.getLocationId(a),
+                            f.attributes.getProperties(a));
+                }
+            }
+            nextReceiver.startContent();
+            f.disposition = EMIT;
+        }
+        pendingFrom = -1;
+    }
+
+    /**
+     * Get the frame at a given depth, creating it if necessary. Frames are reused to avoid
+     * allocating objects for every element.
+     */
+
+    private Frame frame(int depth) {
+        if (depth == frames.length) {
+            Frame[] f2 = new Frame[depth * 2];
+            System.arraycopy(frames, 0, f2, 0, depth);
+            frames = f2;
+        }
+        if (frames[depth] == null) {
+            frames[depth] = new Frame();
+        }
+        return frames[depth];
+    }
+
+    /**
+     * A Frame holds information about one open element
+     */
+
+    private static final class Frame {
+        ProjectionSpecification.State[] states = new ProjectionSpecification.State[4];
+        int stateCount;
+        ProjectionSpecification.State[] searching = new ProjectionSpecification.State[4];
+        int searchingCount;
+        boolean subtree;
+        int disposition;
+
+        // details of a buffered start tag
+        int nameCode;
+        int typeCode;
+        int locationId;
+        int properties;
+        int[] namespaces = new int[4];
+        int namespaceCount;
+        AttributeCollectionImpl attributes;
+
+        /**
+         * Clear all the information held about the previous element that used this frame
+         */
+
+        void reset() {
+            stateCount = 0;
+            searchingCount = 0;
+            subtree = false;
+            disposition = EMIT;
+            nameCode = -1;
+            typeCode = 0;
+            locationId = 0;
+            properties = 0;
+            namespaceCount = 0;
+            if (attributes != null) {
+                attributes.clear();
+            }
+        }
+
+        void addState(ProjectionSpecification.State s) {
+            if (s == null) {
+                return;
+            }
+            for (int i=0; i<stateCount; i++) {
+                if (states[i] == s) {
+                    return;
+                }
+            }
+            if (stateCount == states.length) {
+                ProjectionSpecification.State[] s2 = new ProjectionSpecification.State[stateCount * 2];
+                System.arraycopy(states, 0, s2, 0, stateCount);
+                states = s2;
+            }
+            states[stateCount++] = s;
+            if (s.isRetainingSubtree()) {
+                subtree = true;
+            }
+        }
+
+        void addSearching(ProjectionSpecification.State s) {
+            for (int i=0; i<searchingCount; i++) {
+                if (searching[i] == s) {
+                    return;
+                }
+            }
+            if (searchingCount == searching.length) {
+                ProjectionSpecification.State[] s2 = new ProjectionSpecification.State[searchingCount * 2];
+                System.arraycopy(searching, 0, s2, 0, searchingCount);
+                searching = s2;
+            }
+            searching[searchingCount++] = s;
+        }
+
+        void addNamespace(int nscode) {
+            if (namespaceCount == namespaces.length) {
+                int[] n2 = new int[namespaceCount * 2];
+                System.arraycopy(namespaces, 0, n2, 0, namespaceCount);
+                namespaces = n2;
+            }
+            namespaces[namespaceCount++] = nscode;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,219 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.sort.IntHashMap;
+
+import java.io.Serializable;
+
+/**
+ * A ProjectionSpecification describes which parts of a source document are needed by a stylesheet
+ * or query. It is derived by static analysis of the compiled expressions (see
+ * {@link net.sf.saxon.expr.ProjectionAnalyzer}) and is used by a {@link ProjectingFilter} to discard
+ * the parts of a document that are not needed while the document is being parsed.
+ *
+ * <p>The specification is a graph of states. The root state corresponds to the document node. Each state
+ * has outgoing edges for the child and descendant elements that are needed, either by name (fingerprint)
+ * or for all elements. A state may be marked as requiring its whole subtree, in which case all descendant
+ * nodes of an element in that state are retained. An element that is retained always retains its
+ * attributes and namespaces; its text, comment and processing-instruction children are retained only
+ * if its subtree is required.</p>
+ *
+ * <p>A single specification applies to all the documents loaded by one executable: the principal source
+ * document, and documents loaded using doc() or document().</p>
+ */
+
+public class ProjectionSpecification implements Serializable {
+
+    private State root = new State();
+    private boolean projectsPrincipalSource = true;
+
+    /**
+     * Get the state corresponding to the document node
+     * @return the root state
+     */
+
+    public State getRootState() {
+        return root;
+    }
+
+    /**
+     * Indicate whether the specification may be applied to the principal source document.
+     * In XSLT this is only safe if the built-in template rule will never be applied to the
+     * document node.
+     * @param projects true if the principal source document may be projected
+     */
+
+    public void setProjectsPrincipalSource(boolean projects) {
+        projectsPrincipalSource = projects;
+    }
+
+    /**
+     * Determine whether the specification may be applied to the principal source document
+     * @return true if the principal source document may be projected
+     */
+
+    public boolean projectsPrincipalSource() {
+        return projectsPrincipalSource;
+    }
+
+    /**
+     * Determine whether the specification retains everything. In this case there is
+     * no point in applying it.
+     * @return true if the whole document is required
+     */
+
+    public boolean isRetainingEverything() {
+        return root.subtree;
+    }
+
+    /**
+     * Make a filter that applies this projection to a stream of events
+     * @param next the receiver to which the retained events are to be passed
+     * @return the filter
+     */
+
+    public ProjectingFilter makeFilter(Receiver next) {
+        ProjectingFilter filter = new ProjectingFilter(this);
+        filter.setUnderlyingReceiver(next);
+        return filter;
+    }
+
+    /**
+     * A State represents a set of element (or document) nodes reachable by a set of paths
+     * from the document node.
+     */
+
+    public static final class State implements Serializable {
+
+        private IntHashMap children = null;     // fingerprint -> State, for child::name
+        private State anyChild = null;          // for child::*
+        private IntHashMap descendants = null;  // fingerprint -> State, for descendant::name
+        private State anyDescendant = null;     // for descendant::*
+        private boolean subtree = false;
+
+        /**
+         * Get (creating it if necessary) the state reached from this one by a child step
+         * @param fingerprint the fingerprint of the element name, or -1 to select all element children
+         * @return the target state
+         */
+
+        public State makeChildState(int fingerprint) {
+            if (fingerprint == -1) {
+                if (anyChild == null) {
+                    anyChild = new State();
+                }
+                return anyChild;
+            }
+            if (children == null) {
+                children = new IntHashMap(10);
+            }
+            State s = (State)children.get(fingerprint);
+            if (s == null) {
+                s = new State();
+                children.put(fingerprint, s);
+            }
+            return s;
+        }
+
+        /**
+         * Get (creating it if necessary) the state reached from this one by a descendant step
+         * @param fingerprint the fingerprint of the element name, or -1 to select all element descendants
+         * @return the target state
+         */
+
+        public State makeDescendantState(int fingerprint) {
+            if (fingerprint == -1) {
+                if (anyDescendant == null) {
+                    anyDescendant = new State();
+                }
+                return anyDescendant;
+            }
+            if (descendants == null) {
+                descendants = new IntHashMap(10);
+            }
+            State s = (State)descendants.get(fingerprint);
+            if (s == null) {
+                s = new State();
+                descendants.put(fingerprint, s);
+            }
+            return s;
+        }
+
+        /**
+         * Get the state reached by a child step for a given element name, if any
+         * @param fingerprint the fingerprint of the element name
+         * @return the state reached by a named child step, or null
+         */
+
+        State getChildState(int fingerprint) {
+            return (children == null ? null : (State)children.get(fingerprint));
+        }
+
+        /**
+         * Get the state reached by a child step that selects all elements, if any
+         */
+
+        State getAnyChildState() {
+            return anyChild;
+        }
+
+        /**
+         * Get the state reached by a descendant step for a given element name, if any
+         * @param fingerprint the fingerprint of the element name
+         * @return the state reached by a named descendant step, or null
+         */
+
+        State getDescendantState(int fingerprint) {
+            return (descendants == null ? null : (State)descendants.get(fingerprint));
+        }
+
+        /**
+         * Get the state reached by a descendant step that selects all elements, if any
+         */
+
+        State getAnyDescendantState() {
+            return anyDescendant;
+        }
+
+        /**
+         * Determine whether there are any descendant steps from this state
+         */
+
+        boolean hasDescendantSteps() {
+            return descendants != null || anyDescendant != null;
+        }
+
+        /**
+         * Mark this state as requiring the whole subtree of the nodes it matches
+         */
+
+        public void setRetainSubtree() {
+            subtree = true;
+        }
+
+        /**
+         * Determine whether this state requires the whole subtree of the nodes it matches
+         */
+
+        public boolean isRetainingSubtree() {
+            return subtree;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -99,6 +99,11 @@ public class ReceivingContentHandler
         pipe.setLocationProvider(this);
         Configuration config = pipe.getConfiguration();
         this.pool = config.getNamePool();
+        if (pool.isReclaimable()) {
+            // the cached name codes would prevent names being reclaimed, and could be stale
+            cache.clear();
+            noNamespaceMap = null;
+        }
         ignoreIgnorable = config.getStripsWhiteSpace() != Whitespace.NONE;
         retainDTDAttributeTypes = config.isRetainDTDAttributeTypes();
     }
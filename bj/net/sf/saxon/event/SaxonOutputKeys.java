@@ -130,6 +130,17 @@ public class SaxonOutputKeys {
 
     public static final String REQUIRE_WELL_FORMED = "{http://saxon.sf.net/}require-well-formed";
 
+    /**
+    * saxon:async-output = yes|no.
+    *
+    * <p>Indicates that when the output is written to a file or to an OutputStream, the serializer should
+    * fill buffers of output that are written to the destination by a separate thread, so that the
+    * transformation does not wait for the output to be written. The number and size of the buffers
+    * are set in the Configuration. The default is "no".</p>
+    */
+
+    public static final String ASYNC_OUTPUT = "{http://saxon.sf.net/}async-output";
+
     /**
      * wrap="yes"|"no".
      * <p>
@@ -218,6 +229,10 @@ public class SaxonOutputKeys {
                 if (value != null) {
                     checkYesOrNo(key, value);
                 }
+            } else if (key.equals(ASYNC_OUTPUT)) {
+                if (value != null) {
+                    checkYesOrNo(key, value);
+                }
             } else if (key.equals(BYTE_ORDER_MARK)) {
                 if (value != null) {
                     checkYesOrNo(key, value);
@@ -20,6 +20,10 @@ import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.List;
 
 /**
@@ -73,6 +77,7 @@ public class Sender {
         }
 
         XMLReader parser = null;
+        boolean useBuiltInParser = config.isUseBuiltInParser();
         if (source instanceof AugmentedSource) {
             stripSpace = ((AugmentedSource)source).getStripSpace();
             int localValidate = ((AugmentedSource)source).getSchemaValidation();
@@ -84,6 +89,10 @@ public class Sender {
                 dtdValidation = localDTDValidate;
             }
             parser = ((AugmentedSource)source).getXMLReader();
+            Boolean localBuiltIn = ((AugmentedSource)source).getUseBuiltInParser();
+            if (localBuiltIn != null) {
+                useBuiltInParser = localBuiltIn.booleanValue();
+            }
 
             List filters = ((AugmentedSource)source).getFilters();
             if (filters != null) {
@@ -121,7 +130,32 @@ public class Sender {
             return;
 
         } else if (source instanceof SAXSource) {
-            sendSAXSource((SAXSource)source, receiver, schemaValidation, stripSpace);
+            SAXSource sax = (SAXSource)source;
+            InputStream compressed = null;
+            if (sax.getInputSource() != null) {
+                InputSource cis = openCompressedInput(sax.getInputSource());
+                if (cis != null) {
+                    sax = new SAXSource(sax.getXMLReader(), cis);
+                    sax.setSystemId(source.getSystemId());
+                    compressed = cis.getByteStream();
+                }
+            }
+            try {
+                if (useBuiltInParser && sax.getXMLReader() == null && sax.getInputSource() != null &&
+                        dtdValidation != Validation.STRICT) {
+                    InputSource is = sendUsingBuiltInParser(sax.getInputSource(), receiver, schemaValidation, stripSpace);
+                    if (is == null) {
+                        return;
+                    }
+                    if (is != sax.getInputSource()) {
+                        sax = new SAXSource(is);
+                        sax.setSystemId(source.getSystemId());
+                    }
+                }
+                sendSAXSource(sax, receiver, schemaValidation, stripSpace);
+            } finally {
+                closeQuietly(compressed);
+            }
             return;
 
         } else if (source instanceof StreamSource) {
@@ -134,16 +168,32 @@ public class Sender {
                 InputSource is = new InputSource(url);
                 is.setCharacterStream(ss.getReader());
                 is.setByteStream(ss.getInputStream());
-                boolean reuseParser = false;
-                if (parser == null) {
-                    parser = config.getSourceParser();
-                    reuseParser = true;
+                InputStream compressed = null;
+                InputSource cis = openCompressedInput(is);
+                if (cis != null) {
+                    is = cis;
+                    compressed = cis.getByteStream();
                 }
-                SAXSource sax = new SAXSource(parser, is);
-                sax.setSystemId(source.getSystemId());
-                sendSAXSource(sax, receiver, schemaValidation, stripSpace);
-                if (reuseParser) {
-                    config.reuseSourceParser(parser);
+                try {
+                    if (useBuiltInParser && parser == null && dtdValidation != Validation.STRICT) {
+                        is = sendUsingBuiltInParser(is, receiver, schemaValidation, stripSpace);
+                        if (is == null) {
+                            return;
+                        }
+                    }
+                    boolean reuseParser = false;
+                    if (parser == null) {
+                        parser = config.getSourceParser();
+                        reuseParser = true;
+                    }
+                    SAXSource sax = new SAXSource(parser, is);
+                    sax.setSystemId(source.getSystemId());
+                    sendSAXSource(sax, receiver, schemaValidation, stripSpace);
+                    if (reuseParser) {
+                        config.reuseSourceParser(parser);
+                    }
+                } finally {
+                    closeQuietly(compressed);
                 }
             } else {
                 // the Platform substituted a different kind of source
@@ -187,6 +237,105 @@ public class Sender {
     }
 
 
+    /**
+     * If an InputSource supplies no stream, and its system ID identifies a compressed file (for example
+     * "data.xml.gz"), open the file and create an InputSource that reads the decompressed data.
+     * See {@link Compression}.
+     * @param source the supplied InputSource
+     * @return an InputSource that reads the decompressed data, or null if the supplied InputSource is
+     * not for a compressed file. The caller must close the byte stream of the returned InputSource.
+     */
+
+    private static InputSource openCompressedInput(InputSource source) throws XPathException {
+        String systemId = source.getSystemId();
+        if (systemId == null || source.getByteStream() != null || source.getCharacterStream() != null) {
+            return null;
+        }
+        int q = systemId.indexOf('?');
+        int compression = Compression.getCompressionForFileName(q < 0 ? systemId : systemId.substring(0, q));
+        if (compression == Compression.NONE) {
+            return null;
+        }
+        try {
+            InputSource is = new InputSource(systemId);
+            is.setPublicId(source.getPublicId());
+            is.setByteStream(Compression.openInputStream(new URL(systemId).openStream(), compression));
+            return is;
+        } catch (MalformedURLException err) {
+            // leave it to the parser to report or resolve this
+            return null;
+        } catch (IOException err) {
+            throw new DynamicError(err);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException err) {
+                // ignore the failure
+            }
+        }
+    }
+
+    /**
+     * Parse a document using the built-in XML parser
+     * @param source identifies the document to be parsed
+     * @return null if the document was parsed successfully. If the document cannot be handled by the
+     * built-in parser, return an InputSource that can be used to parse it with a SAX parser.
+     */
+
+    private InputSource sendUsingBuiltInParser(InputSource source, Receiver receiver, int validation, int stripSpace)
+    throws XPathException {
+        if (source.getCharacterStream() != null || source.getEncoding() != null) {
+            return source;
+        }
+        Configuration config = pipe.getConfiguration();
+        String systemId = source.getSystemId();
+        InputStream in = source.getByteStream();
+        boolean close = false;
+        if (in == null) {
+            if (systemId == null) {
+                return source;
+            }
+            try {
+                in = new URL(systemId).openStream();
+                close = true;
+            } catch (MalformedURLException err) {
+                // leave it to the SAX parser to report or resolve this
+                return source;
+            } catch (IOException err) {
+                throw new DynamicError(err);
+            }
+        }
+        if ((validation & Validation.VALIDATION_MODE_MASK) != Validation.PRESERVE) {
+            receiver = config.getDocumentValidator(receiver, systemId, validation, stripSpace, null);
+        }
+        BuiltInParser parser = new BuiltInParser();
+        try {
+            if (parser.parse(in, systemId, receiver, pipe)) {
+                return null;
+            }
+        } finally {
+            if (close) {
+                try {
+                    in.close();
+                } catch (IOException err) {
+                    // ignore the failure
+                }
+            }
+        }
+        // the parser cannot handle this document: arrange for a SAX parser to read it
+        if (close) {
+            return source;
+        }
+        InputSource is = new InputSource(parser.getUnparsedInput());
+        is.setSystemId(systemId);
+        is.setPublicId(source.getPublicId());
+        return is;
+    }
+
     private void sendDocumentInfo(NodeInfo top, Receiver receiver)
     throws XPathException {
         NamePool targetNamePool = pipe.getConfiguration().getNamePool();
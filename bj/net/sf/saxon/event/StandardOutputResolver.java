@@ -1,11 +1,13 @@
 package net.sf.saxon.event;
 import net.sf.saxon.OutputURIResolver;
+import net.sf.saxon.functions.URIQueryParameters;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.stream.StreamResult;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.*;
@@ -61,6 +63,18 @@ public class StandardOutputResolver implements OutputURIResolver {
                 absoluteURI = baseURI.resolve(href);
             }
 
+            // A query part compression=gzip|deflate|none selects compression of the output file
+            int compression = -1;
+            String query = absoluteURI.getRawQuery();
+            if (query != null) {
+                URIQueryParameters params = new URIQueryParameters(query, null);
+                if (params.getCompression() != null) {
+                    compression = params.getCompression().intValue();
+                }
+                String s = absoluteURI.toString();
+                absoluteURI = new URI(s.substring(0, s.indexOf('?')));
+            }
+
             if ("file".equals(absoluteURI.getScheme())) {
                 File newFile = new File(absoluteURI);
                 try {
@@ -75,6 +89,14 @@ public class StandardOutputResolver implements OutputURIResolver {
         	            }
         		    }
 
+                    if (compression >= 0) {
+                        // If no compression is specified, the Emitter chooses it from the file name
+                        StreamResult result = new StreamResult(
+                                Compression.openOutputStream(new FileOutputStream(newFile), compression));
+                        result.setSystemId(newFile.toURI().toASCIIString());
+                        return result;
+                    }
+
                     //StreamResult result = new StreamResult(new FileOutputStream(newFile));
                     StreamResult result = new StreamResult(newFile.toURI().toASCIIString());
                             // The call new StreamResult(newFile) does file-to-URI conversion incorrectly
@@ -95,6 +117,9 @@ public class StandardOutputResolver implements OutputURIResolver {
                 connection.setDoOutput(true);
                 connection.connect();
                 OutputStream stream = connection.getOutputStream();
+                if (compression > 0) {
+                    stream = Compression.openOutputStream(stream, compression);
+                }
                 StreamResult result = new StreamResult(stream);
                 result.setSystemId(absoluteURI.toASCIIString());
                 return result;
@@ -2,7 +2,6 @@ package net.sf.saxon.event;
 import net.sf.saxon.codenorm.Normalizer;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.trans.DynamicError;
-import net.sf.saxon.value.Whitespace;
 
 /**
  * UnicodeNormalizer: This ProxyReceiver performs unicode normalization on the contents
@@ -15,6 +14,7 @@ import net.sf.saxon.value.Whitespace;
 public class UnicodeNormalizer extends ProxyReceiver {
 
     private Normalizer normalizer;
+    private StringBuffer buffer = new StringBuffer(40);
 
     public UnicodeNormalizer(String form) throws XPathException {
         byte fb;
@@ -49,10 +49,28 @@ public class UnicodeNormalizer extends ProxyReceiver {
     */
 
     public void characters(CharSequence chars, int locationId, int properties) throws XPathException {
-        if (Whitespace.isWhite(chars)) {
+        // The text is passed on a run at a time: the text between the runs that need normalizing is
+        // passed on without copying, and only the runs themselves are normalized into the buffer
+        int len = chars.length();
+        int start = normalizer.getRunStart(chars, 0);
+        if (start == len) {
             nextReceiver.characters(chars, locationId, properties);
-        } else {
-            nextReceiver.characters(normalizer.normalize(chars), locationId, properties);
+            return;
+        }
+        int done = 0;
+        while (start < len) {
+            if (start > done) {
+                nextReceiver.characters(chars.subSequence(done, start), locationId, properties);
+            }
+            int end = normalizer.getRunEnd(chars, start);
+            buffer.setLength(0);
+            normalizer.normalizeRun(chars, start, end, buffer);
+            nextReceiver.characters(buffer, locationId, properties);
+            done = end;
+            start = normalizer.getRunStart(chars, done);
+        }
+        if (done < len) {
+            nextReceiver.characters(chars.subSequence(done, len), locationId, properties);
         }
     }
 
@@ -256,6 +256,10 @@ public class XMLEmitter extends Emitter
             if (writer != null) {
                 writer.flush();
             }
+            if (outputStream instanceof AsyncOutputStream) {
+                // wait for the output to be written, and report any failure
+                ((AsyncOutputStream)outputStream).finish();
+            }
         } catch (java.io.IOException err) {
             throw new DynamicError(err);
         }
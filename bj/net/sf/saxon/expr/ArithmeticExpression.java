@@ -653,6 +653,16 @@ public class ArithmeticExpression extends BinaryExpression {
 
         boolean backCompatible = false;
 
+        // Determines whether the expression can be evaluated using Java primitive arithmetic.
+        // This is decided on first evaluation, when the operands have reached their final form.
+
+        private static final int PRIMITIVE_UNKNOWN = 0;
+        private static final int PRIMITIVE_NONE = 1;
+        private static final int PRIMITIVE_LONG = 2;
+        private static final int PRIMITIVE_DOUBLE = 3;
+
+        private transient int primitiveMode = PRIMITIVE_UNKNOWN;
+
         public NumericArithmetic(Expression p1, int operator, Expression p2) {
             super(p1, operator, p2);
         }
@@ -665,12 +675,143 @@ public class ArithmeticExpression extends BinaryExpression {
             return backCompatible;
         }
 
+        /**
+         * Decide whether the expression can be evaluated using primitive long or double arithmetic.
+         * Long arithmetic is used when both operands are statically known to be single integers, and
+         * the operator is one whose result is also an integer. Double arithmetic is used when both operands
+         * are single numeric values and the result is statically known to be a double.
+         */
+
+        private int getPrimitiveMode(XPathContext context) {
+            if (primitiveMode == PRIMITIVE_UNKNOWN) {
+                int mode = PRIMITIVE_NONE;
+                if (!backCompatible &&
+                        operand0.getCardinality() == StaticProperty.EXACTLY_ONE &&
+                        operand1.getCardinality() == StaticProperty.EXACTLY_ONE) {
+                    final TypeHierarchy th = context.getConfiguration().getTypeHierarchy();
+                    final ItemType t0 = operand0.getItemType(th);
+                    final ItemType t1 = operand1.getItemType(th);
+                    if (th.isSubType(t0, Type.INTEGER_TYPE) && th.isSubType(t1, Type.INTEGER_TYPE)) {
+                        if (operator != Token.DIV) {
+                            mode = PRIMITIVE_LONG;
+                        }
+                    } else if (th.isSubType(t0, Type.NUMBER_TYPE) && th.isSubType(t1, Type.NUMBER_TYPE) &&
+                            getItemType(th).getPrimitiveType() == Type.DOUBLE) {
+                        if (operator != Token.IDIV) {
+                            mode = PRIMITIVE_DOUBLE;
+                        }
+                    }
+                }
+                primitiveMode = mode;
+            }
+            return primitiveMode;
+        }
+
+        /**
+         * Evaluate the expression as a Java long, without allocating values for the operands
+         * or the result. Any case that cannot be handled using long arithmetic, including overflow
+         * and division by zero, is reported using {@link NumericValue#NOT_PRIMITIVE}, leaving
+         * the normal evaluation path to deliver the result or the error.
+         */
+
+        public long evaluateAsLong(XPathContext context) throws XPathException {
+            if (getPrimitiveMode(context) != PRIMITIVE_LONG) {
+                return super.evaluateAsLong(context);
+            }
+            final long a = operand0.evaluateAsLong(context);
+            final long b = operand1.evaluateAsLong(context);
+            long r;
+            switch (operator) {
+                case Token.PLUS:
+                    r = a + b;
+                    if (((a ^ r) & (b ^ r)) < 0) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return r;
+                case Token.MINUS:
+                    r = a - b;
+                    if (((a ^ b) & (a ^ r)) < 0) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return r;
+                case Token.NEGATE:
+                    if (b == Long.MIN_VALUE) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return -b;
+                case Token.MULT:
+                    r = a * b;
+                    if (((Math.abs(a) | Math.abs(b)) >>> 31 != 0) &&
+                            ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1))) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return r;
+                case Token.IDIV:
+                    if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return a / b;
+                case Token.MOD:
+                    if (b == 0) {
+                        throw NumericValue.NOT_PRIMITIVE;
+                    }
+                    return a % b;
+                default:
+                    throw NumericValue.NOT_PRIMITIVE;
+            }
+        }
+
+        /**
+         * Evaluate the expression as a Java double, without allocating values for the operands
+         * or the result.
+         */
+
+        public double evaluateAsDouble(XPathContext context) throws XPathException {
+            if (getPrimitiveMode(context) != PRIMITIVE_DOUBLE) {
+                return super.evaluateAsDouble(context);
+            }
+            final double a = operand0.evaluateAsDouble(context);
+            final double b = operand1.evaluateAsDouble(context);
+            switch (operator) {
+                case Token.PLUS:
+                    return a + b;
+                case Token.MINUS:
+                    return a - b;
+                case Token.NEGATE:
+                    return -b;
+                case Token.MULT:
+                    return a * b;
+                case Token.DIV:
+                    return a / b;
+                case Token.MOD:
+                    return a % b;
+                default:
+                    throw NumericValue.NOT_PRIMITIVE;
+            }
+        }
+
         /**
          * Evaluate the expression.
          */
 
         public Item evaluateItem(XPathContext context) throws XPathException {
             try {
+                switch (getPrimitiveMode(context)) {
+                    case PRIMITIVE_LONG:
+                        try {
+                            return IntegerValue.makeIntegerValue(evaluateAsLong(context));
+                        } catch (ArithmeticException err) {
+                            // fall through to the general path
+                        }
+                        break;
+                    case PRIMITIVE_DOUBLE:
+                        try {
+                            return new DoubleValue(evaluateAsDouble(context));
+                        } catch (ArithmeticException err) {
+                            // fall through to the general path
+                        }
+                        break;
+                }
                 return doArithmetic(operand0, operator, operand1, context, backCompatible);
             } catch (XPathException err) {
                 if (err.getLocator() == null) {
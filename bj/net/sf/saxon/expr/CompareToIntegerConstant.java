@@ -26,6 +26,7 @@ public class CompareToIntegerConstant extends ComputedExpression implements Comp
     private Expression operand;
     private long comparand;
     private int operator;
+    private transient int integerOperand = 0;   // 0: not yet known; 1: yes; 2: no
 
     public CompareToIntegerConstant(Expression operand, int operator, long comparand) {
         this.operand = operand;
@@ -164,11 +165,30 @@ public class CompareToIntegerConstant extends ComputedExpression implements Comp
      */
 
     public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        if (integerOperand == 0) {
+            final TypeHierarchy th = context.getConfiguration().getTypeHierarchy();
+            integerOperand = (th.isSubType(operand.getItemType(th), Type.INTEGER_TYPE) ? 1 : 2);
+        }
+        int c;
+        if (integerOperand == 1) {
+            // avoid allocating an IntegerValue for the operand if possible
+            try {
+                long n = operand.evaluateAsLong(context);
+                c = (n < comparand ? -1 : (n == comparand ? 0 : +1));
+                return testComparison(c);
+            } catch (ArithmeticException err) {
+                // fall through to the general path
+            }
+        }
         NumericValue n = (NumericValue)operand.evaluateItem(context);
         if (n.isNaN()) {
             return (operator == Token.FNE);
         }
-        int c = n.compareTo(comparand);
+        c = n.compareTo(comparand);
+        return testComparison(c);
+    }
+
+    private boolean testComparison(int c) {
         switch (operator) {
             case Token.FEQ:
                 return c == 0;
@@ -17,6 +17,8 @@ import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.SchemaType;
 import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.Cardinality;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.NumericValue;
 import net.sf.saxon.value.StringValue;
 import net.sf.saxon.Configuration;
 
@@ -591,6 +593,33 @@ public abstract class ComputedExpression
         return value.getStringValue();
     }
 
+    /**
+     * Evaluate an expression whose static type is a single xs:integer as a Java long.
+     * This default implementation calls {@link #evaluateItem}; subclasses that can compute the
+     * value without allocating an IntegerValue should override it.
+     */
+
+    public long evaluateAsLong(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (item instanceof IntegerValue) {
+            return ((IntegerValue)item).longValue();
+        }
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
+    /**
+     * Evaluate an expression whose static type is a single numeric value as a Java double.
+     * This default implementation calls {@link #evaluateItem}.
+     */
+
+    public double evaluateAsDouble(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (item instanceof NumericValue) {
+            return ((NumericValue)item).getDoubleValue();
+        }
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
     /**
      * Return an Iterator to iterate over the values of a sequence. The value of every
      * expression can be regarded as a sequence, so this method is supported for all
@@ -282,6 +282,41 @@ public interface Expression extends Serializable {
 
     public String evaluateAsString(XPathContext context) throws XPathException;
 
+    /**
+     * Evaluate an expression as a Java long. This function must only be called in contexts
+     * where it is known statically that the expression will return a single xs:integer. It allows
+     * numeric expressions to be evaluated without allocating an IntegerValue for each intermediate
+     * result.
+     *
+     * @exception XPathException if any dynamic error occurs evaluating the
+     *     expression
+     * @exception ArithmeticException if the value cannot be delivered as a long, for example
+     *     because it is outside the range of a long, or because the operation would fail; the
+     *     exception thrown is {@link net.sf.saxon.value.NumericValue#NOT_PRIMITIVE}. The caller
+     *     must then evaluate the expression using {@link #evaluateItem}, which will deliver
+     *     the correct result or error.
+     * @param context The context in which the expression is to be evaluated
+     * @return the value of the expression, as a Java long
+     */
+
+    public long evaluateAsLong(XPathContext context) throws XPathException;
+
+    /**
+     * Evaluate an expression as a Java double. This function must only be called in contexts
+     * where it is known statically that the expression will return a single numeric value, and
+     * where the value is to be promoted to xs:double.
+     *
+     * @exception XPathException if any dynamic error occurs evaluating the
+     *     expression
+     * @exception ArithmeticException if the value cannot be delivered as a double; the
+     *     exception thrown is {@link net.sf.saxon.value.NumericValue#NOT_PRIMITIVE}, and the caller
+     *     must then evaluate the expression using {@link #evaluateItem}.
+     * @param context The context in which the expression is to be evaluated
+     * @return the value of the expression, as a Java double
+     */
+
+    public double evaluateAsDouble(XPathContext context) throws XPathException;
+
     /**
      * Evaluate the expression in "push" mode: the results of evaluating the expression are
      * sent to the {@link net.sf.saxon.event.Receiver} registered as part of the supplied context.
@@ -41,6 +41,7 @@ public class ExpressionTool {
     public static final int PROCESS = 9;
     public static final int LAZY_TAIL_EXPRESSION = 10;
     public static final int SHARED_APPEND_EXPRESSION = 11;
+    public static final int SHARED_UPDATE_EXPRESSION = 12;
 
     private ExpressionTool() {}
 
@@ -265,17 +266,25 @@ public class ExpressionTool {
         } else if (exp instanceof Block &&
                     ((Block)exp).getChildren().length == 2 &&
                     (((Block)exp).getChildren()[0] instanceof VariableReference ||
-                        ((Block)exp).getChildren()[0] instanceof Value)) {
+                        ((Block)exp).getChildren()[0] instanceof Value ||
+                        ((Block)exp).getChildren()[1] instanceof VariableReference)) {
                     // If the expression is a Block, that is, it is appending a value to a sequence,
-                    // then we have the opportunity to use a shared list underpinning the old value and
+                    // then we have the opportunity to use a persistent tree shared by the old value and
                     // the new. This takes precedence over lazy evaluation (it would be possible to do this
                     // lazily, but more difficult). We currently only do this for the common case of a two-argument
-                    // append expression, in the case where the first argument is either a value, or a variable
-                    // reference identifying a value. The most common case is that the first argument is a reference
-                    // to an argument of recursive function, where the recursive function returns the result of
-                    // appending to the sequence.
+                    // append expression, in the case where one of the arguments is a variable reference, or the
+                    // first is a value. The most common case is that the variable is an argument of a recursive
+                    // function, where the recursive function returns the result of appending (or prepending)
+                    // to the sequence.
             return SHARED_APPEND_EXPRESSION;
 
+        } else if (exp instanceof PersistentSequence.Updater &&
+                    ((PersistentSequence.Updater)exp).getBaseExpression() instanceof VariableReference) {
+                    // Similarly, functions such as insert-before() and remove() applied to a sequence held
+                    // in a variable are evaluated eagerly, so that the result can share the tree
+                    // representing the original sequence
+            return SHARED_UPDATE_EXPRESSION;
+
         } else {
             // create a Closure, a wrapper for the expression and its context
             return MAKE_CLOSURE;
@@ -409,50 +418,25 @@ public class ExpressionTool {
                             tail.getStart() - 1,
                             ((SequenceExtent)base).getLength() - tail.getStart() + 1);
                 }
+                if (base instanceof PersistentSequence) {
+                    return ((PersistentSequence)base).subsequence(
+                            tail.getStart() - 1, Integer.MAX_VALUE).simplify();
+                }
 
                 return Closure.make(tail, context, ref);
             }
 
             case SHARED_APPEND_EXPRESSION: {
                 Block block = (Block)exp;
-                Expression base = block.getChildren()[0];
-                if (base instanceof VariableReference) {
-                    base = Value.asValue(evaluate(base, EVALUATE_VARIABLE, context, ref));
-                    if (base instanceof MemoClosure && ((MemoClosure)base).isFullyRead()) {
-                        base = ((MemoClosure)base).materialize();
-                    }
-                }
-                if (base instanceof ShareableSequence && ((ShareableSequence)base).isShareable()) {
-                    List list = ((ShareableSequence)base).getList();
-                    SequenceIterator iter = block.getChildren()[1].iterate(context);
-                    while (true) {
-                        Item i = iter.next();
-                        if (i == null) {
-                            break;
-                        }
-                        list.add(i);
-                    }
-                    return new ShareableSequence(list);
-                } else if (base instanceof Value) {
-                    List list = new ArrayList(20);
-                    SequenceIterator iter = base.iterate(context);
-                    while (true) {
-                        Item i = iter.next();
-                        if (i == null) {
-                            break;
-                        }
-                        list.add(i);
-                    }
-                    iter = block.getChildren()[1].iterate(context);
-                    while (true) {
-                        Item i = iter.next();
-                        if (i == null) {
-                            break;
-                        }
-                        list.add(i);
-                    }
-                    return new ShareableSequence(list);
-                }
+                PersistentSequence first = evaluatePersistent(block.getChildren()[0], context, ref);
+                PersistentSequence second = evaluatePersistent(block.getChildren()[1], context, ref);
+                return first.concatenate(second).simplify();
+            }
+
+            case SHARED_UPDATE_EXPRESSION: {
+                PersistentSequence.Updater updater = (PersistentSequence.Updater)exp;
+                PersistentSequence base = evaluatePersistent(updater.getBaseExpression(), context, ref);
+                return updater.update(base, context).simplify();
             }
 
             default:
@@ -461,6 +445,27 @@ public class ExpressionTool {
         }
     }
 
+    /**
+     * Evaluate an operand of an expression evaluated using SHARED_APPEND_EXPRESSION or
+     * SHARED_UPDATE_EXPRESSION, delivering the result as a PersistentSequence. If the operand is a
+     * variable whose value is already a PersistentSequence, the tree is shared rather than copied.
+     */
+
+    private static PersistentSequence evaluatePersistent(Expression exp, XPathContext context, int ref)
+    throws XPathException {
+        if (exp instanceof VariableReference) {
+            ValueRepresentation val = evaluate(exp, EVALUATE_VARIABLE, context, ref);
+            if (val instanceof MemoClosure && ((MemoClosure)val).isFullyRead()) {
+                val = ((MemoClosure)val).materialize();
+            }
+            return PersistentSequence.makePersistentSequence(val, context);
+        } else if (exp instanceof Value) {
+            return PersistentSequence.makePersistentSequence((Value)exp, context);
+        } else {
+            return PersistentSequence.makePersistentSequence(exp.iterate(context));
+        }
+    }
+
     /**
      * Do lazy evaluation of an expression. This will return a value, which may optionally
      * be a SequenceIntent, which is a wrapper around an iterator over the value of the expression.
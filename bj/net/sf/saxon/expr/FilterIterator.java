@@ -112,8 +112,10 @@ public class FilterIterator implements SequenceIterator {
                 if (iterator.next() != null) {
                     ExpressionTool.ebvError("sequence of two or more items starting with a numeric value");
                 }
-                IntegerValue basePos = new IntegerValue(base.position());
-                return first.equals(basePos);
+                if (first instanceof IntegerValue) {
+                    return ((IntegerValue)first).longValue() == base.position();
+                }
+                return ((NumericValue)first).compareTo(base.position()) == 0;
             } else {
                 ExpressionTool.ebvError("sequence starting with an atomic value other than a boolean, number, or string");
                 return false;
@@ -1,7 +1,10 @@
 package net.sf.saxon.expr;
 import net.sf.saxon.Configuration;
+import net.sf.saxon.event.SequenceReceiver;
 import net.sf.saxon.functions.SystemFunction;
 import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ListIterator;
+import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.trace.Location;
@@ -23,10 +26,13 @@ import java.util.List;
 * This version works with range variables, it doesn't change the context information
 */
 
-public class ForExpression extends Assignation {
+public class ForExpression extends Assignation implements ParallelMapper.Task {
 
     private transient RangeVariableDeclaration positionVariable = null;
     private PositionBinding positionBinding = null;
+    private int threads = 0;
+    private transient ParallelMapper parallelMapper = null;
+    private transient boolean parallelMapperAnalyzed = false;
 
 
     public ForExpression() {
@@ -77,6 +83,41 @@ public class ForExpression extends Assignation {
         return (positionBinding == null ? 1 : 2);
     }
 
+    /**
+     * Request that the return expression be evaluated for different items of the input sequence
+     * in parallel, using a given number of threads (XQuery only: saxon:threads). The request is ignored
+     * if the return expression cannot safely be evaluated in parallel.
+     * @param threads the number of threads to be used. A value of 0 or 1 means the expression is
+     * evaluated sequentially.
+     */
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Get the number of threads requested for evaluating this expression
+     */
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get the ParallelMapper used to evaluate the expression in parallel, or null if it is to be
+     * evaluated sequentially. The analysis is done on first use, when slot numbers are known.
+     */
+
+    private synchronized ParallelMapper getParallelMapper() {
+        if (!parallelMapperAnalyzed) {
+            if (threads > 1) {
+                parallelMapper = ParallelMapper.analyze(action, extendBindingList(new Binding[0]), threads);
+            }
+            parallelMapperAnalyzed = true;
+        }
+        return parallelMapper;
+    }
+
     /**
     * Type-check the expression
     */
@@ -487,6 +528,12 @@ public class ForExpression extends Assignation {
         // setting the range variable at each step.
 
         SequenceIterator base = sequence.iterate(context);
+        if (threads > 1) {
+            ParallelMapper mapper = getParallelMapper();
+            if (mapper != null && mapper.isApplicable(context)) {
+                return new ListIterator(mapper.evaluate(base, context.newContext(), this));
+            }
+        }
                                                             // TODO:PERF treat "for" over singleton specially
         MappingFunction map = new MappingAction(context, slotNumber, positionBinding, action);
         return new MappingIterator(base, map);
@@ -499,6 +546,17 @@ public class ForExpression extends Assignation {
 
     public void process(XPathContext context) throws XPathException {
         SequenceIterator iter = sequence.iterate(context);
+        if (threads > 1) {
+            ParallelMapper mapper = getParallelMapper();
+            if (mapper != null && mapper.isApplicable(context)) {
+                List result = mapper.evaluate(iter, context.newContext(), this);
+                SequenceReceiver out = context.getReceiver();
+                for (int i=0; i<result.size(); i++) {
+                    out.append((Item)result.get(i), locationId, NodeInfo.ALL_NAMESPACES);
+                }
+                return;
+            }
+        }
         int position = 1;
         while (true) {
             Item item = iter.next();
@@ -511,6 +569,23 @@ public class ForExpression extends Assignation {
         }
     }
 
+    /**
+     * Evaluate the return expression for one part of the input sequence, as one of the threads
+     * of a parallel evaluation
+     */
+
+    public void processPart(SequenceIterator part, XPathContextMajor context) throws XPathException {
+        while (true) {
+            Item item = part.next();
+            if (item == null) break;
+            context.setLocalVariable(slotNumber, item);
+            if (positionBinding != null) {
+                positionBinding.setPosition(part.position(), context);
+            }
+            action.process(context);
+        }
+    }
+
     /**
     * Determine the data type of the items returned by the expression, if possible
     * @return one of the values Type.STRING, Type.BOOLEAN, Type.NUMBER, Type.NODE,
@@ -610,7 +685,7 @@ public class ForExpression extends Assignation {
         }
 
         private void setPosition(int position, XPathContext context) {
-            context.setLocalVariable(slotNumber, new IntegerValue(position));
+            context.setLocalVariable(slotNumber, IntegerValue.makeIntegerValue(position));
         }
 
         /**
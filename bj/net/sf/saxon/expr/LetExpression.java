@@ -1,19 +1,23 @@
 package net.sf.saxon.expr;
 import net.sf.saxon.Configuration;
-import net.sf.saxon.instruct.DocumentInstr;
-import net.sf.saxon.instruct.TailCall;
-import net.sf.saxon.instruct.TailCallReturner;
+import net.sf.saxon.functions.SystemFunction;
+import net.sf.saxon.instruct.*;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.tinytree.TinyDocumentImpl;
+import net.sf.saxon.tinytree.TinyTreeArena;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.SchemaType;
+import net.sf.saxon.type.Type;
 import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.Cardinality;
 import net.sf.saxon.value.Value;
 
 import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.List;
 
 /**
 * A LetExpression is modelled on the XQuery syntax let $x := expr return expr. This syntax
@@ -31,6 +35,10 @@ public class LetExpression extends Assignation implements TailCallReturner {
     int refCount;
     int evaluationMode = ExpressionTool.UNDECIDED;
 
+    // Indicates whether the value of the variable is a temporary tree whose storage can be recycled once
+    // the action has been processed: 0 means not yet known, 1 means it can, -1 means it cannot
+    private transient int temporaryTree = 0;
+
     public LetExpression() {}
 
     public void setIndexedVariable() {
@@ -103,6 +111,11 @@ public class LetExpression extends Assignation implements TailCallReturner {
                 // variable is not used - no need to evaluate it
                 return action;
             }
+            if (refCount == 1 && inlineSingleReference(declaration.getReferenceList())) {
+                // variable is used once, and its value is now computed where it is used
+                declaration = null;
+                return action.optimize(opt, env, contextItemType);
+            }
             declaration = null;     // let the garbage collector take it
         }
 
@@ -136,9 +149,61 @@ public class LetExpression extends Assignation implements TailCallReturner {
         }
 
         evaluationMode = ExpressionTool.lazyEvaluationMode(sequence);
+        if (evaluationMode == ExpressionTool.MAKE_CLOSURE &&
+                refCount >= 10 && refCount != RangeVariableDeclaration.FILTERED) {
+            // The variable is referenced within a loop, so its value will be needed repeatedly.
+            // Rather than saving the context in a MemoClosure, evaluate it on entry. (A LazyExpression,
+            // created when a loop-invariant expression is moved out of a loop, is always evaluated lazily,
+            // and never reaches this point.)
+            evaluationMode = ExpressionTool.eagerEvaluationMode(sequence);
+        }
         return this;
     }
 
+    /**
+     * Replace the only reference to the variable by the expression that computes its value. This
+     * is done when the variable is referenced once and not within a loop, so the value would
+     * otherwise be computed using a Closure that is read only once. It is not done if the value depends
+     * on the focus or on the XSLT context, which might be different at the point of reference.
+     * @param references the list of references to the variable
+     * @return true if the reference has been replaced, in which case the LetExpression can be replaced by
+     * its action
+     */
+
+    private boolean inlineSingleReference(List references) {
+        if (references.size() != 1 || !(references.get(0) instanceof VariableReference) ||
+                sequence instanceof LazyExpression ||
+                (sequence.getDependencies() &
+                    (StaticProperty.DEPENDS_ON_FOCUS | StaticProperty.DEPENDS_ON_XSLT_CONTEXT)) != 0) {
+            return false;
+        }
+        VariableReference ref = (VariableReference)references.get(0);
+        if (ref.getBinding() != this) {
+            return false;
+        }
+        Container parent = ref.getParentExpression();
+        if (parent == this) {
+            if (action != ref) {
+                return false;
+            }
+            action = sequence;
+        } else if (parent instanceof ComputedExpression) {
+            try {
+                if (!((ComputedExpression)parent).replaceSubExpression(ref, sequence)) {
+                    return false;
+                }
+            } catch (IllegalArgumentException err) {
+                // the parent expression does not support replacement of its subexpressions
+                return false;
+            }
+            ((ComputedExpression)parent).adoptChildExpression(sequence);
+        } else {
+            return false;
+        }
+        ComputedExpression.setParentExpression(action, getParentExpression());
+        return true;
+    }
+
 
     /**
      * Check that any elements and attributes constructed or returned by this expression are acceptable
@@ -209,8 +274,15 @@ public class LetExpression extends Assignation implements TailCallReturner {
     public void process(XPathContext context) throws XPathException {
         // minimize stack consumption by evaluating nested LET expressions iteratively
         LetExpression let = this;
+        boolean recycle = false;
         while (true) {
-            ValueRepresentation val = let.eval(context);
+            ValueRepresentation val;
+            if (let.isTemporaryTree(context)) {
+                val = let.evalTemporaryTree(context);
+                recycle = true;
+            } else {
+                val = let.eval(context);
+            }
             context.setLocalVariable(let.slotNumber, val);
             if (let.action instanceof LetExpression) {
                 let = (LetExpression)let.action;
@@ -219,6 +291,134 @@ public class LetExpression extends Assignation implements TailCallReturner {
             }
         }
         let.action.process(context);
+        if (recycle) {
+            releaseTemporaryTrees(let, context);
+        }
+    }
+
+    /**
+     * Determine whether the value of the variable is a temporary tree that can be allocated from the
+     * Controller's arena, and released to the arena once the action has been processed. This is the case
+     * if the variable is bound to a document constructor (for example, an xsl:variable with content), and
+     * no node in the tree can be referenced after the action has completed. The test is conservative: every
+     * reference to the variable must be used only to compute atomic values, as the argument of xsl:copy-of
+     * or xsl:value-of, or as the condition of xsl:if or xsl:choose. Anything else, for example passing the
+     * tree to a template or returning nodes from it, means the tree keeps its own storage. Trees are
+     * never recycled by the threads of a parallel iteration.
+     */
+
+    private boolean isTemporaryTree(XPathContext context) {
+        if (context.getController().isThreadController()) {
+            // the nodes may be read by other threads of a parallel iteration
+            return false;
+        }
+        if (temporaryTree == 0) {
+            boolean recyclable = false;
+            if (sequence instanceof DocumentInstr) {
+                final TypeHierarchy th = context.getConfiguration().getTypeHierarchy();
+                recyclable = !referenceEscapes(action, th);
+            }
+            temporaryTree = (recyclable ? 1 : -1);
+        }
+        return temporaryTree == 1;
+    }
+
+    /**
+     * Determine whether any reference to this variable within a given expression might allow
+     * a node in its value to be used after the action of the let expression has completed.
+     * Any use of the reference that is not recognized as consuming the nodes eagerly is taken
+     * to be an escape.
+     */
+
+    private boolean referenceEscapes(Expression exp, TypeHierarchy th) {
+        if (exp instanceof VariableReference && ((VariableReference)exp).getBinding() == this) {
+            Expression child = exp;
+            boolean consumed = false;
+            while (true) {
+                Container parent = ((ComputedExpression)child).getParentExpression();
+                if (parent == this) {
+                    return !consumed;
+                }
+                if (!(parent instanceof ComputedExpression)) {
+                    return true;
+                }
+                if (parent instanceof LetExpression && ((LetExpression)parent).getSequence() == child &&
+                        Cardinality.allowsMany(child.getCardinality())) {
+                    // the value may be bound lazily, as a Closure that still refers to the tree
+                    return true;
+                }
+                if (!consumed) {
+                    if (child != exp && isAtomizing(child) &&
+                            th.isSubType(child.getItemType(th), Type.ANY_ATOMIC_TYPE)) {
+                        consumed = true;
+                    } else if (parent instanceof CopyOf || parent instanceof SimpleNodeConstructor) {
+                        consumed = true;
+                    } else if (parent instanceof Choose) {
+                        Expression[] conditions = ((Choose)parent).getConditions();
+                        for (int i=0; i<conditions.length; i++) {
+                            if (conditions[i] == child) {
+                                consumed = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+                child = (Expression)parent;
+            }
+        }
+        for (Iterator children = exp.iterateSubExpressions(); children.hasNext();) {
+            if (referenceEscapes((Expression)children.next(), th)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test whether an expression is known to read the nodes supplied in its operands while it is
+     * being evaluated, and to return only atomic values computed from them
+     */
+
+    private static boolean isAtomizing(Expression exp) {
+        return exp instanceof Atomizer ||
+                exp instanceof AtomicSequenceConverter ||
+                exp instanceof UntypedAtomicConverter ||
+                exp instanceof CastExpression ||
+                exp instanceof CastableExpression ||
+                exp instanceof InstanceOfExpression ||
+                exp instanceof BinaryExpression ||
+                exp instanceof SystemFunction;
+    }
+
+    /**
+     * Construct the value of the variable as a temporary tree allocated from the Controller's arena
+     */
+
+    private ValueRepresentation evalTemporaryTree(XPathContext context) throws XPathException {
+        TinyTreeArena arena = context.getController().getTemporaryTreeArena();
+        return ((DocumentInstr)sequence).evaluateTemporaryTree(context, arena);
+    }
+
+    /**
+     * Release the temporary trees bound to the variables of this let expression and the let expressions
+     * nested within it, up to and including the last one, once the action has been processed
+     */
+
+    private void releaseTemporaryTrees(LetExpression last, XPathContext context) {
+        TinyTreeArena arena = context.getController().getTemporaryTreeArena();
+        LetExpression let = this;
+        while (true) {
+            if (let.temporaryTree == 1) {
+                ValueRepresentation val = context.evaluateLocalVariable(let.slotNumber);
+                if (val instanceof TinyDocumentImpl) {
+                    arena.release(((TinyDocumentImpl)val).getTree());
+                }
+            }
+            if (let == last) {
+                break;
+            }
+            let = (LetExpression)let.action;
+        }
     }
 
 
@@ -339,8 +539,15 @@ public class LetExpression extends Assignation implements TailCallReturner {
     public TailCall processLeavingTail(XPathContext context) throws XPathException {
         // minimize stack consumption by evaluating nested LET expressions iteratively
         LetExpression let = this;
+        boolean recycle = false;
         while (true) {
-            ValueRepresentation val = let.eval(context);
+            ValueRepresentation val;
+            if (let.isTemporaryTree(context)) {
+                val = let.evalTemporaryTree(context);
+                recycle = true;
+            } else {
+                val = let.eval(context);
+            }
             context.setLocalVariable(let.slotNumber, val);
             if (let.action instanceof LetExpression) {
                 let = (LetExpression)let.action;
@@ -349,9 +556,17 @@ public class LetExpression extends Assignation implements TailCallReturner {
             }
         }
         if (let.action instanceof TailCallReturner) {
-            return ((TailCallReturner)let.action).processLeavingTail(context);
+            TailCall tail = ((TailCallReturner)let.action).processLeavingTail(context);
+            // a tail call may still use the variables, so the trees are released only if there is none
+            if (recycle && tail == null) {
+                releaseTemporaryTrees(let, context);
+            }
+            return tail;
         } else {
             let.action.process(context);
+            if (recycle) {
+                releaseTemporaryTrees(let, context);
+            }
             return null;
         }
     }
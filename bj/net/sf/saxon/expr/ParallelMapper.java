@@ -0,0 +1,492 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.SequenceOutputter;
+import net.sf.saxon.functions.Evaluate;
+import net.sf.saxon.functions.ExtensionFunctionCall;
+import net.sf.saxon.functions.Trace;
+import net.sf.saxon.instruct.*;
+import net.sf.saxon.om.ArrayIterator;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Closure;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A ParallelMapper evaluates the body of an iteration (an xsl:for-each instruction, or the "for"
+ * clause of an XQuery FLWOR expression) for each item of the input sequence using several threads,
+ * and delivers the results in the order of the input. It is used only when the stylesheet or query
+ * asks for it, using the saxon:threads attribute of xsl:for-each, or the saxon:threads option
+ * declaration or pragma in XQuery.
+ *
+ * <p>The input sequence is evaluated first, on the calling thread, and is divided into contiguous
+ * parts, several for each thread, which are allocated to the threads as they become free. Each thread
+ * has its own Controller, created using {@link Controller#newThreadController}, which shares the
+ * global variables and the documents of the main Controller, and each part is evaluated using a
+ * private copy of the stack frame, with the results written to a private SequenceOutputter. The results
+ * of the parts are then concatenated. If evaluation of any part fails, the error reported is the one
+ * that occurred earliest in input order.</p>
+ *
+ * <p>A body qualifies for parallel evaluation only if it (and any function or named template that it
+ * calls) has no side-effects, and does not call extension functions or apply template rules. If it does
+ * not qualify, the saxon:threads request is ignored.</p>
+ */
+
+public final class ParallelMapper {
+
+    private final int threads;
+    private final int[] outerSlots;     // local variables declared outside the body and used within it
+    private final GlobalVariable[] globals;     // global variables used by the body
+
+    /**
+     * A Task evaluates the body of the iteration for one part of the input sequence
+     */
+
+    public interface Task {
+
+        /**
+         * Evaluate the body for each item in one part of the input sequence, writing the results
+         * to the current receiver of the supplied context
+         * @param part an iterator over the items in this part of the input. The position() of this
+         * iterator is the position of the item in the whole input sequence, and it acts as a
+         * {@link LastPositionFinder} whose last position is the length of the whole input sequence.
+         * @param context a context for the exclusive use of the current thread. Its stack frame is a
+         * private copy of the stack frame of the context supplied to {@link #evaluate}.
+         */
+
+        public void processPart(SequenceIterator part, XPathContextMajor context) throws XPathException;
+    }
+
+    private ParallelMapper(int threads, int[] outerSlots, GlobalVariable[] globals) {
+        this.threads = threads;
+        this.outerSlots = outerSlots;
+        this.globals = globals;
+    }
+
+    /**
+     * Analyze the body of an iteration to decide whether it can be evaluated in parallel. This must
+     * be called after slot numbers have been allocated to local variables.
+     * @param body the expression evaluated for each item
+     * @param bindings the range variables bound by the iteration itself, if any
+     * @param threads the number of threads requested
+     * @return a ParallelMapper, or null if the body cannot safely be evaluated in parallel
+     */
+
+    public static ParallelMapper analyze(Expression body, Binding[] bindings, int threads) {
+        HashSet declared = new HashSet(10);
+        HashSet referenced = new HashSet(10);
+        for (int i=0; i<bindings.length; i++) {
+            declared.add(new Integer(bindings[i].getLocalSlotNumber()));
+        }
+        HashSet visited = new HashSet(10);
+        if (!scan(body, true, visited, declared, referenced)) {
+            return null;
+        }
+        referenced.removeAll(declared);
+        int[] outerSlots = new int[referenced.size()];
+        int s = 0;
+        for (Iterator iter = referenced.iterator(); iter.hasNext();) {
+            outerSlots[s++] = ((Integer)iter.next()).intValue();
+        }
+        List globals = new ArrayList(10);
+        for (Iterator iter = visited.iterator(); iter.hasNext();) {
+            Object v = iter.next();
+            if (v instanceof GlobalVariable) {
+                globals.add(v);
+            }
+        }
+        return new ParallelMapper(threads, outerSlots,
+                (GlobalVariable[])globals.toArray(new GlobalVariable[globals.size()]));
+    }
+
+    /**
+     * Examine an expression and its subexpressions, including the bodies of any functions and
+     * templates called and the definitions of any global variables referenced
+     * @param exp the expression to be examined
+     * @param inBody true if the expression is part of the body itself, rather than part of a function or
+     * template that it calls
+     * @param visited the functions, templates and global variables already examined
+     * @param declared the slot numbers of local variables declared within the body
+     * @param referenced the slot numbers of local variables referenced within the body
+     * @return false if the expression cannot safely be evaluated in parallel
+     */
+
+    private static boolean scan(Expression exp, boolean inBody, HashSet visited,
+                                HashSet declared, HashSet referenced) {
+        if (exp instanceof VariableReference) {
+            Binding b = ((VariableReference)exp).getBinding();
+            if (b == null) {
+                return false;
+            }
+            if (b.isGlobal()) {
+                if (!(b instanceof GlobalVariable)) {
+                    // a variable supplied by the calling application
+                    return false;
+                }
+                // a thread may be the first to use the variable, in which case it evaluates it
+                if (visited.add(b)) {
+                    Expression select = ((GlobalVariable)b).getSelectExpression();
+                    if (select != null && !scan(select, false, visited, declared, referenced)) {
+                        return false;
+                    }
+                }
+            } else if (inBody) {
+                referenced.add(new Integer(b.getLocalSlotNumber()));
+            }
+        } else if (exp instanceof UserFunctionCall) {
+            UserFunction f = ((UserFunctionCall)exp).getFunction();
+            if (f == null || f.getBody() == null) {
+                return false;
+            }
+            if (visited.add(f) && !scan(f.getBody(), false, visited, declared, referenced)) {
+                return false;
+            }
+        } else if (exp instanceof CallTemplate) {
+            Template t = ((CallTemplate)exp).getStaticTarget();
+            if (t == null || t.getBody() == null) {
+                return false;
+            }
+            if (visited.add(t) && !scan(t.getBody(), false, visited, declared, referenced)) {
+                return false;
+            }
+        } else if (!isThreadSafe(exp)) {
+            return false;
+        }
+        if (inBody) {
+            if (exp instanceof Assignation) {
+                Binding[] b = ((Assignation)exp).extendBindingList(new Binding[0]);
+                for (int i=0; i<b.length; i++) {
+                    declared.add(new Integer(b[i].getLocalSlotNumber()));
+                }
+            } else if (exp instanceof Binding && !((Binding)exp).isGlobal()) {
+                declared.add(new Integer(((Binding)exp).getLocalSlotNumber()));
+            }
+        }
+        for (Iterator sub = exp.iterateSubExpressions(); sub.hasNext();) {
+            if (!scan((Expression)sub.next(), inBody, visited, declared, referenced)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether an expression can be evaluated on a thread other than the one running the
+     * transformation. This excludes expressions that have side-effects, that call out to user code,
+     * or that depend on state held by the Controller and not shared with other threads. The test
+     * applies to the expression itself, not to its subexpressions.
+     * @param exp the expression to be tested
+     * @return true if the expression can be evaluated on another thread
+     */
+
+    public static boolean isThreadSafe(Expression exp) {
+        String name = exp.getClass().getName();
+        if (!name.startsWith("net.sf.saxon.") || name.startsWith("net.sf.saxon.sql.")) {
+            return false;
+        }
+        return !(exp instanceof ExtensionFunctionCall ||
+                exp instanceof Evaluate ||
+                exp instanceof Trace ||
+                exp instanceof TraceWrapper ||
+                exp instanceof Message ||
+                exp instanceof ResultDocument ||
+                exp instanceof Assign ||
+                exp instanceof ApplyTemplates ||
+                exp instanceof ApplyImports ||
+                exp instanceof NextMatch ||
+                name.equals("net.sf.saxon.xpath.XPathFunctionCall"));
+    }
+
+    /**
+     * Determine whether the iteration can be evaluated in parallel in a given context. It is not
+     * evaluated in parallel if tracing is enabled, or if it is already running on one of the threads
+     * of an enclosing parallel iteration.
+     */
+
+    public boolean isApplicable(XPathContext context) {
+        Controller controller = context.getController();
+        return threads > 1 && !controller.isTracing() && !controller.isThreadController();
+    }
+
+    /**
+     * Evaluate the iteration
+     * @param input the input sequence
+     * @param context the context for evaluating the body. This supplies the stack frame, the
+     * current template rule, and other context information; the focus is set by the Task.
+     * @param task the Task that evaluates the body for one part of the input sequence
+     * @return the results of the iteration, as a list of items in order
+     * @throws XPathException if evaluation of the body fails
+     */
+
+    public List evaluate(SequenceIterator input, XPathContextMajor context, Task task) throws XPathException {
+        List list = new ArrayList(100);
+        while (true) {
+            Item item = input.next();
+            if (item == null) {
+                break;
+            }
+            list.add(item);
+        }
+        Item[] items = (Item[])list.toArray(new Item[list.size()]);
+
+        int parts = Math.min(items.length, threads * 4);
+        if (parts < 1) {
+            parts = 1;
+        }
+        if (parts > 1) {
+            // Closures held in the stack frame or in tunnel parameters are evaluated by reading an
+            // underlying iterator, which cannot be shared between threads: so evaluate them now. The
+            // values are held in a copy of the stack frame and of the tunnel parameters, so that the
+            // caller's own frame and parameters are not changed.
+            context = newBaseContext(context);
+        }
+
+        Run run = new Run(items, parts, context, task);
+        int workers = Math.min(threads, parts) - 1;
+        for (int w=0; w<workers; w++) {
+            Thread t = new Thread(run, "parallel-" + w);
+            t.setDaemon(true);
+            t.start();
+        }
+        run.run();
+        run.awaitCompletion();
+        return run.getResult();
+    }
+
+    /**
+     * Make the context from which the contexts used by the threads are copied. This has a private
+     * copy of the stack frame and the tunnel parameters of the supplied context, in which the values
+     * used by the body are fully evaluated.
+     * @param context the context supplied by the caller
+     * @return the new context
+     * @throws XPathException if the evaluation of any of the values fails
+     */
+
+    private XPathContextMajor newBaseContext(XPathContextMajor context) throws XPathException {
+        XPathContextMajor base = context.newContext();
+        StackFrame frame = context.getStackFrame();
+        if (frame != StackFrame.EMPTY) {
+            ValueRepresentation[] slots = (ValueRepresentation[])frame.getStackFrameValues().clone();
+            for (int i=0; i<outerSlots.length; i++) {
+                int s = outerSlots[i];
+                if (s >= 0 && s < slots.length && slots[s] instanceof Closure) {
+                    slots[s] = ((Closure)slots[s]).reduce();
+                }
+            }
+            base.setStackFrame(frame.getStackFrameMap(), slots);
+        }
+        ParameterSet tunnel = context.getTunnelParameters();
+        if (tunnel != null) {
+            ParameterSet copy = new ParameterSet(tunnel, 0);
+            copy.materializeValues();
+            base.setTunnelParameters(copy);
+        }
+        Bindery bindery = context.getController().getBindery();
+        for (int i=0; i<globals.length; i++) {
+            ValueRepresentation value = bindery.getGlobalVariableValue(globals[i]);
+            if (value instanceof Closure) {
+                bindery.defineGlobalVariable(globals[i], ((Closure)value).reduce());
+            }
+        }
+        return base;
+    }
+
+    /**
+     * The state of one evaluation of the iteration. Fields other than the immutable ones are guarded
+     * by the Run object's lock.
+     */
+
+    private static class Run implements Runnable {
+
+        private final Item[] items;
+        private final int parts;
+        private final XPathContextMajor context;
+        private final Task task;
+        private final List[] results;
+        private final Throwable[] errors;
+        private int nextPart = 0;
+        private int firstError;         // the first part whose evaluation failed
+        private int active = 0;         // the number of threads currently running
+
+        Run(Item[] items, int parts, XPathContextMajor context, Task task) {
+            this.items = items;
+            this.parts = parts;
+            this.context = context;
+            this.task = task;
+            results = new List[parts];
+            errors = new Throwable[parts];
+            firstError = parts;
+        }
+
+        public void run() {
+            synchronized (this) {
+                active++;
+            }
+            try {
+                Controller controller = null;
+                while (true) {
+                    int k;
+                    synchronized (this) {
+                        // there is no point evaluating parts that follow one that has failed
+                        if (nextPart >= parts || nextPart > firstError) {
+                            return;
+                        }
+                        k = nextPart++;
+                    }
+                    try {
+                        if (controller == null) {
+                            controller = context.getController().newThreadController();
+                        }
+                        List result = processPart(k, controller);
+                        synchronized (this) {
+                            results[k] = result;
+                        }
+                    } catch (Throwable err) {
+                        synchronized (this) {
+                            errors[k] = err;
+                            if (k < firstError) {
+                                firstError = k;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    active--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private List processPart(int k, Controller controller) throws XPathException {
+            int start = (int)((long)k * items.length / parts);
+            int end = (int)((long)(k+1) * items.length / parts);
+            XPathContextMajor c = XPathContextMajor.newThreadContext(context, controller);
+            SequenceOutputter out = new SequenceOutputter(controller, end - start);
+            PipelineConfiguration pipe = controller.makePipelineConfiguration();
+            pipe.setHostLanguage(controller.getExecutable().getHostLanguage());
+            out.setPipelineConfiguration(pipe);
+            c.setTemporaryReceiver(out);
+            out.open();
+            task.processPart(new PartIterator(items, start, end), c);
+            out.close();
+            return out.getList();
+        }
+
+        /**
+         * Wait until all threads have finished
+         */
+
+        synchronized void awaitCompletion() {
+            while (active > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        synchronized List getResult() throws XPathException {
+            if (firstError < parts) {
+                Throwable err = errors[firstError];
+                if (err instanceof XPathException) {
+                    throw (XPathException)err;
+                } else if (err instanceof RuntimeException) {
+                    throw (RuntimeException)err;
+                } else if (err instanceof Error) {
+                    throw (Error)err;
+                } else {
+                    throw new DynamicError(err);
+                }
+            }
+            int size = 0;
+            for (int k=0; k<parts; k++) {
+                size += results[k].size();
+            }
+            List result = new ArrayList(size);
+            for (int k=0; k<parts; k++) {
+                result.addAll(results[k]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Iterator over one part of the input sequence. The position of an item is its position in the
+     * whole sequence, and the last position is the length of the whole sequence.
+     */
+
+    private static final class PartIterator implements LastPositionFinder {
+
+        private final Item[] items;
+        private final int end;
+        private int index;
+        private Item current = null;
+        private int position = 0;
+
+        PartIterator(Item[] items, int start, int end) {
+            this.items = items;
+            this.end = end;
+            index = start;
+        }
+
+        public Item next() {
+            if (index < end) {
+                current = items[index++];
+                position = index;
+            } else {
+                current = null;
+                position = -1;
+            }
+            return current;
+        }
+
+        public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public int getLastPosition() {
+            return items.length;
+        }
+
+        public SequenceIterator getAnother() {
+            return new ArrayIterator(items);
+        }
+
+        public int getProperties() {
+            return LAST_POSITION_FINDER;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
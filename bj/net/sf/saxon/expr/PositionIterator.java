@@ -4,6 +4,7 @@ import net.sf.saxon.om.Item;
 import net.sf.saxon.om.LookaheadIterator;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.PersistentSequence;
 
 
 /**
@@ -26,6 +27,8 @@ public class PositionIterator implements SequenceIterator, LookaheadIterator {
         // System.err.println("PositionIterator.make base=" + base.getClass() + " min=" + min + " max=" + max);
         if (base instanceof ArrayIterator) {
             return ((ArrayIterator)base).makeSliceIterator(min, max);
+        } else if (base instanceof PersistentSequence.PersistentSequenceIterator) {
+            return ((PersistentSequence.PersistentSequenceIterator)base).makeSliceIterator(min, max);
         } else {
             return new PositionIterator(base, min, max);
         }
@@ -0,0 +1,403 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.event.ProjectionSpecification;
+import net.sf.saxon.functions.*;
+import net.sf.saxon.instruct.*;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.pattern.*;
+import net.sf.saxon.sort.DocumentSorter;
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.sort.IntIterator;
+import net.sf.saxon.sort.SortExpression;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.StringValue;
+
+import java.util.*;
+
+/**
+ * The ProjectionAnalyzer examines the compiled expressions of a stylesheet or query to determine
+ * which parts of a source document they can reach, producing a {@link ProjectionSpecification}
+ * that allows the remaining parts to be discarded while the document is being built.
+ *
+ * <p>The analysis is conservative. Each expression is analyzed to determine the set of states
+ * (in the projection specification) of the nodes it can return. Where the nodes returned by an
+ * expression are used other than for further downward navigation (for example, when they are atomized,
+ * copied to the result, or passed to a function), the whole subtree of those nodes is retained.
+ * Where the nodes are navigated in a way that the analysis cannot follow (for example using the parent,
+ * ancestor or sibling axes, or the key() and id() functions), the analysis gives up and no projection
+ * is done.</p>
+ */
+
+public class ProjectionAnalyzer {
+
+    private ProjectionSpecification spec = new ProjectionSpecification();
+    private HashMap bindings = new HashMap(20);     // Binding -> Set of states
+    private HashSet functionsAnalyzed = new HashSet(20);
+    private boolean unpredictable = false;
+    private boolean matchesDocumentNode = false;
+
+    /**
+     * Create a ProjectionAnalyzer
+     */
+
+    public ProjectionAnalyzer() {
+    }
+
+    /**
+     * Get the resulting projection specification
+     * @return the projection specification, or null if the analysis found that no useful
+     * projection is possible
+     */
+
+    public ProjectionSpecification getProjectionSpecification() {
+        if (unpredictable || spec.isRetainingEverything()) {
+            return null;
+        }
+        return spec;
+    }
+
+    /**
+     * Analyze the global variables and parameters of an executable
+     * @param exec the executable
+     */
+
+    public void analyzeGlobalVariables(Executable exec) {
+        IntHashMap globals = exec.getCompiledGlobalVariables();
+        if (globals == null) {
+            return;
+        }
+        IntIterator keys = globals.keyIterator();
+        while (keys.hasNext()) {
+            GlobalVariable var = (GlobalVariable)globals.get(keys.next());
+            Expression select = var.getSelectExpression();
+            if (select != null) {
+                keep(analyze(select, rootSet(), rootSet()));
+            }
+        }
+    }
+
+    /**
+     * Analyze the body of a query, or of a named template that may be used as the entry point
+     * of a transformation
+     * @param body the query body or template body
+     */
+
+    public void analyzeEntryPoint(Expression body) {
+        keep(analyze(body, rootSet(), rootSet()));
+    }
+
+    /**
+     * Analyze a template rule
+     * @param match the match pattern of the template rule
+     * @param body the body of the template
+     * @param inDefaultMode true if the template rule applies in the default mode
+     */
+
+    public void analyzeTemplateRule(Pattern match, Expression body, boolean inDefaultMode) {
+        if (!isSimplePattern(match)) {
+            unpredictable = true;
+            return;
+        }
+        boolean matchesDocument = (match.getNodeTest().getNodeKindMask() & (1<<Type.DOCUMENT)) != 0;
+        if (matchesDocument && inDefaultMode) {
+            matchesDocumentNode = true;
+        }
+        // A template rule can only be invoked for a node that is retained with its subtree (because it
+        // was selected by apply-templates), unless it is invoked for the document node
+        Set context = (matchesDocument ? rootSet() : Collections.EMPTY_SET);
+        keep(analyze(body, context, context));
+    }
+
+    /**
+     * Determine whether some template rule in the default mode matches the document node. If not,
+     * the built-in template rule will process the whole of the principal source document, so it
+     * must not be projected.
+     * @return true if a template rule in the default mode matches document nodes
+     */
+
+    public boolean hasTemplateRuleForDocumentNode() {
+        return matchesDocumentNode;
+    }
+
+    /**
+     * Test whether a pattern can be handled by the analysis: that is, whether it has no predicates
+     * and does not use id() or key()
+     */
+
+    private static boolean isSimplePattern(Pattern pattern) {
+        if (pattern instanceof UnionPattern) {
+            return isSimplePattern(((UnionPattern)pattern).getLHS()) &&
+                    isSimplePattern(((UnionPattern)pattern).getRHS());
+        }
+        return !(pattern instanceof KeyPattern || pattern instanceof IDPattern) &&
+                !pattern.iterateSubExpressions().hasNext();
+    }
+
+    private Set rootSet() {
+        HashSet s = new HashSet(2);
+        s.add(spec.getRootState());
+        return s;
+    }
+
+    /**
+     * Mark a set of states as requiring the whole subtree of the matching nodes
+     */
+
+    private static void keep(Set states) {
+        for (Iterator it = states.iterator(); it.hasNext();) {
+            ((ProjectionSpecification.State)it.next()).setRetainSubtree();
+        }
+    }
+
+    private static Set union(Set a, Set b) {
+        if (a.isEmpty()) {
+            return b;
+        } else if (b.isEmpty()) {
+            return a;
+        }
+        HashSet s = new HashSet(a);
+        s.addAll(b);
+        return s;
+    }
+
+    /**
+     * Analyze an expression
+     * @param exp the expression to be analyzed
+     * @param context the states of the possible context nodes
+     * @param current the states of the possible values of current()
+     * @return the states of the nodes that the expression can return
+     */
+
+    private Set analyze(Expression exp, Set context, Set current) {
+        if (unpredictable) {
+            return Collections.EMPTY_SET;
+        }
+
+        if (exp instanceof PathExpression) {
+            PathExpression path = (PathExpression)exp;
+            Set start = analyze(path.getStartExpression(), context, current);
+            return analyze(path.getStepExpression(), start, current);
+
+        } else if (exp instanceof SimpleMappingExpression) {
+            SimpleMappingExpression map = (SimpleMappingExpression)exp;
+            Set start = analyze(map.getStartExpression(), context, current);
+            return analyze(map.getStepExpression(), start, current);
+
+        } else if (exp instanceof FilterExpression) {
+            FilterExpression filter = (FilterExpression)exp;
+            Set base = analyze(filter.getBaseExpression(), context, current);
+            keep(analyze(filter.getFilter(), base, current));
+            return base;
+
+        } else if (exp instanceof AxisExpression) {
+            return analyzeAxis((AxisExpression)exp, context);
+
+        } else if (exp instanceof RootExpression) {
+            return rootSet();
+
+        } else if (exp instanceof ParentNodeExpression) {
+            unpredictable = true;
+            return Collections.EMPTY_SET;
+
+        } else if (exp instanceof CurrentItemExpression) {
+            return current;
+
+        } else if (exp instanceof ContextItemExpression) {
+            return context;
+
+        } else if (exp instanceof VariableReference) {
+            // Values bound to variables other than local range variables are always retained in full
+            Set s = (Set)bindings.get(((VariableReference)exp).getBinding());
+            return (s == null ? Collections.EMPTY_SET : s);
+
+        } else if (exp instanceof Assignation) {
+            Assignation assignation = (Assignation)exp;
+            bindings.put(assignation, analyze(assignation.getSequence(), context, current));
+            Set result = analyze(assignation.getAction(), context, current);
+            if (exp instanceof QuantifiedExpression) {
+                keep(result);
+                return Collections.EMPTY_SET;
+            }
+            return result;
+
+        } else if (exp instanceof IfExpression) {
+            IfExpression ifexp = (IfExpression)exp;
+            keep(analyze(ifexp.getCondition(), context, current));
+            return union(analyze(ifexp.getThenExpression(), context, current),
+                    analyze(ifexp.getElseExpression(), context, current));
+
+        } else if (exp instanceof Block) {
+            Expression[] children = ((Block)exp).getChildren();
+            Set result = Collections.EMPTY_SET;
+            for (int i=0; i<children.length; i++) {
+                result = union(result, analyze(children[i], context, current));
+            }
+            return result;
+
+        } else if (exp instanceof VennExpression) {
+            Expression[] operands = ((VennExpression)exp).getOperands();
+            return union(analyze(operands[0], context, current), analyze(operands[1], context, current));
+
+        } else if (exp instanceof FirstItemExpression || exp instanceof DocumentSorter ||
+                exp instanceof ItemChecker || exp instanceof CardinalityChecker || exp instanceof LazyExpression) {
+            return analyze(((UnaryExpression)exp).getBaseExpression(), context, current);
+
+        } else if (exp instanceof TailExpression) {
+            return analyze(((TailExpression)exp).getBaseExpression(), context, current);
+
+        } else if (exp instanceof ForEach) {
+            ForEach forEach = (ForEach)exp;
+            Set select = analyze(forEach.getSelectExpression(), context, current);
+            return analyze(forEach.getActionExpression(), select, select);
+
+        } else if (exp instanceof SortExpression) {
+            // the sort keys are evaluated with each selected item as the context item
+            SortExpression sort = (SortExpression)exp;
+            Set select = Collections.EMPTY_SET;
+            for (Iterator it = sort.iterateSubExpressions(); it.hasNext();) {
+                Expression sub = (Expression)it.next();
+                if (!sort.isSortKey(sub)) {
+                    select = union(select, analyze(sub, context, current));
+                }
+            }
+            for (Iterator it = sort.iterateSubExpressions(); it.hasNext();) {
+                Expression sub = (Expression)it.next();
+                if (sort.isSortKey(sub)) {
+                    keep(analyze(sub, select, current));
+                }
+            }
+            return select;
+
+        } else if (exp instanceof NumberInstruction || exp instanceof UseAttributeSets ||
+                exp instanceof ForEachGroup) {
+            // these change the focus, or navigate, in ways that are not analyzed
+            unpredictable = true;
+            return Collections.EMPTY_SET;
+
+        } else if (exp instanceof CallTemplate || exp instanceof ApplyImports) {
+            // the called template may do anything with the context node
+            keep(context);
+            analyzeSubExpressions(exp, context, current);
+            return Collections.EMPTY_SET;
+
+        } else if (exp instanceof UserFunctionCall) {
+            UserFunction function = ((UserFunctionCall)exp).getFunction();
+            analyzeSubExpressions(exp, context, current);
+            if (function == null) {
+                unpredictable = true;
+            } else if (!functionsAnalyzed.contains(function)) {
+                functionsAnalyzed.add(function);
+                keep(analyze(function.getBody(), Collections.EMPTY_SET, Collections.EMPTY_SET));
+            }
+            return Collections.EMPTY_SET;
+
+        } else if (exp instanceof FunctionCall) {
+            if (!(exp instanceof SystemFunction) || exp instanceof Id || exp instanceof Idref ||
+                    exp instanceof KeyFn || exp instanceof Evaluate) {
+                unpredictable = true;
+                return Collections.EMPTY_SET;
+            }
+            analyzeSubExpressions(exp, context, current);
+            if (exp instanceof Document) {
+                // a URI with a fragment identifier selects an element rather than a document node
+                Expression[] args = ((FunctionCall)exp).getArguments();
+                if (!(args[0] instanceof StringValue) || ((StringValue)args[0]).getStringValue().indexOf('#') >= 0) {
+                    unpredictable = true;
+                    return Collections.EMPTY_SET;
+                }
+                return rootSet();
+            } else if (exp instanceof Doc || exp instanceof Root) {
+                return rootSet();
+            }
+            return Collections.EMPTY_SET;
+
+        } else {
+            analyzeSubExpressions(exp, context, current);
+            return Collections.EMPTY_SET;
+        }
+    }
+
+    /**
+     * Analyze all the subexpressions of an expression, on the assumption that the whole subtree of
+     * any node they return is needed
+     */
+
+    private void analyzeSubExpressions(Expression exp, Set context, Set current) {
+        for (Iterator it = exp.iterateSubExpressions(); it.hasNext();) {
+            keep(analyze((Expression)it.next(), context, current));
+        }
+    }
+
+    /**
+     * Analyze an axis step
+     */
+
+    private Set analyzeAxis(AxisExpression step, Set context) {
+        byte axis = step.getAxis();
+        NodeTest test = step.getNodeTest();
+        switch (axis) {
+            case Axis.SELF:
+                return context;
+            case Axis.ATTRIBUTE:
+            case Axis.NAMESPACE:
+                // attributes and namespaces of retained elements are always retained
+                return Collections.EMPTY_SET;
+            case Axis.CHILD:
+            case Axis.DESCENDANT:
+            case Axis.DESCENDANT_OR_SELF:
+                int fp;
+                if (test == null || test instanceof AnyNodeTest) {
+                    if (axis == Axis.DESCENDANT_OR_SELF) {
+                        // typically the first half of "//"
+                        HashSet result = new HashSet(context);
+                        for (Iterator it = context.iterator(); it.hasNext();) {
+                            result.add(((ProjectionSpecification.State)it.next()).makeDescendantState(-1));
+                        }
+                        return result;
+                    }
+                    keep(context);
+                    return Collections.EMPTY_SET;
+                } else if (test.getPrimitiveType() == Type.ELEMENT) {
+                    fp = test.getFingerprint();
+                } else {
+                    // text, comment, or processing-instruction nodes, or a mixture of node kinds
+                    keep(context);
+                    return Collections.EMPTY_SET;
+                }
+                HashSet result = new HashSet(context.size() * 2 + 2);
+                if (axis == Axis.DESCENDANT_OR_SELF) {
+                    result.addAll(context);
+                }
+                for (Iterator it = context.iterator(); it.hasNext();) {
+                    ProjectionSpecification.State s = (ProjectionSpecification.State)it.next();
+                    if (axis == Axis.CHILD) {
+                        result.add(s.makeChildState(fp));
+                    } else {
+                        result.add(s.makeDescendantState(fp));
+                    }
+                }
+                return result;
+            default:
+                unpredictable = true;
+                return Collections.EMPTY_SET;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
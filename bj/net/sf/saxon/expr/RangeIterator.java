@@ -52,14 +52,14 @@ public class RangeIterator implements SequenceIterator,
         }
         long d = currentValue;
         currentValue += increment;
-        return new IntegerValue(d);
+        return IntegerValue.makeIntegerValue(d);
     }
 
     public Item current() {
         if (increment == 0) {
             return null;
         } else {
-            return new IntegerValue(currentValue - increment);
+            return IntegerValue.makeIntegerValue(currentValue - increment);
         }
     }
 
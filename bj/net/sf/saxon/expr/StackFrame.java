@@ -11,6 +11,7 @@ import net.sf.saxon.om.ValueRepresentation;
 public class StackFrame {
     protected SlotManager map;
     protected ValueRepresentation[] slots;
+    protected boolean captured = false;
 
     public StackFrame (SlotManager map, ValueRepresentation[] slots) {
         this.map = map;
@@ -25,6 +26,25 @@ public class StackFrame {
         return slots;
     }
 
+    /**
+     * Mark this stack frame as captured. This is done when an object such as a {@link net.sf.saxon.value.Closure}
+     * retains a reference to the stack frame that may be used after the function or template call that
+     * owns the frame has returned. A captured stack frame is never reused for another call.
+     */
+
+    public void setCaptured() {
+        captured = true;
+    }
+
+    /**
+     * Ask whether this stack frame has been captured
+     * @return true if a reference to this stack frame may be retained beyond the call that owns it
+     */
+
+    public boolean isCaptured() {
+        return captured;
+    }
+
     public static final StackFrame EMPTY = new StackFrame(null, ValueRepresentation.EMPTY_VALUE_ARRAY);
 }
 
@@ -4,6 +4,7 @@ import net.sf.saxon.om.*;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.PersistentSequence;
 import net.sf.saxon.Configuration;
 
 import java.io.PrintStream;
@@ -109,6 +110,8 @@ public class TailExpression extends ComputedExpression {
         SequenceIterator baseIter = base.iterate(context);
         if (baseIter instanceof ArrayIterator) {
             return ((ArrayIterator)baseIter).makeSliceIterator(start, Integer.MAX_VALUE);
+        } else if (baseIter instanceof PersistentSequence.PersistentSequenceIterator) {
+            return ((PersistentSequence.PersistentSequenceIterator)baseIter).makeSliceIterator(start, Integer.MAX_VALUE);
         } else {
             return new TailIterator(baseIter, start);
         }
@@ -1,5 +1,6 @@
 package net.sf.saxon.expr;
 import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
 import net.sf.saxon.event.SequenceReceiver;
 import net.sf.saxon.instruct.InstructionDetails;
 import net.sf.saxon.instruct.UserFunction;
@@ -215,6 +216,15 @@ public class UserFunctionCall extends FunctionCall implements InstructionInfoPro
         return tailRecursive;
     }
 
+    /**
+     * Determine whether this is a tail call. The result of a tail call is not returned directly to the
+     * caller: it is deferred until the calling function has exited.
+     */
+
+    public boolean isTailCall() {
+        return tailRecursive;
+    }
+
     // TODO: attempt to establish whether the function is capable of creating new nodes. This
     // enables non-creative functions to be moved out of loops. The problem is how to achieve this
     // without looping in the case of recursive functions. A simple solution might be to go only
@@ -272,10 +282,15 @@ public class UserFunctionCall extends FunctionCall implements InstructionInfoPro
             //return new FunctionCallPackage(function, actualArgs, c);
         }
 
-        XPathContextMajor c2 = c.newCleanContext();
+        // The context and its stack frame are reused for later calls, unless a Closure has captured
+        // the context or the stack frame during the call
+        Controller controller = c.getController();
+        XPathContextMajor c2 = controller.allocateCleanContext(c);
         c2.setOrigin(this);
         try {
-            return function.call(actualArgs, c2);
+            ValueRepresentation result = function.call(actualArgs, c2);
+            controller.reuseContext(c2);
+            return result;
         } catch (StackOverflowError err) {
             throw new DynamicError("Too many nested function calls. May be due to infinite recursion.", this);
         } catch (NullPointerException err) {
@@ -300,10 +315,12 @@ public class UserFunctionCall extends FunctionCall implements InstructionInfoPro
             ((XPathContextMajor)context).requestTailCall(function, actualArgs);
         } else {
             SequenceReceiver out = context.getReceiver();
-            XPathContextMajor c2 = context.newCleanContext();
+            Controller controller = context.getController();
+            XPathContextMajor c2 = controller.allocateCleanContext(context);
             c2.setReceiver(out);
             c2.setOrigin(this);
             function.process(actualArgs, c2);
+            controller.reuseContext(c2);
         }
     }
 
@@ -30,6 +30,16 @@ public final class ValueComparison extends BinaryExpression implements Compariso
     private boolean operand0MaybeUntyped = true;
     private boolean operand1MaybeUntyped = true;
 
+    // Determines whether the comparison can be done using Java primitive values. This
+    // is decided on first evaluation, when the operands have reached their final form.
+
+    private static final int PRIMITIVE_UNKNOWN = 0;
+    private static final int PRIMITIVE_NONE = 1;
+    private static final int PRIMITIVE_LONG = 2;
+    private static final int PRIMITIVE_DOUBLE = 3;
+
+    private transient int primitiveMode = PRIMITIVE_UNKNOWN;
+
     /**
      * Create a relational expression identifying the two operands and the operator
      *
@@ -517,6 +527,24 @@ public final class ValueComparison extends BinaryExpression implements Compariso
 
     public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
         try {
+            switch (getPrimitiveMode(context)) {
+                case PRIMITIVE_LONG:
+                    try {
+                        return compareLongs(operand0.evaluateAsLong(context), operator,
+                                operand1.evaluateAsLong(context));
+                    } catch (ArithmeticException err) {
+                        // fall through to the general path
+                    }
+                    break;
+                case PRIMITIVE_DOUBLE:
+                    try {
+                        return compareDoubles(operand0.evaluateAsDouble(context), operator,
+                                operand1.evaluateAsDouble(context));
+                    } catch (ArithmeticException err) {
+                        // fall through to the general path
+                    }
+                    break;
+            }
             AtomicValue v0 = ((AtomicValue) operand0.evaluateItem(context));
             if (v0 == null) {
                 return (resultWhenEmpty == BooleanValue.TRUE);  // normally false
@@ -544,6 +572,75 @@ public final class ValueComparison extends BinaryExpression implements Compariso
         }
     }
 
+    /**
+     * Decide whether the comparison can be done using primitive long or double values. Longs are
+     * used when both operands are statically known to be single integers; doubles are used when
+     * both operands are single numeric values and at least one of them is a double (so that the
+     * other is promoted to double), or both are floats.
+     */
+
+    private int getPrimitiveMode(XPathContext context) {
+        if (primitiveMode == PRIMITIVE_UNKNOWN) {
+            int mode = PRIMITIVE_NONE;
+            if (operand0.getCardinality() == StaticProperty.EXACTLY_ONE &&
+                    operand1.getCardinality() == StaticProperty.EXACTLY_ONE) {
+                final TypeHierarchy th = context.getConfiguration().getTypeHierarchy();
+                final ItemType t0 = operand0.getItemType(th);
+                final ItemType t1 = operand1.getItemType(th);
+                if (th.isSubType(t0, Type.INTEGER_TYPE) && th.isSubType(t1, Type.INTEGER_TYPE)) {
+                    mode = PRIMITIVE_LONG;
+                } else if (th.isSubType(t0, Type.NUMBER_TYPE) && th.isSubType(t1, Type.NUMBER_TYPE)) {
+                    final int p0 = t0.getPrimitiveType();
+                    final int p1 = t1.getPrimitiveType();
+                    if (p0 == Type.DOUBLE || p1 == Type.DOUBLE || (p0 == Type.FLOAT && p1 == Type.FLOAT)) {
+                        mode = PRIMITIVE_DOUBLE;
+                    }
+                }
+            }
+            primitiveMode = mode;
+        }
+        return primitiveMode;
+    }
+
+    private static boolean compareLongs(long a, int op, long b) {
+        switch (op) {
+            case Token.FEQ:
+                return a == b;
+            case Token.FNE:
+                return a != b;
+            case Token.FGT:
+                return a > b;
+            case Token.FLT:
+                return a < b;
+            case Token.FGE:
+                return a >= b;
+            case Token.FLE:
+                return a <= b;
+            default:
+                throw new UnsupportedOperationException("Unknown operator " + op);
+        }
+    }
+
+    private static boolean compareDoubles(double a, int op, double b) {
+        // the Java operators give the XPath results for NaN
+        switch (op) {
+            case Token.FEQ:
+                return a == b;
+            case Token.FNE:
+                return a != b;
+            case Token.FGT:
+                return a > b;
+            case Token.FLT:
+                return a < b;
+            case Token.FGE:
+                return a >= b;
+            case Token.FLE:
+                return a <= b;
+            default:
+                throw new UnsupportedOperationException("Unknown operator " + op);
+        }
+    }
+
     /**
      * Compare two atomic values, using a specified operator and collation
      *
@@ -599,6 +696,10 @@ public final class ValueComparison extends BinaryExpression implements Compariso
      */
 
     public Item evaluateItem(XPathContext context) throws XPathException {
+        if (getPrimitiveMode(context) != PRIMITIVE_NONE) {
+            // both operands are singletons, so the result is never empty
+            return BooleanValue.get(effectiveBooleanValue(context));
+        }
         try {
             AtomicValue v1 = (AtomicValue) operand0.evaluateItem(context);
             if (v1 == null) {
@@ -26,6 +26,8 @@ public class XPathContextMajor extends XPathContextMinor {
     private ParameterSet localParameters = null;
     private XSLTContext xsltContext = null;
     private UserFunction tailCallFunction = null;
+    private StackFrame reusableStackFrame = null;
+    private boolean captured = false;
 
     /**
     * Constructor should only be called by the Controller,
@@ -82,20 +84,81 @@ public class XPathContextMajor extends XPathContextMinor {
 
     public static XPathContextMajor newContext(XPathContextMinor p) {
         XPathContextMajor c = new XPathContextMajor();
-        c.controller = p.getController();
-        c.currentIterator = p.getCurrentIterator();
-        c.stackFrame = p.getStackFrame();
-        c.localParameters = p.getLocalParameters();
-
-        c.last = p.last;
-        c.currentReceiver = p.currentReceiver;
-        c.isTemporaryDestination = p.isTemporaryDestination;
-        c.xsltContext = p.getXSLTContext();
-        c.caller = p;
-        c.tailCallFunction = null;
+        c.initializeFrom(p);
+        return c;
+    }
+
+    /**
+     * Construct a new context as a copy of another, for use on a different thread. The new context
+     * uses the supplied Controller, and has a private copy of the stack frame, so that local variables
+     * can be set without affecting the original context.
+     * @param p the context to be copied, which becomes the caller of the new context
+     * @param controller the Controller to be used by the new context, normally one created using
+     * {@link Controller#newThreadController}
+     */
+
+    public static XPathContextMajor newThreadContext(XPathContextMinor p, Controller controller) {
+        XPathContextMajor c = newContext(p);
+        c.controller = controller;
+        StackFrame frame = p.getStackFrame();
+        if (frame != StackFrame.EMPTY) {
+            c.stackFrame = new StackFrame(frame.getStackFrameMap(),
+                    (ValueRepresentation[])frame.getStackFrameValues().clone());
+        }
         return c;
     }
 
+    /**
+     * Initialize this context as a copy of another, in the same way as {@link #newContext}. This is
+     * used when a context object released by an earlier call is reused.
+     * @param p the context to be copied, which becomes the caller of this context
+     */
+
+    public void initializeFrom(XPathContextMinor p) {
+        controller = p.getController();
+        currentIterator = p.getCurrentIterator();
+        stackFrame = p.getStackFrame();
+        localParameters = p.getLocalParameters();
+
+        last = p.last;
+        currentReceiver = p.currentReceiver;
+        isTemporaryDestination = p.isTemporaryDestination;
+        xsltContext = p.getXSLTContext();
+        caller = p;
+        tailCallFunction = null;
+    }
+
+    /**
+     * Clear this context so that it can be reused for another call, after the call for which it was
+     * allocated has returned. The stack frame opened by the call is retained so that its storage can
+     * be reused, unless it has been captured by an object (such as a Closure) that may still use it.
+     * @return false if the context must not be reused, because it or its stack frame has been captured
+     */
+
+    public boolean clearForReuse() {
+        if (captured) {
+            return false;
+        }
+        if (stackFrame != StackFrame.EMPTY) {
+            if (stackFrame.captured) {
+                return false;
+            }
+            reusableStackFrame = stackFrame;
+            Arrays.fill(stackFrame.slots, null);
+        }
+        stackFrame = StackFrame.EMPTY;
+        currentIterator = null;
+        last = -1;
+        currentReceiver = null;
+        isTemporaryDestination = false;
+        caller = null;
+        origin = null;
+        localParameters = null;
+        xsltContext = null;
+        tailCallFunction = null;
+        return true;
+    }
+
     /**
      * Get the XSLT-specific part of the context
      */
@@ -141,6 +204,9 @@ public class XPathContextMajor extends XPathContextMinor {
      */
 
     public void setTunnelParameters(ParameterSet tunnelParameters) {
+        if (tunnelParameters == getTunnelParameters()) {
+            return;
+        }
         xsltContext = new XSLTContext(xsltContext);
         xsltContext.tunnelParameters = tunnelParameters;
     }
@@ -242,6 +308,89 @@ public class XPathContextMajor extends XPathContextMinor {
         stackFrame = new StackFrame(null, new ValueRepresentation[numberOfVariables]);
     }
 
+    /**
+     * Create a new stack frame for local variables, as with {@link #openStackFrame(SlotManager)}, but
+     * reusing the storage of the last stack frame opened by this method on this context, provided it
+     * has not been captured. This must be used only when nothing other than a Closure (or similar object
+     * that marks the frame as captured) can retain a reference to the previous stack frame: for example,
+     * when xsl:apply-templates opens a stack frame for each selected node in turn.
+     * @param map the SlotManager for the new stack frame
+     */
+
+    public void openReusableStackFrame(SlotManager map) {
+        if (map.getNumberOfVariables() == 0) {
+            stackFrame = StackFrame.EMPTY;
+        } else if (!reuseStackFrame(map)) {
+            openStackFrame(map);
+            reusableStackFrame = stackFrame;
+        }
+    }
+
+    /**
+     * Set the local stack frame, as with {@link #setStackFrame}, but copying the supplied values into
+     * the storage of the last stack frame opened on this context, provided it has not been captured.
+     * This is used when a function is called using a context allocated by
+     * {@link Controller#allocateCleanContext}.
+     * @param map the SlotManager for the new stack frame
+     * @param variables the values of the first variables in the stack frame (the function arguments)
+     */
+
+    public void openReusableStackFrame(SlotManager map, ValueRepresentation[] variables) {
+        if (map != null && reuseStackFrame(map)) {
+            if (variables.length > stackFrame.slots.length) {
+                throw new IllegalStateException("Attempting to set more local variables than the stackframe can accommodate");
+            }
+            System.arraycopy(variables, 0, stackFrame.slots, 0, variables.length);
+        } else {
+            setStackFrame(map, variables);
+        }
+    }
+
+    /**
+     * Mark a context, and the contexts of its callers, as captured. This is done when an object such
+     * as a {@link net.sf.saxon.value.Closure} retains a context whose caller chain includes these contexts,
+     * and which may be used after the calls that own them have returned. A captured context is never
+     * reused for another call.
+     * @param context the context to be marked
+     */
+
+    public static void setCaptured(XPathContext context) {
+        while (context != null) {
+            if (context instanceof XPathContextMajor) {
+                XPathContextMajor c = (XPathContextMajor)context;
+                if (c.captured) {
+                    // its callers have already been marked
+                    return;
+                }
+                c.captured = true;
+            }
+            context = context.getCaller();
+        }
+    }
+
+    /**
+     * Make the reusable stack frame (if there is one, and it has not been captured) the current stack
+     * frame, with all its slots empty
+     * @return false if there is no stack frame available for reuse
+     */
+
+    private boolean reuseStackFrame(SlotManager map) {
+        StackFrame frame = reusableStackFrame;
+        if (frame == null || frame.captured) {
+            reusableStackFrame = null;
+            return false;
+        }
+        int numberOfSlots = map.getNumberOfVariables();
+        if (frame.slots.length != numberOfSlots) {
+            frame.slots = new ValueRepresentation[numberOfSlots];
+        } else {
+            Arrays.fill(frame.slots, null);
+        }
+        frame.map = map;
+        stackFrame = frame;
+        return true;
+    }
+
     /**
      * Get the value of a local variable, identified by its slot number
      */
@@ -80,7 +80,7 @@ public class Aggregate extends SystemFunction {
         switch (operation) {
             case COUNT:
                 SequenceIterator iter = argument[0].iterate(context);
-                return new IntegerValue(count(iter));
+                return IntegerValue.makeIntegerValue(count(iter));
             case SUM:
                 return total(argument[0].iterate(context), context);
             case AVG:
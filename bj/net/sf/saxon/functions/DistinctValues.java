@@ -3,11 +3,9 @@ import net.sf.saxon.expr.StaticContext;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
-import net.sf.saxon.sort.AtomicComparer;
-import net.sf.saxon.sort.AtomicSortComparer;
-import net.sf.saxon.sort.ComparisonKey;
+import net.sf.saxon.sort.*;
 import net.sf.saxon.trans.XPathException;
-import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.*;
 
 import java.util.Comparator;
 import java.util.HashSet;
@@ -56,16 +54,35 @@ public class DistinctValues extends CollatingFunction {
     }
 
     /**
-     * Iterator class to return the distinct values in a sequence
+     * Iterator class to return the distinct values in a sequence.
+     *
+     * <p>Values are not all held as comparison keys in a HashSet: numbers and (when strings are compared
+     * by codepoint) strings are held in primitive open-addressing sets, chosen according to the values
+     * actually encountered. Integers, and doubles whose value is an integer, are held as longs if they
+     * lie in the range within which every integer has an exact double equivalent (so that an integer
+     * and a double are in the same set if and only if they are equal); other doubles are held as the
+     * bits of the double; strings, xs:anyURI values, and untyped atomic values are held in a StringHashSet. A numeric value
+     * that does not fit this scheme (a decimal, a float, or a larger integer) causes all the numbers
+     * seen so far to be transferred to the general-purpose set of comparison keys, which is then used
+     * for all numbers. Values of any other type always use the general-purpose set. Numbers, strings,
+     * and other values never compare equal to each other, so the sets can be used side by side.</p>
      */
 
     public static class DistinctIterator implements SequenceIterator {
 
+        // Integers in the range -MAX_EXACT to +MAX_EXACT all have an exact double equivalent
+        private static final long MAX_EXACT = 1L<<53;
+
         private SequenceIterator base;
         private AtomicComparer comparer;
         private int position;
         private AtomicValue current;
         private HashSet lookup = new HashSet(40);
+        private HashSet strings;
+        private StringHashSet codepointStrings;
+        private LongHashSet longs = new LongHashSet();
+        private LongHashSet doubles;
+        private boolean numbersInLookup = false;
 
         /**
          * Create an iterator over the distinct values in a sequence
@@ -78,6 +95,15 @@ public class DistinctValues extends CollatingFunction {
             this.base = base;
             this.comparer = comparer;
             position = 0;
+            if (comparer instanceof CollatingAtomicComparer) {
+                // identical strings are always equal under the collation, so a collation key
+                // is needed only for the first occurrence of each string
+                strings = new HashSet(40);
+            } else if (comparer instanceof CodepointCollatingComparer ||
+                    (comparer instanceof AtomicSortComparer &&
+                        ((AtomicSortComparer)comparer).getCollator() instanceof CodepointCollator)) {
+                codepointStrings = new StringHashSet(40);
+            }
         }
 
         /**
@@ -96,11 +122,17 @@ public class DistinctValues extends CollatingFunction {
                     position = -1;
                     return null;
                 }
-                ComparisonKey key = comparer.getComparisonKey(nextBase);
-                if (lookup.contains(key)) {
-                    continue;
+                AtomicValue prim = nextBase.getPrimitiveValue();
+                boolean added;
+                if (prim instanceof NumericValue && !numbersInLookup) {
+                    added = addNumber(prim, nextBase);
+                } else if (codepointStrings != null && prim instanceof StringValue) {
+                    // this includes xs:anyURI values, which compare equal to strings
+                    added = codepointStrings.add(prim.getStringValueCS());
                 } else {
-                    lookup.add(key);
+                    added = addKey(nextBase);
+                }
+                if (added) {
                     current = nextBase;
                     position++;
                     return nextBase;
@@ -108,6 +140,59 @@ public class DistinctValues extends CollatingFunction {
             }
         }
 
+        /**
+         * Add a value to the general-purpose set of comparison keys
+         * @return true if the value was added, false if an equal value was already present
+         */
+
+        private boolean addKey(AtomicValue value) {
+            if (strings != null && !strings.add(value.getStringValue())) {
+                return false;
+            }
+            return lookup.add(comparer.getComparisonKey(value));
+        }
+
+        /**
+         * Add a numeric value to the primitive sets, if possible
+         * @return true if the value was added, false if an equal value was already present
+         */
+
+        private boolean addNumber(AtomicValue prim, AtomicValue value) {
+            if (prim instanceof IntegerValue) {
+                long v = ((IntegerValue)prim).longValue();
+                if (v >= -MAX_EXACT && v <= MAX_EXACT) {
+                    return longs.add(v);
+                }
+            } else if (prim instanceof DoubleValue) {
+                double d = ((DoubleValue)prim).getDoubleValue();
+                if (d >= -MAX_EXACT && d <= MAX_EXACT && d == Math.floor(d)) {
+                    // this includes negative zero, which is equal to positive zero
+                    return longs.add((long)d);
+                }
+                if (doubles == null) {
+                    doubles = new LongHashSet();
+                }
+                // NaN is equal to itself for the purposes of distinct-values; doubleToLongBits() gives all
+                // NaN values the same representation
+                return doubles.add(Double.doubleToLongBits(d));
+            }
+            // Transfer the numbers seen so far to the set of comparison keys, and use that from now on
+            long[] values = longs.getValues();
+            for (int i=0; i<values.length; i++) {
+                lookup.add(comparer.getComparisonKey(new IntegerValue(values[i])));
+            }
+            if (doubles != null) {
+                values = doubles.getValues();
+                for (int i=0; i<values.length; i++) {
+                    lookup.add(comparer.getComparisonKey(new DoubleValue(Double.longBitsToDouble(values[i]))));
+                }
+            }
+            longs = null;
+            doubles = null;
+            numbersInLookup = true;
+            return addKey(value);
+        }
+
         /**
          * Get the current value in the sequence (the one returned by the
          * most recent call on next()). This will be null before the first
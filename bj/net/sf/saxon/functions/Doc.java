@@ -39,6 +39,15 @@ public class Doc extends SystemFunction {
         return this;
     }
 
+    /**
+     * Get the static base URI of the expression, against which a relative URI supplied
+     * as the argument is resolved
+     */
+
+    public String getStaticBaseURI() {
+        return expressionBaseURI;
+    }
+
     public Item evaluateItem(XPathContext context) throws XPathException {
         if (operation == DOC) {
             return doc(context);
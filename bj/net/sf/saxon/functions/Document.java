@@ -4,6 +4,7 @@ import net.sf.saxon.event.Builder;
 import net.sf.saxon.event.Receiver;
 import net.sf.saxon.event.Sender;
 import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ProjectionSpecification;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.om.*;
 import net.sf.saxon.sort.DocumentOrderIterator;
@@ -255,13 +256,29 @@ public class Document extends SystemFunction implements XSLTFunction {
                 if (controller.getExecutable().stripsInputTypeAnnotations()) {
                     s = controller.getConfiguration().getAnnotationStripper(s);
                 }
+                ProjectionSpecification projection = controller.getExecutable().getDocumentProjection();
+                int validation = config.getSchemaValidationMode();
+                if (projection != null && fragmentId == null &&
+                        validation != Validation.STRICT && validation != Validation.LAX) {
+                    s = projection.makeFilter(s);
+                }
                 new Sender(controller.makePipelineConfiguration()).send(source, s);
                 newdoc = (DocumentInfo)b.getCurrentRoot();
                 if (source instanceof AugmentedSource && ((AugmentedSource)source).isPleaseCloseAfterUse()) {
                     ((AugmentedSource)source).close();
                 }
             }
-            controller.registerDocument(newdoc, documentKey);
+            // another thread of a parallel iteration may have loaded the document in the meantime;
+            // if so, use its copy, to preserve node identity
+            DocumentPool pool = controller.getDocumentPool();
+            synchronized (pool) {
+                DocumentInfo existing = pool.find(documentKey);
+                if (existing == null) {
+                    controller.registerDocument(newdoc, documentKey);
+                } else {
+                    newdoc = existing;
+                }
+            }
             controller.addUnavailableOutputDestination(documentKey);
             return getFragment(newdoc, fragmentId, c);
 
@@ -39,6 +39,8 @@ public class IndexOf extends CollatingFunction {
         Item current = null;
         int primitiveTypeRequired;
         TypeHierarchy typeHierarchy;
+        boolean searchingForInteger;
+        long integerRequired;
 
         public IndexIterator(SequenceIterator base, AtomicValue value, TypeHierarchy th, GenericAtomicComparer comparer)
         {
@@ -46,7 +48,12 @@ public class IndexOf extends CollatingFunction {
             this.value = value;
             this.comparer = comparer;
             this.typeHierarchy = th;
-            primitiveTypeRequired = value.getPrimitiveValue().getItemType(th).getPrimitiveType();
+            AtomicValue prim = value.getPrimitiveValue();
+            primitiveTypeRequired = prim.getItemType(th).getPrimitiveType();
+            if (prim instanceof IntegerValue) {
+                searchingForInteger = true;
+                integerRequired = ((IntegerValue)prim).longValue();
+            }
         }
 
         public Item next() throws XPathException {
@@ -54,11 +61,23 @@ public class IndexOf extends CollatingFunction {
                 AtomicValue i = (AtomicValue)base.next();
                 if (i==null) break;
                 index++;
+                if (searchingForInteger) {
+                    // fast path for the common case of searching a sequence of integers for an integer
+                    AtomicValue p = i.getPrimitiveValue();
+                    if (p instanceof IntegerValue) {
+                        if (((IntegerValue)p).longValue() == integerRequired) {
+                            current = IntegerValue.makeIntegerValue(index);
+                            position++;
+                            return current;
+                        }
+                        continue;
+                    }
+                }
                 if (Type.isComparable(primitiveTypeRequired,
                             i.getPrimitiveValue().getItemType(typeHierarchy).getPrimitiveType(), false)) {
                     try {
                         if (comparer.comparesEqual(i, value)) {
-                            current = new IntegerValue(index);
+                            current = IntegerValue.makeIntegerValue(index);
                             position++;
                             return current;
                         }
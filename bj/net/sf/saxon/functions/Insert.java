@@ -1,17 +1,32 @@
 package net.sf.saxon.functions;
+import net.sf.saxon.expr.Expression;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.PersistentSequence;
 
 /**
 * The XPath 2.0 insert-before() function
 */
 
 
-public class Insert extends SystemFunction {
+public class Insert extends SystemFunction implements PersistentSequence.Updater {
+
+    /**
+    * Determine the data type of the items in the sequence
+    * @return the common supertype of the items in the input sequence and the inserted items
+     * @param th
+     */
+
+    public ItemType getItemType(TypeHierarchy th) {
+        return Type.getCommonSuperType(argument[0].getItemType(th), argument[2].getItemType(th), th);
+    }
 
     /**
     * Evaluate the function to return an iteration of selected nodes.
@@ -19,13 +34,39 @@ public class Insert extends SystemFunction {
 
     public SequenceIterator iterate(XPathContext context) throws XPathException {
         SequenceIterator seq = argument[0].iterate(context);
-        AtomicValue n0 = (AtomicValue)argument[1].evaluateItem(context);
-        NumericValue n = (NumericValue)n0.getPrimitiveValue();
-        int pos = (int)n.longValue();
+        if (seq instanceof PersistentSequence.PersistentSequenceIterator) {
+            return update(((PersistentSequence.PersistentSequenceIterator)seq).getSequence(), context)
+                    .iterate(context);
+        }
+        int pos = getInsertPosition(context);
         SequenceIterator ins = argument[2].iterate(context);
         return new InsertIterator(seq, ins, pos);
     }
 
+    private int getInsertPosition(XPathContext context) throws XPathException {
+        AtomicValue n0 = (AtomicValue)argument[1].evaluateItem(context);
+        NumericValue n = (NumericValue)n0.getPrimitiveValue();
+        return (int)n.longValue();
+    }
+
+    /**
+     * Get the expression that supplies the sequence into which items are inserted
+     */
+
+    public Expression getBaseExpression() {
+        return argument[0];
+    }
+
+    /**
+     * Evaluate the function when the input sequence is held as a PersistentSequence
+     */
+
+    public PersistentSequence update(PersistentSequence base, XPathContext context) throws XPathException {
+        int pos = getInsertPosition(context);
+        PersistentSequence ins = PersistentSequence.makePersistentSequence(argument[2].iterate(context));
+        return base.insert((pos < 1 ? 0 : pos - 1), ins);
+    }
+
     public static class InsertIterator implements SequenceIterator {
 
         private SequenceIterator base;
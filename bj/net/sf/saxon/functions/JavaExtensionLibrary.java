@@ -41,7 +41,8 @@ public class JavaExtensionLibrary implements FunctionLibrary {
 
     // HashMap containing URI->Class mappings. This includes conventional
     // URIs such as the Saxon and EXSLT namespaces, and mapping defined by
-    // the user using saxon:script
+    // the user using saxon:script. For the conventional URIs the value is initially
+    // the name of the class, which is loaded only when first needed.
 
     private HashMap explicitMappings = new HashMap(10);
 
@@ -62,15 +63,38 @@ public class JavaExtensionLibrary implements FunctionLibrary {
     /**
      * Define initial mappings of "well known" namespace URIs to Java classes (this covers
      * the Saxon and EXSLT extensions). The method is protected so it can be overridden in
-     * a subclass.
+     * a subclass. If the Configuration defers initialization, the classes are not loaded until
+     * they are first needed.
      */
     protected void setDefaultURIMappings() {
-        declareJavaClass(NamespaceConstant.SAXON, net.sf.saxon.functions.Extensions.class);
-        declareJavaClass(NamespaceConstant.EXSLT_COMMON, net.sf.saxon.exslt.Common.class);
-        declareJavaClass(NamespaceConstant.EXSLT_SETS, net.sf.saxon.exslt.Sets.class);
-        declareJavaClass(NamespaceConstant.EXSLT_MATH, net.sf.saxon.exslt.Math.class);
-        declareJavaClass(NamespaceConstant.EXSLT_DATES_AND_TIMES, net.sf.saxon.exslt.Date.class);
-        declareJavaClass(NamespaceConstant.EXSLT_RANDOM, net.sf.saxon.exslt.Random.class);
+        if (!config.isDeferredInitialization()) {
+            declareJavaClass(NamespaceConstant.SAXON, net.sf.saxon.functions.Extensions.class);
+            declareJavaClass(NamespaceConstant.EXSLT_COMMON, net.sf.saxon.exslt.Common.class);
+            declareJavaClass(NamespaceConstant.EXSLT_SETS, net.sf.saxon.exslt.Sets.class);
+            declareJavaClass(NamespaceConstant.EXSLT_MATH, net.sf.saxon.exslt.Math.class);
+            declareJavaClass(NamespaceConstant.EXSLT_DATES_AND_TIMES, net.sf.saxon.exslt.Date.class);
+            declareJavaClass(NamespaceConstant.EXSLT_RANDOM, net.sf.saxon.exslt.Random.class);
+            return;
+        }
+        declareJavaClassName(NamespaceConstant.SAXON, "net.sf.saxon.functions.Extensions");
+        declareJavaClassName(NamespaceConstant.EXSLT_COMMON, "net.sf.saxon.exslt.Common");
+        declareJavaClassName(NamespaceConstant.EXSLT_SETS, "net.sf.saxon.exslt.Sets");
+        declareJavaClassName(NamespaceConstant.EXSLT_MATH, "net.sf.saxon.exslt.Math");
+        declareJavaClassName(NamespaceConstant.EXSLT_DATES_AND_TIMES, "net.sf.saxon.exslt.Date");
+        declareJavaClassName(NamespaceConstant.EXSLT_RANDOM, "net.sf.saxon.exslt.Random");
+    }
+
+    /**
+     * Declare a mapping from a specific namespace URI to the name of a Java class. The class
+     * is not loaded until a function in this namespace is first used: this avoids loading classes
+     * that most stylesheets never need, which matters when the JVM is started for a single transformation.
+     * This is used when the Configuration defers initialization.
+     * @param uri the namespace URI of the function name
+     * @param className the name of the Java class that implements the functions in this namespace
+     */
+
+    private void declareJavaClassName(String uri, String className) {
+        explicitMappings.put(uri, className);
     }
 
     /**
@@ -848,9 +872,17 @@ public class JavaExtensionLibrary implements FunctionLibrary {
 
         // First see if an explicit mapping has been registered for this URI
 
-        Class c = (Class) explicitMappings.get(uri);
-        if (c != null) {
-            return c;
+        Object c = explicitMappings.get(uri);
+        if (c instanceof Class) {
+            return (Class)c;
+        } else if (c != null) {
+            try {
+                Class theClass = config.getClass((String)c, config.isTraceExternalFunctions(), null);
+                explicitMappings.put(uri, theClass);
+                return theClass;
+            } catch (XPathException err) {
+                return null;
+            }
         }
 
         // Failing that, try to identify a class directly from the URI
@@ -28,7 +28,7 @@ public class Last extends SystemFunction {
     */
 
     public Item evaluateItem(XPathContext c) throws XPathException {
-        return new IntegerValue(c.getLast());
+        return IntegerValue.makeIntegerValue(c.getLast());
     }
 
     /**
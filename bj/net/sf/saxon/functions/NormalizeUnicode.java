@@ -46,25 +46,17 @@ public class NormalizeUnicode extends SystemFunction {
             }
         }
 
-        // fast path for ASCII strings: normalization is a no-op
-        boolean allASCII = true;
         CharSequence chars = sv.getStringValueCS();
         if (chars instanceof CompressedWhitespace) {
             return sv;
         }
-        for (int i=chars.length()-1; i>=0; i--) {
-            if (chars.charAt(i) > 127) {
-                allASCII = false;
-                break;
-            }
-        }
-        if (allASCII) {
-            return sv;
-        }
-
 
+        // the normalizer returns the original CharSequence if it is already normalized
         Normalizer norm = new Normalizer(fb);
-        CharSequence result = norm.normalize(sv.getStringValueCS());
+        CharSequence result = norm.normalize(chars);
+        if (result == chars) {
+            return sv;
+        }
         return StringValue.makeStringValue(result);
     }
 
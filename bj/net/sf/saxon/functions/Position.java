@@ -25,7 +25,7 @@ public class Position extends SystemFunction {
     */
 
     public Item evaluateItem(XPathContext c) throws XPathException {
-        return new IntegerValue(c.getContextPosition());
+        return IntegerValue.makeIntegerValue(c.getContextPosition());
     }
 
     /**
@@ -30,7 +30,7 @@ public class RegexGroup extends SystemFunction implements XSLTFunction {
         NumericValue gp = (NumericValue)gp0.getPrimitiveValue();
         RegexIterator iter = c.getCurrentRegexIterator();
         if (iter == null) return null;
-        String s = iter.getRegexGroup((int)gp.longValue());
+        CharSequence s = iter.getRegexGroup((int)gp.longValue());
         if (s == null) return null;
         return StringValue.makeStringValue(s);
     }
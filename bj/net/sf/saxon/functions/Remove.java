@@ -8,13 +8,14 @@ import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.IntegerValue;
 import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.PersistentSequence;
 
 /**
 * The XPath 2.0 remove() function
 */
 
 
-public class Remove extends SystemFunction {
+public class Remove extends SystemFunction implements PersistentSequence.Updater {
 
     /**
      * Simplify. Recognize remove(seq, 1) as a TailExpression.
@@ -63,15 +64,39 @@ public class Remove extends SystemFunction {
 
     public SequenceIterator iterate(XPathContext context) throws XPathException {
         SequenceIterator seq = argument[0].iterate(context);
-        AtomicValue n0 = (AtomicValue)argument[1].evaluateItem(context);
-        NumericValue n = (NumericValue)n0.getPrimitiveValue();
-        int pos = (int)n.longValue();
+        if (seq instanceof PersistentSequence.PersistentSequenceIterator) {
+            return update(((PersistentSequence.PersistentSequenceIterator)seq).getSequence(), context)
+                    .iterate(context);
+        }
+        int pos = getRemovePosition(context);
         if (pos < 1) {
             return seq;
         }
         return new RemoveIterator(seq, pos);
     }
 
+    private int getRemovePosition(XPathContext context) throws XPathException {
+        AtomicValue n0 = (AtomicValue)argument[1].evaluateItem(context);
+        NumericValue n = (NumericValue)n0.getPrimitiveValue();
+        return (int)n.longValue();
+    }
+
+    /**
+     * Get the expression that supplies the sequence from which an item is removed
+     */
+
+    public Expression getBaseExpression() {
+        return argument[0];
+    }
+
+    /**
+     * Evaluate the function when the input sequence is held as a PersistentSequence
+     */
+
+    public PersistentSequence update(PersistentSequence base, XPathContext context) throws XPathException {
+        return base.remove(getRemovePosition(context) - 1);
+    }
+
     /**
      * An implementation of SequenceIterator that returns all items except the one
      * at a specified position.
@@ -109,7 +109,7 @@ public class Replace extends SystemFunction {
                         "FORX0003", c);
             }
         }
-        String input = arg0.getStringValue();
+        CharSequence input = arg0.getStringValueCS();
         CharSequence res = re.replace(input, replacement);
         return StringValue.makeStringValue(res);
     }
@@ -2,6 +2,7 @@ package net.sf.saxon.functions;
 
 import net.sf.saxon.*;
 import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.Compression;
 import net.sf.saxon.event.PipelineConfiguration;
 import net.sf.saxon.event.Stripper;
 import net.sf.saxon.expr.*;
@@ -18,10 +19,15 @@ import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
-import java.io.File;
-import java.io.FilenameFilter;
+import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * This class implements the default collection URI Resolver.
@@ -36,8 +42,16 @@ import java.net.URISyntaxException;
  * <li><p>select=pattern determines which files in the directory are selected.</p></li>
  * <li><p>on-error=fail|warn|ignore determines the action taken if processing of a file fails</p></li>
  * <li><p>parser=qualified.class.name selects the parser (XMLReader) to be used to read the files</p></li>
+ * <li><p>compression=gzip|deflate|none indicates how the files are compressed. By default, files whose
+ * names end in ".gz" are decompressed using gzip, and other files are not decompressed.</p></li>
  * </ul>
  * <p>
+ * If the URI uses the "file:/" scheme and the file that is referenced is a zip archive (its name ends in
+ * ".zip"), the collection is the set of files in the archive. The same query parameters may be used:
+ * without recurse=yes, only the files at the top level of the archive are included. The document URI of
+ * each document uses the "jar:" scheme, for example <code>jar:file:/data/feed.zip!/item1.xml</code>.
+ * The entries are decompressed on a separate thread while they are being parsed.
+ * <p>
  * Otherwise, the resolver attempts to dereference the URI to obtain a catalog file. This is an XML file
  * containing a list of documents, in the format: </p>
  * <pre>
@@ -120,6 +134,9 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
             if (file.isDirectory()) {
                 return directoryContents(file, params, context);
             }
+            if (file.getName().toLowerCase().endsWith(".zip")) {
+                return zipContents(file, params, context);
+            }
         }
         return catalogContents(resolvedURI, params, context);
 
@@ -148,9 +165,91 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
             fileValues[f] = new ObjectValue(files[f]);
         }
 
-        // If the URI requested suppression of errors, or that errors should be treated
-        // as warnings, we set up a special ErrorListener to achieve this
+        FileExpander expander = new FileExpander(params, makePipelineConfiguration(params, context));
+        SequenceIterator base = new ArrayIterator(fileValues);
+        return new MappingIterator(base, expander);
+    }
+
+    /**
+     * Return a collection containing the files in a zip archive
+     * @param file the zip archive
+     * @param params the query parameters supplied in the collection URI
+     * @param context the dynamic context
+     * @return an iterator over the documents in the collection
+     */
+
+    private SequenceIterator zipContents(File file, URIQueryParameters params, XPathContext context)
+    throws XPathException {
+
+        ZipFile zip;
+        try {
+            zip = new ZipFile(file);
+        } catch (IOException e) {
+            DynamicError err = new DynamicError(
+                    "Cannot read the zip archive " + file + ": " + e.getMessage());
+            err.setErrorCode("FODC0004");
+            err.setXPathContext(context);
+            throw err;
+        }
+
+        boolean recurse = false;
+        FilenameFilter filter = null;
+        if (params != null) {
+            filter = params.getFilenameFilter();
+            if (params.getRecurse() != null) {
+                recurse = params.getRecurse().booleanValue();
+            }
+        }
 
+        List entries = new ArrayList();
+        for (Enumeration e = zip.entries(); e.hasMoreElements();) {
+            ZipEntry entry = (ZipEntry)e.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            int slash = name.lastIndexOf('/');
+            if (slash >= 0 && !recurse) {
+                continue;
+            }
+            if (filter != null) {
+                String localName = name.substring(slash + 1);
+                boolean selected = (filter instanceof URIQueryParameters.RegexFilter ?
+                        ((URIQueryParameters.RegexFilter)filter).matches(localName) :
+                        filter.accept(file, localName));
+                if (!selected) {
+                    continue;
+                }
+            }
+            entries.add(entry);
+        }
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // ignore the failure
+        }
+
+        ObjectValue[] entryValues = new ObjectValue[entries.size()];
+        ZipEntry[] zipEntries = new ZipEntry[entries.size()];
+        for (int i=0; i<entryValues.length; i++) {
+            zipEntries[i] = (ZipEntry)entries.get(i);
+            entryValues[i] = new ObjectValue(zipEntries[i]);
+        }
+        ZipEntryExpander expander =
+                new ZipEntryExpander(params, makePipelineConfiguration(params, context), file, zipEntries);
+        return new MappingIterator(new ArrayIterator(entryValues), expander);
+    }
+
+    /**
+     * Make the pipeline configuration used to build the documents in a collection. If the URI requested
+     * suppression of errors, or that errors should be treated as warnings, this includes a special
+     * ErrorListener to achieve this
+     * @param params the query parameters supplied in the collection URI
+     * @param context the dynamic context
+     * @return the pipeline configuration
+     */
+
+    private static PipelineConfiguration makePipelineConfiguration(URIQueryParameters params, XPathContext context) {
         int onError = URIQueryParameters.ON_ERROR_FAIL;
         if (params != null && params.getOnError() != null) {
             onError = params.getOnError().intValue();
@@ -181,9 +280,7 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                 }
             });
         }
-        FileExpander expander = new FileExpander(params, newPipe);
-        SequenceIterator base = new ArrayIterator(fileValues);
-        return new MappingIterator(base, expander);
+        return newPipe;
     }
 
     /**
@@ -307,6 +404,7 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
         int validation = Validation.STRIP;
         XMLReader parser = null;
         int onError = URIQueryParameters.ON_ERROR_FAIL;
+        Integer compression = null;
         FilenameFilter filter = null;
         PipelineConfiguration pipe;
 
@@ -335,6 +433,7 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                 if (p != null) {
                     parser = p;
                 }
+                compression = params.getCompression();
             }
 
         }
@@ -371,56 +470,214 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                     return null;
                 }
             } else {
+                return buildDocument(item);
+            }
+        }
+
+        /**
+         * Make a Source for one document in the collection
+         * @param item the item identifying the document
+         * @return a StreamSource for the document. If the StreamSource has an InputStream, it will be
+         * closed after the document has been built.
+         */
+
+        protected StreamSource makeSource(Item item) throws IOException {
+            File file = (File)((ObjectValue)item).getObject();
+            String uri = file.toURI().toString();
+            if (compression != null) {
+                InputStream in = Compression.openInputStream(new FileInputStream(file), compression.intValue());
+                return new StreamSource(in, uri);
+            } else {
+                // the Sender decompresses the file if its name indicates that it is compressed
+                return new StreamSource(uri);
+            }
+        }
+
+        /**
+         * Build one document in the collection
+         * @param item the item identifying the document
+         * @return the document node, or null if the document cannot be built and errors are being ignored
+         */
+
+        protected Object buildDocument(Item item) throws XPathException {
+            StreamSource streamSource = null;
+            try {
                 try {
-                    Source source = new StreamSource(file.toURI().toString());
-                    if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
-                        source = AugmentedSource.makeAugmentedSource(source);
-                        ((AugmentedSource)source).setSchemaValidationMode(validation);
+                    streamSource = makeSource(item);
+                } catch (IOException e) {
+                    throw new DynamicError(e);
+                }
+                Source source = streamSource;
+                if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
+                    source = AugmentedSource.makeAugmentedSource(source);
+                    ((AugmentedSource)source).setSchemaValidationMode(validation);
+                }
+                if (parser != null) {
+                    source = AugmentedSource.makeAugmentedSource(source);
+                    ((AugmentedSource)source).setXMLReader(parser);
+                }
+
+                Stripper stripper = null;
+                if (params != null) {
+                    int stripSpace = params.getStripSpace();
+                    switch (strip) {
+                        case Whitespace.ALL: {
+                            stripper = AllElementStripper.getInstance();
+                            stripper.setStripAll();
+                            source = AugmentedSource.makeAugmentedSource(source);
+                            ((AugmentedSource)source).addFilter(stripper);
+                            break;
+                        }
+                        case Whitespace.IGNORABLE:
+                        case Whitespace.NONE:
+                            source = AugmentedSource.makeAugmentedSource(source);
+                            ((AugmentedSource)source).setStripSpace(stripSpace);
                     }
-                    if (parser != null) {
-                        source = AugmentedSource.makeAugmentedSource(source);
-                        ((AugmentedSource)source).setXMLReader(parser);
+                }
+                NodeInfo contextNode = Builder.build(source, null, pipe);
+                return contextNode.getDocumentRoot();
+            } catch (XPathException err) {
+                if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
+                    return null;
+                } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
+                    try {
+                        if (!err.hasBeenReported()) {
+                            pipe.getErrorListener().warning(err);
+                            DynamicError supp = new DynamicError("The document will be excluded from the collection");
+                            supp.setLocator(err.getLocator());
+                            pipe.getErrorListener().warning(supp);
+                        }
+                    } catch (TransformerException err2) {
+                        //
                     }
+                    return null;
+                } else {
+                    throw err;
+                }
+            } finally {
+                if (streamSource != null && streamSource.getInputStream() != null) {
+                    try {
+                        streamSource.getInputStream().close();
+                    } catch (IOException e) {
+                        // ignore the failure
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Mapping function to process the entries in a zip archive. This maps a sequence of external
+     * objects representing zip entries to a sequence of DocumentInfo nodes representing the parsed
+     * contents of those entries.
+     *
+     * <p>The archive is never left open between documents, so nothing is leaked if the caller stops
+     * reading the collection before the end (for example, in collection('x.zip')[1]). To avoid the
+     * cost of opening the archive for every document, the contents of the entries are read into
+     * memory in batches of about {@link #BATCH_SIZE} bytes: the archive is opened, a batch of entries
+     * is read, and the archive is closed again.</p>
+     */
+
+    private static class ZipEntryExpander extends FileExpander {
+
+        private static final int BATCH_SIZE = 1024*1024;
 
-                    Stripper stripper = null;
-                    if (params != null) {
-                        int stripSpace = params.getStripSpace();
-                        switch (strip) {
-                            case Whitespace.ALL: {
-                                stripper = AllElementStripper.getInstance();
-                                stripper.setStripAll();
-                                source = AugmentedSource.makeAugmentedSource(source);
-                                ((AugmentedSource)source).addFilter(stripper);
-                                break;
-                            }
-                            case Whitespace.IGNORABLE:
-                            case Whitespace.NONE:
-                                source = AugmentedSource.makeAugmentedSource(source);
-                                ((AugmentedSource)source).setStripSpace(stripSpace);
+        private File archive;
+        private String archiveURI;
+        private ZipEntry[] entries;                 // all the entries in the collection, in order
+        private int nextEntry = 0;                  // position in entries of the entry expected next
+        private HashMap contents = new HashMap(20); // ZipEntry -> byte[], for the current batch
+
+        public ZipEntryExpander(URIQueryParameters params, PipelineConfiguration pipe, File archive,
+                                ZipEntry[] entries) {
+            super(params, pipe);
+            this.archive = archive;
+            this.archiveURI = archive.toURI().toString();
+            this.entries = entries;
+        }
+
+        public Object map(Item item) throws XPathException {
+            return buildDocument(item);
+        }
+
+        protected StreamSource makeSource(Item item) throws IOException {
+            ZipEntry entry = (ZipEntry)((ObjectValue)item).getObject();
+            byte[] data = (byte[])contents.remove(entry);
+            if (data == null) {
+                readBatch(entry);
+                data = (byte[])contents.remove(entry);
+            }
+            String name = entry.getName();
+            InputStream in = new ByteArrayInputStream(data);
+            int c = (compression == null ? Compression.getCompressionForFileName(name) : compression.intValue());
+            if (c != Compression.NONE) {
+                in = Compression.openInputStream(in, c);
+            }
+            return new StreamSource(in, "jar:" + archiveURI + "!/" + JavaPlatform.escapeSpaces(name));
+        }
+
+        /**
+         * Open the archive, read the contents of the given entry and of the entries that follow it
+         * (up to the batch size), and close the archive
+         * @param first the entry that is needed now
+         * @throws IOException if the given entry cannot be read. A failure reading any of the
+         * following entries just ends the batch: the error is reported when that entry is needed.
+         */
+
+        private void readBatch(ZipEntry first) throws IOException {
+            contents.clear();
+            int start = nextEntry;
+            if (start >= entries.length || entries[start] != first) {
+                start = 0;
+                while (entries[start] != first) {
+                    start++;
+                }
+            }
+            ZipFile zip = new ZipFile(archive);
+            try {
+                int total = 0;
+                int e = start;
+                while (e < entries.length && (e == start || total < BATCH_SIZE)) {
+                    byte[] data;
+                    try {
+                        data = readEntry(zip, entries[e]);
+                    } catch (IOException err) {
+                        if (e == start) {
+                            throw err;
                         }
+                        break;
                     }
-                    NodeInfo contextNode = Builder.build(source, null, pipe);
-                    return contextNode.getDocumentRoot();
-                } catch (XPathException err) {
-                    if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
-                        return null;
-                    } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
-                        try {
-                            if (!err.hasBeenReported()) {
-                                pipe.getErrorListener().warning(err);
-                                DynamicError supp = new DynamicError("The document will be excluded from the collection");
-                                supp.setLocator(err.getLocator());
-                                pipe.getErrorListener().warning(supp);
-                            }
-                        } catch (TransformerException err2) {
-                            //
-                        }
-                        return null;
-                    } else {
-                        throw err;
+                    contents.put(entries[e], data);
+                    total += data.length;
+                    e++;
+                }
+                nextEntry = e;
+            } finally {
+                try {
+                    zip.close();
+                } catch (IOException err) {
+                    // ignore the failure
+                }
+            }
+        }
+
+        private static byte[] readEntry(ZipFile zip, ZipEntry entry) throws IOException {
+            long size = entry.getSize();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 && size < BATCH_SIZE ? (int)size : 4096);
+            InputStream in = zip.getInputStream(entry);
+            try {
+                byte[] buffer = new byte[8192];
+                while (true) {
+                    int n = in.read(buffer);
+                    if (n < 0) {
+                        break;
                     }
+                    out.write(buffer, 0, n);
                 }
+            } finally {
+                in.close();
             }
+            return out.toByteArray();
         }
     }
 
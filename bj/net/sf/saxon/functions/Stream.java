@@ -0,0 +1,489 @@
+package net.sf.saxon.functions;
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.*;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.pull.PullProvider;
+import net.sf.saxon.pull.StaxBridge;
+import net.sf.saxon.sort.DocumentSorter;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.AtomicValue;
+import org.xml.sax.InputSource;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the saxon:stream() extension function. The argument must be a path expression
+ * of the form doc(uri)/a/b/c, optionally with a predicate on the last step that does not depend on
+ * position. The document is read using a StAX parser; each element selected by the path is built as
+ * a small tree of its own, and is discarded once the caller has finished with it. This allows
+ * a sequence of repeated elements in a very large document to be processed in bounded memory.
+ *
+ * <p>Each element returned is the outermost element of its own document: its ancestors and siblings
+ * in the original document are not available.</p>
+ *
+ * <p>If the argument is not in this form, a warning is issued and the argument is evaluated in
+ * the normal way, building the whole document.</p>
+ *
+ * <p>The document is closed when the last element has been read, or when an error occurs. It is also
+ * registered with the Controller, which closes it when the transformation or query ends, so it is not
+ * left open if the caller stops reading early (as in <code>saxon:stream(...)[1]</code>).</p>
+ */
+
+public class Stream extends SystemFunction {
+
+    private Doc docCall = null;                 // the call on doc() that selects the document
+    private NodeTest[] steps = null;            // the element tests on the child axis, outermost first
+    private Expression predicate = null;        // a non-positional predicate applied to the selected elements
+    private boolean analyzed = false;
+
+    /**
+    * preEvaluate: this method suppresses compile-time evaluation by doing nothing
+    */
+
+    public Expression preEvaluate(StaticContext env) {
+        return this;
+    }
+
+    /**
+     * Optimize the expression, and work out whether the argument can be evaluated in streaming mode
+     */
+
+    public Expression optimize(Optimizer opt, StaticContext env, ItemType contextItemType) throws XPathException {
+        Expression exp = super.optimize(opt, env, contextItemType);
+        if (exp == this && !analyzed) {
+            analyzed = true;
+            if (!analyzePath(argument[0], env)) {
+                env.issueWarning("The argument of saxon:stream() is not a streamable path expression " +
+                        "of the form doc(uri)/a/b/c: the whole document will be built in memory", this);
+            }
+        }
+        return exp;
+    }
+
+    /**
+     * Promote this expression if possible. The argument is never promoted out of the function call,
+     * since that would cause the whole document to be built.
+     */
+
+    public Expression promote(PromotionOffer offer) throws XPathException {
+        if (offer.action == PromotionOffer.FOCUS_INDEPENDENT || offer.action == PromotionOffer.RANGE_INDEPENDENT) {
+            return this;
+        }
+        return super.promote(offer);
+    }
+
+    /**
+     * Get the static properties of this expression. The selected elements are in separate documents,
+     * but these are created in order, so the result is in document order.
+     */
+
+    public int computeSpecialProperties() {
+        return StaticProperty.ORDERED_NODESET |
+                StaticProperty.PEER_NODESET;
+    }
+
+    /**
+     * Determine whether the argument is a path that can be evaluated in streaming mode, and if so,
+     * extract its components
+     * @return true if the path is streamable
+     */
+
+    private boolean analyzePath(Expression exp, StaticContext env) {
+        if (exp instanceof DocumentSorter) {
+            exp = ((DocumentSorter)exp).getBaseExpression();
+        }
+        List list = new ArrayList(8);
+        flatten(exp, list);
+        if (list.size() < 2 || !(list.get(0) instanceof Doc) ||
+                ((Doc)list.get(0)).getNumberOfArguments() != 1) {
+            return false;
+        }
+        Expression last = (Expression)list.get(list.size()-1);
+        Expression filter = null;
+        if (last instanceof FilterExpression) {
+            FilterExpression f = (FilterExpression)last;
+            if (f.isPositional(env.getConfiguration().getTypeHierarchy())) {
+                return false;
+            }
+            filter = f.getFilter();
+            list.set(list.size()-1, f.getBaseExpression());
+        }
+        NodeTest[] tests = new NodeTest[list.size()-1];
+        for (int i=1; i<list.size(); i++) {
+            Object step = list.get(i);
+            if (!(step instanceof AxisExpression) || ((AxisExpression)step).getAxis() != Axis.CHILD) {
+                return false;
+            }
+            NodeTest test = ((AxisExpression)step).getNodeTest();
+            if (!(test instanceof NameTest || test instanceof NodeKindTest) ||
+                    test.getPrimitiveType() != Type.ELEMENT) {
+                return false;
+            }
+            tests[i-1] = test;
+        }
+        docCall = (Doc)list.get(0);
+        steps = tests;
+        predicate = filter;
+        return true;
+    }
+
+    /**
+     * Flatten a path expression into a list of its steps
+     */
+
+    private static void flatten(Expression exp, List list) {
+        if (exp instanceof PathExpression) {
+            flatten(((PathExpression)exp).getStartExpression(), list);
+            flatten(((PathExpression)exp).getStepExpression(), list);
+        } else {
+            list.add(exp);
+        }
+    }
+
+    /**
+     * Iterate over the selected elements
+     * @param context the dynamic context
+     * @return an iterator over the selected elements. If the path is streamable, each element will
+     * be the outermost element of a separate document, built when the iterator reaches it.
+     * @throws XPathException
+     */
+
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        if (steps == null) {
+            return argument[0].iterate(context);
+        }
+        AtomicValue hrefVal = (AtomicValue)docCall.getArguments()[0].evaluateItem(context);
+        if (hrefVal == null) {
+            return EmptyIterator.getInstance();
+        }
+        String href = hrefVal.getStringValue();
+        PullProvider in = openDocument(href, context);
+        if (in == null) {
+            // the URIResolver returned something that can't be streamed
+            return argument[0].iterate(context);
+        }
+        return new StreamIterator(in, href, context);
+    }
+
+    /**
+     * Open the document as a pull pipeline, and register it with the Controller so that it is closed
+     * when the transformation or query ends. Closing the pipeline also closes the input stream or reader.
+     * @return a StaxBridge reading the document, or null if the document cannot be read using StAX
+     */
+
+    private PullProvider openDocument(String href, XPathContext context) throws XPathException {
+        Controller controller = context.getController();
+        String baseURI = docCall.getStaticBaseURI();
+        Source source = null;
+        try {
+            URIResolver resolver = controller.getURIResolver();
+            if (resolver != null) {
+                source = resolver.resolve(href, baseURI);
+            }
+            if (source == null) {
+                source = controller.getStandardURIResolver().resolve(href, baseURI);
+            }
+        } catch (TransformerException err) {
+            DynamicError e = DynamicError.makeDynamicError(err);
+            e.setErrorCode("FODC0005");
+            e.setLocator(this);
+            throw e;
+        }
+
+        InputStream stream = null;
+        Reader reader = null;
+        String systemId = source.getSystemId();
+        if (source instanceof StreamSource) {
+            stream = ((StreamSource)source).getInputStream();
+            reader = ((StreamSource)source).getReader();
+        } else if (source instanceof SAXSource) {
+            InputSource is = ((SAXSource)source).getInputSource();
+            if (is == null) {
+                return null;
+            }
+            stream = is.getByteStream();
+            reader = is.getCharacterStream();
+            if (is.getSystemId() != null) {
+                systemId = is.getSystemId();
+            }
+        } else {
+            return null;
+        }
+
+        if (reader == null && stream == null && systemId == null) {
+            return null;
+        }
+        StaxBridge bridge;
+        try {
+            if (reader == null && stream == null) {
+                stream = new URL(systemId).openStream();
+            }
+            final InputStream openStream = stream;
+            final Reader openReader = reader;
+            bridge = new StaxBridge() {
+                public void close() {
+                    // closing the XMLStreamReader does not close its input
+                    super.close();
+                    closeInput(openStream, openReader);
+                }
+            };
+            bridge.setPipelineConfiguration(controller.makePipelineConfiguration());
+            if (reader != null) {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                bridge.setXMLStreamReader(factory.createXMLStreamReader(systemId, reader));
+            } else {
+                bridge.setInputStream(systemId, stream);
+            }
+        } catch (IOException err) {
+            closeInput(stream, reader);
+            DynamicError e = new DynamicError("Failed to open " + systemId + ": " + err.getMessage());
+            e.setErrorCode("FODC0002");
+            e.setLocator(this);
+            throw e;
+        } catch (XMLStreamException err) {
+            closeInput(stream, reader);
+            DynamicError e = new DynamicError(err);
+            e.setErrorCode("FODC0002");
+            e.setLocator(this);
+            throw e;
+        }
+        controller.registerPullProvider(bridge);
+        return bridge;
+    }
+
+    /**
+     * Close the input of a document, ignoring any failure
+     */
+
+    private static void closeInput(InputStream stream, Reader reader) {
+        try {
+            if (reader != null) {
+                reader.close();
+            } else if (stream != null) {
+                stream.close();
+            }
+        } catch (IOException err) {
+            // ignore the failure
+        }
+    }
+
+    /**
+     * Copy the element at the current position of a PullProvider, with its subtree, to a Receiver
+     */
+
+    private static void copyElement(PullProvider in, Receiver out) throws XPathException {
+        int depth = 0;
+        int event = PullProvider.START_ELEMENT;
+        while (true) {
+            switch (event) {
+                case PullProvider.START_ELEMENT:
+                    out.startElement(in.getNameCode(), in.getTypeAnnotation(), 0, 0);
+                    NamespaceDeclarations decl = in.getNamespaceDeclarations();
+                    for (int i=0; i<decl.getNumberOfNamespaces(); i++) {
+                        out.namespace(decl.getNamespaceCode(i), 0);
+                    }
+                    AttributeCollection atts = in.getAttributes();
+                    for (int i=0; i<atts.getLength(); i++) {
+                        out.attribute(atts.getNameCode(i), atts.getTypeAnnotation(i),
+                                atts.getValue(i), 0, atts.getProperties(i));
+                    }
+                    out.startContent();
+                    depth++;
+                    break;
+                case PullProvider.END_ELEMENT:
+                    out.endElement();
+                    if (--depth == 0) {
+                        return;
+                    }
+                    break;
+                case PullProvider.TEXT:
+                    out.characters(in.getStringValue(), 0, 0);
+                    break;
+                case PullProvider.COMMENT:
+                    out.comment(in.getStringValue(), 0, 0);
+                    break;
+                case PullProvider.PROCESSING_INSTRUCTION:
+                    out.processingInstruction(
+                            in.getPipelineConfiguration().getConfiguration().getNamePool().getLocalName(in.getNameCode()),
+                            in.getStringValue(), 0, 0);
+                    break;
+                default:
+                    throw new DynamicError("Unexpected end of input in saxon:stream()");
+            }
+            event = in.next();
+        }
+    }
+
+    /**
+     * Iterator over the elements selected by a streamable path. The document is read only as far as
+     * is needed to find the next selected element.
+     */
+
+    private class StreamIterator implements SequenceIterator {
+
+        private PullProvider in;
+        private String href;
+        private XPathContext context;
+        private int depth = 0;          // depth of the current position in the source document
+        private int matched = 0;        // number of leading steps matched by the ancestors of the current position
+        private Item current = null;
+        private int position = 0;
+
+        public StreamIterator(PullProvider in, String href, XPathContext context) {
+            this.in = in;
+            this.href = href;
+            this.context = context;
+        }
+
+        public Item next() throws XPathException {
+            if (position < 0) {
+                return null;
+            }
+            try {
+                return advance();
+            } catch (XPathException err) {
+                close();
+                throw err;
+            } catch (RuntimeException err) {
+                close();
+                throw err;
+            }
+        }
+
+        /**
+         * Read the document as far as the next selected element
+         */
+
+        private Item advance() throws XPathException {
+            while (true) {
+                int event = in.next();
+                switch (event) {
+                    case PullProvider.START_ELEMENT:
+                        if (matched == depth && steps[depth].matches(Type.ELEMENT, in.getFingerprint(), in.getTypeAnnotation())) {
+                            if (depth == steps.length - 1) {
+                                NodeInfo element = buildElement();
+                                if (predicate == null || testPredicate(element)) {
+                                    current = element;
+                                    position++;
+                                    return current;
+                                }
+                            } else {
+                                depth++;
+                                matched++;
+                            }
+                        } else {
+                            in.skipToMatchingEnd();
+                        }
+                        break;
+                    case PullProvider.END_ELEMENT:
+                        depth--;
+                        matched = depth;
+                        break;
+                    case PullProvider.END_OF_INPUT:
+                        close();
+                        return null;
+                    default:
+                        // ignore text, comments, and processing instructions outside the selected elements
+                }
+            }
+        }
+
+        /**
+         * Close the document, after which the iterator delivers no more items
+         */
+
+        private void close() {
+            context.getController().closePullProvider(in);
+            current = null;
+            position = -1;
+        }
+
+        /**
+         * Build a document containing the element at the current position, and return the element
+         */
+
+        private NodeInfo buildElement() throws XPathException {
+            Controller controller = context.getController();
+            Builder b = controller.makeBuilder();
+            Receiver r = controller.makeStripper(b);
+            if (controller.getExecutable().stripsInputTypeAnnotations()) {
+                r = controller.getConfiguration().getAnnotationStripper(r);
+            }
+            r.setPipelineConfiguration(b.getPipelineConfiguration());
+            r.open();
+            r.startDocument(0);
+            copyElement(in, r);
+            r.endDocument();
+            r.close();
+            DocumentInfo doc = (DocumentInfo)b.getCurrentRoot();
+            return (NodeInfo)doc.iterateAxis(Axis.CHILD, NodeKindTest.ELEMENT).next();
+        }
+
+        private boolean testPredicate(NodeInfo element) throws XPathException {
+            XPathContext c2 = context.newMinorContext();
+            SequenceIterator single = SingletonIterator.makeIterator(element);
+            single.next();
+            c2.setCurrentIterator(single);
+            return predicate.effectiveBooleanValue(c2);
+        }
+
+        public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public SequenceIterator getAnother() throws XPathException {
+            PullProvider in2 = openDocument(href, context);
+            if (in2 == null) {
+                return argument[0].iterate(context);
+            }
+            return new StreamIterator(in2, href, context);
+        }
+
+        public int getProperties() {
+            return 0;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -86,9 +86,9 @@ public class StringLength extends SystemFunction {
         CharSequence s = sv.getStringValueCS();
 
         if (shortcut) {
-            return new IntegerValue((s.length()>0 ? 1 : 0));
+            return IntegerValue.makeIntegerValue((s.length()>0 ? 1 : 0));
         } else {
-            return new IntegerValue(StringValue.getStringLength(s));
+            return IntegerValue.makeIntegerValue(StringValue.getStringLength(s));
         }
     }
 
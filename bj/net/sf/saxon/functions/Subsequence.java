@@ -1,4 +1,5 @@
 package net.sf.saxon.functions;
+import net.sf.saxon.expr.Expression;
 import net.sf.saxon.expr.PositionIterator;
 import net.sf.saxon.expr.TailExpression;
 import net.sf.saxon.expr.XPathContext;
@@ -11,13 +12,14 @@ import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.NumericValue;
 import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.PersistentSequence;
 
 /**
 * Implements the XPath 2.0 subsequence()  function
 */
 
 
-public class Subsequence extends SystemFunction {
+public class Subsequence extends SystemFunction implements PersistentSequence.Updater {
 
     // Ideally, we would simply convert this at compile time to a filter expression.
     // Unfortunately, this is not always possible, because a filter expression changes
@@ -48,7 +50,30 @@ public class Subsequence extends SystemFunction {
     */
 
     public SequenceIterator iterate(XPathContext context) throws XPathException {
-        SequenceIterator seq = argument[0].iterate(context);
+        return subsequence(argument[0].iterate(context), context);
+    }
+
+    /**
+     * Get the expression that supplies the sequence from which a subsequence is taken
+     */
+
+    public Expression getBaseExpression() {
+        return argument[0];
+    }
+
+    /**
+     * Evaluate the function when the input sequence is held as a PersistentSequence
+     */
+
+    public PersistentSequence update(PersistentSequence base, XPathContext context) throws XPathException {
+        return PersistentSequence.makePersistentSequence(subsequence(base.iterate(context), context));
+    }
+
+    /**
+     * Select the required subsequence of the items returned by an iterator
+     */
+
+    private SequenceIterator subsequence(SequenceIterator seq, XPathContext context) throws XPathException {
         AtomicValue startVal0 = (AtomicValue)argument[1].evaluateItem(context);
         NumericValue startVal = (NumericValue)startVal0.getPrimitiveValue();
 
@@ -77,6 +102,10 @@ public class Subsequence extends SystemFunction {
                 return EmptyIterator.getInstance();
             }
 
+            if (seq instanceof PersistentSequence.PersistentSequenceIterator) {
+                return ((PersistentSequence.PersistentSequenceIterator)seq).makeSliceIterator(
+                        (int)lstart, Integer.MAX_VALUE);
+            }
             return new TailExpression.TailIterator(seq, (int)lstart);
 
         } else {
@@ -1,6 +1,7 @@
 package net.sf.saxon.functions;
 
 import net.sf.saxon.Configuration;
+import net.sf.saxon.event.Compression;
 import net.sf.saxon.om.FastStringBuffer;
 import net.sf.saxon.om.Validation;
 import net.sf.saxon.trans.XPathException;
@@ -23,6 +24,7 @@ public class URIQueryParameters {
     Integer validation = null;
     int strip = Whitespace.UNSPECIFIED;
     Integer onError = null;
+    Integer compression = null;
     XMLReader parser = null;
 
     public static final int ON_ERROR_FAIL = 1;
@@ -81,6 +83,11 @@ public class URIQueryParameters {
                         } else if (value.equals("fail")) {
                             onError = new Integer(ON_ERROR_FAIL);
                         }
+                    } else if (keyword.equals("compression")) {
+                        int c = Compression.getCompression(value);
+                        if (c >= 0) {
+                            compression = new Integer(c);
+                        }
                     } else if (keyword.equals("parser")) {
                         try {
                             if (config == null) {
@@ -139,6 +146,15 @@ public class URIQueryParameters {
         return onError;
     }
 
+    /**
+     * Get the value of the compression=gzip|deflate|none parameter, as one of the constants defined in
+     * {@link Compression}, or null if unspecified
+     */
+
+    public Integer getCompression() {
+        return compression;
+    }
+
     /**
      * Get the selected XML parser, or null if unspecified
      */
@@ -165,7 +181,17 @@ public class URIQueryParameters {
          */
 
         public boolean accept(File dir, String name) {
-            return new File(dir, name).isDirectory() || pattern.matcher(name).matches();
+            return new File(dir, name).isDirectory() || matches(name);
+        }
+
+        /**
+         * Test whether a file name matches the pattern
+         * @param name the name of the file, without any directory part
+         * @return true if the name matches
+         */
+
+        public boolean matches(String name) {
+            return pattern.matcher(name).matches();
         }
     }
 }
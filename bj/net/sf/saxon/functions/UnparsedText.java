@@ -6,8 +6,9 @@ import net.sf.saxon.expr.StaticContext;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.FastStringBuffer;
-import net.sf.saxon.om.XMLChar;
 import net.sf.saxon.om.NameChecker;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.EmptyIterator;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.StringValue;
@@ -16,10 +17,6 @@ import net.sf.saxon.value.BooleanValue;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
 
 
 public class UnparsedText extends SystemFunction implements XSLTFunction {
@@ -34,6 +31,7 @@ public class UnparsedText extends SystemFunction implements XSLTFunction {
 
     public static final int UNPARSED_TEXT = 0;
     public static final int UNPARSED_TEXT_AVAILABLE = 1;
+    public static final int UNPARSED_TEXT_LINES = 2;
 
     public void checkArguments(StaticContext env) throws XPathException {
         if (expressionBaseURI == null) {
@@ -90,15 +88,52 @@ public class UnparsedText extends SystemFunction implements XSLTFunction {
         }
     }
 
+    /**
+     * iterate() handles evaluation of saxon:unparsed-text-lines(), which returns the lines of the
+     * file one at a time, without reading the whole file into memory
+     */
+
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        if (operation != UNPARSED_TEXT_LINES) {
+            return super.iterate(context);
+        }
+        StringValue hrefVal = (StringValue)argument[0].evaluateItem(context);
+        if (hrefVal == null) {
+            return EmptyIterator.getInstance();
+        }
+        String encoding = null;
+        if (getNumberOfArguments() == 2) {
+            encoding = argument[1].evaluateItem(context).getStringValue();
+        }
+        URL absoluteURL = resolveURI(hrefVal.getStringValue(), expressionBaseURI);
+        return new LineIterator(absoluteURL, encoding, context.getConfiguration().getNameChecker());
+    }
+
     /**
      * Supporting routine to load one external file given a URI (href) and a baseURI
      */
 
     private CharSequence readFile(String href, String baseURI, String encoding, NameChecker checker)
             throws XPathException {
+        URL absoluteURL = resolveURI(href, baseURI);
+        UnparsedTextReader reader = null;
+        try {
+            reader = new UnparsedTextReader(absoluteURL, encoding, checker);
+            return reader.readAll();
+        } catch (java.io.IOException ioErr) {
+            throw makeError(ioErr, absoluteURL, encoding);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
 
-        // Resolve relative URI
+    /**
+     * Resolve a relative URI
+     */
 
+    private static URL resolveURI(String href, String baseURI) throws XPathException {
         URL absoluteURL;
         if (baseURI == null) {    // no base URI available
             try {
@@ -119,199 +154,160 @@ public class UnparsedText extends SystemFunction implements XSLTFunction {
                 throw e;
             }
         }
-        try {
-            InputStream is;
-            if (encoding != null) {
-                is = absoluteURL.openStream();
-            } else {
-                URLConnection connection = absoluteURL.openConnection();
-                connection.connect();
-                is = connection.getInputStream();
-
-                try {
+        return absoluteURL;
+    }
 
-                    if (!is.markSupported()) {
-                        is = new BufferedInputStream(is);
-                    }
+    /**
+     * Make the dynamic error to be reported when an external file cannot be read
+     */
 
-                    // Get any external (HTTP) encoding label.
-                    String contentType;
-
-                    // The file:// URL scheme gives no useful information...
-                    if (!"file".equals(connection.getURL().getProtocol())) {
-
-                        // Use the contentType from the HTTP header if available
-                        contentType = connection.getContentType();
-
-                        if (contentType != null) {
-                            int pos = contentType.indexOf("charset");
-                            if (pos>=0) {
-                                pos = contentType.indexOf('=', pos + 7);
-                                if (pos>=0) {
-                                    contentType = contentType.substring(pos + 1);
-                                }
-                                if ((pos = contentType.indexOf(';')) > 0) {
-                                    contentType = contentType.substring(0, pos);
-                                }
-
-                                // attributes can have comment fields (RFC 822)
-                                if ((pos = contentType.indexOf('(')) > 0) {
-                                    contentType = contentType.substring(0, pos);
-                                }
-                                // ... and values may be quoted
-                                if ((pos = contentType.indexOf('"')) > 0) {
-                                    contentType = contentType.substring(pos + 1,
-                                            contentType.indexOf('"', pos + 2));
-                                }
-                                encoding = contentType.trim();
-                            }
-                        }
-                    }
+    private DynamicError makeError(IOException ioErr, URL absoluteURL, String encoding) {
+        if (ioErr instanceof java.io.UnsupportedEncodingException) {
+            DynamicError e = new DynamicError("Unknown encoding " + Err.wrap(encoding), ioErr);
+            e.setErrorCode("XTDE1190");
+            return e;
+        }
+        String message = "Failed to read input file";
+        if (!absoluteURL.toString().equals(ioErr.getMessage())) {
+            message += ' ' + absoluteURL.toString();
+        }
+        message += " (" + ioErr.getClass().getName() + ')';
+        DynamicError e = new DynamicError(message, ioErr);
+        String errorCode;
+        if (ioErr instanceof java.nio.charset.MalformedInputException) {
+            errorCode = "XTDE1200";
+        } else if (ioErr instanceof java.nio.charset.CharacterCodingException) {
+            errorCode = "XTDE1200";
+        } else if (ioErr instanceof java.nio.charset.UnmappableCharacterException) {
+            errorCode = "XTDE1190";
+        } else {
+           errorCode = "XTDE1170";
+        }
+        e.setErrorCode(errorCode);
+        e.setLocator(this);
+        return e;
+    }
 
-                    if (encoding == null) {
-                        // Try to detect the encoding from the start of the content
-                        is.mark(100);
-                        byte[] start = new byte[100];
-                        int read = is.read(start, 0, 100);
-                        is.reset();
-                        encoding = inferEncoding(start, read);
-                    }
+    /**
+     * Iterator over the lines of an external file. A line is terminated by a newline, a carriage return,
+     * or a carriage return followed by a newline, and the terminator is not included in the line. If the
+     * file ends with a line terminator, there is no empty line after it. The resource is opened when the
+     * first line is requested. A file in the filestore is not held open between calls (see
+     * {@link UnparsedTextReader}); any other resource is closed when the last line has been read.
+     */
 
-                } catch (IOException e) {
-                    encoding = "UTF-8";
-                }
+    private class LineIterator implements SequenceIterator {
+
+        private URL absoluteURL;
+        private String encoding;
+        private NameChecker checker;
+        private UnparsedTextReader reader = null;
+        private char[] array;
+        private int pos = 0;
+        private int end = 0;
+        private boolean afterCR = false;
+        private StringValue current = null;
+        private int position = 0;
+
+        public LineIterator(URL absoluteURL, String encoding, NameChecker checker) {
+            this.absoluteURL = absoluteURL;
+            this.encoding = encoding;
+            this.checker = checker;
+        }
 
+        public Item next() throws XPathException {
+            if (position < 0) {
+                return null;
             }
-
-            // The following appears to be necessary to ensure that encoding errors are not recovered.
-            Charset charset = Charset.forName(encoding);
-            CharsetDecoder decoder = charset.newDecoder();
-            decoder = decoder.onMalformedInput(CodingErrorAction.REPORT);
-            decoder = decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-            Reader reader = new BufferedReader(new InputStreamReader(is, decoder));
-            
-            FastStringBuffer sb = new FastStringBuffer(2048);
-            char[] buffer = new char[2048];
-            boolean first = true;
-            int actual;
-            int line = 1;
-            int column = 1;
-            while (true) {
-                actual = reader.read(buffer, 0, 2048);
-                if (actual < 0) {
-                    break;
+            try {
+                if (reader == null) {
+                    reader = new UnparsedTextReader(absoluteURL, encoding, checker);
+                    array = reader.getCharArray();
                 }
-                for (int c=0; c<actual;) {
-                    int ch32 = buffer[c++];
-                    if (ch32 == '\n') {
-                        line++;
-                        column = 0;
+                FastStringBuffer partial = null;
+                while (true) {
+                    if (pos == end) {
+                        if (!reader.fill()) {
+                            if (partial == null) {
+                                current = null;
+                                position = -1;
+                                return null;
+                            }
+                            return nextLine(partial.toString());
+                        }
+                        pos = reader.getStart();
+                        end = reader.getEnd();
+                        continue;
                     }
-                    column++;
-                    if (XMLChar.isHighSurrogate(ch32)) {
-                        if (c==actual) {
-                            actual = reader.read(buffer, 0, 2048);
-                            c = 0;
+                    if (afterCR) {
+                        afterCR = false;
+                        if (array[pos] == '\n') {
+                            pos++;
+                            continue;
                         }
-                        char low = buffer[c++];
-                        ch32 = XMLChar.supplemental((char)ch32, low);
                     }
-                    if (!checker.isValidChar(ch32)) {
-                        DynamicError err = new DynamicError(
-                                "The unparsed-text file contains a character illegal in XML (line=" +
-                        line + " column=" + column + " value=hex " + Integer.toHexString(ch32) + ')');
-                        err.setErrorCode("XTDE1190");
-                        throw err;
+                    int i = pos;
+                    while (i < end && array[i] != '\n' && array[i] != '\r') {
+                        i++;
                     }
-                }
-                if (first) {
-                    first = false;
-                    if (buffer[0]=='\ufeff') {
-                        // don't include the BOM in the result
-                        sb.append(buffer, 1, actual-1);
+                    if (i == end) {
+                        // the line continues in the next block
+                        if (partial == null) {
+                            partial = new FastStringBuffer(end - pos + 80);
+                        }
+                        partial.append(array, pos, end - pos);
+                        pos = end;
+                        continue;
+                    }
+                    String line;
+                    if (partial == null) {
+                        line = new String(array, pos, i - pos);
                     } else {
-                        sb.append(buffer, 0, actual);
+                        partial.append(array, pos, i - pos);
+                        line = partial.toString();
                     }
-                } else {
-                    sb.append(buffer, 0, actual);
+                    afterCR = (array[i] == '\r');
+                    pos = i + 1;
+                    return nextLine(line);
                 }
+            } catch (IOException err) {
+                close();
+                throw makeError(err, absoluteURL, encoding);
+            } catch (XPathException err) {
+                close();
+                throw err;
             }
-            reader.close();
-            return sb.condense();
-        } catch (java.io.UnsupportedEncodingException encErr) {
-            DynamicError e = new DynamicError("Unknown encoding " + Err.wrap(encoding), encErr);
-            e.setErrorCode("XTDE1190");
-            throw e;
-        } catch (java.io.IOException ioErr) {
-//            System.err.println("ProxyHost: " + System.getProperty("http.proxyHost"));
-//            System.err.println("ProxyPort: " + System.getProperty("http.proxyPort"));
-            String message = "Failed to read input file";
-            if (!ioErr.getMessage().equals(absoluteURL.toString())) {
-                message += ' ' + absoluteURL.toString();
-            }
-            message += " (" + ioErr.getClass().getName() + ')';
-            DynamicError e = new DynamicError(message, ioErr);
-            String errorCode;
-            if (ioErr instanceof java.nio.charset.MalformedInputException) {
-                errorCode = "XTDE1200";
-            } else if (ioErr instanceof java.nio.charset.CharacterCodingException) {
-                errorCode = "XTDE1200";
-            } else if (ioErr instanceof java.nio.charset.UnmappableCharacterException) {
-                errorCode = "XTDE1190";
-            } else {
-               errorCode = "XTDE1170";
-            }
-            e.setErrorCode(errorCode);
-            e.setLocator(this);
-            throw e;
         }
-    }
 
-    private String inferEncoding(byte[] start, int read) {
-        if (read >= 2) {
-            if (ch(start[0]) == 0xFE && ch(start[1]) == 0xFF) {
-                return "UTF-16";
-            } else if (ch(start[0]) == 0xFF && ch(start[1]) == 0xFE) {
-                return "UTF-16LE";
-            }
+        private Item nextLine(String line) {
+            current = new StringValue(line);
+            position++;
+            return current;
         }
-        if (read >= 3) {
-            if (ch(start[0]) == 0xEF && ch(start[1]) == 0xBB && ch(start[2]) == 0xBF) {
-                return "UTF-8";
+
+        private void close() {
+            if (reader != null) {
+                reader.close();
             }
+            current = null;
+            position = -1;
         }
-        if (read >= 4) {
-            if (ch(start[0]) == '<' && ch(start[1]) == '?' &&
-                    ch(start[2]) == 'x' && ch(start[3]) == 'm' && ch(start[4]) == 'l') {
-                FastStringBuffer sb = new FastStringBuffer(read);
-                for (int b = 0; b < read; b++) {
-                    sb.append((char)start[b]);
-                }
-                String p = sb.toString();
-                int v = p.indexOf("encoding");
-                if (v >= 0) {
-                    v += 8;
-                    while (v < p.length() && " \n\r\t=\"'".indexOf(p.charAt(v)) >= 0) {
-                        v++;
-                    }
-                    sb.setLength(0);
-                    while (v < p.length() && p.charAt(v) != '"' && p.charAt(v) != '\'') {
-                        sb.append(p.charAt(v++));
-                    }
-                    return sb.toString();
-                }
-            }
-        } else if (read > 0 && start[0] == 0 && start[2] == 0 && start[4] == 0 && start[6] == 0) {
-            return "UTF-16";
-        } else if (read > 1 && start[1] == 0 && start[3] == 0 && start[5] == 0 && start[7] == 0) {
-            return "UTF-16LE";
+
+        public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public SequenceIterator getAnother() throws XPathException {
+            return new LineIterator(absoluteURL, encoding, checker);
         }
-        // If all else fails, assume UTF-8
-        return "UTF-8";
-    }
 
-    private int ch(byte b) {
-        return ((int)b) & 0xff;
+        public int getProperties() {
+            return 0;
+        }
     }
 
 // diagnostic method to output the octets of a file
@@ -352,8 +348,7 @@ public class UnparsedText extends SystemFunction implements XSLTFunction {
 //
 // The Original Code is: all this file.
 //
-// The Initial Developer of the Original Code is Michael H. Kay. The detectEncoding() method includes
-// code fragments taken from the AElfred XML Parser developed by David Megginson.
+// The Initial Developer of the Original Code is Michael H. Kay.
 //
 // Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
 //
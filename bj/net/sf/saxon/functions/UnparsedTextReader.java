@@ -0,0 +1,484 @@
+package net.sf.saxon.functions;
+
+import net.sf.saxon.om.FastStringBuffer;
+import net.sf.saxon.om.NameChecker;
+import net.sf.saxon.om.XMLChar;
+import net.sf.saxon.trans.DynamicError;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An UnparsedTextReader reads an external text resource for the unparsed-text() family of functions,
+ * delivering the decoded characters in large blocks, each of which has been checked to ensure that it
+ * contains only characters that are valid in XML.
+ *
+ * <p>A resource identified by a <code>file</code> URL is read by mapping the file into memory, a window
+ * at a time, and decoding the bytes directly from the mapped buffer. The file is opened only while each
+ * window is being mapped (a mapping remains valid after its channel is closed), so no file handle is held
+ * between calls, and nothing is leaked if the caller stops reading early. Other resources are read from
+ * the stream supplied by the URL connection. Either way, the bytes are decoded by a CharsetDecoder
+ * that reports (rather than replaces) malformed input, into a single character buffer that is reused
+ * for every block. A byte-order mark at the start of the resource is not included in the first block.</p>
+ *
+ * <p>The caller reads the resource by calling {@link #fill} repeatedly, each time taking the characters
+ * from {@link #getCharArray} between {@link #getStart} and {@link #getEnd}, until fill() returns false.
+ * A surrogate pair is never split between two blocks.</p>
+ */
+
+final class UnparsedTextReader {
+
+    private static final int WINDOW_SIZE = 32*1024*1024;
+    private static final int STREAM_BUFFER_SIZE = 65536;
+    private static final int BLOCK_SIZE = 65536;
+
+    private NameChecker checker;
+    private CharsetDecoder decoder;
+    private String encoding;
+
+    // The source of bytes: either a file that is mapped into memory a window at a time,
+    // or a channel wrapping a stream that is read into a reusable buffer
+    private File mappedFile;
+    private long fileSize;
+    private long windowStart;
+    private ReadableByteChannel streamChannel;
+    private ByteBuffer bytes;
+    private boolean lastInput = false;
+
+    // The current block of decoded characters
+    private CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+    private int start = 0;
+    private int end = 0;
+    private boolean first = true;
+    private boolean held = false;           // true if a high surrogate was held back from the last block
+    private boolean endOfInput = false;
+
+    // Position information used to report invalid characters
+    private long charsBefore = 0;           // number of characters in the previous blocks
+    private long lineStart = 0;             // offset of the first character of the current line
+    private int line = 1;
+
+    /**
+     * Open a resource
+     * @param absoluteURL the location of the resource
+     * @param encoding the encoding requested by the caller, or null if the encoding is to be
+     * inferred from the HTTP headers or the content of the resource
+     * @param checker the name checker, which determines what characters are valid in XML
+     * @throws IOException if the resource cannot be opened, or if the encoding is not supported
+     */
+
+    UnparsedTextReader(URL absoluteURL, String encoding, NameChecker checker) throws IOException {
+        this.checker = checker;
+        File file = getFile(absoluteURL);
+        if (file != null) {
+            mappedFile = file;
+            windowStart = 0;
+            nextWindow();
+            if (encoding == null) {
+                ByteBuffer b = bytes.duplicate();
+                byte[] start = new byte[100];
+                int read = (int)Math.min(100, fileSize);
+                b.get(start, 0, read);
+                encoding = inferEncoding(start, read);
+            }
+        } else {
+            InputStream is;
+            if (encoding != null) {
+                is = absoluteURL.openStream();
+            } else {
+                URLConnection connection = absoluteURL.openConnection();
+                connection.connect();
+                is = connection.getInputStream();
+                try {
+                    if (!is.markSupported()) {
+                        is = new BufferedInputStream(is);
+                    }
+                    // Use any external (HTTP) encoding label. The file:// URL scheme gives no useful information
+                    if (!"file".equals(connection.getURL().getProtocol())) {
+                        encoding = getCharset(connection.getContentType());
+                    }
+                    if (encoding == null) {
+                        // Try to detect the encoding from the start of the content
+                        is.mark(100);
+                        byte[] start = new byte[100];
+                        int read = is.read(start, 0, 100);
+                        is.reset();
+                        encoding = inferEncoding(start, read);
+                    }
+                } catch (IOException e) {
+                    encoding = "UTF-8";
+                }
+            }
+            streamChannel = Channels.newChannel(is);
+            bytes = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            bytes.flip();
+        }
+
+        // The decoder must report encoding errors rather than recovering from them
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException err) {
+            close();
+            throw new UnsupportedEncodingException(encoding);
+        }
+        decoder = charset.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPORT);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.encoding = encoding;
+    }
+
+    /**
+     * Get the file identified by a URL, if it is a file that can be mapped into memory
+     * @return the file, or null if the URL does not identify a file in the filestore
+     */
+
+    private static File getFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            File file = new File(new URI(url.toString()));
+            return (file.isFile() ? file : null);
+        } catch (URISyntaxException err) {
+            return null;
+        } catch (IllegalArgumentException err) {
+            // for example, the URI has a query part or an authority
+            return null;
+        }
+    }
+
+    /**
+     * Extract the charset parameter from a MIME content type
+     * @return the value of the charset parameter, or null if there is none
+     */
+
+    private static String getCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int pos = contentType.indexOf("charset");
+        if (pos < 0) {
+            return null;
+        }
+        pos = contentType.indexOf('=', pos + 7);
+        if (pos>=0) {
+            contentType = contentType.substring(pos + 1);
+        }
+        if ((pos = contentType.indexOf(';')) > 0) {
+            contentType = contentType.substring(0, pos);
+        }
+        // attributes can have comment fields (RFC 822)
+        if ((pos = contentType.indexOf('(')) > 0) {
+            contentType = contentType.substring(0, pos);
+        }
+        // ... and values may be quoted
+        if ((pos = contentType.indexOf('"')) > 0) {
+            contentType = contentType.substring(pos + 1,
+                    contentType.indexOf('"', pos + 2));
+        }
+        return contentType.trim();
+    }
+
+    /**
+     * Get the encoding that is being used to decode the resource
+     */
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Estimate the number of characters in the resource
+     * @return an estimate (usually an overestimate) of the number of characters, or -1 if nothing is known
+     */
+
+    long estimateLength() {
+        if (mappedFile == null) {
+            return -1;
+        }
+        float average = decoder.averageCharsPerByte();
+        return (long)(fileSize * Math.min(1.0f, average));
+    }
+
+    /**
+     * Map the next window of the file into memory, starting at the first byte that has not yet
+     * been decoded. The file is closed as soon as the window has been mapped.
+     */
+
+    private void nextWindow() throws IOException {
+        if (bytes != null) {
+            windowStart += bytes.position();
+        }
+        FileInputStream in = new FileInputStream(mappedFile);
+        try {
+            FileChannel channel = in.getChannel();
+            if (bytes == null) {
+                fileSize = channel.size();
+            }
+            long length = Math.min(WINDOW_SIZE, fileSize - windowStart);
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            lastInput = (windowStart + length == fileSize);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read more of the stream into the byte buffer, keeping any bytes that have not yet been decoded
+     */
+
+    private void nextBuffer() throws IOException {
+        bytes.compact();
+        while (bytes.hasRemaining()) {
+            if (streamChannel.read(bytes) < 0) {
+                lastInput = true;
+                break;
+            }
+        }
+        bytes.flip();
+    }
+
+    /**
+     * Decode and check the next block of characters
+     * @return true if a block has been read (it may be empty); false if the end of the resource
+     * has been reached
+     * @throws IOException if the resource cannot be read, or if it is not correctly encoded
+     * @throws XPathException if the resource contains a character that is not valid in XML
+     */
+
+    boolean fill() throws IOException, XPathException {
+        if (endOfInput) {
+            return false;
+        }
+        char[] array = chars.array();
+        char pending = (held ? array[end] : 0);
+        charsBefore += end;
+        chars.clear();
+        if (held) {
+            chars.put(pending);
+            held = false;
+        }
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, lastInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                break;
+            }
+            if (lastInput) {
+                // all the input has been decoded, but the decoder might still hold some characters
+                if (decoder.flush(chars).isUnderflow()) {
+                    endOfInput = true;
+                }
+                break;
+            }
+            if (mappedFile != null) {
+                nextWindow();
+            } else {
+                nextBuffer();
+            }
+        }
+
+        start = 0;
+        end = chars.position();
+        if (end == 0 && endOfInput) {
+            close();
+            return false;
+        }
+        if (first) {
+            first = false;
+            if (end > 0 && array[0] == '\ufeff') {
+                // don't include the BOM in the result
+                start = 1;
+            }
+        }
+        if (!endOfInput && end > 0 && XMLChar.isHighSurrogate(array[end-1])) {
+            // keep it until we have its partner
+            held = true;
+            end--;
+        }
+        check(array, start, end);
+        if (endOfInput) {
+            close();
+        }
+        return true;
+    }
+
+    /**
+     * Check that a block contains only characters that are valid in XML
+     */
+
+    private void check(char[] array, int start, int end) throws XPathException {
+        for (int i=start; i<end; i++) {
+            char c = array[i];
+            if ((c >= 0x20 && c < 0xd800) || (c >= 0xe000 && c < 0xfffe)) {
+                // valid in both XML 1.0 and XML 1.1
+                continue;
+            }
+            if (c == '\n') {
+                line++;
+                lineStart = charsBefore + i + 1;
+                continue;
+            }
+            if (c == '\t' || c == '\r') {
+                continue;
+            }
+            int ch32 = c;
+            if (XMLChar.isHighSurrogate(c) && i+1 < end && XMLChar.isLowSurrogate(array[i+1])) {
+                ch32 = XMLChar.supplemental(c, array[++i]);
+            }
+            if (!checker.isValidChar(ch32)) {
+                DynamicError err = new DynamicError(
+                        "The unparsed-text file contains a character illegal in XML (line=" +
+                        line + " column=" + (charsBefore + i - lineStart + 1) +
+                        " value=hex " + Integer.toHexString(ch32) + ')');
+                err.setErrorCode("XTDE1190");
+                throw err;
+            }
+        }
+    }
+
+    /**
+     * Get the array holding the current block of characters
+     */
+
+    char[] getCharArray() {
+        return chars.array();
+    }
+
+    /**
+     * Get the position in the character array of the first character of the current block
+     */
+
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * Get the position in the character array following the last character of the current block
+     */
+
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * Read the rest of the resource into a string
+     * @return the characters that have not yet been read
+     */
+
+    CharSequence readAll() throws IOException, XPathException {
+        long estimate = estimateLength();
+        FastStringBuffer sb = new FastStringBuffer(
+                (int)Math.max(BLOCK_SIZE, Math.min(estimate + 1, Integer.MAX_VALUE - 16)));
+        while (fill()) {
+            sb.append(getCharArray(), start, end - start);
+        }
+        return sb.condense();
+    }
+
+    /**
+     * Release the resources held by the reader. The memory used by the mapped windows of a file
+     * is released when they are garbage-collected.
+     */
+
+    void close() {
+        try {
+            if (streamChannel != null) {
+                streamChannel.close();
+            }
+        } catch (IOException err) {
+            // ignore the failure
+        }
+        endOfInput = true;
+    }
+
+    /**
+     * Infer the encoding of a resource from its first few bytes
+     * @param start the first few bytes of the resource
+     * @param read the number of bytes available in the array
+     * @return the name of the encoding
+     */
+
+    static String inferEncoding(byte[] start, int read) {
+        if (read >= 2) {
+            if (ch(start[0]) == 0xFE && ch(start[1]) == 0xFF) {
+                return "UTF-16";
+            } else if (ch(start[0]) == 0xFF && ch(start[1]) == 0xFE) {
+                return "UTF-16LE";
+            }
+        }
+        if (read >= 3) {
+            if (ch(start[0]) == 0xEF && ch(start[1]) == 0xBB && ch(start[2]) == 0xBF) {
+                return "UTF-8";
+            }
+        }
+        if (read >= 4) {
+            if (ch(start[0]) == '<' && ch(start[1]) == '?' &&
+                    ch(start[2]) == 'x' && ch(start[3]) == 'm' && ch(start[4]) == 'l') {
+                FastStringBuffer sb = new FastStringBuffer(read);
+                for (int b = 0; b < read; b++) {
+                    sb.append((char)start[b]);
+                }
+                String p = sb.toString();
+                int v = p.indexOf("encoding");
+                if (v >= 0) {
+                    v += 8;
+                    while (v < p.length() && " \n\r\t=\"'".indexOf(p.charAt(v)) >= 0) {
+                        v++;
+                    }
+                    sb.setLength(0);
+                    while (v < p.length() && p.charAt(v) != '"' && p.charAt(v) != '\'') {
+                        sb.append(p.charAt(v++));
+                    }
+                    return sb.toString();
+                }
+            }
+        } else if (read > 0 && start[0] == 0 && start[2] == 0 && start[4] == 0 && start[6] == 0) {
+            return "UTF-16";
+        } else if (read > 1 && start[1] == 0 && start[3] == 0 && start[5] == 0 && start[7] == 0) {
+            return "UTF-16LE";
+        }
+        // If all else fails, assume UTF-8
+        return "UTF-8";
+    }
+
+    private static int ch(byte b) {
+        return ((int)b) & 0xff;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay. The inferEncoding() method includes
+// code fragments taken from the AElfred XML Parser developed by David Megginson.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -75,6 +75,13 @@ public class VendorFunctionLibrary implements FunctionLibrary {
             StandardFunction.arg(e, 0, Type.NODE_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE);
             StandardFunction.arg(e, 1, Type.ITEM_TYPE, StaticProperty.EXACTLY_ONE);
 
+        e = register("stream", Stream.class, 0, 1, 1, NodeKindTest.ELEMENT, StaticProperty.ALLOWS_ZERO_OR_MORE);
+            StandardFunction.arg(e, 0, NodeKindTest.ELEMENT, StaticProperty.ALLOWS_ZERO_OR_MORE);
+
+        e = register("unparsed-text-lines", UnparsedText.class, UnparsedText.UNPARSED_TEXT_LINES, 1, 2, Type.STRING_TYPE, StaticProperty.ALLOWS_ZERO_OR_MORE);
+            StandardFunction.arg(e, 0, Type.STRING_TYPE, StaticProperty.ALLOWS_ZERO_OR_ONE);
+            StandardFunction.arg(e, 1, Type.STRING_TYPE, StaticProperty.EXACTLY_ONE);
+
     }
 
     /**
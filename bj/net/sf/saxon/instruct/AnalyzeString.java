@@ -356,7 +356,10 @@ public class AnalyzeString extends Instruction {
      */
 
     private RegexIterator getRegexIterator(XPathContext context) throws XPathException {
-        String input = select.evaluateAsString(context);
+        // Use the string value as a CharSequence, so that the matching and non-matching substrings
+        // can share its characters (for example, those of a text node in a TinyTree)
+        Item item = select.evaluateItem(context);
+        CharSequence input = (item == null ? "" : item.getStringValueCS());
 
         RegularExpression re = pattern;
         if (re == null) {
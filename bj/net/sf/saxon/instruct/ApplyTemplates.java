@@ -268,7 +268,7 @@ public class ApplyTemplates extends Instruction {
                     TraceListener traceListener = controller.getTraceListener();
                     c2.setLocalParameters(parameters);
                     c2.setTunnelParameters(tunnelParameters);
-                    c2.openStackFrame(template.getStackFrameMap());
+                    c2.openReusableStackFrame(template.getStackFrameMap());
                     traceListener.startCurrentItem(node);
                     tc = template.applyLeavingTail(c2, rule);
                     traceListener.endCurrentItem(node);
@@ -313,7 +313,7 @@ public class ApplyTemplates extends Instruction {
 
                 } else {
                     Template template = (Template)rule.getAction();
-                    c2.openStackFrame(template.getStackFrameMap());
+                    c2.openReusableStackFrame(template.getStackFrameMap());
                     c2.setLocalParameters(parameters);
                     c2.setTunnelParameters(tunnelParameters);
                     tc = template.applyLeavingTail(c2, rule);
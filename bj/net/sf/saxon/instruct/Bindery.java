@@ -31,6 +31,7 @@ public final class Bindery  {
     private boolean[] busy;                         // set to true while variable is being evaluated
     private GlobalParameterSet globalParameters;    // supplied global parameters
     private SlotManager globalVariableMap;          // contains the mapping of variable names to slot numbers
+    private boolean shared = false;                 // true if the values are shared with another thread
 
     /**
     * Define how many slots are needed for global variables
@@ -67,7 +68,7 @@ public final class Bindery  {
 
     public boolean useGlobalParameter(int fingerprint, GlobalParam binding, XPathContext context) throws XPathException {
         int slot = binding.getSlotNumber();
-        if (globals[slot] != null) {
+        if (getGlobalVariable(slot) != null) {
             return true;
         }
 
@@ -128,7 +129,15 @@ public final class Bindery  {
                 throw err;
             }
         }
-        globals[slot] = val;
+        if (shared) {
+            synchronized (globals) {
+                if (globals[slot] == null) {
+                    globals[slot] = val;
+                }
+            }
+        } else {
+            globals[slot] = val;
+        }
         return true;
     }
 
@@ -139,7 +148,62 @@ public final class Bindery  {
     */
 
     public void defineGlobalVariable(GlobalVariable binding, ValueRepresentation value) {
-        globals[binding.getSlotNumber()] = value;
+        if (shared) {
+            synchronized (globals) {
+                globals[binding.getSlotNumber()] = value;
+            }
+        } else {
+            globals[binding.getSlotNumber()] = value;
+        }
+    }
+
+    /**
+     * Provide a value for a global variable, unless it already has a value. This is used when the
+     * Bindery is shared by several threads, any of which may evaluate the variable: the first value to
+     * be defined is the one that all the threads use.
+     * @param binding identifies the variable
+     * @param value the value of the variable
+     * @return the value of the variable: either the supplied value, or the value that was already defined
+     */
+
+    public ValueRepresentation defineGlobalVariableIfAbsent(GlobalVariable binding, ValueRepresentation value) {
+        int slot = binding.getSlotNumber();
+        synchronized (globals) {
+            if (globals[slot] == null) {
+                globals[slot] = value;
+            }
+            return globals[slot];
+        }
+    }
+
+    /**
+     * Create a Bindery for use by another thread taking part in the same transformation or query. The
+     * new Bindery shares the values of global variables and parameters with this one, but it records
+     * separately which variables are being evaluated, so that each thread detects only its own
+     * circularities.
+     * @return the new Bindery
+     */
+
+    public Bindery newThreadBindery() {
+        Bindery b = new Bindery();
+        b.globals = globals;
+        b.busy = new boolean[busy.length];
+        b.globalParameters = globalParameters;
+        b.globalVariableMap = globalVariableMap;
+        b.shared = true;
+        shared = true;
+        return b;
+    }
+
+    /**
+     * Ask whether the values of global variables held by this Bindery are shared with Binderies
+     * used by other threads
+     * @return true if this Bindery or another Bindery created from it by {@link #newThreadBindery}
+     * shares the values
+     */
+
+    public boolean isShared() {
+        return shared;
     }
 
     /**
@@ -172,7 +236,7 @@ public final class Bindery  {
     */
 
     public ValueRepresentation getGlobalVariableValue(GlobalVariable binding) {
-        return globals[binding.getSlotNumber()];
+        return getGlobalVariable(binding.getSlotNumber());
     }
 
      /**
@@ -182,6 +246,11 @@ public final class Bindery  {
     */
 
     public ValueRepresentation getGlobalVariable(int slot) {
+        if (shared) {
+            synchronized (globals) {
+                return globals[slot];
+            }
+        }
         return globals[slot];
     }
 
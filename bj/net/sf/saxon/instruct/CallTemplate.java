@@ -202,9 +202,10 @@ public class CallTemplate extends Instruction {
     public void process(XPathContext context) throws XPathException {
 
         Template t = getTargetTemplate(context);
-        XPathContextMajor c2 = context.newContext();
+        Controller controller = context.getController();
+        XPathContextMajor c2 = controller.allocateContext(context);
         c2.setOrigin(this);
-        c2.openStackFrame(t.getStackFrameMap());
+        c2.openReusableStackFrame(t.getStackFrameMap());
         c2.setLocalParameters(assembleParams(context, actualParams));
         c2.setTunnelParameters(assembleTunnelParams(context, tunnelParams));
 
@@ -213,6 +214,9 @@ public class CallTemplate extends Instruction {
             while (tc != null) {
                 tc = tc.processLeavingTail();
             }
+            // all tail calls have now been processed, so nothing can use the context unless a Closure
+            // has captured its stack frame
+            controller.reuseContext(c2);
         } catch (StackOverflowError e) {
             DynamicError err = new DynamicError(
                     "Too many nested template or function calls. The stylesheet may be looping.");
@@ -265,6 +269,15 @@ public class CallTemplate extends Instruction {
         return new CallTemplatePackage(target, params, tunnels, context);
     }
 
+    /**
+     * Get the template to be called, in the usual case where it is known statically
+     * @return the template to be called, or null if its name is computed at run-time
+     */
+
+    public Template getStaticTarget() {
+        return (calledTemplateExpression == null ? template : null);
+    }
+
     /**
      * Get the template, in the case where it is specified dynamically.
      * @param context        The dynamic context of the transformation
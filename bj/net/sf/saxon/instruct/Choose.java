@@ -53,6 +53,14 @@ public class Choose extends Instruction {
         }
     }
 
+    /**
+     * Get the array of conditions to be tested
+     */
+
+    public Expression[] getConditions() {
+        return conditions;
+    }
+
     /**
     * Get the name of this instruction for diagnostic and tracing purposes
     * We assume that if there was
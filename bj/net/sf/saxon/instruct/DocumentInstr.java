@@ -14,6 +14,7 @@ import net.sf.saxon.pattern.NodeTest;
 import net.sf.saxon.pull.UnconstructedDocument;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.tinytree.TinyBuilder;
+import net.sf.saxon.tinytree.TinyTreeArena;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ItemType;
@@ -210,53 +211,82 @@ public class DocumentInstr extends ParentNodeConstructor {
                 root = new TextFragmentValue(textValue, getBaseURI());
                 ((TextFragmentValue)root).setConfiguration(controller.getConfiguration());
             } else {
-                try {
-                    XPathContext c2 = context.newMinorContext();
-                    c2.setOrigin(this);
-
-                    TinyBuilder builder = new TinyBuilder();
-                    //builder.setSizeParameters(treeSizeParameters);
-                    builder.setLineNumbering(controller.getConfiguration().isLineNumbering());
-
-                    Receiver receiver = builder;
-                    //receiver.setSystemId(getBaseURI());
-                    builder.setBaseURI(getBaseURI());
-
-                    final PipelineConfiguration pipe = controller.makePipelineConfiguration();
-                    pipe.setHostLanguage(getHostLanguage());
-                    //pipe.setBaseURI(baseURI);
-                    receiver.setPipelineConfiguration(pipe);
-
-                    c2.changeOutputDestination(null,
-                            receiver,
-                            false,
-                            getHostLanguage(),
-                            validation,
-                            getSchemaType());
-                    Receiver out = c2.getReceiver();
-                    out.open();
-                    out.startDocument(0);
-
-                    content.process(c2);
-
-                    out.endDocument();
-                    out.close();
-
-                    root = (DocumentInfo)builder.getCurrentRoot();
-                } catch (XPathException e) {
-                    if (e.getLocator() == null) {
-                        e.setLocator(this);
-                    }
-                    if (e instanceof DynamicError && ((DynamicError)e).getXPathContext() == null) {
-                        ((DynamicError)e).setXPathContext(context);
-                    }
-                    throw e;
-                }
+                root = constructTree(context, null);
             }
             return root;
         }
     }
 
+    /**
+     * Construct the document as a temporary tree whose storage is taken from an arena. The caller
+     * must ensure that no reference to any node in the tree is used after the tree has been released
+     * to the arena.
+     * @param context the dynamic evaluation context
+     * @param arena the arena from which the storage of the tree is to be allocated
+     * @return the document node of the new tree; or, if the document is text-only or is constructed
+     * lazily, the result of {@link #evaluateItem}
+     */
+
+    public Item evaluateTemporaryTree(XPathContext context, TinyTreeArena arena) throws XPathException {
+        if (textOnly || isLazyConstruction()) {
+            return evaluateItem(context);
+        }
+        return constructTree(context, arena);
+    }
+
+    /**
+     * Construct the document as a TinyTree, allocated from the supplied arena if it is not null
+     */
+
+    private DocumentInfo constructTree(XPathContext context, TinyTreeArena arena) throws XPathException {
+        Controller controller = context.getController();
+        try {
+            XPathContext c2 = context.newMinorContext();
+            c2.setOrigin(this);
+
+            TinyBuilder builder = new TinyBuilder();
+            if (arena != null) {
+                builder.setArena(arena);
+            }
+            //builder.setSizeParameters(treeSizeParameters);
+            builder.setLineNumbering(controller.getConfiguration().isLineNumbering());
+
+            Receiver receiver = builder;
+            //receiver.setSystemId(getBaseURI());
+            builder.setBaseURI(getBaseURI());
+
+            final PipelineConfiguration pipe = controller.makePipelineConfiguration();
+            pipe.setHostLanguage(getHostLanguage());
+            //pipe.setBaseURI(baseURI);
+            receiver.setPipelineConfiguration(pipe);
+
+            c2.changeOutputDestination(null,
+                    receiver,
+                    false,
+                    getHostLanguage(),
+                    validation,
+                    getSchemaType());
+            Receiver out = c2.getReceiver();
+            out.open();
+            out.startDocument(0);
+
+            content.process(c2);
+
+            out.endDocument();
+            out.close();
+
+            return (DocumentInfo)builder.getCurrentRoot();
+        } catch (XPathException e) {
+            if (e.getLocator() == null) {
+                e.setLocator(this);
+            }
+            if (e instanceof DynamicError && ((DynamicError)e).getXPathContext() == null) {
+                ((DynamicError)e).setXPathContext(context);
+            }
+            throw e;
+        }
+    }
+
 
     /**
      * Get the name of this instruction for diagnostic and tracing purposes
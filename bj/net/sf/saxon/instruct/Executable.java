@@ -2,6 +2,7 @@ package net.sf.saxon.instruct;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.CollationMap;
+import net.sf.saxon.event.ProjectionSpecification;
 import net.sf.saxon.event.Stripper;
 import net.sf.saxon.functions.FunctionLibrary;
 import net.sf.saxon.om.NamespaceConstant;
@@ -92,6 +93,12 @@ public class Executable implements Serializable {
     // a string explaining why this Executable can't be compiled, or null if it can
     private String reasonUnableToCompile = null;
 
+    // the parts of source documents used by this executable, or null if documents are not to be projected
+    private ProjectionSpecification documentProjection = null;
+
+    // the global variables that can be evaluated in parallel, or null if there are none
+    private ParallelGlobalEvaluator parallelGlobalEvaluator = null;
+
     public Executable() {
 
     }
@@ -688,6 +695,42 @@ public class Executable implements Serializable {
         return reasonUnableToCompile;
     }
 
+    /**
+     * Set the document projection to be applied to source documents used by this executable
+     * @param projection the projection specification, or null if documents are to be built in full
+     */
+
+    public void setDocumentProjection(ProjectionSpecification projection) {
+        documentProjection = projection;
+    }
+
+    /**
+     * Get the document projection to be applied to source documents used by this executable
+     * @return the projection specification, or null if documents are to be built in full
+     */
+
+    public ProjectionSpecification getDocumentProjection() {
+        return documentProjection;
+    }
+
+    /**
+     * Set the object used to evaluate global variables in parallel at the start of a transformation or query
+     * @param evaluator the evaluator, or null if there are no global variables that can be evaluated in parallel
+     */
+
+    public void setParallelGlobalEvaluator(ParallelGlobalEvaluator evaluator) {
+        parallelGlobalEvaluator = evaluator;
+    }
+
+    /**
+     * Get the object used to evaluate global variables in parallel at the start of a transformation or query
+     * @return the evaluator, or null if global variables are not to be evaluated in parallel
+     */
+
+    public ParallelGlobalEvaluator getParallelGlobalEvaluator() {
+        return parallelGlobalEvaluator;
+    }
+
 }
 
 //
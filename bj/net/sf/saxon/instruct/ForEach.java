@@ -1,8 +1,11 @@
 package net.sf.saxon.instruct;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.Controller;
+import net.sf.saxon.event.SequenceReceiver;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ListIterator;
+import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.trace.TraceListener;
@@ -14,16 +17,20 @@ import net.sf.saxon.value.EmptySequence;
 
 import java.io.PrintStream;
 import java.util.Iterator;
+import java.util.List;
 
 
 /**
 * Handler for xsl:for-each elements in a stylesheet.
 */
 
-public class ForEach extends Instruction implements ContextMappingFunction {
+public class ForEach extends Instruction implements ContextMappingFunction, ParallelMapper.Task {
 
     private Expression select;
     private Expression action;
+    private int threads = 0;
+    private transient ParallelMapper parallelMapper = null;
+    private transient boolean parallelMapperAnalyzed = false;
 
     public ForEach(Expression select, Expression action) {
         this.select = select;
@@ -40,6 +47,14 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         return StandardNames.XSL_FOR_EACH;
     }
 
+    /**
+     * Get the select expression (the sequence of items being iterated over)
+     */
+
+    public Expression getSelectExpression() {
+        return select;
+    }
+
     /**
      * Get the action expression (the content of the for-each)
      */
@@ -48,6 +63,41 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         return action;
     }
 
+    /**
+     * Request that the body of the for-each be evaluated for different items of the input sequence
+     * in parallel, using a given number of threads (saxon:threads). The request is ignored if the body
+     * cannot safely be evaluated in parallel.
+     * @param threads the number of threads to be used. A value of 0 or 1 means the body is
+     * evaluated sequentially.
+     */
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Get the number of threads requested for evaluating the for-each
+     */
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get the ParallelMapper used to evaluate the body in parallel, or null if it is to be
+     * evaluated sequentially. The analysis is done on first use, when slot numbers are known.
+     */
+
+    private synchronized ParallelMapper getParallelMapper() {
+        if (!parallelMapperAnalyzed) {
+            if (threads > 1) {
+                parallelMapper = ParallelMapper.analyze(action, new Binding[0], threads);
+            }
+            parallelMapperAnalyzed = true;
+        }
+        return parallelMapper;
+    }
+
     /**
     * Determine the data type of the items returned by this expression
     * @return the data type
@@ -224,6 +274,18 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         c2.setCurrentIterator(iter);
         c2.setCurrentTemplateRule(null);
 
+        if (threads > 1) {
+            ParallelMapper mapper = getParallelMapper();
+            if (mapper != null && mapper.isApplicable(context)) {
+                List result = mapper.evaluate(iter, c2, this);
+                SequenceReceiver out = c2.getReceiver();
+                for (int i=0; i<result.size(); i++) {
+                    out.append((Item)result.get(i), locationId, NodeInfo.ALL_NAMESPACES);
+                }
+                return null;
+            }
+        }
+
         if (controller.isTracing()) {
             TraceListener listener = controller.getTraceListener();
             while(true) {
@@ -262,11 +324,29 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         XPathContextMajor c2 = context.newContext();
         c2.setOrigin(this);
         c2.setCurrentTemplateRule(null);
+        if (threads > 1) {
+            ParallelMapper mapper = getParallelMapper();
+            if (mapper != null && mapper.isApplicable(context)) {
+                return new ListIterator(mapper.evaluate(master, c2, this));
+            }
+        }
         c2.setCurrentIterator(master);
         master = new ContextMappingIterator(this, c2);
         return master;
     }
 
+    /**
+     * Evaluate the body of the for-each for one part of the input sequence, as one of the threads
+     * of a parallel evaluation
+     */
+
+    public void processPart(SequenceIterator part, XPathContextMajor context) throws XPathException {
+        context.setCurrentIterator(part);
+        while (part.next() != null) {
+            action.process(context);
+        }
+    }
+
     /**
      * Map one item to a sequence.
      * @param context The processing context. This is supplied only for mapping constructs that
@@ -7,6 +7,7 @@ import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Closure;
 
 /**
 * The compiled form of a global xsl:param element in the stylesheet or an
@@ -64,7 +65,11 @@ public final class GlobalParam extends GlobalVariable {
             try {
                 b.setExecuting(this, true);
                 ValueRepresentation value = getSelectValue(context);
-                b.defineGlobalVariable(this, value);
+                if (b.isShared() && value instanceof Closure) {
+                    // a Closure reads an iterator, which cannot be shared between threads
+                    value = ((Closure)value).reduce();
+                }
+                value = b.defineGlobalVariableIfAbsent(this, value);
                 b.setExecuting(this, false);
                 return value;
 
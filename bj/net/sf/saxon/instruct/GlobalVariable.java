@@ -11,6 +11,7 @@ import net.sf.saxon.trace.InstructionInfo;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.StaticError;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Closure;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -199,10 +200,17 @@ public class GlobalVariable extends GeneralVariable {
             // But first set a flag to stop looping. This flag is set in the Bindery because
             // the VariableReference itself can be used by multiple threads simultaneously
 
+            // If the Bindery is shared with other threads, another thread may evaluate the variable
+            // at the same time; the first value to be defined is the one that is used.
+
             try {
                 b.setExecuting(this, true);
                 ValueRepresentation value = getSelectValue(context);
-                b.defineGlobalVariable(this, value);
+                if (b.isShared() && value instanceof Closure) {
+                    // a Closure reads an iterator, which cannot be shared between threads
+                    value = ((Closure)value).reduce();
+                }
+                value = b.defineGlobalVariableIfAbsent(this, value);
                 b.setExecuting(this, false);
                 return value;
 
@@ -177,10 +177,11 @@ public abstract class Instruction extends ComputedExpression implements SourceLo
         if (existingParams == null) {
             return assembleParams(context, actualParams);
         }
-        ParameterSet newParams = new ParameterSet(existingParams, (actualParams==null ? 0 : actualParams.length));
         if (actualParams == null || actualParams.length == 0) {
-            return newParams;
+            // a ParameterSet is never modified once assembled, so the existing one can be shared
+            return existingParams;
         }
+        ParameterSet newParams = new ParameterSet(existingParams, actualParams.length);
         for (int i=0; i<actualParams.length; i++) {
             newParams.put(actualParams[i].getVariableFingerprint(),
                           actualParams[i].getSelectValue(context));
@@ -0,0 +1,461 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.om.DocumentPool;
+import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Closure;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A ParallelGlobalEvaluator evaluates the global variables of a stylesheet or query using several
+ * threads at the start of a transformation, so that (for example) a number of lookup documents read
+ * by global variables can be loaded and parsed at the same time. It is used only if the configuration
+ * property {@link net.sf.saxon.FeatureKeys#GLOBAL_VARIABLE_THREADS} is set to a value greater than one.
+ *
+ * <p>The evaluator is created when the stylesheet or query is compiled, by analyzing the global
+ * variables to find those that can safely be evaluated in advance. A variable qualifies if its value
+ * does not depend on the context item, and if its evaluation (including the evaluation of any functions
+ * and named templates that it calls) has no side-effects and calls no extension functions. A variable
+ * is evaluated only after the global variables that it references; if any of these does not qualify,
+ * neither does the variable that references it.</p>
+ *
+ * <p>Each variable is evaluated using a separate Controller, which shares the documents already loaded
+ * by the main Controller. Documents loaded during the evaluation are then added to the document pool
+ * of the main Controller, so that node identity is preserved. If evaluation of a variable fails for
+ * any reason, the error is not reported: the variable is left to be evaluated in the usual way when it
+ * is first referenced, when the error will be reported if it recurs.</p>
+ *
+ * <p>The evaluator holds only the results of the analysis, and can be shared by concurrent
+ * transformations.</p>
+ */
+
+public final class ParallelGlobalEvaluator implements Serializable {
+
+    private GlobalVariable[] variables;     // the variables that qualify, in order of slot number
+    private int[][] dependencies;           // for each variable, the variables it references
+    private int[][] dependents;             // for each variable, the variables that reference it
+    private GlobalParam[][] parameters;     // for each variable, the global parameters it references
+
+    private ParallelGlobalEvaluator() {}
+
+    /**
+     * Analyze the global variables of a compiled stylesheet or query
+     * @param exec the Executable containing the compiled global variables
+     * @return an evaluator for the variables that can be evaluated in parallel, or null if there
+     * are none
+     */
+
+    public static ParallelGlobalEvaluator analyze(Executable exec) {
+        IntHashMap compiled = exec.getCompiledGlobalVariables();
+        if (compiled == null) {
+            return null;
+        }
+        List all = new ArrayList(compiled.size());
+        Iterator iter = compiled.valueIterator();
+        while (iter.hasNext()) {
+            all.add(iter.next());
+        }
+        Collections.sort(all, new Comparator() {
+            public int compare(Object a, Object b) {
+                return ((GlobalVariable)a).getSlotNumber() - ((GlobalVariable)b).getSlotNumber();
+            }
+        });
+
+        // Find the variables and parameters referenced by each variable, and whether it is safe to
+        // evaluate in isolation
+
+        HashMap analyses = new HashMap(all.size());
+        for (int i=0; i<all.size(); i++) {
+            GlobalVariable var = (GlobalVariable)all.get(i);
+            Expression select = var.getSelectExpression();
+            if (var instanceof GlobalParam || select == null) {
+                continue;
+            }
+            Analysis a = new Analysis();
+            a.safe = (select.getDependencies() & CONTEXT_DEPENDENCIES) == 0 &&
+                    a.scan(select, new HashSet());
+            analyses.put(var, a);
+        }
+
+        // A variable is eligible if it is safe and all the variables it references are eligible
+
+        List eligible = new ArrayList(all.size());
+        for (int i=0; i<all.size(); i++) {
+            Object var = all.get(i);
+            if (isEligible(var, analyses)) {
+                eligible.add(var);
+            }
+        }
+        int n = eligible.size();
+        if (n == 0) {
+            return null;
+        }
+
+        ParallelGlobalEvaluator evaluator = new ParallelGlobalEvaluator();
+        evaluator.variables = new GlobalVariable[n];
+        evaluator.dependencies = new int[n][];
+        evaluator.dependents = new int[n][];
+        evaluator.parameters = new GlobalParam[n][];
+        List[] dependentLists = new List[n];
+        for (int i=0; i<n; i++) {
+            evaluator.variables[i] = (GlobalVariable)eligible.get(i);
+            dependentLists[i] = new ArrayList(4);
+        }
+        for (int i=0; i<n; i++) {
+            Analysis a = (Analysis)analyses.get(evaluator.variables[i]);
+            int[] deps = new int[a.references.size()];
+            int d = 0;
+            for (Iterator refs = a.references.iterator(); refs.hasNext();) {
+                int j = eligible.indexOf(refs.next());
+                deps[d++] = j;
+                dependentLists[j].add(new Integer(i));
+            }
+            evaluator.dependencies[i] = deps;
+            evaluator.parameters[i] = (GlobalParam[])a.params.toArray(new GlobalParam[a.params.size()]);
+        }
+        for (int i=0; i<n; i++) {
+            int[] deps = new int[dependentLists[i].size()];
+            for (int d=0; d<deps.length; d++) {
+                deps[d] = ((Integer)dependentLists[i].get(d)).intValue();
+            }
+            evaluator.dependents[i] = deps;
+        }
+        return evaluator;
+    }
+
+    private static final int CONTEXT_DEPENDENCIES =
+            StaticProperty.DEPENDS_ON_FOCUS | StaticProperty.DEPENDS_ON_XSLT_CONTEXT;
+
+    /**
+     * Determine whether a variable is eligible, recording the outcome in the Analysis. A variable
+     * that is encountered again while its own eligibility is being decided is part of a cycle, and
+     * is treated as ineligible.
+     */
+
+    private static boolean isEligible(Object var, HashMap analyses) {
+        Analysis a = (Analysis)analyses.get(var);
+        if (a == null) {
+            return false;
+        }
+        if (a.eligible != null) {
+            return a.eligible == Boolean.TRUE;
+        }
+        if (a.inProgress) {
+            return false;
+        }
+        boolean ok = a.safe;
+        a.inProgress = true;
+        for (Iterator refs = a.references.iterator(); ok && refs.hasNext();) {
+            ok = isEligible(refs.next(), analyses);
+        }
+        a.inProgress = false;
+        a.eligible = Boolean.valueOf(ok);
+        return ok;
+    }
+
+    /**
+     * The results of analyzing the expression that defines one global variable
+     */
+
+    private static class Analysis {
+        boolean safe;
+        boolean inProgress = false;
+        Boolean eligible = null;
+        Set references = new LinkedHashSet(4);      // GlobalVariables referenced
+        Set params = new LinkedHashSet(4);          // GlobalParams referenced
+
+        /**
+         * Examine an expression and its subexpressions, including the bodies of any functions and
+         * templates called
+         * @param exp the expression to be examined
+         * @param visited the functions and templates already examined
+         * @return false if the expression cannot safely be evaluated in advance
+         */
+
+        boolean scan(Expression exp, HashSet visited) {
+            if (exp instanceof VariableReference) {
+                Binding b = ((VariableReference)exp).getBinding();
+                if (b instanceof GlobalParam) {
+                    params.add(b);
+                } else if (b instanceof GlobalVariable) {
+                    references.add(b);
+                } else if (!(b instanceof GeneralVariable || b instanceof UserFunctionParameter ||
+                        b instanceof Assignation)) {
+                    // a variable supplied by the calling application
+                    return false;
+                }
+            } else if (exp instanceof UserFunctionCall) {
+                UserFunction f = ((UserFunctionCall)exp).getFunction();
+                if (f == null || f.getBody() == null) {
+                    return false;
+                }
+                if (visited.add(f) && !scan(f.getBody(), visited)) {
+                    return false;
+                }
+            } else if (exp instanceof CallTemplate) {
+                Template t = ((CallTemplate)exp).getStaticTarget();
+                if (t == null || t.getBody() == null) {
+                    return false;
+                }
+                if (visited.add(t) && ((t.getBody().getDependencies() & CONTEXT_DEPENDENCIES) != 0 ||
+                        !scan(t.getBody(), visited))) {
+                    return false;
+                }
+            } else if (!ParallelMapper.isThreadSafe(exp)) {
+                return false;
+            }
+            for (Iterator sub = exp.iterateSubExpressions(); sub.hasNext();) {
+                if (!scan((Expression)sub.next(), visited)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Evaluate the variables. On return, the value of each variable that was evaluated successfully
+     * has been defined in the Bindery of the supplied Controller; the others are left to be
+     * evaluated on demand.
+     * @param controller the Controller for the transformation or query, which must have been
+     * initialized
+     * @param threads the number of threads to use, including the calling thread
+     */
+
+    public void evaluate(Controller controller, int threads) {
+        // Fix the current date and time, so that all the evaluations see the same value
+        controller.getCurrentDateTime();
+
+        Run run = new Run(controller);
+
+        // Global parameters are evaluated first, on this thread, in the usual way
+        Bindery bindery = controller.getBindery();
+        for (int i=0; i<variables.length; i++) {
+            for (int p=0; p<parameters[i].length; p++) {
+                GlobalParam param = parameters[i][p];
+                try {
+                    if (bindery.getGlobalVariableValue(param) == null) {
+                        param.evaluateVariable(controller.newXPathContext());
+                    }
+                } catch (XPathException err) {
+                    run.fail(i);
+                }
+            }
+        }
+
+        int workers = Math.min(threads, variables.length) - 1;
+        for (int w=0; w<workers; w++) {
+            Thread t = new Thread(run, "global-variables-" + w);
+            t.setDaemon(true);
+            t.start();
+        }
+        run.run();
+        run.awaitCompletion();
+
+        for (int i=0; i<variables.length; i++) {
+            if (run.values[i] != null && bindery.getGlobalVariableValue(variables[i]) == null) {
+                bindery.defineGlobalVariable(variables[i], run.values[i]);
+            }
+        }
+    }
+
+    /**
+     * The state of one evaluation of the variables. All fields are guarded by the Run object's lock.
+     */
+
+    private class Run implements Runnable {
+
+        Controller controller;
+        int[] waiting;                  // number of dependencies not yet evaluated
+        ValueRepresentation[] values;
+        boolean[] failed;
+        LinkedList ready = new LinkedList();
+        int remaining;                  // number of variables not yet evaluated or failed
+        int active = 0;                 // number of threads currently running
+
+        Run(Controller controller) {
+            this.controller = controller;
+            int n = variables.length;
+            waiting = new int[n];
+            values = new ValueRepresentation[n];
+            failed = new boolean[n];
+            remaining = n;
+            for (int i=0; i<n; i++) {
+                waiting[i] = dependencies[i].length;
+                if (waiting[i] == 0) {
+                    ready.add(new Integer(i));
+                }
+            }
+        }
+
+        public void run() {
+            synchronized (this) {
+                active++;
+            }
+            try {
+                while (true) {
+                    int next;
+                    synchronized (this) {
+                        while (ready.isEmpty() && remaining > 0) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        if (remaining == 0) {
+                            return;
+                        }
+                        next = ((Integer)ready.removeFirst()).intValue();
+                    }
+                    evaluateVariable(next);
+                }
+            } finally {
+                synchronized (this) {
+                    active--;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Evaluate one variable using a separate Controller
+         */
+
+        private void evaluateVariable(int i) {
+            GlobalVariable var = variables[i];
+            ValueRepresentation value = null;
+            Controller worker = null;
+            try {
+                worker = controller.newWorkerController();
+                Bindery workerBindery = worker.getBindery();
+                Bindery mainBindery = controller.getBindery();
+                synchronized (this) {
+                    if (failed[i]) {
+                        return;
+                    }
+                    copyDocuments(controller.getDocumentPool(), worker.getDocumentPool());
+                    for (int d=0; d<dependencies[i].length; d++) {
+                        int dep = dependencies[i][d];
+                        workerBindery.defineGlobalVariable(variables[dep], values[dep]);
+                    }
+                }
+                for (int p=0; p<parameters[i].length; p++) {
+                    GlobalParam param = parameters[i][p];
+                    ValueRepresentation v = mainBindery.getGlobalVariableValue(param);
+                    if (v != null) {
+                        workerBindery.defineGlobalVariable(param, v);
+                    }
+                }
+                value = var.evaluateVariable(worker.newXPathContext());
+                if (value instanceof Closure) {
+                    value = ((Closure)value).reduce();
+                }
+            } catch (Exception err) {
+                value = null;
+            } catch (StackOverflowError err) {
+                value = null;
+            }
+            synchronized (this) {
+                if (value != null && mergeDocuments(worker.getDocumentPool(), controller.getDocumentPool())) {
+                    values[i] = value;
+                    remaining--;
+                    for (int d=0; d<dependents[i].length; d++) {
+                        int dep = dependents[i][d];
+                        if (--waiting[dep] == 0 && !failed[dep]) {
+                            ready.add(new Integer(dep));
+                        }
+                    }
+                } else {
+                    fail(i);
+                }
+                notifyAll();
+            }
+        }
+
+        /**
+         * Record that a variable cannot be evaluated in advance, nor can any variable that depends on it
+         */
+
+        synchronized void fail(int i) {
+            if (failed[i]) {
+                return;
+            }
+            failed[i] = true;
+            ready.remove(new Integer(i));
+            remaining--;
+            for (int d=0; d<dependents[i].length; d++) {
+                fail(dependents[i][d]);
+            }
+        }
+
+        /**
+         * Wait until all threads have finished
+         */
+
+        synchronized void awaitCompletion() {
+            while (active > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void copyDocuments(DocumentPool from, DocumentPool to) {
+            for (Iterator uris = from.getDocumentURIs(); uris.hasNext();) {
+                String uri = (String)uris.next();
+                to.add(from.find(uri), uri);
+            }
+        }
+
+        /**
+         * Add the documents loaded by a worker to the main document pool
+         * @return false if the worker loaded a document that has since been loaded by another thread,
+         * in which case the value computed by the worker cannot be used
+         */
+
+        private boolean mergeDocuments(DocumentPool from, DocumentPool to) {
+            for (Iterator uris = from.getDocumentURIs(); uris.hasNext();) {
+                String uri = (String)uris.next();
+                DocumentInfo existing = to.find(uri);
+                if (existing != null && existing != from.find(uri)) {
+                    return false;
+                }
+            }
+            for (Iterator uris = from.getDocumentURIs(); uris.hasNext();) {
+                String uri = (String)uris.next();
+                if (to.find(uri) == null) {
+                    to.add(from.find(uri), uri);
+                }
+            }
+            return true;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -660,6 +660,16 @@ public class ResultDocument extends Instruction {
                     e.setErrorCode(NamespaceConstant.SAXON, SaxonErrorCode.SXWN9003);
                     throw e;
                 }
+            } else
+
+            if (lname.equals("async-output")) {
+                if (prevalidated || value.equals("yes") || value.equals("no")) {
+                    details.put(SaxonOutputKeys.ASYNC_OUTPUT, value);
+                } else {
+                    DynamicError e = new DynamicError("saxon:async-output value must be 'yes' or 'no'");
+                    e.setErrorCode(NamespaceConstant.SAXON, SaxonErrorCode.SXWN9009);
+                    throw e;
+                }
             }
 
         } else {
@@ -172,7 +172,7 @@ public final class UserFunction extends Procedure implements InstructionInfoProv
 
         // Otherwise evaluate the function
 
-        context.setStackFrame(getStackFrameMap(), actualArgs);
+        context.openReusableStackFrame(getStackFrameMap(), actualArgs);
         ValueRepresentation result;
         try {
             result = ExpressionTool.evaluate(getBody(), evaluationMode, context, 1);
@@ -205,7 +205,7 @@ public final class UserFunction extends Procedure implements InstructionInfoProv
 
      public void process(ValueRepresentation[] actualArgs, XPathContextMajor context)
              throws XPathException {
-         context.setStackFrame(getStackFrameMap(), actualArgs);
+         context.openReusableStackFrame(getStackFrameMap(), actualArgs);
          getBody().process(context);
      }
 
@@ -234,27 +234,44 @@ public final class UserFunction extends Procedure implements InstructionInfoProv
      */
 
     private ValueRepresentation getCachedValue(Controller controller, ValueRepresentation[] params) throws XPathException {
-        HashMap map = (HashMap) controller.getUserData(this, "memo-function-cache");
+        HashMap map = getCache(controller, false);
         if (map == null) {
             return null;
         }
         String key = getCombinedKey(params);
         //System.err.println("Used cached value");
-        return (ValueRepresentation) map.get(key);
+        synchronized (map) {
+            return (ValueRepresentation) map.get(key);
+        }
     }
 
     /**
-     * For memo functions, put the computed value in the cache.
+     * For memo functions, put the computed value in the cache. The cache may be shared by several
+     * threads evaluating a parallel xsl:for-each, so access to it is synchronized.
      */
 
     private void putCachedValue(Controller controller, ValueRepresentation[] params, ValueRepresentation value) throws XPathException {
+        HashMap map = getCache(controller, true);
+        String key = getCombinedKey(params);
+        synchronized (map) {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * Get the cache of results of a memo function for a given transformation. The cache is found and
+     * created under the same lock whether it is being read or written.
+     * @param create true if the cache is to be created when it does not yet exist
+     * @return the cache, or null if it does not exist and create is false
+     */
+
+    private synchronized HashMap getCache(Controller controller, boolean create) {
         HashMap map = (HashMap) controller.getUserData(this, "memo-function-cache");
-        if (map == null) {
+        if (map == null && create) {
             map = new HashMap(32);
             controller.setUserData(this, "memo-function-cache", map);
         }
-        String key = getCombinedKey(params);
-        map.put(key, value);
+        return map;
     }
 
     /**
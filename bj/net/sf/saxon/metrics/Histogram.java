@@ -0,0 +1,149 @@
+package net.sf.saxon.metrics;
+
+/**
+ * A Histogram records the distribution of a series of non-negative values, such as elapsed times
+ * in milliseconds. The values are counted in buckets whose size doubles from one bucket to the next:
+ * bucket 0 holds the value 0, and bucket <i>n</i> holds values from 2<sup><i>n</i>-1</sup> to
+ * 2<sup><i>n</i></sup>-1. Recording a value does not allocate any objects.
+ *
+ * <p>The histogram is not synchronized. If values are recorded by several threads at once, some
+ * of them may be lost; the statistics are intended for monitoring, where this does not matter.</p>
+ */
+
+public final class Histogram {
+
+    /**
+     * The number of buckets
+     */
+
+    public static final int BUCKETS = 40;
+
+    private long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Record a value
+     * @param value the value to be recorded. Negative values are treated as zero.
+     */
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = 0;
+        for (long v = value; v != 0 && bucket < BUCKETS-1; v >>= 1) {
+            bucket++;
+        }
+        counts[bucket]++;
+        count++;
+        total += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Get the number of values recorded
+     */
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the sum of the values recorded
+     */
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the largest value recorded
+     */
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of the values recorded
+     * @return the mean, or zero if no values have been recorded
+     */
+
+    public double getMean() {
+        return (count == 0 ? 0.0 : (double)total / count);
+    }
+
+    /**
+     * Get an estimate of a percentile of the values recorded
+     * @param percent the required percentile, for example 50 for the median or 99 for the
+     * 99th percentile
+     * @return the upper limit of the bucket containing the requested percentile (but never more than
+     * the largest value recorded), or zero if no values have been recorded
+     */
+
+    public long getPercentile(double percent) {
+        long threshold = (long)Math.ceil(count * percent / 100.0);
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0) {
+                return Math.min(getUpperLimit(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get the number of values recorded in each bucket
+     * @return a copy of the bucket counts
+     */
+
+    public long[] getBucketCounts() {
+        long[] c = new long[BUCKETS];
+        System.arraycopy(counts, 0, c, 0, BUCKETS);
+        return c;
+    }
+
+    /**
+     * Get the largest value that is counted in a given bucket
+     * @param bucket the bucket number
+     * @return the upper limit of the bucket
+     */
+
+    public static long getUpperLimit(int bucket) {
+        return (bucket == 0 ? 0 : (1L << bucket) - 1);
+    }
+
+    /**
+     * Discard all recorded values
+     */
+
+    public void reset() {
+        counts = new long[BUCKETS];
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,492 @@
+package net.sf.saxon.metrics;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.NamePool;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+/**
+ * A Metrics object collects statistics about the work done under a {@link Configuration}: parsing,
+ * tree building, indexing, compilation, and execution. Metrics are collected only if they have been
+ * enabled, using {@link Configuration#setMetrics} or the configuration property
+ * {@link net.sf.saxon.FeatureKeys#METRICS}; when they are not enabled, the cost is a single test for null
+ * at each point where an event would be recorded.
+ *
+ * <p>The statistics can be read directly using the methods of {@link MetricsMBean}, they can be inspected
+ * using JMX once {@link #registerMBean} has been called, and each event can be passed to one or more
+ * {@link MetricsListener}s as it happens.</p>
+ *
+ * <p>The Metrics object refers to its Configuration only through a weak reference, so registering it with
+ * the MBean server does not prevent the Configuration from being garbage-collected. It is removed from the
+ * MBean server when the Configuration stops using it, or when it finds that the Configuration has been
+ * collected.</p>
+ *
+ * <p>Recording an event does not allocate any objects and does not acquire any locks. The counters
+ * are not synchronized: when several threads record events at the same time, some updates may be
+ * lost. This is acceptable for monitoring purposes, and avoids adding contention to the work being
+ * measured.</p>
+ */
+
+public final class Metrics implements MetricsMBean {
+
+    /**
+     * Event: a new source parser was created. No values.
+     */
+
+    public static final int SOURCE_PARSER_CREATED = 1;
+
+    /**
+     * Event: a source parser was taken from the pool for reuse. No values.
+     */
+
+    public static final int SOURCE_PARSER_REUSED = 2;
+
+    /**
+     * Event: a TinyTree document was built. The first value is the number of nodes, the second the
+     * number of characters of text.
+     */
+
+    public static final int DOCUMENT_BUILT = 3;
+
+    /**
+     * Event: an index was built for a key. The value is the number of distinct key values.
+     */
+
+    public static final int KEY_INDEX_BUILT = 4;
+
+    /**
+     * Event: a document was added to the document pool of a transformation or query. The value is
+     * the number of documents in the pool.
+     */
+
+    public static final int DOCUMENT_REGISTERED = 5;
+
+    /**
+     * Event: a stylesheet was compiled. The value is the compile time in milliseconds.
+     */
+
+    public static final int STYLESHEET_COMPILED = 6;
+
+    /**
+     * Event: a query was compiled. The value is the compile time in milliseconds.
+     */
+
+    public static final int QUERY_COMPILED = 7;
+
+    /**
+     * Event: a transformation or query evaluation finished. The value is the elapsed time in
+     * milliseconds.
+     */
+
+    public static final int TRANSFORMATION_COMPLETED = 8;
+
+    /**
+     * Event: a new SequenceOutputter was created. No values.
+     */
+
+    public static final int SEQUENCE_OUTPUTTER_CREATED = 9;
+
+    /**
+     * Event: a SequenceOutputter was reused. No values.
+     */
+
+    public static final int SEQUENCE_OUTPUTTER_REUSED = 10;
+
+    private static int nextId = 0;
+
+    private WeakReference configRef;
+    private MetricsListener[] listeners = new MetricsListener[0];
+    private Object objectName;
+    private Object mbeanServer;
+    private Method unregisterMethod;
+
+    private long sourceParsersCreated;
+    private long sourceParsersReused;
+    private long documentsBuilt;
+    private long documentNodes;
+    private long documentCharacters;
+    private long keyIndexesBuilt;
+    private long keyIndexEntries;
+    private long documentsRegistered;
+    private int maxDocumentPoolSize;
+    private long stylesheetsCompiled;
+    private long queriesCompiled;
+    private Histogram compileTimes = new Histogram();
+    private Histogram transformationTimes = new Histogram();
+    private long sequenceOutputtersCreated;
+    private long sequenceOutputtersReused;
+
+    private long lastSampleTime;
+    private int lastSampleNames;
+
+    /**
+     * Create a Metrics object for a Configuration
+     * @param config the Configuration whose work is to be measured
+     */
+
+    public Metrics(Configuration config) {
+        configRef = new WeakReference(config);
+        lastSampleTime = System.currentTimeMillis();
+        lastSampleNames = config.getNamePool().getNumberOfNames();
+    }
+
+    /**
+     * Register a listener to be notified of each event
+     */
+
+    public synchronized void addListener(MetricsListener listener) {
+        MetricsListener[] l2 = new MetricsListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, l2, 0, listeners.length);
+        l2[listeners.length] = listener;
+        listeners = l2;
+    }
+
+    /**
+     * Remove a listener
+     */
+
+    public synchronized void removeListener(MetricsListener listener) {
+        for (int i=0; i<listeners.length; i++) {
+            if (listeners[i] == listener) {
+                MetricsListener[] l2 = new MetricsListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, l2, 0, i);
+                System.arraycopy(listeners, i+1, l2, i, listeners.length - i - 1);
+                listeners = l2;
+                return;
+            }
+        }
+    }
+
+    private void notify(int event, long value, long value2) {
+        MetricsListener[] l = listeners;
+        for (int i=0; i<l.length; i++) {
+            l[i].metricRecorded(event, value, value2);
+        }
+    }
+
+    /**
+     * Register this object with the platform MBean server, so that the statistics can be inspected
+     * using JMX. JMX is accessed by reflection, so that the rest of Saxon does not depend on it.
+     * @return true if the object was registered, false if JMX is not available or registration failed
+     */
+
+    public synchronized boolean registerMBean() {
+        if (objectName != null) {
+            return true;
+        }
+        Configuration config = (Configuration)configRef.get();
+        if (config == null) {
+            return false;
+        }
+        try {
+            Class factoryClass = config.getClass("java.lang.management.ManagementFactory", false, null);
+            Class serverClass = config.getClass("javax.management.MBeanServer", false, null);
+            Class nameClass = config.getClass("javax.management.ObjectName", false, null);
+            Object server = factoryClass.getMethod("getPlatformMBeanServer", new Class[0]).invoke(null, new Object[0]);
+            int id;
+            synchronized (Metrics.class) {
+                id = nextId++;
+            }
+            Object name = nameClass.getConstructor(new Class[]{String.class}).newInstance(
+                    new Object[]{"net.sf.saxon:type=Metrics,id=" + id});
+            Method register = serverClass.getMethod("registerMBean", new Class[]{Object.class, nameClass});
+            register.invoke(server, new Object[]{this, name});
+            objectName = name;
+            mbeanServer = server;
+            unregisterMethod = serverClass.getMethod("unregisterMBean", new Class[]{nameClass});
+            return true;
+        } catch (Exception err) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove this object from the platform MBean server, if it has been registered
+     */
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            unregisterMethod.invoke(mbeanServer, new Object[]{objectName});
+        } catch (Exception err) {
+            // ignore: the server may have been shut down
+        }
+        objectName = null;
+        mbeanServer = null;
+        unregisterMethod = null;
+    }
+
+    /**
+     * Get the NamePool of the Configuration. If the Configuration has been garbage-collected, this object
+     * is removed from the MBean server.
+     * @return the NamePool, or null if the Configuration no longer exists
+     */
+
+    private NamePool getNamePool() {
+        Configuration config = (Configuration)configRef.get();
+        if (config == null) {
+            unregisterMBean();
+            return null;
+        }
+        return config.getNamePool();
+    }
+
+    // Methods called to record events
+
+    /**
+     * Record the allocation of a source parser
+     * @param reused true if the parser was taken from the pool, false if it was newly created
+     */
+
+    public void sourceParserAllocated(boolean reused) {
+        if (reused) {
+            sourceParsersReused++;
+            notify(SOURCE_PARSER_REUSED, 0, 0);
+        } else {
+            sourceParsersCreated++;
+            notify(SOURCE_PARSER_CREATED, 0, 0);
+        }
+    }
+
+    /**
+     * Record the completion of a TinyTree document
+     * @param nodes the number of nodes in the tree
+     * @param characters the number of characters of text in the tree
+     */
+
+    public void documentBuilt(int nodes, int characters) {
+        documentsBuilt++;
+        documentNodes += nodes;
+        documentCharacters += characters;
+        notify(DOCUMENT_BUILT, nodes, characters);
+    }
+
+    /**
+     * Record the construction of a key index
+     * @param entries the number of distinct key values in the index
+     */
+
+    public void keyIndexBuilt(int entries) {
+        keyIndexesBuilt++;
+        keyIndexEntries += entries;
+        notify(KEY_INDEX_BUILT, entries, 0);
+    }
+
+    /**
+     * Record the addition of a document to a document pool
+     * @param poolSize the number of documents in the pool after the addition
+     */
+
+    public void documentRegistered(int poolSize) {
+        documentsRegistered++;
+        if (poolSize > maxDocumentPoolSize) {
+            maxDocumentPoolSize = poolSize;
+        }
+        notify(DOCUMENT_REGISTERED, poolSize, 0);
+    }
+
+    /**
+     * Record the compilation of a stylesheet or query
+     * @param language {@link Configuration#XSLT} or {@link Configuration#XQUERY}
+     * @param millis the compile time in milliseconds
+     */
+
+    public void compiled(int language, long millis) {
+        if (language == Configuration.XSLT) {
+            stylesheetsCompiled++;
+            notify(STYLESHEET_COMPILED, millis, 0);
+        } else {
+            queriesCompiled++;
+            notify(QUERY_COMPILED, millis, 0);
+        }
+        compileTimes.record(millis);
+    }
+
+    /**
+     * Record the completion of a transformation or query evaluation
+     * @param millis the elapsed time in milliseconds
+     */
+
+    public void transformationCompleted(long millis) {
+        transformationTimes.record(millis);
+        notify(TRANSFORMATION_COMPLETED, millis, 0);
+    }
+
+    /**
+     * Record the allocation of a SequenceOutputter
+     * @param reused true if an existing SequenceOutputter was reused
+     */
+
+    public void sequenceOutputterAllocated(boolean reused) {
+        if (reused) {
+            sequenceOutputtersReused++;
+            notify(SEQUENCE_OUTPUTTER_REUSED, 0, 0);
+        } else {
+            sequenceOutputtersCreated++;
+            notify(SEQUENCE_OUTPUTTER_CREATED, 0, 0);
+        }
+    }
+
+    // Implementation of MetricsMBean
+
+    public int getNamePoolSize() {
+        NamePool pool = getNamePool();
+        return (pool == null ? 0 : pool.getNumberOfNames());
+    }
+
+    public synchronized double getNamePoolAllocationRate() {
+        NamePool pool = getNamePool();
+        if (pool == null) {
+            return 0.0;
+        }
+        long now = System.currentTimeMillis();
+        int names = pool.getNumberOfNames();
+        double rate = (now == lastSampleTime ? 0.0 : (names - lastSampleNames) * 1000.0 / (now - lastSampleTime));
+        lastSampleTime = now;
+        lastSampleNames = names;
+        return rate;
+    }
+
+    public long getSourceParsersCreated() {
+        return sourceParsersCreated;
+    }
+
+    public long getSourceParsersReused() {
+        return sourceParsersReused;
+    }
+
+    public long getDocumentsBuilt() {
+        return documentsBuilt;
+    }
+
+    public long getDocumentNodesBuilt() {
+        return documentNodes;
+    }
+
+    public long getDocumentCharactersBuilt() {
+        return documentCharacters;
+    }
+
+    public long getKeyIndexesBuilt() {
+        return keyIndexesBuilt;
+    }
+
+    public long getKeyIndexEntries() {
+        return keyIndexEntries;
+    }
+
+    public long getDocumentsRegistered() {
+        return documentsRegistered;
+    }
+
+    public int getMaxDocumentPoolSize() {
+        return maxDocumentPoolSize;
+    }
+
+    public long getStylesheetsCompiled() {
+        return stylesheetsCompiled;
+    }
+
+    public long getQueriesCompiled() {
+        return queriesCompiled;
+    }
+
+    public double getMeanCompileTimeMillis() {
+        return compileTimes.getMean();
+    }
+
+    public long getMaxCompileTimeMillis() {
+        return compileTimes.getMax();
+    }
+
+    public long getTransformationsCompleted() {
+        return transformationTimes.getCount();
+    }
+
+    public double getMeanTransformationTimeMillis() {
+        return transformationTimes.getMean();
+    }
+
+    public long getMedianTransformationTimeMillis() {
+        return transformationTimes.getPercentile(50);
+    }
+
+    public long getTransformationTime99thPercentileMillis() {
+        return transformationTimes.getPercentile(99);
+    }
+
+    public long getMaxTransformationTimeMillis() {
+        return transformationTimes.getMax();
+    }
+
+    public long[] getTransformationTimeHistogram() {
+        return transformationTimes.getBucketCounts();
+    }
+
+    /**
+     * Get the histogram of transformation and query evaluation times
+     */
+
+    public Histogram getTransformationTimes() {
+        return transformationTimes;
+    }
+
+    /**
+     * Get the histogram of compile times
+     */
+
+    public Histogram getCompileTimes() {
+        return compileTimes;
+    }
+
+    public long getSequenceOutputtersAllocated() {
+        return sequenceOutputtersCreated + sequenceOutputtersReused;
+    }
+
+    public double getSequenceOutputterReuseRate() {
+        long total = sequenceOutputtersCreated + sequenceOutputtersReused;
+        return (total == 0 ? 0.0 : (double)sequenceOutputtersReused / total);
+    }
+
+    public synchronized void reset() {
+        sourceParsersCreated = 0;
+        sourceParsersReused = 0;
+        documentsBuilt = 0;
+        documentNodes = 0;
+        documentCharacters = 0;
+        keyIndexesBuilt = 0;
+        keyIndexEntries = 0;
+        documentsRegistered = 0;
+        maxDocumentPoolSize = 0;
+        stylesheetsCompiled = 0;
+        queriesCompiled = 0;
+        compileTimes.reset();
+        transformationTimes.reset();
+        sequenceOutputtersCreated = 0;
+        sequenceOutputtersReused = 0;
+        lastSampleTime = System.currentTimeMillis();
+        NamePool pool = getNamePool();
+        lastSampleNames = (pool == null ? 0 : pool.getNumberOfNames());
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
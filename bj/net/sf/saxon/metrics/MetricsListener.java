@@ -0,0 +1,43 @@
+package net.sf.saxon.metrics;
+
+/**
+ * A MetricsListener is notified of each event recorded by a {@link Metrics} object. It can be used to
+ * forward the events to an external monitoring system. Listeners are registered using
+ * {@link Metrics#addListener}.
+ *
+ * <p>The listener is called synchronously, on the thread that performs the work being measured, so it
+ * should return quickly. The events are reported using primitive values so that no objects need to be
+ * allocated.</p>
+ */
+
+public interface MetricsListener {
+
+    /**
+     * Notify an event
+     * @param event identifies the kind of event, for example {@link Metrics#DOCUMENT_BUILT}
+     * @param value a value associated with the event. The meaning of the value depends on the kind
+     * of event, and is described with each event constant in {@link Metrics}.
+     * @param value2 a second value associated with the event, or zero if the event has only one value
+     */
+
+    public void metricRecorded(int event, long value, long value2);
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
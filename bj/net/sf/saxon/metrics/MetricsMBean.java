@@ -0,0 +1,179 @@
+package net.sf.saxon.metrics;
+
+/**
+ * The management interface of a {@link Metrics} object. This follows the JMX conventions for a standard
+ * MBean, so that when metrics are enabled for a {@link net.sf.saxon.Configuration} on a Java platform that
+ * supports JMX, the statistics can be inspected using any JMX console. The interface has no dependency
+ * on JMX itself.
+ */
+
+public interface MetricsMBean {
+
+    /**
+     * Get the number of names held in the NamePool of the Configuration
+     */
+
+    public int getNamePoolSize();
+
+    /**
+     * Get the rate at which names have been added to the NamePool, in names per second, since the
+     * previous call on this method (or since metrics were enabled, on the first call)
+     */
+
+    public double getNamePoolAllocationRate();
+
+    /**
+     * Get the number of source parsers created
+     */
+
+    public long getSourceParsersCreated();
+
+    /**
+     * Get the number of requests for a source parser satisfied by reusing a parser from the pool
+     */
+
+    public long getSourceParsersReused();
+
+    /**
+     * Get the number of TinyTree documents (including temporary trees) built
+     */
+
+    public long getDocumentsBuilt();
+
+    /**
+     * Get the total number of nodes in the TinyTree documents built
+     */
+
+    public long getDocumentNodesBuilt();
+
+    /**
+     * Get the total number of characters of text in the TinyTree documents built
+     */
+
+    public long getDocumentCharactersBuilt();
+
+    /**
+     * Get the number of indexes built for xsl:key definitions (including the index used by the id() function)
+     */
+
+    public long getKeyIndexesBuilt();
+
+    /**
+     * Get the total number of distinct key values in the indexes built
+     */
+
+    public long getKeyIndexEntries();
+
+    /**
+     * Get the number of documents added to document pools
+     */
+
+    public long getDocumentsRegistered();
+
+    /**
+     * Get the largest number of documents held in the document pool of one transformation or query
+     */
+
+    public int getMaxDocumentPoolSize();
+
+    /**
+     * Get the number of stylesheets compiled
+     */
+
+    public long getStylesheetsCompiled();
+
+    /**
+     * Get the number of queries compiled
+     */
+
+    public long getQueriesCompiled();
+
+    /**
+     * Get the mean time taken to compile a stylesheet or query, in milliseconds
+     */
+
+    public double getMeanCompileTimeMillis();
+
+    /**
+     * Get the longest time taken to compile a stylesheet or query, in milliseconds
+     */
+
+    public long getMaxCompileTimeMillis();
+
+    /**
+     * Get the number of transformations and query evaluations completed
+     */
+
+    public long getTransformationsCompleted();
+
+    /**
+     * Get the mean time taken by a transformation or query evaluation, in milliseconds
+     */
+
+    public double getMeanTransformationTimeMillis();
+
+    /**
+     * Get the median time taken by a transformation or query evaluation, in milliseconds. This is an
+     * estimate, accurate to within a factor of two.
+     */
+
+    public long getMedianTransformationTimeMillis();
+
+    /**
+     * Get the 99th percentile of the time taken by a transformation or query evaluation, in milliseconds.
+     * This is an estimate, accurate to within a factor of two.
+     */
+
+    public long getTransformationTime99thPercentileMillis();
+
+    /**
+     * Get the longest time taken by a transformation or query evaluation, in milliseconds
+     */
+
+    public long getMaxTransformationTimeMillis();
+
+    /**
+     * Get the histogram of the times taken by transformations and query evaluations. Entry <i>n</i>
+     * of the array is the number of transformations that took up to 2<sup><i>n</i></sup>-1 milliseconds,
+     * and more than the limit of entry <i>n</i>-1.
+     */
+
+    public long[] getTransformationTimeHistogram();
+
+    /**
+     * Get the number of SequenceOutputters allocated, whether new or reused
+     */
+
+    public long getSequenceOutputtersAllocated();
+
+    /**
+     * Get the proportion of SequenceOutputter allocations that were satisfied by reusing an existing one,
+     * as a number between 0 and 1
+     */
+
+    public double getSequenceOutputterReuseRate();
+
+    /**
+     * Reset all the counters to zero
+     */
+
+    public void reset();
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
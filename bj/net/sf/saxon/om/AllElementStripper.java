@@ -18,7 +18,7 @@ public class AllElementStripper extends Stripper {
     public AllElementStripper() {}
 
     public Stripper getAnother() {
-        return theInstance;
+        return new AllElementStripper();
     }
 
     /**
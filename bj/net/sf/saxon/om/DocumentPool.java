@@ -1,4 +1,5 @@
 package net.sf.saxon.om;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -11,6 +12,9 @@ import java.util.Iterator;
   * number of effects: in particular it allows operations involving multiple
   * documents (such as generateId() and document()) to occur in a free-standing
   * XPath environment.</p>
+  *
+  * <p>The methods are synchronized, because the pool may be shared by the threads
+  * evaluating a parallel xsl:for-each or XQuery for clause.</p>
   */
 
 public final class DocumentPool {
@@ -28,12 +32,20 @@ public final class DocumentPool {
     * @param uri The document-uri property of the document.
     */
 
-    public void add(DocumentInfo doc, String uri) {
+    public synchronized void add(DocumentInfo doc, String uri) {
         if (uri!=null) {
             documentNameMap.put(uri, doc);
         }
     }
 
+    /**
+     * Get the number of documents in the pool
+     */
+
+    public synchronized int size() {
+        return documentNameMap.size();
+    }
+
     /**
     * Get the document with a given document-uri
     * @param uri The document-uri property of the document.
@@ -41,10 +53,20 @@ public final class DocumentPool {
     * or null if it is not found.
     */
 
-    public DocumentInfo find(String uri) {
+    public synchronized DocumentInfo find(String uri) {
         return (DocumentInfo)documentNameMap.get(uri);
     }
 
+    /**
+     * Get the document-uri properties of all the documents in the pool
+     * @return an iterator over the URIs, as strings. The iterator is not affected by later
+     * changes to the pool.
+     */
+
+    public synchronized Iterator getDocumentURIs() {
+        return new ArrayList(documentNameMap.keySet()).iterator();
+    }
+
     /**
      * Get the URI for a given document node, if it is present in the pool. This supports the
      * document-uri() function.
@@ -52,7 +74,7 @@ public final class DocumentPool {
      * @return The uri of the document node, if present in the pool, or the systemId of the document node otherwise
      */
 
-    public String getDocumentURI(NodeInfo doc) {
+    public synchronized String getDocumentURI(NodeInfo doc) {
         Iterator iter = documentNameMap.keySet().iterator();
         while (iter.hasNext()) {
             String uri = (String)iter.next();
@@ -68,7 +90,7 @@ public final class DocumentPool {
      * loaded again later, the source will need to be re-parsed, and nodes will get new identities.
      */
 
-    public DocumentInfo discard(DocumentInfo doc) {
+    public synchronized DocumentInfo discard(DocumentInfo doc) {
         Iterator iter = documentNameMap.keySet().iterator();
         while (iter.hasNext()) {
             Object name = iter.next();
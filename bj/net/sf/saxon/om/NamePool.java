@@ -31,18 +31,28 @@ public class NamePool implements Serializable {
     // The data structure of the name table is as follows.
     //
     // There is a fixed size hash table; names are allocated to slots in this
-    // table by hashing on the local name. Each entry in the table is the head of
-    // a chain of NameEntry objects representing names that have the same hash code.
+    // table by hashing on the local name. Each entry in the table is an array
+    // of NameEntry objects representing names that have the same hash code.
     //
     // Each NameEntry represents a distinct name (same URI and local name). It contains
     // The local name as a string, plus a short integer representing the URI (as an
     // offset into the array uris[]).
     //
     // The fingerprint of a name consists of the hash slot number (in the bottom 10 bits)
-    // concatenated with the depth of the entry down the chain of hash synonyms (in the
-    // next 10 bits). Fingerprints with depth 0 (i.e., in the range 0-1023) are reserved
-    // for predefined names (names of XSLT elements and attributes, and of built-in types).
-    // These names are not stored in the name pool, but are accessible as if they were.
+    // concatenated with the depth of the entry among its hash synonyms, that is, its
+    // position in the array plus one (in the next 10 bits). Fingerprints with depth 0
+    // (i.e., in the range 0-1023) are reserved for predefined names (names of XSLT
+    // elements and attributes, and of built-in types). These names are not stored in the
+    // name pool, but are accessible as if they were.
+    //
+    // If the pool is reclaimable, each NameEntry also records the generation in which it
+    // was last allocated or looked up. Calling reclaim() sets the array position of an
+    // entry that has not been used recently to null; the position can then be reused
+    // for a new name with the same hash code. Entries that are pinned (because they
+    // were created or used while a stylesheet or query was being compiled) are never
+    // reclaimed, so compiled code keeps stable fingerprints.
+    // In a reclaimable pool, getFingerprint() looks up and marks the entry while holding
+    // the same lock as reclaim(), so that an entry cannot be reclaimed between the two.
     //
     // A nameCode contains the fingerprint in the bottom 20 bits. It also contains
     // a 10-bit prefix index. This distinguishes the prefix used, among all the
@@ -99,23 +109,37 @@ public class NamePool implements Serializable {
     private static class NameEntry implements Serializable {
         String localName;
         short uriCode;
-        NameEntry nextEntry;	// next NameEntry with the same hashcode
+        int lastUsed;       // generation in which the entry was last used, or PINNED
 
         public NameEntry(short uriCode, String localName) {
             this.uriCode = uriCode;
             this.localName = localName.intern();
-            this.nextEntry = null;
         }
 
     }
 
-    NameEntry[] hashslots = new NameEntry[1024];
+    // Value of NameEntry.lastUsed for an entry that must never be reclaimed
+
+    private static final int PINNED = Integer.MAX_VALUE;
+
+    // For each hash slot, an array of the names having that hash code (null until the first
+    // such name is allocated), and the number of positions in the array that are in use.
+    // The array is replaced rather than modified when it grows, so that unsynchronized
+    // readers always see a consistent array.
+
+    NameEntry[][] hashslots = new NameEntry[1024][];
+    short[] slotsUsed = new short[1024];
+
+    private volatile boolean reclaimable = false;   // read without the lock by getFingerprint()
+    private int generation = 0;
+    private int pinning = 0;
 
     String[] prefixes = new String[100];
     short prefixesUsed = 0;
     String[] uris = new String[100];
     String[][] prefixesForUri = new String[100][0];
     short urisUsed = 0;
+    int namesUsed = 0;
 
     // General purpose cache for data held by clients of the namePool
 
@@ -170,17 +194,145 @@ public class NamePool implements Serializable {
      */
 
     private NameEntry getNameEntry(int nameCode) {
-        int hash = nameCode & 0x3ff;
-        int depth = (nameCode >> 10) & 0x3ff;
-        NameEntry entry = hashslots[hash];
+        final NameEntry[] slot = hashslots[nameCode & 0x3ff];
+        final int depth = (nameCode >> 10) & 0x3ff;
+        if (slot == null || depth == 0 || depth > slot.length) {
+            return null;
+        }
+        return slot[depth - 1];
+    }
 
-        for (int i = 1; i < depth; i++) {
-            if (entry == null) {
-                return null;
+    /**
+     * Record that a name entry has been used, so that it is not reclaimed
+     * before the next generation
+     */
+
+    private void touch(NameEntry entry) {
+        if (entry.lastUsed != PINNED) {
+            entry.lastUsed = (pinning > 0 ? PINNED : generation);
+        }
+    }
+
+    /**
+     * Say whether names that are no longer in use can be removed from this NamePool. By default,
+     * a NamePool only grows: once a name has been allocated, it remains in the pool (with the same
+     * fingerprint) until the pool itself is discarded. This is inappropriate for a long-running
+     * application that processes documents using an open-ended vocabulary of names, for example
+     * names containing generated identifiers. Such an application can make the pool reclaimable,
+     * and then call {@link #nextGeneration} and {@link #reclaim} periodically.
+     *
+     * <p>When the pool is made reclaimable, all the names it already contains are pinned: they will
+     * never be reclaimed. Names allocated or looked up while a stylesheet or query is being compiled
+     * are also pinned, so the fingerprints used in compiled code remain valid.</p>
+     *
+     * @param reclaimable true if names that have not been used recently may be reclaimed
+     */
+
+    public synchronized void setReclaimable(boolean reclaimable) {
+        if (reclaimable && !this.reclaimable) {
+            for (int i = 0; i < 1024; i++) {
+                final NameEntry[] slot = hashslots[i];
+                for (int d = 0; d < slotsUsed[i]; d++) {
+                    if (slot[d] != null) {
+                        slot[d].lastUsed = PINNED;
+                    }
+                }
+            }
+        }
+        this.reclaimable = reclaimable;
+    }
+
+    /**
+     * Ask whether names that are no longer in use can be removed from this NamePool
+     * @return true if {@link #setReclaimable} has been called to make the pool reclaimable
+     */
+
+    public boolean isReclaimable() {
+        return reclaimable;
+    }
+
+    /**
+     * Start a new generation. Names allocated from now on, and existing names that are allocated or
+     * looked up again (using {@link #allocate} or {@link #getFingerprint}), are marked as belonging
+     * to the new generation.
+     * @return the number of the new generation
+     */
+
+    public synchronized int nextGeneration() {
+        return ++generation;
+    }
+
+    /**
+     * Get the number of the current generation
+     * @return the current generation number. This is zero until {@link #nextGeneration} is first called.
+     */
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Remove from the pool all the names that have not been used in the given generation or any later
+     * generation, other than pinned names. The caller must ensure that no document, or other data
+     * containing name codes, that was built before the given generation is still in use: any attempt
+     * to use a name code that has been reclaimed will fail, or worse, will find a different name that
+     * has since been allocated the same code. A typical application calls {@link #nextGeneration}
+     * before processing each batch of requests, and reclaims the generation before the oldest
+     * batch still in progress.
+     *
+     * <p>Namespace prefixes and URIs are not reclaimed.</p>
+     *
+     * @param oldestInUse the oldest generation whose names are still required
+     * @return the number of names removed from the pool
+     * @throws IllegalStateException if the pool is not reclaimable
+     */
+
+    public synchronized int reclaim(int oldestInUse) {
+        if (!reclaimable) {
+            throw new IllegalStateException("NamePool is not reclaimable");
+        }
+        int removed = 0;
+        for (int i = 0; i < 1024; i++) {
+            final NameEntry[] slot = hashslots[i];
+            int used = 0;
+            for (int d = 0; d < slotsUsed[i]; d++) {
+                NameEntry entry = slot[d];
+                if (entry != null) {
+                    if (entry.lastUsed < oldestInUse) {
+                        slot[d] = null;
+                        removed++;
+                    } else {
+                        used = d + 1;
+                    }
+                }
             }
-            entry = entry.nextEntry;
+            slotsUsed[i] = (short)used;
+        }
+        namesUsed -= removed;
+        return removed;
+    }
+
+    /**
+     * Start pinning names. Until the corresponding call on {@link #endPinning}, all names that are
+     * allocated or looked up are pinned, which means they will never be reclaimed. This is called
+     * while compiling a stylesheet or query; it can also be called by an application that builds a
+     * document which is to be retained indefinitely. Calls may be nested, and may come from several
+     * threads: in this case names used by other threads at the same time are also pinned, which is
+     * safe but retains them unnecessarily.
+     */
+
+    public synchronized void startPinning() {
+        pinning++;
+    }
+
+    /**
+     * End a period of pinning started by a call on {@link #startPinning}
+     */
+
+    public synchronized void endPinning() {
+        if (pinning > 0) {
+            pinning--;
         }
-        return entry;
     }
 
     /**
@@ -503,36 +655,49 @@ public class NamePool implements Serializable {
             prefixIndex = prefixPosition + 1;
         }
 
-        NameEntry entry;
+        NameEntry[] slot = hashslots[hash];
+        final int used = slotsUsed[hash];
+        int free = -1;
+        for (int d = 0; d < used; d++) {
+            final NameEntry entry = slot[d];
+            if (entry == null) {
+                if (free < 0) {
+                    free = d;
+                }
+            } else if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
+                if (reclaimable) {
+                    touch(entry);
+                }
+                return ((prefixIndex << 20) + ((d + 1) << 10) + hash);
+            }
+        }
 
-        if (hashslots[hash] == null) {
-            entry = new NameEntry(uriCode, localName);
-            hashslots[hash] = entry;
-        } else {
-            entry = hashslots[hash];
-            while (true) {
-                boolean sameLocalName = (entry.localName.equals(localName));
-                boolean sameURI = (entry.uriCode == uriCode);
+        // the name is not present: add it in the first free position
 
-                if (sameLocalName && sameURI) {
-                    // may need to add a new prefix to the entry
-                    break;
-                } else {
-                    NameEntry next = entry.nextEntry;
-                    depth++;
-                    if (depth >= 1024) {
-                        throw new NamePoolLimitException("Saxon name pool is full");
-                    }
-                    if (next == null) {
-                        NameEntry newentry = new NameEntry(uriCode, localName);
-                        entry.nextEntry = newentry;
-                        break;
-                    } else {
-                        entry = next;
-                    }
+        if (free < 0) {
+            free = used;
+            if (free + depth >= 1024) {
+                throw new NamePoolLimitException("Saxon name pool is full");
+            }
+            if (slot == null || free == slot.length) {
+                NameEntry[] s2 = new NameEntry[free == 0 ? 4 : Math.min(free * 2, 1023)];
+                if (slot != null) {
+                    System.arraycopy(slot, 0, s2, 0, free);
                 }
+                slot = s2;
             }
         }
+        NameEntry entry = new NameEntry(uriCode, localName);
+        if (reclaimable) {
+            touch(entry);
+        }
+        slot[free] = entry;
+        hashslots[hash] = slot;
+        if (free == used) {
+            slotsUsed[hash] = (short)(used + 1);
+        }
+        namesUsed++;
+        depth += free;
         // System.err.println("name code = " + prefixIndex + "/" + depth + "/" + hash);
         return ((prefixIndex << 20) + (depth << 10) + hash);
     }
@@ -784,29 +949,40 @@ public class NamePool implements Serializable {
         }
 
         int hash = (localName.hashCode() & 0x7fffffff) % 1023;
-        int depth = 1;
 
-        NameEntry entry;
+        if (reclaimable) {
+            // The entry must not be reclaimed between finding it and recording that it has been used
+            synchronized (this) {
+                return lookupFingerprint(hash, uriCode, localName, true);
+            }
+        } else {
+            return lookupFingerprint(hash, uriCode, localName, false);
+        }
+    }
+
+    /**
+     * Find the fingerprint of a name in its hash slot. If the pool is reclaimable, this must be called
+     * while holding the lock.
+     * @param touch true if the entry, if found, is to be recorded as having been used
+     * @return -1 if not found
+     */
 
-        if (hashslots[hash] == null) {
+    private int lookupFingerprint(int hash, short uriCode, String localName, boolean touch) {
+        final NameEntry[] slot = hashslots[hash];
+        if (slot == null) {
             return -1;
         }
-
-        entry = hashslots[hash];
-        while (true) {
-            if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
-                break;
-            } else {
-                NameEntry next = entry.nextEntry;
-                depth++;
-                if (next == null) {
-                    return -1;
-                } else {
-                    entry = next;
+        final int used = Math.min(slotsUsed[hash], slot.length);
+        for (int d = 0; d < used; d++) {
+            final NameEntry entry = slot[d];
+            if (entry != null && entry.uriCode == uriCode && entry.localName.equals(localName)) {
+                if (touch) {
+                    touch(entry);
                 }
+                return ((d + 1) << 10) + hash;
             }
         }
-        return (depth << 10) + hash;
+        return -1;
     }
 
     /**
@@ -916,14 +1092,15 @@ public class NamePool implements Serializable {
     public synchronized void diagnosticDump() {
         System.err.println("Contents of NamePool " + this);
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
-            int depth = 0;
-            while (entry != null) {
-                System.err.println("Fingerprint " + depth + '/' + i);
-                System.err.println("  local name = " + entry.localName +
-                        " uri code = " + entry.uriCode);
-                entry = entry.nextEntry;
-                depth++;
+            NameEntry[] slot = hashslots[i];
+            for (int d = 0; d < slotsUsed[i]; d++) {
+                NameEntry entry = slot[d];
+                if (entry != null) {
+                    System.err.println("Fingerprint " + (d + 1) + '/' + i);
+                    System.err.println("  local name = " + entry.localName +
+                            " uri code = " + entry.uriCode +
+                            (entry.lastUsed == PINNED ? "" : " generation = " + entry.lastUsed));
+                }
             }
         }
 
@@ -936,6 +1113,15 @@ public class NamePool implements Serializable {
         }
     }
 
+    /**
+     * Get the number of names (combinations of local name and URI) held in the pool,
+     * excluding the predefined names
+     */
+
+    public int getNumberOfNames() {
+        return namesUsed;
+    }
+
     /**
      * Statistics summarizing the namepool contents.
      * This method outputs summary statistical information to System.err
@@ -944,16 +1130,20 @@ public class NamePool implements Serializable {
     public synchronized void statistics() {
         int slots = 0;
         int entries = 0;
+        int longest = 0;
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
-            if (entry != null) slots++;
-            while (entry != null) {
-                entry = entry.nextEntry;
-                entries++;
+            NameEntry[] slot = hashslots[i];
+            if (slotsUsed[i] > 0) slots++;
+            if (slotsUsed[i] > longest) longest = slotsUsed[i];
+            for (int d = 0; d < slotsUsed[i]; d++) {
+                if (slot[d] != null) {
+                    entries++;
+                }
             }
         }
-        System.err.println("NamePool contents: " + entries + " entries in " + slots + " chains. " +
-                 + prefixesUsed + " prefixes, " + urisUsed + " URIs");
+        System.err.println("NamePool contents: " + entries + " entries in " + slots + " slots (longest " +
+                 longest + "). " + prefixesUsed + " prefixes, " + urisUsed + " URIs" +
+                 (reclaimable ? ". Generation " + generation : ""));
     }
 
 
@@ -8,6 +8,7 @@ import net.sf.saxon.type.SchemaType;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.NumericValue;
 import net.sf.saxon.Configuration;
 
 import java.io.PrintStream;
@@ -312,6 +313,26 @@ public class PatternSponsor implements Expression {
         return evaluateItem(context).getStringValue();
     }
 
+    /**
+     * Evaluate the pattern as a Java long. The value of a pattern is a boolean, so it can never be
+     * delivered as a long: the caller must use {@link #evaluateItem} instead.
+     * @throws ArithmeticException always; the exception is {@link NumericValue#NOT_PRIMITIVE}
+     */
+
+    public long evaluateAsLong(XPathContext context) throws XPathException {
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
+    /**
+     * Evaluate the pattern as a Java double. The value of a pattern is a boolean, so it can never be
+     * delivered as a double: the caller must use {@link #evaluateItem} instead.
+     * @throws ArithmeticException always; the exception is {@link NumericValue#NOT_PRIMITIVE}
+     */
+
+    public double evaluateAsDouble(XPathContext context) throws XPathException {
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
     /**
      * Process the instruction, without returning any tail calls
      *
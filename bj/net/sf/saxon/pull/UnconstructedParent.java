@@ -54,6 +54,10 @@ public abstract class UnconstructedParent implements NodeInfo {
                 savedXPathContext.setStackFrame(localStackFrame.getStackFrameMap(), savedStackFrame);
             }
         }
+        if (savedXPathContext.getStackFrame() == context.getStackFrame()) {
+            context.getStackFrame().setCaptured();
+        }
+        XPathContextMajor.setCaptured(context);
 
         // Make a copy of the context item
         SequenceIterator currentIterator = context.getCurrentIterator();
@@ -3,6 +3,7 @@ package net.sf.saxon.query;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.Err;
 import net.sf.saxon.Platform;
+import net.sf.saxon.codegen.ExpressionCompiler;
 import net.sf.saxon.event.PipelineConfiguration;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.functions.*;
@@ -40,6 +41,7 @@ class QueryParser extends ExpressionParser {
     private boolean preserveSpace = false;
     private boolean defaultEmptyLeast = true;
     private boolean memoFunction = false;
+    private int threads = 0;
 
     private int errorCount = 0;
     private StaticError firstError = null;
@@ -107,6 +109,42 @@ class QueryParser extends ExpressionParser {
             exec.fixupQueryModules(staticContext);
             XQueryExpression queryExp = new XQueryExpression(exp, exec, staticContext, config);
             exp = queryExp.getExpression();
+
+            // Work out which parts of the source documents are used, if document projection is requested
+
+            if (config.isDocumentProjection()) {
+                ProjectionAnalyzer analyzer = new ProjectionAnalyzer();
+                analyzer.analyzeGlobalVariables(exec);
+                analyzer.analyzeEntryPoint(exp);
+                exec.setDocumentProjection(analyzer.getProjectionSpecification());
+            }
+
+            // Find the global variables that can be evaluated in parallel, if requested
+
+            if (config.getGlobalVariableThreads() > 1) {
+                exec.setParallelGlobalEvaluator(ParallelGlobalEvaluator.analyze(exec));
+            }
+
+            // Compile the functions and the main expression to bytecode, if requested
+
+            if (config.isGenerateByteCode()) {
+                ExpressionCompiler compiler = new ExpressionCompiler(config);
+                Iterator functions = staticContext.getGlobalFunctionLibrary().getFunctionDefinitions();
+                while (functions.hasNext()) {
+                    XQueryFunction f = (XQueryFunction)functions.next();
+                    UserFunction fn = f.getUserFunction();
+                    if (fn != null) {
+                        Expression body = fn.getBody();
+                        compiler.compileProcedure(fn);
+                        f.replaceSubExpression(body, fn.getBody());
+                    }
+                }
+                Expression compiled = compiler.compile(exp);
+                if (compiled != exp) {
+                    queryExp.replaceSubExpression(exp, compiled);
+                    ComputedExpression.setParentExpression(compiled, queryExp);
+                }
+            }
 //            DocumentInstr docInstruction;
 //            if (exp instanceof DocumentInstr) {
 //                docInstruction = (DocumentInstr)exp;
@@ -1385,6 +1423,11 @@ class QueryParser extends ExpressionParser {
                 } else {
                     warning("Value of saxon:memo-function must be 'true' or 'false'");
                 }
+            } else if (localName.equals("threads")) {
+                int n = parseThreads(value);
+                if (n > 0) {
+                    threads = n;
+                }
             } else {
                 warning("Unknown Saxon option declaration: " + env.getNamePool().getDisplayName(varNameCode));
             }
@@ -1393,6 +1436,25 @@ class QueryParser extends ExpressionParser {
         nextToken();
     }
 
+    /**
+     * Parse the value of a saxon:threads option declaration or pragma
+     * @return the number of threads, or -1 if the value is invalid (in which case a warning is output)
+     */
+
+    private int parseThreads(String value) throws StaticError {
+        int n;
+        try {
+            n = Integer.parseInt(value.trim());
+        } catch (NumberFormatException err) {
+            n = -1;
+        }
+        if (n < 1) {
+            warning("Value of saxon:threads must be a positive integer");
+            return -1;
+        }
+        return n;
+    }
+
     /**
      * Handle a saxon:output option declaration. Format:
      * declare option saxon:output "indent = yes"
@@ -1582,6 +1644,10 @@ class QueryParser extends ExpressionParser {
                 exp.setLocationId(env.getLocationMap().allocateLocationId(env.getSystemId(), t.getLineNumber(fc.offset)));
                 exp.setSequence(fc.sequence);
                 exp.setAction(action);
+                if (i == 0) {
+                    // saxon:threads applies to the outermost "for" clause only
+                    exp.setThreads(threads);
+                }
                 action = makeTracer(fc.offset, exp, Location.FOR_EXPRESSION, fc.rangeVariable.getNameCode());
             } else {
                 LetClause lc = (LetClause)clause;
@@ -2113,6 +2179,7 @@ class QueryParser extends ExpressionParser {
 
     protected Expression parseExtensionExpression() throws StaticError {
         SchemaType requiredType = null;
+        int pragmaThreads = -1;
         CharSequence trimmed = Whitespace.removeLeadingWhitespace(t.currentTokenValue);
         int c = 0;
         int len = trimmed.length();
@@ -2147,6 +2214,9 @@ class QueryParser extends ExpressionParser {
                 if (requiredType == null) {
                     grumble("Unknown schema type " + typeName);
                 }
+            } else if (uri.equals(NamespaceConstant.SAXON) &&
+                    env.getNamePool().getLocalName(nameCode).equals("threads")) {
+                pragmaThreads = parseThreads(pragmaContents);
             } else if (uri.equals(NamespaceConstant.SAXON)) {
                 grumble("Unrecognized Saxon pragma " + qname);
             } else if (uri.equals("")) {
@@ -2156,6 +2226,12 @@ class QueryParser extends ExpressionParser {
 
         nextToken();
         Expression expr;
+
+        // a saxon:threads pragma applies to the FLWOR expressions within the enclosed expression
+        int outerThreads = threads;
+        if (pragmaThreads > 0) {
+            threads = pragmaThreads;
+        }
         if (t.currentToken == Token.PRAGMA) {
             expr = parseExtensionExpression();
         } else {
@@ -2171,6 +2247,7 @@ class QueryParser extends ExpressionParser {
             t.lookAhead();      // always done manually after an RCURLY
             nextToken();
         }
+        threads = outerThreads;
         if (requiredType == null) {
             return expr;
         } else if (expr instanceof ElementCreator) {
@@ -3,6 +3,8 @@ package net.sf.saxon.query;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.StandardErrorListener;
 import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ProjectionSpecification;
 import net.sf.saxon.event.Stripper;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.functions.ConstructorFunctionLibrary;
@@ -10,6 +12,7 @@ import net.sf.saxon.functions.FunctionLibrary;
 import net.sf.saxon.functions.FunctionLibraryList;
 import net.sf.saxon.functions.SystemFunctionLibrary;
 import net.sf.saxon.instruct.*;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pattern.CombinedNodeTest;
 import net.sf.saxon.pattern.ContentTypeTest;
@@ -419,17 +422,60 @@ public class StaticQueryContext implements StaticContext {
      */
 
     public DocumentInfo buildDocument(Source source) throws XPathException {
+        return buildDocument(source, null);
+    }
+
+    /**
+     * Build a source document for use by a particular query. If document projection was enabled
+     * when the query was compiled, the parts of the document that the query cannot use are discarded
+     * while the document is being built. The resulting document should therefore only be used as input
+     * to this query.
+     *
+     * @param source Any javax.xml.transform.Source object representing the document against
+     *               which the query will be executed
+     * @param query the compiled query, or null if the document is to be built in full
+     * @return the DocumentInfo representing the root node of the resulting document object.
+     */
+
+    public DocumentInfo buildDocument(Source source, XQueryExpression query) throws XPathException {
+        return buildDocument(source, query, null);
+    }
+
+    /**
+     * Build a source document for use by a particular query, reporting any errors to a specified
+     * ErrorListener. This allows several documents to be built concurrently, each reporting errors
+     * to its own destination.
+     *
+     * @param source Any javax.xml.transform.Source object representing the document against
+     *               which the query will be executed
+     * @param query the compiled query, or null if the document is to be built in full
+     * @param listener the ErrorListener to which errors are reported, or null to use the ErrorListener
+     *               of this static context
+     * @return the DocumentInfo representing the root node of the resulting document object.
+     */
+
+    public DocumentInfo buildDocument(Source source, XQueryExpression query, ErrorListener listener)
+    throws XPathException {
         Source s2 = config.getSourceResolver().resolveSource(source, config);
         if (s2 != null) {
             source = s2;
         }
         Stripper stripper = null;
         if (config.isStripsAllWhiteSpace()) {
-            stripper = AllElementStripper.getInstance();
+            stripper = new AllElementStripper();
             stripper.setStripAll();
         }
+        ProjectionSpecification projection = null;
+        int validation = config.getSchemaValidationMode();
+        if (query != null && validation != Validation.STRICT && validation != Validation.LAX) {
+            projection = query.getExecutable().getDocumentProjection();
+        }
         try {
-            NodeInfo contextNode = Builder.build(source, stripper, config);
+            PipelineConfiguration pipe = config.makePipelineConfiguration();
+            if (listener != null) {
+                pipe.setErrorListener(listener);
+            }
+            NodeInfo contextNode = Builder.build(source, stripper, projection, pipe);
             return contextNode.getDocumentRoot();
         } catch (XPathException err) {
             Throwable cause = err.getException();
@@ -441,13 +487,13 @@ public class StaticQueryContext implements StaticContext {
                 SAXParseException spe = (SAXParseException)cause;
                 cause = spe.getException();
                 if (cause instanceof RuntimeException) {
-                    reportFatalError(err);
+                    reportFatalError(err, listener);
                 }
             } else {
                 while (err.getException() instanceof XPathException) {
                     err = (XPathException)err.getException();
                 }
-                reportFatalError(err);
+                reportFatalError(err, listener);
             }
             throw err;
         }
@@ -468,8 +514,21 @@ public class StaticQueryContext implements StaticContext {
      */
 
     public XQueryExpression compileQuery(String query) throws XPathException {
+        Metrics metrics = config.getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
         QueryParser qp = new QueryParser();
-        XQueryExpression queryExp = qp.makeXQueryExpression(query, copy(), config);
+        XQueryExpression queryExp;
+        // names used by the compiled query must keep their fingerprints if the NamePool is reclaimable
+        NamePool pool = config.getNamePool();
+        pool.startPinning();
+        try {
+            queryExp = qp.makeXQueryExpression(query, copy(), config);
+        } finally {
+            pool.endPinning();
+        }
+        if (metrics != null) {
+            metrics.compiled(Configuration.XQUERY, System.currentTimeMillis() - startTime);
+        }
         return queryExp;
     }
 
@@ -1708,9 +1767,13 @@ public class StaticQueryContext implements StaticContext {
      */
 
     public void reportFatalError(XPathException err) {
+        reportFatalError(err, null);
+    }
+
+    private void reportFatalError(XPathException err, ErrorListener listener) {
         if (!err.hasBeenReported()) {
             try {
-                getErrorListener().fatalError(err);
+                (listener == null ? getErrorListener() : listener).fatalError(err);
             } catch (TransformerException e) {
                 // ignore secondary errors
             }
@@ -7,6 +7,7 @@ import net.sf.saxon.expr.*;
 import net.sf.saxon.instruct.Bindery;
 import net.sf.saxon.instruct.Executable;
 import net.sf.saxon.instruct.SlotManager;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pull.PullFromIterator;
 import net.sf.saxon.pull.PullNamespaceReducer;
@@ -137,14 +138,24 @@ public class XQueryExpression implements Container {
      */
 
     public List evaluate(DynamicQueryContext env) throws XPathException {
-        SequenceIterator iterator = iterator(env);
-        ArrayList list = new ArrayList(100);
-        while (true) {
-            Item item = iterator.next();
-            if (item == null) {
-                return list;
+        Metrics metrics = executable.getConfiguration().getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
+        Controller controller = newController();
+        try {
+            SequenceIterator iterator = iterator(env, controller);
+            ArrayList list = new ArrayList(100);
+            while (true) {
+                Item item = iterator.next();
+                if (item == null) {
+                    if (metrics != null) {
+                        metrics.transformationCompleted(System.currentTimeMillis() - startTime);
+                    }
+                    return list;
+                }
+                list.add(Value.convert(item));
             }
-            list.add(Value.convert(item));
+        } finally {
+            controller.closePullProviders();
         }
     }
 
@@ -161,12 +172,18 @@ public class XQueryExpression implements Container {
      */
 
     public Object evaluateSingle(DynamicQueryContext env) throws XPathException {
-        SequenceIterator iterator = iterator(env);
-        Item item = iterator.next();
-        if (item == null) {
-            return null;
+        Controller controller = newController();
+        try {
+            SequenceIterator iterator = iterator(env, controller);
+            Item item = iterator.next();
+            if (item == null) {
+                return null;
+            }
+            return Value.convert(item);
+        } finally {
+            // close any document that saxon:stream() was reading when the first item was found
+            controller.closePullProviders();
         }
-        return Value.convert(item);
     }
 
     /**
@@ -181,6 +198,9 @@ public class XQueryExpression implements Container {
      * <p><code>QueryResult.wrap(iterator(env))</code></p>
      * <p/>
      * <p>To serialize the results to a file, use the QueryResult.serialize() method.</p>
+     * <p/>
+     * <p>A document read by saxon:stream() is closed when the iterator reaches the end of the
+     * elements selected from it, so the iterator should be read to the end.</p>
      *
      * @param env Provides the dynamic query evaluation context
      * @return an iterator over the results of the query. The class SequenceIterator
@@ -192,7 +212,10 @@ public class XQueryExpression implements Container {
      */
 
     public SequenceIterator iterator(DynamicQueryContext env) throws XPathException {
-        Controller controller = newController();
+        return iterator(env, newController());
+    }
+
+    private SequenceIterator iterator(DynamicQueryContext env, Controller controller) throws XPathException {
         initializeController(env, controller);
 
         try {
@@ -216,6 +239,8 @@ public class XQueryExpression implements Container {
             // In tracing/debugging mode, evaluate all the global variables first
             if (controller.getConfiguration().getTraceListener() != null) {
                 controller.preEvaluateGlobals(context);
+            } else {
+                controller.preEvaluateGlobalsInParallel();
             }
 
             context.openStackFrame(stackFrameMap);
@@ -274,6 +299,8 @@ public class XQueryExpression implements Container {
 
     public void run(DynamicQueryContext env, Result result, Properties outputProperties) throws XPathException {
 
+        Metrics metrics = executable.getConfiguration().getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
         Controller controller = newController();
         initializeController(env, controller);
 
@@ -322,29 +349,37 @@ public class XQueryExpression implements Container {
         if (tracer != null) {
             controller.preEvaluateGlobals(context);
             tracer.open();
+        } else {
+            controller.preEvaluateGlobalsInParallel();
         }
 
         context.openStackFrame(stackFrameMap);
 
         boolean mustClose = (result instanceof StreamResult &&
                 ((StreamResult)result).getOutputStream() == null);
-        context.changeOutputDestination(baseProperties, result, true,
-                Configuration.XQUERY, Validation.PRESERVE, null);
-        context.getReceiver().open();
-
-        // Run the query
         try {
-            expression.process(context);
-        } catch (XPathException err) {
-            controller.reportFatalError(err);
-            throw err;
-        }
+            context.changeOutputDestination(baseProperties, result, true,
+                    Configuration.XQUERY, Validation.PRESERVE, null);
+            context.getReceiver().open();
 
-        if (tracer != null) {
-            tracer.close();
-        }
+            // Run the query
+            try {
+                expression.process(context);
+            } catch (XPathException err) {
+                controller.reportFatalError(err);
+                throw err;
+            }
+
+            if (tracer != null) {
+                tracer.close();
+            }
 
-        context.getReceiver().close();
+            context.getReceiver().close();
+        } finally {
+            // stop any asynchronous output that a failure has left unfinished
+            controller.releaseAsyncOutputStreams();
+            controller.closePullProviders();
+        }
         if (mustClose) {
             OutputStream os = ((StreamResult)result).getOutputStream();
             if (os != null) {
@@ -355,6 +390,9 @@ public class XQueryExpression implements Container {
                 }
             }
         }
+        if (metrics != null) {
+            metrics.transformationCompleted(System.currentTimeMillis() - startTime);
+        }
     }
 
     /**
@@ -366,8 +404,11 @@ public class XQueryExpression implements Container {
      */
 
     public void pull(DynamicQueryContext dynamicEnv, Result destination, Properties outputProperties) throws XPathException {
+        Metrics metrics = executable.getConfiguration().getMetrics();
+        long startTime = (metrics == null ? 0 : System.currentTimeMillis());
+        Controller controller = newController();
         try {
-            SequenceIterator iter = iterator(dynamicEnv);
+            SequenceIterator iter = iterator(dynamicEnv, controller);
             PullProvider pull = new PullFromIterator(iter);
             pull = new PullNamespaceReducer(pull);
             final Configuration config = executable.getConfiguration();
@@ -391,8 +432,13 @@ public class XQueryExpression implements Container {
                 receiver = new TreeReceiver(outputter);
             }
             new PullPushCopier(pull, receiver).copy();
+            if (metrics != null) {
+                metrics.transformationCompleted(System.currentTimeMillis() - startTime);
+            }
         } catch (UncheckedXPathException e) {
             throw e.getXPathException();
+        } finally {
+            controller.closePullProviders();
         }
     }
 
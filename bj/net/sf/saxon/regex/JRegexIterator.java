@@ -15,11 +15,11 @@ import java.util.regex.Pattern;
 
 public class JRegexIterator implements RegexIterator {
 
-    private String theString;   // the input string being matched
+    private CharSequence theString;   // the input string being matched
     private Pattern pattern;    // the regex against which the string is matched
     private Matcher matcher;    // the Matcher object that does the matching, and holds the state
-    private String current;     // the string most recently returned by the iterator
-    private String next;        // if the last string was a matching string, null; otherwise the next substring
+    private StringValue current;  // the string most recently returned by the iterator
+    private CharSequence next;  // if the last string was a matching string, null; otherwise the next substring
                                 //        matched by the regex
     private int position = 0;   // the value of XPath position()
     private int prevEnd = 0;    // the position in the input string of the end of the last match or non-match
@@ -28,11 +28,16 @@ public class JRegexIterator implements RegexIterator {
     * Construct a RegexIterator. Note that the underlying matcher.find() method is called once
     * to obtain each matching substring. But the iterator also returns non-matching substrings
     * if these appear between the matching substrings.
+    *
+    * <p>The substrings returned by the iterator are obtained using the subSequence() method of the
+    * supplied string, so if the string is (for example) a {@link net.sf.saxon.tinytree.CharSlice} or a
+    * {@link net.sf.saxon.om.FastStringBuffer}, they share its character array rather than copying it.
+    * The string must therefore not be modified while the iterator or its results are in use.</p>
     * @param string the string to be analysed
     * @param pattern the regular expression
     */
 
-    public JRegexIterator (String string, Pattern pattern) {
+    public JRegexIterator (CharSequence string, Pattern pattern) {
         theString = string;
         this.pattern = pattern;
         matcher = pattern.matcher(string);
@@ -53,17 +58,18 @@ public class JRegexIterator implements RegexIterator {
                 if (prevEnd == start) {
                     // there's no intervening non-matching string to return
                     next = null;
-                    current = theString.substring(start, end);
+                    current = StringValue.makeStringValue(theString.subSequence(start, end));
                     prevEnd = end;
                 } else {
                     // return the non-matching substring first
-                    current = theString.substring(prevEnd, start);
-                    next = theString.substring(start, end);
+                    current = StringValue.makeStringValue(theString.subSequence(prevEnd, start));
+                    next = theString.subSequence(start, end);
                 }
             } else {
                 // there are no more regex matches, we must return the final non-matching text if any
                 if (prevEnd < theString.length()) {
-                    current = theString.substring(prevEnd);
+                    current = StringValue.makeStringValue(
+                            theString.subSequence(prevEnd, theString.length()));
                     next = null;
                 } else {
                     // this really is the end...
@@ -77,7 +83,7 @@ public class JRegexIterator implements RegexIterator {
         } else {
             // we've returned a non-match, so now return the match that follows it, if there is one
             if (prevEnd >= 0) {
-                current = next;
+                current = StringValue.makeStringValue(next);
                 next = null;
                 prevEnd = matcher.end();
             } else {
@@ -87,7 +93,7 @@ public class JRegexIterator implements RegexIterator {
             }
         }
         position++;
-        return StringValue.makeStringValue(current);
+        return current;
     }
 
     /**
@@ -96,7 +102,7 @@ public class JRegexIterator implements RegexIterator {
     */
 
     public Item current() {
-        return StringValue.makeStringValue(current);
+        return current;
     }
 
     /**
@@ -149,12 +155,12 @@ public class JRegexIterator implements RegexIterator {
     * within the regular expression
     */
 
-    public String getRegexGroup(int number) {
+    public CharSequence getRegexGroup(int number) {
         if (!isMatching()) return null;
         if (number > matcher.groupCount() || number < 0) return "";
-        String s = matcher.group(number);
-        if (s==null) return "";
-        return s;
+        int start = matcher.start(number);
+        if (start < 0) return "";
+        return theString.subSequence(start, matcher.end(number));
     }
 
     /**
@@ -169,7 +175,9 @@ public class JRegexIterator implements RegexIterator {
         } else {
             StringValue[] groups = new StringValue[c];
             for (int i=1; i<=groups.length; i++) {
-                groups[i-1] = StringValue.makeStringValue(matcher.group(i));
+                int start = matcher.start(i);
+                groups[i-1] = (start < 0 ? StringValue.EMPTY_STRING :
+                        StringValue.makeStringValue(theString.subSequence(start, matcher.end(i))));
             }
             return new ArrayIterator(groups);
         }
@@ -1,5 +1,6 @@
 package net.sf.saxon.regex;
 
+import net.sf.saxon.om.FastStringBuffer;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
@@ -54,7 +55,7 @@ public class JRegularExpression implements RegularExpression {
      */
 
     public RegexIterator analyze(CharSequence input) {
-        return new JRegexIterator(input.toString(), pattern);
+        return new JRegexIterator(input, pattern);
     }
 
     /**
@@ -91,27 +92,66 @@ public class JRegularExpression implements RegularExpression {
      */
 
     public CharSequence replace(CharSequence input, CharSequence replacement) throws XPathException {
+        // This does the work of Matcher.replaceAll(), but it works directly on the supplied CharSequence
+        // and accumulates the result in a FastStringBuffer, so the input is not copied to a String
+        // first, and the result is not copied to a String afterwards. If nothing matches, the input
+        // is returned unchanged.
         Matcher matcher = pattern.matcher(input);
-        try {
-            String res = matcher.replaceAll(replacement.toString());
-            return res;
-        } catch (IndexOutOfBoundsException e) {
-            // this occurs if the replacement string references a group $n and there are less than n
-            // capturing subexpressions in the regex. In this case we're supposed to replace $n by an
-            // empty string. We do this by modifying the replacement string.
-            int gps = matcher.groupCount();
-            if (gps >= 9) {
-                // don't know what's gone wrong here
-                throw e;
+        if (!matcher.find()) {
+            return input;
+        }
+        // allow for some growth, to avoid copying the whole buffer if the replacements are longer
+        FastStringBuffer sb = new FastStringBuffer(input.length() + (input.length() >> 3) + 16);
+        int prevEnd = 0;
+        do {
+            sb.append(input.subSequence(prevEnd, matcher.start()));
+            appendReplacement(sb, matcher, input, replacement);
+            prevEnd = matcher.end();
+        } while (matcher.find());
+        sb.append(input.subSequence(prevEnd, input.length()));
+        return sb;
+    }
+
+    /**
+     * Append the replacement for one match to the result of replace(). The replacement string has
+     * already been checked: a "\" is always followed by "\" or "$", and a "$" by a digit. As with
+     * Matcher.appendReplacement(), "$n" takes as many digits as form a group number no greater than
+     * the number of groups; and if the group number is greater than the number of groups, or the
+     * group did not participate in the match, "$n" is replaced by a zero-length string.
+     */
+
+    private static void appendReplacement(FastStringBuffer sb, Matcher matcher,
+                                          CharSequence input, CharSequence replacement) {
+        int groups = matcher.groupCount();
+        int len = replacement.length();
+        for (int i=0; i<len; i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i+1 < len) {
+                sb.append(replacement.charAt(++i));
+            } else if (c == '$' && i+1 < len && isDigit(replacement.charAt(i+1))) {
+                int group = replacement.charAt(++i) - '0';
+                while (i+1 < len && isDigit(replacement.charAt(i+1))) {
+                    int g = group*10 + (replacement.charAt(i+1) - '0');
+                    if (g > groups) {
+                        break;
+                    }
+                    group = g;
+                    i++;
+                }
+                if (group <= groups) {
+                    int start = matcher.start(group);
+                    if (start >= 0) {
+                        sb.append(input.subSequence(start, matcher.end(group)));
+                    }
+                }
+            } else {
+                sb.append(c);
             }
-            String r = replacement.toString();
-            // remove occurrences of $n from the replacement string, if n is greater than the number of groups
-            String f = "\\$[" + (gps+1) + "-9]";
-            String rep = Pattern.compile(f).matcher(r).replaceAll("");
-            String res = matcher.replaceAll(rep);
-            return res;
         }
+    }
 
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     /**
@@ -16,13 +16,15 @@ public class JTokenIterator implements SequenceIterator {
     private CharSequence input;
     private Pattern pattern;
     private Matcher matcher;
-    private CharSequence current;
+    private StringValue current;
     private int position = 0;
     private int prevEnd = 0;
 
 
     /**
-    * Construct a JTokenIterator.
+    * Construct a JTokenIterator. The tokens are obtained using the subSequence() method of the input,
+    * so if the input is (for example) a {@link net.sf.saxon.tinytree.CharSlice} they share its
+    * character array rather than copying it.
     */
 
     public JTokenIterator (CharSequence input, Pattern pattern) {
@@ -40,18 +42,18 @@ public class JTokenIterator implements SequenceIterator {
         }
 
         if (matcher.find()) {
-            current = input.subSequence(prevEnd, matcher.start());
+            current = StringValue.makeStringValue(input.subSequence(prevEnd, matcher.start()));
             prevEnd = matcher.end();
         } else {
-            current = input.subSequence(prevEnd, input.length());
+            current = StringValue.makeStringValue(input.subSequence(prevEnd, input.length()));
             prevEnd = -1;
         }
         position++;
-        return StringValue.makeStringValue(current);
+        return current;
     }
 
     public Item current() {
-        return (current==null ? null : StringValue.makeStringValue(current));
+        return current;
     }
 
     public int position() {
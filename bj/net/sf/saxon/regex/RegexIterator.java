@@ -20,10 +20,11 @@ public interface RegexIterator extends SequenceIterator {
     * Get a substring that matches a parenthesised group within the regular expression
     * @param number    the number of the group to be obtained
     * @return the substring of the current item that matches the n'th parenthesized group
-    * within the regular expression
+    * within the regular expression. This may share the characters of the string being analyzed,
+    * rather than being a copy.
     */
 
-    public String getRegexGroup(int number);
+    public CharSequence getRegexGroup(int number);
 
     /**
      * Get a sequence containing all the regex captured groups relating to the current matching item
@@ -0,0 +1,265 @@
+package net.sf.saxon.sort;
+
+import java.text.CollationElementIterator;
+import java.text.Collator;
+import java.text.RuleBasedCollator;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * An AsciiCollationTable allows two strings to be compared under a Java RuleBasedCollator without
+ * invoking the collator, provided that both strings consist only of printable ASCII characters that
+ * have a simple mapping in the collation. A character has a simple mapping if it is represented by a
+ * single collation element with a non-zero primary weight, and does not start a contraction. For such
+ * strings the result of the collator is determined by comparing the primary weights of the characters,
+ * then the secondary weights, then the tertiary weights, and the table holds these weights for each
+ * character so that no collation elements need to be computed at run time.
+ *
+ * <p>When a string contains any other character (for example a space, a control character, or a
+ * non-ASCII character) the comparison is delegated to the collator.</p>
+ *
+ * <p>The table is built once for each distinct collation, and is checked against the collator before
+ * it is used: if the collator gives a different result for any of a sample of strings, no table is
+ * used for that collation.</p>
+ */
+
+public final class AsciiCollationTable {
+
+    private static HashMap tables = new HashMap(10);
+
+    private int[] primary = new int[128];
+    private int[] secondary = new int[128];
+    private int[] tertiary = new int[128];
+    private boolean identical;
+
+    private AsciiCollationTable() {}
+
+    /**
+     * Get the table for a given collation
+     * @param collation the collation
+     * @return the table, or null if the collation is not a RuleBasedCollator or if its comparison of
+     * ASCII strings cannot be reproduced using the table
+     */
+
+    public static AsciiCollationTable getTable(Comparator collation) {
+        if (!(collation instanceof RuleBasedCollator)) {
+            return null;
+        }
+        RuleBasedCollator collator = (RuleBasedCollator)collation;
+        synchronized (tables) {
+            // RuleBasedCollator.equals() compares the rules and the strength
+            Object table = tables.get(collator);
+            if (table == null) {
+                if (tables.size() > 50) {
+                    tables.clear();
+                }
+                table = makeTable(collator);
+                tables.put(collator.clone(), (table == null ? Boolean.FALSE : table));
+            }
+            return (table instanceof AsciiCollationTable ? (AsciiCollationTable)table : null);
+        }
+    }
+
+    private static AsciiCollationTable makeTable(RuleBasedCollator collator) {
+        AsciiCollationTable table = new AsciiCollationTable();
+        int strength = collator.getStrength();
+        table.identical = (strength == Collator.IDENTICAL);
+        int[] elements = new int[128];
+        for (char c=0x21; c<0x7f; c++) {
+            CollationElementIterator iter = collator.getCollationElementIterator(String.valueOf(c));
+            int e = iter.next();
+            if (e != CollationElementIterator.NULLORDER &&
+                    CollationElementIterator.primaryOrder(e) != 0 &&
+                    iter.next() == CollationElementIterator.NULLORDER) {
+                elements[c] = e;
+                table.primary[c] = CollationElementIterator.primaryOrder(e);
+                if (strength >= Collator.SECONDARY) {
+                    table.secondary[c] = CollationElementIterator.secondaryOrder(e);
+                }
+                if (strength >= Collator.TERTIARY) {
+                    table.tertiary[c] = CollationElementIterator.tertiaryOrder(e);
+                }
+            }
+        }
+
+        // Exclude any character that starts a contraction with another character
+
+        boolean[] contracting = new boolean[128];
+        for (char x=0x21; x<0x7f; x++) {
+            if (table.primary[x] == 0) {
+                continue;
+            }
+            for (char y=0x21; y<0x7f; y++) {
+                if (table.primary[y] == 0) {
+                    continue;
+                }
+                CollationElementIterator iter =
+                        collator.getCollationElementIterator(new String(new char[]{x, y}));
+                int ex = iter.next();
+                int ey = iter.next();
+                if (ex != elements[x] || ey != elements[y] || iter.next() != CollationElementIterator.NULLORDER) {
+                    contracting[x] = true;
+                    break;
+                }
+            }
+        }
+        for (int c=0; c<128; c++) {
+            if (contracting[c]) {
+                table.primary[c] = 0;
+            }
+        }
+
+        // Check the table against the collator, using every pair of single characters and a sample
+        // of longer strings. This detects collations (such as those using French secondary ordering)
+        // whose comparison rules differ from those assumed by the table
+
+        StringBuffer chars = new StringBuffer(100);
+        for (char c=0x21; c<0x7f; c++) {
+            if (table.primary[c] != 0) {
+                chars.append(c);
+            }
+        }
+        if (chars.length() == 0) {
+            return null;
+        }
+        for (int i=0; i<chars.length(); i++) {
+            for (int j=0; j<chars.length(); j++) {
+                String a = String.valueOf(chars.charAt(i));
+                String b = String.valueOf(chars.charAt(j));
+                if (!table.agrees(a, b, collator)) {
+                    return null;
+                }
+            }
+        }
+        Random random = new Random(chars.length());
+        for (int i=0; i<5000; i++) {
+            String a = randomString(chars, random);
+            String b = (i % 2 == 0 ? mutate(a, chars, random) : randomString(chars, random));
+            if (!table.agrees(a, b, collator)) {
+                return null;
+            }
+        }
+        return table;
+    }
+
+    private boolean agrees(String a, String b, Comparator collator) {
+        return sign(compare(a, b, collator)) == sign(collator.compare(a, b));
+    }
+
+    private static int sign(int c) {
+        return (c < 0 ? -1 : (c == 0 ? 0 : +1));
+    }
+
+    private static String randomString(StringBuffer chars, Random random) {
+        int len = 1 + random.nextInt(6);
+        char[] s = new char[len];
+        for (int i=0; i<len; i++) {
+            s[i] = chars.charAt(random.nextInt(chars.length()));
+        }
+        return new String(s);
+    }
+
+    private static String mutate(String a, StringBuffer chars, Random random) {
+        char[] s = a.toCharArray();
+        s[random.nextInt(s.length)] = chars.charAt(random.nextInt(chars.length()));
+        return new String(s);
+    }
+
+    /**
+     * Determine whether a string consists entirely of characters handled by this table
+     */
+
+    public boolean isApplicable(String s) {
+        return isApplicable(s, 0);
+    }
+
+    private boolean isApplicable(String s, int start) {
+        for (int i=start; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || primary[c] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare two strings, giving the same result as the collator
+     * @param a the first string
+     * @param b the second string
+     * @param collator the collator from which this table was built, used if either string contains
+     * a character that is not handled by the table
+     * @return <0 if a<b, 0 if a=b, >0 if a>b
+     */
+
+    public int compare(String a, String b, Comparator collator) {
+        int alen = a.length();
+        int blen = b.length();
+        int common = Math.min(alen, blen);
+        int secondaryResult = 0;
+        int tertiaryResult = 0;
+        for (int i=0; i<common; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca >= 128 || cb >= 128) {
+                return collator.compare(a, b);
+            }
+            int pa = primary[ca];
+            int pb = primary[cb];
+            if (pa == 0 || pb == 0) {
+                return collator.compare(a, b);
+            }
+            if (pa != pb) {
+                // the next characters must not combine with these ones in a way the table doesn't know about
+                if (i+1 < alen && (a.charAt(i+1) >= 128 || primary[a.charAt(i+1)] == 0) ||
+                        i+1 < blen && (b.charAt(i+1) >= 128 || primary[b.charAt(i+1)] == 0)) {
+                    return collator.compare(a, b);
+                }
+                return (pa < pb ? -1 : +1);
+            }
+            if (secondaryResult == 0) {
+                if (secondary[ca] != secondary[cb]) {
+                    secondaryResult = (secondary[ca] < secondary[cb] ? -1 : +1);
+                } else if (tertiaryResult == 0 && tertiary[ca] != tertiary[cb]) {
+                    tertiaryResult = (tertiary[ca] < tertiary[cb] ? -1 : +1);
+                }
+            }
+        }
+        if (alen != blen) {
+            if (!isApplicable(alen > blen ? a : b, common)) {
+                return collator.compare(a, b);
+            }
+            return (alen < blen ? -1 : +1);
+        }
+        if (secondaryResult != 0) {
+            return secondaryResult;
+        }
+        if (tertiaryResult != 0) {
+            return tertiaryResult;
+        }
+        if (identical) {
+            return sign(a.compareTo(b));
+        }
+        return 0;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -72,6 +72,14 @@ public class AtomicSortComparer implements AtomicComparer {
         this.conversionContext = context;
     }
 
+    /**
+     * Get the collation used by this comparer to compare strings
+     */
+
+    public Comparator getCollator() {
+        return collator;
+    }
+
     /**
     * Compare two AtomicValue objects according to the rules for their data type. UntypedAtomic
     * values are compared as if they were strings; if different semantics are wanted, the conversion
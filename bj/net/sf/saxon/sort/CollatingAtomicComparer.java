@@ -3,6 +3,7 @@ import net.sf.saxon.Platform;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.value.AtomicValue;
 
+import java.text.RuleBasedCollator;
 import java.util.Comparator;
 
 /**
@@ -20,6 +21,8 @@ public class CollatingAtomicComparer implements AtomicComparer {
     private Comparator collator;
     private Platform platform;
     private boolean canReturnCollationKeys;
+    private boolean canSortOnCollationKeys;
+    private transient AsciiCollationTable asciiTable;
 
     /**
      * Create an GenericAtomicComparer
@@ -34,6 +37,16 @@ public class CollatingAtomicComparer implements AtomicComparer {
         }
         this.platform = platform;
         canReturnCollationKeys = platform.canReturnCollationKeys(this.collator);
+        canSortOnCollationKeys = canReturnCollationKeys && hasOrderedCollationKeys(this.collator);
+        asciiTable = AsciiCollationTable.getTable(this.collator);
+    }
+
+    /**
+     * Get the collation used by this comparer
+     */
+
+    public Comparator getCollator() {
+        return collator;
     }
 
 
@@ -62,7 +75,19 @@ public class CollatingAtomicComparer implements AtomicComparer {
             return +1;
         }
 
-        return collator.compare(((AtomicValue)a).getStringValue(), ((AtomicValue)b).getStringValue());
+        return compareStrings(((AtomicValue)a).getStringValue(), ((AtomicValue)b).getStringValue());
+    }
+
+    /**
+     * Compare two strings using the collation, taking a fast path when both strings contain only
+     * ASCII characters for which the collation's weights are known in advance
+     */
+
+    private int compareStrings(String a, String b) {
+        if (asciiTable != null) {
+            return asciiTable.compare(a, b, collator);
+        }
+        return collator.compare(a, b);
     }
 
     /**
@@ -88,10 +113,89 @@ public class CollatingAtomicComparer implements AtomicComparer {
     */
 
     public ComparisonKey getComparisonKey(AtomicValue a) {
+        return new ComparisonKey(Type.STRING, getCollationKey(a));
+    }
+
+    /**
+     * Get a collation key for a value. Collation keys are equal if and only if the values are equal. If
+     * {@link #canSortOnCollationKeys} returns true, collation keys obtained from this comparer can also be
+     * compared with each other using the {@link #compareCollationKeys} method, giving the same result as
+     * comparing the original values using the {@link #compare} method, but more quickly: this allows a sort
+     * to compute the collation key of each value once, rather than once for each comparison.
+     * @param a the value. This must not be null.
+     * @return the collation key of the value; or the value itself, if the collation cannot
+     * return collation keys.
+     */
+
+    public Object getCollationKey(AtomicValue a) {
         if (canReturnCollationKeys) {
-            return new ComparisonKey(Type.STRING, platform.getCollationKey(collator, a.getStringValue()));
+            return platform.getCollationKey(collator, a.getStringValue());
+        } else {
+            return a.getStringValue();
+        }
+    }
+
+    /**
+     * Determine whether this comparer is able to return collation keys that are cheaper to compare
+     * than the original values
+     */
+
+    public boolean canReturnCollationKeys() {
+        return canReturnCollationKeys;
+    }
+
+    /**
+     * Determine whether the collation keys returned by this comparer are known to sort in the same order
+     * as the values themselves
+     */
+
+    public boolean canSortOnCollationKeys() {
+        return canSortOnCollationKeys;
+    }
+
+    /**
+     * Determine whether the collation keys of a collation are known to sort in the same order as the
+     * results of its compare() method. This is not always the case for a JDK RuleBasedCollator whose rules
+     * request French secondary ordering (accents compared from the end of the string), as the rules for
+     * the French locales do; collators of any other kind are not trusted either.
+     */
+
+    private static boolean hasOrderedCollationKeys(Comparator collator) {
+        if (collator instanceof CodepointCollator) {
+            return true;
+        } else if (collator instanceof RuleBasedCollator) {
+            // the '@' modifier requests French secondary ordering
+            return ((RuleBasedCollator)collator).getRules().indexOf('@') < 0;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Determine whether a value can be compared using the fast path for ASCII strings, in which
+     * case there is nothing to be gained by computing its collation key
+     */
+
+    public boolean isAsciiComparable(AtomicValue a) {
+        return asciiTable != null && asciiTable.isApplicable(a.getStringValue());
+    }
+
+    /**
+     * Compare two collation keys obtained using {@link #getCollationKey}. A null key (representing an
+     * empty sequence) sorts before any other key.
+     */
+
+    public int compareCollationKeys(Object a, Object b) {
+        if (a == null) {
+            return (b == null ? 0 : -1);
+        } else if (b == null) {
+            return +1;
+        }
+        if (a instanceof String) {
+            // the codepoint collation uses the string itself as the key
+            return compareStrings((String)a, (String)b);
         } else {
-            return new ComparisonKey(Type.STRING, a.getStringValue());
+            return ((Comparable)a).compareTo(b);
         }
     }
 
@@ -14,6 +14,14 @@ public class DescendingComparer implements Comparator, java.io.Serializable {
         baseComparer = base;
     }
 
+    /**
+     * Get the underlying (ascending) comparer
+     */
+
+    public Comparator getBaseComparer() {
+        return baseComparer;
+    }
+
     /**
     * Compare two objects.
     * @return <0 if a<b, 0 if a=b, >0 if a>b
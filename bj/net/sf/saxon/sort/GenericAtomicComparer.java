@@ -5,6 +5,7 @@ import net.sf.saxon.type.Type;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.CalendarValue;
+import net.sf.saxon.value.IntegerValue;
 import net.sf.saxon.value.StringValue;
 import net.sf.saxon.value.UntypedAtomicValue;
 
@@ -24,6 +25,7 @@ public class GenericAtomicComparer implements AtomicComparer, Comparator, java.i
 
     private Comparator collator;
     private XPathContext conversionContext;
+    private transient AsciiCollationTable asciiTable;
 
     /**
      * Create an GenericAtomicComparer
@@ -37,6 +39,7 @@ public class GenericAtomicComparer implements AtomicComparer, Comparator, java.i
             this.collator = CodepointCollator.getInstance();
         }
         this.conversionContext = conversion;
+        asciiTable = AsciiCollationTable.getTable(this.collator);
     }
 
     public GenericAtomicComparer(Comparator collator, Configuration config) {
@@ -45,6 +48,7 @@ public class GenericAtomicComparer implements AtomicComparer, Comparator, java.i
             this.collator = CodepointCollator.getInstance();
         }
         this.conversionContext = config.getConversionContext();
+        asciiTable = AsciiCollationTable.getTable(this.collator);
     }
 
     /**
@@ -130,12 +134,24 @@ public class GenericAtomicComparer implements AtomicComparer, Comparator, java.i
         } else if (a instanceof Comparable) {
             return ((Comparable)a).compareTo(b);
         } else if (a instanceof StringValue) {
-            return collator.compare(((StringValue)a).getStringValue(), ((StringValue)b).getStringValue());
+            return compareStrings(((StringValue)a).getStringValue(), ((StringValue)b).getStringValue());
         } else {
             throw new ClassCastException("Objects are not comparable (" + a.getClass() + ", " + b.getClass() + ')');
         }
     }
 
+    /**
+     * Compare two strings using the collation, taking a fast path when both strings contain only
+     * ASCII characters for which the collation's weights are known in advance
+     */
+
+    private int compareStrings(String a, String b) {
+        if (asciiTable != null) {
+            return asciiTable.compare(a, b, collator);
+        }
+        return collator.compare(a, b);
+    }
+
     /**
     * Compare two AtomicValue objects for equality according to the rules for their data type. UntypedAtomic
     * values are compared by converting to the type of the other operand.
@@ -154,12 +170,15 @@ public class GenericAtomicComparer implements AtomicComparer, Comparator, java.i
         a = ((AtomicValue)a).getPrimitiveValue();
         b = ((AtomicValue)b).getPrimitiveValue();
 
-        if (a instanceof UntypedAtomicValue) {
+        if (a instanceof IntegerValue && b instanceof IntegerValue) {
+            // the commonest case: avoid the generic numeric comparison
+            return ((IntegerValue)a).longValue() == ((IntegerValue)b).longValue();
+        } else if (a instanceof UntypedAtomicValue) {
             return ((UntypedAtomicValue)a).compareTo(b, collator, conversionContext) == 0;
         } else if (b instanceof UntypedAtomicValue) {
             return ((UntypedAtomicValue)b).compareTo(a, collator, conversionContext) == 0;
         } else if (a instanceof StringValue) {
-            return collator.compare(((StringValue)a).getStringValue(), ((StringValue)b).getStringValue()) == 0;
+            return compareStrings(((StringValue)a).getStringValue(), ((StringValue)b).getStringValue()) == 0;
         } else if (a instanceof CalendarValue && b instanceof CalendarValue) {
             return ((CalendarValue)a).compareTo((CalendarValue)b, conversionContext.getConfiguration()) == 0;
 //        } else if (a instanceof String) {
@@ -92,6 +92,7 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     private void buildIndexedGroups() throws XPathException {
         HashMap index = new HashMap(40);
+        HashMap stringIndex = (comparer instanceof CollatingAtomicComparer ? new HashMap(40) : null);
         XPathContext c2 = keyContext.newMinorContext();
         c2.setCurrentIterator(population);
         c2.setOriginatingConstructType(Location.GROUPING_KEY);
@@ -107,8 +108,22 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
                 if (key==null) {
                     break;
                 }
-                ComparisonKey comparisonKey = comparer.getComparisonKey(key);
-                ArrayList g = (ArrayList) index.get(comparisonKey);
+                ComparisonKey comparisonKey = null;
+                ArrayList g = null;
+                String keyString = null;
+                if (stringIndex != null) {
+                    // identical strings are always equal under the collation, so a collation key
+                    // is needed only for the first occurrence of each string
+                    keyString = key.getStringValue();
+                    g = (ArrayList)stringIndex.get(keyString);
+                }
+                if (g == null) {
+                    comparisonKey = comparer.getComparisonKey(key);
+                    g = (ArrayList) index.get(comparisonKey);
+                    if (stringIndex != null && g != null) {
+                        stringIndex.put(keyString, g);
+                    }
+                }
                 if (g == null) {
                     ArrayList newGroup = new ArrayList(20);
                     newGroup.add(item);
@@ -116,6 +131,9 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
                     groupKeys.add(key);
                     initialItems.add(item);
                     index.put(comparisonKey, newGroup);
+                    if (stringIndex != null) {
+                        stringIndex.put(keyString, newGroup);
+                    }
                 } else {
                     if (firstKey) {
                         g.add(item);
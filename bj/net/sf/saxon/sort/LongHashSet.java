@@ -0,0 +1,162 @@
+package net.sf.saxon.sort;
+
+import java.io.Serializable;
+
+/**
+ * Set of long values. This is the counterpart of {@link IntHashSet} for values of type long: it
+ * holds the values in a single array, using open addressing, so that adding a value does not
+ * require a boxed Long or a hash table entry to be allocated. Unlike IntHashSet, there is no
+ * value that cannot be added to the set.
+ * <p/>
+ * Not thread safe.
+ */
+
+public class LongHashSet implements Serializable {
+
+    // The value used to mark an unused slot in the table. If this value is itself a member of the
+    // set, this is recorded separately.
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] values;
+    private int size = 0;           // number of values in the table
+    private int shift;              // 64 - log2(values.length)
+    private int limit;              // the table is enlarged when size exceeds this
+    private boolean containsEmpty = false;
+
+    /**
+     * Create a set with a default initial capacity
+     */
+
+    public LongHashSet() {
+        this(8);
+    }
+
+    /**
+     * Create a set with a given initial capacity
+     * @param capacity the number of values that can be held without enlarging the table
+     */
+
+    public LongHashSet(int capacity) {
+        int n = 16;
+        int nbit = 4;
+        while (n < capacity * 2 && n < (1<<30)) {
+            n *= 2;
+            nbit++;
+        }
+        allocate(n, nbit);
+    }
+
+    private void allocate(int n, int nbit) {
+        values = new long[n];
+        java.util.Arrays.fill(values, EMPTY);
+        shift = 64 - nbit;
+        limit = n / 2;
+    }
+
+    /**
+     * Get the number of values in the set
+     */
+
+    public int size() {
+        return size + (containsEmpty ? 1 : 0);
+    }
+
+    /**
+     * Ask whether the set contains a given value
+     */
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        return values[indexOf(value)] != EMPTY;
+    }
+
+    /**
+     * Add a value to the set
+     * @param value the value to be added
+     * @return true if the value was added; false if it was already present
+     */
+
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            return true;
+        }
+        int i = indexOf(value);
+        if (values[i] != EMPTY) {
+            return false;
+        }
+        values[i] = value;
+        if (++size > limit) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Get the values in the set, in no particular order
+     */
+
+    public long[] getValues() {
+        long[] result = new long[size()];
+        int n = 0;
+        if (containsEmpty) {
+            result[n++] = EMPTY;
+        }
+        for (int i=0; i<values.length; i++) {
+            if (values[i] != EMPTY) {
+                result[n++] = values[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the index of the slot containing a value, or of the empty slot where it should be added
+     */
+
+    private int indexOf(long value) {
+        // Fibonacci hashing: take the top bits of the product with 2^64 divided by the golden ratio
+        int mask = values.length - 1;
+        int i = (int)((value * 0x9E3779B97F4A7C15L) >>> shift);
+        while (true) {
+            long v = values[i];
+            if (v == value || v == EMPTY) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash() {
+        long[] old = values;
+        allocate(old.length * 2, 65 - shift);
+        for (int i=0; i<old.length; i++) {
+            if (old[i] != EMPTY) {
+                values[indexOf(old[i])] = old[i];
+            }
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
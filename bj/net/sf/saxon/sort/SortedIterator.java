@@ -7,6 +7,7 @@ import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trace.Location;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.AtomicValue;
 
 import java.util.Comparator;
 
@@ -192,6 +193,7 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Sor
     private void doSort() throws XPathException {
         buildArray();
         if (count<2) return;
+        useCollationKeys();
 
         // sort the array
 
@@ -210,6 +212,77 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Sor
         //GenericSorter.mergeSort(0, count, this);
     }
 
+    /**
+     * For each sort key that is compared using a collation, replace the values of the sort key by their
+     * collation keys, so that the collation is applied once to each value rather than once to each value
+     * in every comparison. This is not done if all the values are ASCII strings that can be compared using
+     * the fast path in the comparer, or if the collation cannot supply collation keys that are known to sort
+     * in the same order as the values.
+     */
+
+    private void useCollationKeys() {
+        Comparator[] comps = comparators;
+        for (int n=0; n<sortkeys.length; n++) {
+            Comparator comp = comparators[n];
+            boolean descending = false;
+            if (comp instanceof DescendingComparer) {
+                comp = ((DescendingComparer)comp).getBaseComparer();
+                descending = true;
+            }
+            if (!(comp instanceof CollatingAtomicComparer &&
+                    ((CollatingAtomicComparer)comp).canSortOnCollationKeys())) {
+                continue;
+            }
+            CollatingAtomicComparer collating = (CollatingAtomicComparer)comp;
+            boolean allAscii = true;
+            boolean allAtomic = true;
+            for (int k=n+1; k<count*recordSize; k+=recordSize) {
+                Object v = nodeKeys[k];
+                if (v != null) {
+                    if (!(v instanceof AtomicValue)) {
+                        allAtomic = false;
+                        break;
+                    }
+                    if (allAscii && !collating.isAsciiComparable((AtomicValue)v)) {
+                        allAscii = false;
+                    }
+                }
+            }
+            if (allAscii || !allAtomic) {
+                continue;
+            }
+            for (int k=n+1; k<count*recordSize; k+=recordSize) {
+                if (nodeKeys[k] != null) {
+                    nodeKeys[k] = collating.getCollationKey((AtomicValue)nodeKeys[k]);
+                }
+            }
+            if (comps == comparators) {
+                comps = new Comparator[comparators.length];
+                System.arraycopy(comparators, 0, comps, 0, comparators.length);
+            }
+            comp = new CollationKeyComparer(collating);
+            comps[n] = (descending ? new DescendingComparer(comp) : comp);
+        }
+        comparators = comps;
+    }
+
+    /**
+     * A Comparator that compares the collation keys obtained from a CollatingAtomicComparer
+     */
+
+    private static class CollationKeyComparer implements Comparator {
+
+        private CollatingAtomicComparer comparer;
+
+        public CollationKeyComparer(CollatingAtomicComparer comparer) {
+            this.comparer = comparer;
+        }
+
+        public int compare(Object a, Object b) {
+            return comparer.compareCollationKeys(a, b);
+        }
+    }
+
     /**
     * Compare two items in sorted sequence
     * (needed to implement the Sortable interface)
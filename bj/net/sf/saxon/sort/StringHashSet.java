@@ -0,0 +1,168 @@
+package net.sf.saxon.sort;
+
+import java.io.Serializable;
+
+/**
+ * Set of strings, compared by codepoints. The strings are held in a single array, using open
+ * addressing, with their hash codes in a parallel array, so that adding a string does not require
+ * a hash table entry to be allocated, and most unequal strings are distinguished by comparing
+ * their hash codes. A string can be supplied as any CharSequence: it is converted to a String only
+ * when it is added to the set, so testing a value that is already present allocates nothing.
+ * <p/>
+ * Not thread safe.
+ */
+
+public class StringHashSet implements Serializable {
+
+    private String[] keys;
+    private int[] hashes;
+    private int size = 0;
+    private int limit;
+
+    /**
+     * Create a set with a default initial capacity
+     */
+
+    public StringHashSet() {
+        this(8);
+    }
+
+    /**
+     * Create a set with a given initial capacity
+     * @param capacity the number of strings that can be held without enlarging the table
+     */
+
+    public StringHashSet(int capacity) {
+        int n = 16;
+        while (n < capacity * 2 && n < (1<<30)) {
+            n *= 2;
+        }
+        allocate(n);
+    }
+
+    private void allocate(int n) {
+        keys = new String[n];
+        hashes = new int[n];
+        limit = n / 2;
+    }
+
+    /**
+     * Get the number of strings in the set
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Ask whether the set contains a given string
+     */
+
+    public boolean contains(CharSequence s) {
+        return keys[indexOf(s, hash(s))] != null;
+    }
+
+    /**
+     * Add a string to the set
+     * @param s the string to be added
+     * @return true if the string was added; false if it was already present
+     */
+
+    public boolean add(CharSequence s) {
+        int h = hash(s);
+        int i = indexOf(s, h);
+        if (keys[i] != null) {
+            return false;
+        }
+        keys[i] = s.toString();
+        hashes[i] = h;
+        if (++size > limit) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Compute the hash code of a CharSequence. This is the same as String.hashCode(), which
+     * a String caches.
+     */
+
+    private static int hash(CharSequence s) {
+        if (s instanceof String) {
+            return s.hashCode();
+        }
+        int h = 0;
+        for (int i=0, len=s.length(); i<len; i++) {
+            h = 31*h + s.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * Get the index of the slot containing a string, or of the empty slot where it should be added
+     */
+
+    private int indexOf(CharSequence s, int h) {
+        int mask = keys.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (true) {
+            String k = keys[i];
+            if (k == null || (hashes[i] == h && equal(k, s))) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static boolean equal(String k, CharSequence s) {
+        if (s instanceof String) {
+            return k.equals(s);
+        }
+        int len = k.length();
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i=0; i<len; i++) {
+            if (k.charAt(i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j=0; j<oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int h = oldHashes[j];
+                int i = (h ^ (h >>> 16)) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                hashes[i] = h;
+            }
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -126,7 +126,9 @@ public abstract class StandardNames {
     public static final String SAXON_INDENT_SPACES = SAXON_B + "indent-spaces";
     public static final String SAXON_NEXT_IN_CHAIN = SAXON_B + "next-in-chain";
     public static final String SAXON_REQUIRE_WELL_FORMED = SAXON_B + "require-well-formed";
+    public static final String SAXON_ASYNC_OUTPUT = SAXON_B + "async-output";
     public static final String SAXON_MEMO_FUNCTION = SAXON_B + "memo-function";
+    public static final String SAXON_THREADS = SAXON_B + "threads";
 
     // Not sure about this one...
     public static final int SAXON_JAVA_LANG_OBJECT = SAXON + 29;
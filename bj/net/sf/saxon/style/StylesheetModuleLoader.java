@@ -0,0 +1,392 @@
+package net.sf.saxon.style;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.om.AttributeCollection;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.AxisIterator;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.StaticError;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.DocumentImpl;
+import net.sf.saxon.tree.ElementImpl;
+import net.sf.saxon.type.Type;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A StylesheetModuleLoader fetches and parses the modules of a stylesheet in parallel. It is used when
+ * more than one compiler thread is requested (see {@link Configuration#setCompilerThreads}).
+ *
+ * <p>As soon as a module has been parsed, the modules named in its xsl:include and xsl:import
+ * declarations are queued to be loaded, and a pool of threads works through the queue. Meanwhile the
+ * compiling thread processes the modules in the usual order: when it reaches an xsl:include or
+ * xsl:import, it takes the module that has been loaded for that declaration, waiting for it if
+ * necessary, or loading it itself if no other thread has started on it. Errors in fetching or parsing a
+ * module, and any errors and warnings reported while building its tree, are held until the compiling
+ * thread takes the module, so they are reported in the same order as when compiling on a single thread.</p>
+ *
+ * <p>Calls on the URIResolver are serialized, since a user-supplied URIResolver need not be thread-safe.</p>
+ */
+
+public class StylesheetModuleLoader {
+
+    private PreparedStylesheet pss;
+    private Configuration config;
+    private HashMap modules = new HashMap(50);     // XSLGeneralIncorporate -> Module
+    private LinkedList queue = new LinkedList();    // Modules waiting to be loaded
+    private boolean closed = false;
+
+    /**
+     * Create a StylesheetModuleLoader, and start its threads
+     * @param pss the stylesheet being compiled
+     * @param threads the number of threads to be used, including the compiling thread
+     */
+
+    public StylesheetModuleLoader(PreparedStylesheet pss, int threads) {
+        this.pss = pss;
+        config = pss.getConfiguration();
+        // make sure that objects created lazily by the Configuration exist before the threads start
+        config.getTypeHierarchy();
+        config.getOptimizer();
+        for (int w=0; w<threads-1; w++) {
+            Thread t = new Thread(new Worker(), "stylesheet-loader-" + w);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Queue the modules named in the xsl:include and xsl:import declarations of the principal
+     * stylesheet module
+     * @param doc the principal stylesheet module
+     */
+
+    public void loadIncludedModules(DocumentImpl doc) {
+        schedule(doc, null);
+    }
+
+    /**
+     * Queue the modules named in the xsl:include and xsl:import declarations of a stylesheet module
+     * @param doc the document containing the stylesheet module
+     * @param parent the Module for this document, or null if it is the principal module
+     */
+
+    private void schedule(DocumentImpl doc, Module parent) {
+        ElementImpl top = doc.getDocumentElement();
+        if (!(top instanceof XSLStylesheet)) {
+            return;
+        }
+        AxisIterator kids = top.iterateAxis(Axis.CHILD);
+        while (true) {
+            NodeInfo child = (NodeInfo)kids.next();
+            if (child == null) {
+                break;
+            }
+            if (child.getNodeKind() == Type.ELEMENT && child instanceof XSLGeneralIncorporate) {
+                XSLGeneralIncorporate inc = (XSLGeneralIncorporate)child;
+                AttributeCollection atts = inc.getAttributeList();
+                String href = atts.getValue("", "href");
+                if (href == null) {
+                    continue;
+                }
+                href = href.trim();
+                if (href.length() == 0 || href.indexOf('#') >= 0) {
+                    // leave the compiling thread to deal with fragment identifiers and errors
+                    continue;
+                }
+                Module m = new Module(href, inc.getBaseURI(), parent, doc.getSystemId());
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    modules.put(inc, m);
+                    queue.addLast(m);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the module that has been loaded for an xsl:include or xsl:import declaration. If no other
+     * thread has started loading the module, it is loaded on the calling thread.
+     * @param inc the xsl:include or xsl:import element
+     * @return the loaded Module, or null if the module has not been queued for loading
+     */
+
+    public Module take(XSLGeneralIncorporate inc) {
+        Module m;
+        boolean loadHere = false;
+        synchronized (this) {
+            m = (Module)modules.remove(inc);
+            if (m == null) {
+                return null;
+            }
+            if (queue.remove(m)) {
+                loadHere = true;
+            }
+        }
+        if (loadHere) {
+            m.load();
+        } else {
+            m.waitUntilLoaded();
+        }
+        return m;
+    }
+
+    /**
+     * Stop the threads. Any modules that have not yet been loaded are discarded.
+     */
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        modules.clear();
+        notifyAll();
+    }
+
+    /**
+     * A thread that loads modules from the queue
+     */
+
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                Module m;
+                synchronized (StylesheetModuleLoader.this) {
+                    while (queue.isEmpty() && !closed) {
+                        try {
+                            StylesheetModuleLoader.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    m = (Module)queue.removeFirst();
+                }
+                m.load();
+            }
+        }
+    }
+
+    /**
+     * A stylesheet module named in an xsl:include or xsl:import declaration, together with the outcome
+     * of loading it
+     */
+
+    public class Module {
+
+        private String href;
+        private String baseURI;
+        private Module parent;
+        private String principalSystemId;
+        private boolean loaded = false;
+        private Source source;
+        private XPathException resolutionError;
+        private DocumentImpl doc;
+        private XPathException parseError;
+        private RuntimeException failure;
+        private StyleNodeFactory nodeFactory;
+        private DiagnosticBuffer diagnostics = new DiagnosticBuffer();
+
+        private Module(String href, String baseURI, Module parent, String principalSystemId) {
+            this.href = href;
+            this.baseURI = baseURI;
+            this.parent = parent;
+            this.principalSystemId = (parent == null ? principalSystemId : parent.principalSystemId);
+        }
+
+        /**
+         * Fetch and parse the module, and queue the modules that it includes or imports
+         */
+
+        private void load() {
+            try {
+                URIResolver resolver = pss.getURIResolver();
+                try {
+                    synchronized (resolver) {
+                        source = resolver.resolve(href, baseURI);
+                    }
+                    if (source == null) {
+                        source = config.getSystemURIResolver().resolve(href, baseURI);
+                    }
+                } catch (TransformerException e) {
+                    resolutionError = StaticError.makeStaticError(e);
+                }
+                if (source != null && !isRecursive(source.getSystemId())) {
+                    nodeFactory = new StyleNodeFactory(config, diagnostics);
+                    try {
+                        doc = PreparedStylesheet.loadStylesheetModule(
+                                source, config, config.getNamePool(), nodeFactory, diagnostics);
+                    } catch (XPathException e) {
+                        parseError = e;
+                    }
+                }
+                if (doc != null) {
+                    // queue the modules that this one refers to before the compiling thread can look for them
+                    schedule(doc, this);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    loaded = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Determine whether a module is the same as one of the modules that (directly or indirectly)
+         * include it. Such a module is not loaded, leaving the compiling thread to report the error.
+         */
+
+        private boolean isRecursive(String systemId) {
+            if (systemId == null) {
+                return false;
+            }
+            if (systemId.equals(principalSystemId)) {
+                return true;
+            }
+            for (Module m = parent; m != null; m = m.parent) {
+                if (m.source != null && systemId.equals(m.source.getSystemId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized void waitUntilLoaded() {
+            while (!loaded) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Get the Source of the module, as returned by the URIResolver
+         * @throws XPathException if the URIResolver reported an error
+         */
+
+        public Source getSource() throws XPathException {
+            if (failure != null) {
+                throw failure;
+            }
+            if (resolutionError != null) {
+                throw resolutionError;
+            }
+            return source;
+        }
+
+        /**
+         * Get the tree representing the module, reporting any errors and warnings that were issued
+         * while it was built
+         * @param listener the ErrorListener to which errors and warnings are to be reported
+         * @return the document, or null if the module was not loaded (in which case the caller should
+         * load it)
+         * @throws XPathException if parsing the module failed
+         */
+
+        public DocumentImpl getDocument(ErrorListener listener) throws XPathException {
+            diagnostics.replay(listener);
+            if (parseError != null) {
+                throw parseError;
+            }
+            return doc;
+        }
+
+        /**
+         * Get the StyleNodeFactory that was used to build the tree
+         */
+
+        public StyleNodeFactory getNodeFactory() {
+            return nodeFactory;
+        }
+    }
+
+    /**
+     * An ErrorListener that retains the errors and warnings reported while a module is being built,
+     * so that they can be reported later by the compiling thread
+     */
+
+    private static class DiagnosticBuffer implements ErrorListener {
+
+        private static final int WARNING = 0;
+        private static final int ERROR = 1;
+        private static final int FATAL_ERROR = 2;
+
+        private List diagnostics = new ArrayList(2);
+        private List severities = new ArrayList(2);
+
+        public void warning(TransformerException exception) {
+            add(exception, WARNING);
+        }
+
+        public void error(TransformerException exception) {
+            add(exception, ERROR);
+        }
+
+        public void fatalError(TransformerException exception) {
+            add(exception, FATAL_ERROR);
+        }
+
+        private synchronized void add(TransformerException exception, int severity) {
+            diagnostics.add(exception);
+            severities.add(new Integer(severity));
+        }
+
+        public synchronized void replay(ErrorListener listener) {
+            for (int i=0; i<diagnostics.size(); i++) {
+                TransformerException err = (TransformerException)diagnostics.get(i);
+                try {
+                    switch (((Integer)severities.get(i)).intValue()) {
+                        case WARNING:
+                            listener.warning(err);
+                            break;
+                        case ERROR:
+                            listener.error(err);
+                            break;
+                        default:
+                            listener.fatalError(err);
+                    }
+                } catch (TransformerException e) {
+                    // ignore an exception thrown by the error listener
+                }
+            }
+            diagnostics.clear();
+            severities.clear();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -19,6 +19,7 @@ import net.sf.saxon.value.EmptySequence;
 public class XSLForEach extends StyleElement {
 
     Expression select = null;
+    int threads = 0;
 
     /**
     * Determine whether this node is an instruction.
@@ -67,6 +68,16 @@ public class XSLForEach extends StyleElement {
 			String f = getNamePool().getClarkName(nc);
 			if (f==StandardNames.SELECT) {
         		selectAtt = atts.getValue(a);
+            } else if (f==StandardNames.SAXON_THREADS) {
+                String threadsAtt = atts.getValue(a).trim();
+                try {
+                    threads = Integer.parseInt(threadsAtt);
+                } catch (NumberFormatException err) {
+                    threads = -1;
+                }
+                if (threads < 1) {
+                    compileError("saxon:threads must be a positive integer", "XTSE0020");
+                }
         	} else {
         		checkUnknownAttribute(nc);
         	}
@@ -101,6 +112,7 @@ public class XSLForEach extends StyleElement {
         }
         try {
             ForEach inst = new ForEach(sortedSequence, block.simplify(getStaticContext()));
+            inst.setThreads(threads);
             ExpressionTool.makeParentReferences(inst);
             return inst;
         } catch (XPathException err) {
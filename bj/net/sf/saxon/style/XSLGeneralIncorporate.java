@@ -89,17 +89,29 @@ public abstract class XSLGeneralIncorporate extends StyleElement {
                 }
                 relative = relative.substring(0, hash);
             }
+            // If the module has already been loaded by another thread, use it
+
+            StylesheetModuleLoader loader = pss.getModuleLoader();
+            StylesheetModuleLoader.Module module = (loader == null ? null : loader.take(this));
+
             Source source;
-            try {
-                source = resolver.resolve(relative, getBaseURI());
-            } catch (TransformerException e) {
-                throw StaticError.makeStaticError(e);
-            }
+            if (module != null) {
+                source = module.getSource();
+            } else {
+                try {
+                    // the URIResolver may also be in use by threads loading other modules
+                    synchronized (resolver) {
+                        source = resolver.resolve(relative, getBaseURI());
+                    }
+                } catch (TransformerException e) {
+                    throw StaticError.makeStaticError(e);
+                }
 
-            // if a user URI resolver returns null, try the standard one
-            // (Note, the standard URI resolver never returns null)
-            if (source==null) {
-                source = config.getSystemURIResolver().resolve(relative, getBaseURI());
+                // if a user URI resolver returns null, try the standard one
+                // (Note, the standard URI resolver never returns null)
+                if (source==null) {
+                    source = config.getSystemURIResolver().resolve(relative, getBaseURI());
+                }
             }
 
             if (fragment != null) {
@@ -123,8 +135,14 @@ public abstract class XSLGeneralIncorporate extends StyleElement {
                 }
             }
 
-            StyleNodeFactory snFactory = new StyleNodeFactory(config, getPreparedStylesheet().getErrorListener());
-            includedDoc = PreparedStylesheet.loadStylesheetModule(source, config, getNamePool(), snFactory);
+            StyleNodeFactory snFactory;
+            includedDoc = (module == null ? null : module.getDocument(pss.getErrorListener()));
+            if (includedDoc != null) {
+                snFactory = module.getNodeFactory();
+            } else {
+                snFactory = new StyleNodeFactory(config, getPreparedStylesheet().getErrorListener());
+                includedDoc = PreparedStylesheet.loadStylesheetModule(source, config, getNamePool(), snFactory);
+            }
 
             // allow the included document to use "Literal Result Element as Stylesheet" syntax
 
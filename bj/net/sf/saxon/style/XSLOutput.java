@@ -37,6 +37,7 @@ public class XSLOutput extends StyleElement {
     private String escapeURIAttributes = null;
     private String normalizationForm = null;
     private String requireWellFormed = null;
+    private String asyncOutput = null;
     private String undeclareNamespaces = null;
     private String useCharacterMaps = null;
     private HashMap userAttributes = null;
@@ -92,6 +93,8 @@ public class XSLOutput extends StyleElement {
         		nextInChain = atts.getValue(a).trim();
             } else if (f==StandardNames.SAXON_REQUIRE_WELL_FORMED) {
                 requireWellFormed = atts.getValue(a).trim();
+            } else if (f==StandardNames.SAXON_ASYNC_OUTPUT) {
+                asyncOutput = atts.getValue(a).trim();
         	} else {
         	    String attributeURI = getNamePool().getURI(nc);
         	    if ("".equals(attributeURI) ||
@@ -335,6 +338,15 @@ public class XSLOutput extends StyleElement {
             }
         }
 
+        if (asyncOutput != null) {
+            if (asyncOutput.equals("yes") || asyncOutput.equals("no")) {
+                checkAndPut(SaxonOutputKeys.ASYNC_OUTPUT, asyncOutput, details, precedences);
+            } else {
+                compileWarning("saxon:async-output value must be 'yes' or 'no' (treated as no)",
+                        SaxonErrorCode.SXWN9009);
+            }
+        }
+
         // deal with user-defined attributes
 
         if (userAttributes!=null) {
@@ -50,6 +50,7 @@ public class XSLResultDocument extends StyleElement {
         fans.add(StandardNames.SAXON_CHARACTER_REPRESENTATION);
         fans.add(StandardNames.SAXON_INDENT_SPACES);
         fans.add(StandardNames.SAXON_REQUIRE_WELL_FORMED);
+        fans.add(StandardNames.SAXON_ASYNC_OUTPUT);
     }
 
     private Expression href;
@@ -2,14 +2,20 @@ package net.sf.saxon.style;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.codegen.ExpressionCompiler;
+import net.sf.saxon.event.ProjectionSpecification;
 import net.sf.saxon.event.SaxonOutputKeys;
 import net.sf.saxon.value.Whitespace;
 import net.sf.saxon.expr.ComputedExpression;
 import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.ProjectionAnalyzer;
 import net.sf.saxon.expr.CollationMap;
 import net.sf.saxon.functions.*;
 import net.sf.saxon.instruct.Executable;
 import net.sf.saxon.instruct.LocationMap;
+import net.sf.saxon.instruct.ParallelGlobalEvaluator;
+import net.sf.saxon.instruct.Template;
+import net.sf.saxon.instruct.UserFunction;
 import net.sf.saxon.om.*;
 import net.sf.saxon.query.XQueryFunction;
 import net.sf.saxon.query.XQueryFunctionLibrary;
@@ -108,6 +114,10 @@ public class XSLStylesheet extends StyleElement {
     // flag: saxon:allow-all-built-in-types is set to true
     private boolean allowsAllBuiltInTypes = false;
 
+    // templates whose bodies are to be optimized in parallel, once all top-level declarations have been
+    // compiled; null unless parallel compilation has been requested
+    private List deferredTemplates = null;
+
     /**
      * Create link to the owning PreparedStylesheet object
      */
@@ -421,6 +431,22 @@ public class XSLStylesheet extends StyleElement {
         }
     }
 
+    /**
+     * Ask whether the optimization of a template body should be deferred, so that it can be done in
+     * parallel with the optimization of other templates. If the answer is yes, the template is
+     * remembered, and its optimizeBody() and completeCompilation() methods will be called later.
+     * @param template the template being compiled
+     * @return true if the optimization is deferred
+     */
+
+    public boolean deferOptimization(XSLTemplate template) {
+        if (deferredTemplates == null) {
+            return false;
+        }
+        deferredTemplates.add(template);
+        return true;
+    }
+
     /**
      * Prepare the attributes on the stylesheet element
      */
@@ -1006,6 +1032,59 @@ public class XSLStylesheet extends StyleElement {
         }
     }
 
+    /**
+     * Analyze the compiled templates and global variables to determine which parts of the
+     * source documents the stylesheet can reach
+     * @return the projection specification, or null if no useful projection is possible
+     */
+
+    private ProjectionSpecification analyzeDocumentProjection() {
+        ProjectionAnalyzer analyzer = new ProjectionAnalyzer();
+        analyzer.analyzeGlobalVariables(exec);
+        for (int i = 0; i < topLevel.size(); i++) {
+            Object node = topLevel.get(i);
+            if (node instanceof XSLTemplate) {
+                XSLTemplate template = (XSLTemplate)node;
+                Expression body = template.getCompiledTemplate().getBody();
+                if (template.getMatchPattern() != null) {
+                    analyzer.analyzeTemplateRule(template.getMatchPattern(), body, template.isInDefaultMode());
+                }
+                if (template.getObjectFingerprint() != -1) {
+                    // a named template may be the entry point of the transformation
+                    analyzer.analyzeEntryPoint(body);
+                }
+            }
+        }
+        ProjectionSpecification spec = analyzer.getProjectionSpecification();
+        if (spec != null) {
+            spec.setProjectsPrincipalSource(analyzer.hasTemplateRuleForDocumentNode());
+        }
+        return spec;
+    }
+
+    /**
+     * Generate Java bytecode for the parts of the compiled templates and stylesheet functions
+     * for which this is possible
+     */
+
+    private void generateByteCode() {
+        ExpressionCompiler compiler = new ExpressionCompiler(getConfiguration());
+        for (int i = 0; i < topLevel.size(); i++) {
+            Object node = topLevel.get(i);
+            if (node instanceof XSLTemplate) {
+                Template template = ((XSLTemplate)node).getCompiledTemplate();
+                if (template != null) {
+                    compiler.compileProcedure(template);
+                }
+            } else if (node instanceof XSLFunction) {
+                UserFunction function = ((XSLFunction)node).getCompiledFunction();
+                if (function != null) {
+                    compiler.compileProcedure(function);
+                }
+            }
+        }
+    }
+
     /**
      * Get an imported schema with a given namespace
      * @param targetNamespace The target namespace of the required schema.
@@ -1046,6 +1125,14 @@ public class XSLStylesheet extends StyleElement {
                 compileError(e);
             }
 
+            // If parallel compilation has been requested, the bodies of templates are optimized
+            // after all the top-level declarations have been compiled, using several threads
+
+            int threads = getConfiguration().getCompilerThreads();
+            if (threads > 1) {
+                deferredTemplates = new ArrayList(topLevel.size());
+            }
+
             // Call compile method for each top-level object in the stylesheet
 
             for (int i = 0; i < topLevel.size(); i++) {
@@ -1061,6 +1148,37 @@ public class XSLStylesheet extends StyleElement {
                 }
             }
 
+            // Optimize the deferred template bodies, and then complete their compilation in the original
+            // order, so that errors are reported and template rules registered in the same order as when
+            // compiling on a single thread
+
+            if (deferredTemplates != null) {
+                List templates = deferredTemplates;
+                deferredTemplates = null;
+                new TemplateOptimizer(templates).run(threads, getConfiguration());
+                for (int i = 0; i < templates.size(); i++) {
+                    ((XSLTemplate)templates.get(i)).completeCompilation();
+                }
+            }
+
+            // Work out which parts of the source documents are used, if document projection is requested
+
+            if (getConfiguration().isDocumentProjection()) {
+                exec.setDocumentProjection(analyzeDocumentProjection());
+            }
+
+            // Find the global variables that can be evaluated in parallel, if requested
+
+            if (getConfiguration().getGlobalVariableThreads() > 1) {
+                exec.setParallelGlobalEvaluator(ParallelGlobalEvaluator.analyze(exec));
+            }
+
+            // Compile the templates and functions to bytecode, if requested
+
+            if (getConfiguration().isGenerateByteCode()) {
+                generateByteCode();
+            }
+
             // Fix up references to the default default decimal format
 
             if (exec.getDecimalFormatManager() != null) {
@@ -1181,6 +1299,83 @@ public class XSLStylesheet extends StyleElement {
         return null;
     }
 
+    /**
+     * Optimizes the bodies of a list of templates using several threads. Each thread takes the next
+     * template from the list until none remain.
+     */
+
+    private static class TemplateOptimizer implements Runnable {
+
+        private List templates;
+        private int next = 0;
+        private int active = 0;
+        private Throwable[] failures;
+
+        public TemplateOptimizer(List templates) {
+            this.templates = templates;
+            failures = new Throwable[templates.size()];
+        }
+
+        public void run(int threads, Configuration config) {
+            // make sure that objects created lazily by the Configuration exist before the threads start
+            config.getOptimizer();
+            config.getTypeHierarchy();
+            int workers = Math.min(threads, templates.size()) - 1;
+            synchronized (this) {
+                active = workers + 1;
+            }
+            for (int w=0; w<workers; w++) {
+                Thread t = new Thread(this, "template-optimizer-" + w);
+                t.setDaemon(true);
+                t.start();
+            }
+            run();
+            synchronized (this) {
+                while (active > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            // an unexpected exception is rethrown on this thread: the earliest, so that the outcome is repeatable
+            for (int i=0; i<failures.length; i++) {
+                if (failures[i] instanceof RuntimeException) {
+                    throw (RuntimeException)failures[i];
+                } else if (failures[i] instanceof java.lang.Error) {
+                    throw (java.lang.Error)failures[i];
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    int k;
+                    synchronized (this) {
+                        if (next >= templates.size()) {
+                            return;
+                        }
+                        k = next++;
+                    }
+                    try {
+                        ((XSLTemplate)templates.get(k)).optimizeBody();
+                    } catch (Throwable err) {
+                        synchronized (this) {
+                            failures[k] = err;
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    active--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
 }
 
 //
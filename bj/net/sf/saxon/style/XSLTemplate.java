@@ -14,6 +14,8 @@ import net.sf.saxon.value.EmptySequence;
 import net.sf.saxon.value.SequenceType;
 
 import javax.xml.transform.TransformerException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
 /**
@@ -38,6 +40,13 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
     private SequenceType requiredType = null;
     private boolean hasRequiredParams = false;
 
+    // state held between compile() and completeCompilation(), which may be separated by a
+    // phase in which the bodies of templates are optimized in parallel
+    private Expression compiledBody;
+    private ItemType bodyContextItemType;
+    private XPathException optimizationError;
+    private List deferredWarnings;
+
     /**
     * Determine whether this type of element is allowed to contain a template-body
     * @return true: yes, it may contain a template-body
@@ -325,19 +334,58 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
             contextItemType = match.getNodeTest();
         }
 
+        compiledBody = exp;
+        bodyContextItemType = contextItemType;
+        if (!getPrincipalStylesheet().deferOptimization(this)) {
+            optimizeBody();
+            completeCompilation();
+        }
+        return null;
+    }
+
+    /**
+     * Type-check and optimize the body of the template. This may be done on a thread other than the one
+     * compiling the stylesheet, at the same time as other templates are being optimized, so any error or
+     * warning is retained, to be reported by {@link #completeCompilation}.
+     */
 
+    void optimizeBody() {
+        deferredWarnings = new ArrayList(4);
         try {
             // We've already done the typecheck of each XPath expression, but it's worth doing again at this
             // level because we have more information now.
-            Expression exp2 = exp.typeCheck(staticContext, contextItemType);
-            exp2 = exp2.optimize(getConfiguration().getOptimizer(), staticContext, contextItemType);
-            if (exp != exp2) {
+            Expression exp2 = compiledBody.typeCheck(staticContext, bodyContextItemType);
+            exp2 = exp2.optimize(getConfiguration().getOptimizer(), staticContext, bodyContextItemType);
+            if (compiledBody != exp2) {
                 compiledTemplate.setBody(exp2);
-                exp = exp2;
+                compiledBody = exp2;
             }
         } catch (XPathException e) {
-            compileError(e);
+            optimizationError = e;
         }
+    }
+
+    /**
+     * Complete the compilation of the template after its body has been optimized: report any errors
+     * and warnings from the optimization, allocate slots for local variables, and register the template
+     * with the rule manager
+     */
+
+    void completeCompilation() throws XPathException {
+        List warnings = deferredWarnings;
+        deferredWarnings = null;
+        if (warnings != null) {
+            for (int i=0; i<warnings.size(); i++) {
+                issueWarning((TransformerException)warnings.get(i));
+            }
+        }
+        if (optimizationError != null) {
+            XPathException err = optimizationError;
+            optimizationError = null;
+            compileError(err);
+        }
+        Expression exp = compiledBody;
+        compiledBody = null;
         super.allocateSlots(exp);
         if (match!=null) {
             RuleManager mgr = getPrincipalStylesheet().getRuleManager();
@@ -357,8 +405,22 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
                     getLineNumber() + " in " + getSystemId() + ':');
             exp.display(10, System.err, getConfiguration());
         }
+    }
 
-        return null;
+    /**
+     * Report a warning. Warnings that arise while the body of the template is being optimized are
+     * retained until the optimization is complete.
+     */
+
+    protected void issueWarning(TransformerException error) {
+        if (deferredWarnings != null) {
+            if (error.getLocator() == null) {
+                error.setLocator(this);
+            }
+            deferredWarnings.add(error);
+        } else {
+            super.issueWarning(error);
+        }
     }
 
 
@@ -389,6 +451,33 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
         int highWater = ExpressionTool.allocateSlots(exp, 0, null);
         getContainingStylesheet().allocatePatternSlots(highWater);
     }
+    /**
+     * Get the match pattern of this template
+     * @return the match pattern, or null if the template has no match attribute
+     */
+
+    public Pattern getMatchPattern() {
+        return match;
+    }
+
+    /**
+     * Determine whether this template rule applies in the default mode
+     * @return true if the template has a match pattern and its mode list includes
+     * the default mode, either explicitly or by means of mode="#all"
+     */
+
+    public boolean isInDefaultMode() {
+        if (match == null) {
+            return false;
+        }
+        for (int i=0; i<modeNameCodes.length; i++) {
+            if (modeNameCodes[i] == Mode.DEFAULT_MODE || modeNameCodes[i] == Mode.ALL_MODES) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
     * Get the compiled template
     */
@@ -124,8 +124,15 @@ public class XPathEvaluator {
     */
 
     public XPathExpression createExpression(String expression) throws XPathException {
-        Expression exp = ExpressionTool.make(expression, staticContext,0,-1,1);
-        exp = exp.typeCheck(staticContext, Type.ITEM_TYPE);
+        Expression exp;
+        NamePool pool = staticContext.getNamePool();
+        pool.startPinning();
+        try {
+            exp = ExpressionTool.make(expression, staticContext,0,-1,1);
+            exp = exp.typeCheck(staticContext, Type.ITEM_TYPE);
+        } finally {
+            pool.endPinning();
+        }
         SlotManager map = staticContext.getConfiguration().makeSlotManager();
         ExpressionTool.allocateSlots(exp, 0, map);
         XPathExpression xpe = new XPathExpression(this, exp);
@@ -5,6 +5,7 @@ import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.pattern.NameTest;
 import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.sort.IntToIntHashMap;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.value.UntypedAtomicValue;
 import net.sf.saxon.value.StringValue;
@@ -36,6 +37,16 @@ final class AttributeEnumeration extends AxisIteratorImpl {
         this.tree = tree;
         this.element = element;
         index = tree.alpha[element];
+        if (nodeTest instanceof NameTest) {
+            IntToIntHashMap attIndex = tree.getAttributeIndex(element);
+            if (attIndex != null) {
+                // go straight to the only attribute that can match, if there is one
+                index = attIndex.get(nodeTest.getFingerprint());
+                if (index < 0) {
+                    index = Integer.MAX_VALUE;
+                }
+            }
+        }
     }
 
     /**
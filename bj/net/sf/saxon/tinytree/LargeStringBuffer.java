@@ -76,6 +76,32 @@ public final class LargeStringBuffer implements CharSequence, Serializable {
         length += data.length();
     }
 
+    /**
+     * Append a range of the characters held in another LargeStringBuffer. The characters are appended
+     * one segment of the source at a time, so a substring that lies within one segment of the source
+     * (such as the value of a text node) will also lie within one segment of this buffer.
+     * @param source the buffer holding the characters to be appended
+     * @param start the offset in the source of the first character to be appended
+     * @param end the offset in the source after the last character to be appended
+     */
+
+    public void append(LargeStringBuffer source, int start, int end) {
+        int seg = Arrays.binarySearch(source.startOffsets, start);
+        if (seg < 0) {
+            seg = -seg - 2;
+        }
+        while (start < end) {
+            FastStringBuffer segment = (FastStringBuffer)source.segments.get(seg);
+            int segStart = source.startOffsets[seg];
+            int segEnd = Math.min(end, segStart + segment.length());
+            if (segEnd > start) {
+                append(segment.subSequence(start - segStart, segEnd - segStart));
+                start = segEnd;
+            }
+            seg++;
+        }
+    }
+
     /**
      * Returns the length of this character sequence.  The length is the number
      * of 16-bit UTF-16 characters in the sequence. </p>
@@ -3,6 +3,7 @@ import net.sf.saxon.event.Builder;
 import net.sf.saxon.event.LocationProvider;
 import net.sf.saxon.event.ReceiverOptions;
 import net.sf.saxon.event.SourceLocationProvider;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.FastStringBuffer;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.trans.XPathException;
@@ -28,6 +29,7 @@ public class TinyBuilder extends Builder {
     private int nodeNr = 0;             // this is the local sequence within this document
     private boolean ended = false;
     private int[] sizeParameters;       // estimate of number of nodes, attributes, namespaces, characters
+    private TinyTreeArena arena;        // source of reusable storage for a temporary tree
 
     public TinyBuilder() {}
 
@@ -35,6 +37,15 @@ public class TinyBuilder extends Builder {
         sizeParameters = params;
     }
 
+    /**
+     * Request that the tree is allocated from an arena of reusable storage. This must only be
+     * used for a temporary tree that is released to the arena when it is no longer in use.
+     */
+
+    public void setArena(TinyTreeArena arena) {
+        this.arena = arena;
+    }
+
     public int[] getSizeParameters() {
         int[] params = {tree.numberOfNodes, tree.numberOfAttributes, tree.numberOfNamespaces,
                         tree.getCharacterBuffer().length()};
@@ -69,7 +80,9 @@ public class TinyBuilder extends Builder {
             return;
         }
         if (tree == null) {
-            if (sizeParameters==null) {
+            if (arena != null) {
+                tree = arena.allocate();
+            } else if (sizeParameters==null) {
                 tree = new TinyTree();
             } else {
                 tree = new TinyTree(sizeParameters[0],
@@ -141,7 +154,18 @@ public class TinyBuilder extends Builder {
     public void close() throws XPathException {
         //System.err.println("Tree.close " + tree + " size=" + tree.numberOfNodes);
         tree.addNode(Type.STOPPER, 0, 0, 0, -1);
-        tree.condense();
+        if (tree.arena == null) {
+            // a tree allocated from an arena keeps its arrays for reuse
+            tree.condense();
+        }
+        if (config.isTinyTreeIndexing()) {
+            tree.makeIndexes(config.getTinyTreeAttributeIndexThreshold());
+        }
+        Metrics metrics = config.getMetrics();
+        if (metrics != null) {
+            // the node count excludes the stopper
+            metrics.documentBuilt(tree.numberOfNodes - 1, tree.charBuffer.length());
+        }
         super.close();
     }
 
@@ -232,6 +256,34 @@ public class TinyBuilder extends Builder {
         nodeNr++;
     }
 
+    /**
+     * Copy the content of an element in another TinyTree as the content of the element whose
+     * start tag has just been written to this builder, by copying ranges of the tree arrays rather
+     * than by notifying the nodes one at a time. This is possible only if no namespace fixup is needed,
+     * and the caller is responsible for checking this; see {@link TinyTree#appendContent} for the other
+     * conditions, which this method checks.
+     * @param source the tree holding the element whose content is to be copied
+     * @param element the node number of the element in the source tree
+     * @return the node number in the source tree of the first node after the copied content, or -1 if
+     * the content cannot be copied in this way, in which case nothing has been written and the caller must
+     * copy the content by writing events
+     */
+
+    public int copyContent(TinyTree source, int element) {
+        if (currentDepth == 0 || pipe.getLocationProvider() instanceof SourceLocationProvider) {
+            return -1;
+        }
+        int parent = prevAtDepth[currentDepth-1];
+        if (parent != tree.numberOfNodes - 1 || tree.nodeKind[parent] != Type.ELEMENT) {
+            return -1;
+        }
+        int end = tree.appendContent(source, element, parent, currentRoot);
+        if (end >= 0) {
+            nodeNr = tree.numberOfNodes - 1;
+        }
+        return end;
+    }
+
     /**
     * Callback interface for SAX: not for application use
     */
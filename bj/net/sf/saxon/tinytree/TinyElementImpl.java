@@ -1,9 +1,12 @@
 package net.sf.saxon.tinytree;
 import net.sf.saxon.Configuration;
+import net.sf.saxon.event.ComplexContentOutputter;
 import net.sf.saxon.event.CopyNamespaceSensitiveException;
+import net.sf.saxon.event.NamespaceReducer;
 import net.sf.saxon.event.Receiver;
 import net.sf.saxon.event.ReceiverOptions;
 import net.sf.saxon.om.*;
+import net.sf.saxon.sort.IntToIntHashMap;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.trans.DynamicError;
 import net.sf.saxon.trans.XPathException;
@@ -245,6 +248,11 @@ final class TinyElementImpl extends TinyParentNodeImpl {
     public String getAttributeValue(int fingerprint) {
         int a = tree.alpha[nodeNr];
         if (a<0) return null;
+        IntToIntHashMap index = tree.getAttributeIndex(nodeNr);
+        if (index != null) {
+            a = index.get(fingerprint);
+            return (a<0 ? null : tree.attValue[a].toString());
+        }
         while (a < tree.numberOfAttributes && tree.attParent[a] == nodeNr) {
             if ((tree.attCode[a] & 0xfffff) == fingerprint ) {
                 return tree.attValue[a].toString();
@@ -356,6 +364,16 @@ final class TinyElementImpl extends TinyParentNodeImpl {
 
 					// start content
 					receiver.startContent();
+
+                    // if the start tag of the outermost element has gone directly to a TinyBuilder,
+                    // try to copy its content as a block
+                    if (next == nodeNr && whichNamespaces == ALL_NAMESPACES &&
+                            receiver instanceof ComplexContentOutputter) {
+                        int end = copyContentToTinyBuilder((ComplexContentOutputter)receiver);
+                        if (end >= 0) {
+                            next = end - 1;
+                        }
+                    }
 					break;
                 }
 				case Type.TEXT: {
@@ -424,6 +442,42 @@ final class TinyElementImpl extends TinyParentNodeImpl {
 		}
     }
 
+    /**
+     * Having written the start tag of this element to a ComplexContentOutputter, copy the content of the
+     * element directly into the arrays of the TinyTree under construction, if the pipeline leads directly
+     * to a TinyBuilder and the copied content needs no namespace fixup. All namespace declarations in scope
+     * for this element have been written on its start tag. Provided that no descendant has namespace
+     * declarations of its own (checked by the TinyBuilder), and that unprefixed names mean the same in the
+     * new tree as in this one, the NamespaceReducer would discard any namespace node that the descendants
+     * generated, so they can be bypassed.
+     * @return the node number of the first node after this element's content, or -1 if the
+     * content has not been copied
+     */
+
+    private int copyContentToTinyBuilder(ComplexContentOutputter out) {
+        if (!(out.getReceiver() instanceof NamespaceReducer)) {
+            return -1;
+        }
+        NamespaceReducer reducer = (NamespaceReducer)out.getReceiver();
+        if (!(reducer.getUnderlyingReceiver() instanceof TinyBuilder)) {
+            return -1;
+        }
+        short defaultURICode = 0;
+        if (tree.usesNamespaces) {
+            int[] inScope = getInScopeNamespaces(tree, nodeNr, null);
+            for (int i=0; i<inScope.length && inScope[i] != -1; i++) {
+                if ((inScope[i] >> 16) == 0) {
+                    defaultURICode = (short)(inScope[i] & 0xffff);
+                    break;
+                }
+            }
+        }
+        if (reducer.getURICode((short)0) != defaultURICode) {
+            return -1;
+        }
+        return ((TinyBuilder)reducer.getUnderlyingReceiver()).copyContent(tree, nodeNr);
+    }
+
     private void checkNotNamespaceSensitive(Configuration config, final int typeCode) throws DynamicError {
         SchemaType type = config.getSchemaType(typeCode & NamePool.FP_MASK);
         if (type instanceof SimpleType && ((SimpleType)type).isNamespaceSensitive()) {
@@ -545,6 +545,12 @@ public abstract class TinyNodeImpl implements NodeInfo, ExtendedNodeInfo, Finger
             return -1;
         }
 
+        // use the parent index if the tree has one
+        final int[] parentIndex = tree.parentIndex;
+        if (parentIndex != null && nodeNr < parentIndex.length) {
+            return parentIndex[nodeNr];
+        }
+
         // follow the next-sibling pointers until we reach either a next sibling pointer that
         // points backwards, or a parent-pointer pseudo-node
         int p = tree.next[nodeNr];
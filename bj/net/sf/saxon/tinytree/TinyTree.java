@@ -2,6 +2,8 @@ package net.sf.saxon.tinytree;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.event.ReceiverOptions;
 import net.sf.saxon.om.*;
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.sort.IntToIntHashMap;
 import net.sf.saxon.style.StandardNames;
 import net.sf.saxon.tree.LineNumberMap;
 import net.sf.saxon.tree.SystemIdMap;
@@ -81,9 +83,14 @@ public final class TinyTree {
 
     private static final int TYPECODE_IDREF = 1<<29;
 
-    // the owner array gives fast access from a node to its parent; it is constructed
-    // only when required
-    // protected int[] parentIndex = null;
+    // the parentIndex array gives fast access from a node to its parent; it is constructed
+    // only when the Configuration requests an indexed tree (see Configuration#setTinyTreeIndexing)
+    protected int[] parentIndex = null;
+
+    // the attributeIndex maps the node number of an element having more than a threshold number
+    // of attributes to an IntToIntHashMap from attribute fingerprint to attribute number. Like the
+    // parentIndex, it is constructed only when the Configuration requests an indexed tree
+    private IntHashMap attributeIndex = null;
 
     // the following arrays have one entry for each attribute.
     protected int numberOfAttributes = 0;
@@ -123,6 +130,9 @@ public final class TinyTree {
     // a boolean that is set to true if the document declares a namespace other than the XML namespace
     protected boolean usesNamespaces = false;
 
+    // the arena from which a temporary tree was allocated, and to which its storage can be released
+    TinyTreeArena arena = null;
+
     // We maintain statistics in static data, recording how large the trees created under this Java VM
     // turned out to be. These figures are then used when allocating space for new trees, on the assumption
     // that there is likely to be some uniformity. The statistics are initialized to an arbitrary value
@@ -166,6 +176,72 @@ public final class TinyTree {
         charBuffer = new LargeStringBuffer(characters, 64000);
     }
 
+    /**
+     * Create a TinyTree that takes over the node, attribute, and namespace arrays of a tree
+     * that has been retired (see {@link #retire}). The character buffer is not reused, because
+     * string values obtained from the old tree may share its character arrays.
+     * @param retired a tree previously retired. Its arrays are transferred to the new tree, and
+     * the retired tree can no longer be used.
+     * @param characters initial allocation for the character buffer
+     */
+
+    TinyTree(TinyTree retired, int characters) {
+        nodeKind = retired.nodeKind;
+        depth = retired.depth;
+        next = retired.next;
+        alpha = retired.alpha;
+        beta = retired.beta;
+        nameCode = retired.nameCode;
+        attParent = retired.attParent;
+        attCode = retired.attCode;
+        attValue = retired.attValue;
+        namespaceParent = retired.namespaceParent;
+        namespaceCode = retired.namespaceCode;
+        rootIndex = retired.rootIndex;
+        retired.nodeKind = null;
+        retired.depth = null;
+        retired.next = null;
+        retired.alpha = null;
+        retired.beta = null;
+        retired.nameCode = null;
+        retired.attParent = null;
+        retired.attCode = null;
+        retired.attValue = null;
+        retired.namespaceParent = null;
+        retired.namespaceCode = null;
+        retired.rootIndex = null;
+        charBuffer = new LargeStringBuffer(characters, 64000);
+    }
+
+    /**
+     * Retire a temporary tree that is known to be no longer in use, so that its arrays can be
+     * reused by another tree. This releases everything other than the arrays, and clears the
+     * references held in the attribute value array.
+     */
+
+    void retire() {
+        Arrays.fill(attValue, 0, numberOfAttributes, null);
+        config = null;
+        documentList = null;
+        charBuffer = null;
+        commentBuffer = null;
+        prior = null;
+        typeCodeArray = null;
+        attTypeCode = null;
+        parentIndex = null;
+        attributeIndex = null;
+        lineNumberMap = null;
+        systemIdMap = null;
+    }
+
+    /**
+     * Get the number of nodes allocated in the node arrays
+     */
+
+    int getNodeCapacity() {
+        return nodeKind.length;
+    }
+
     /**
     * Set the Configuration that contains this document
     */
@@ -192,9 +268,13 @@ public final class TinyTree {
 	}
 
     private void ensureNodeCapacity(short kind) {
-        if (nodeKind.length < numberOfNodes+1) {
+        ensureNodeCapacity(kind, 1);
+    }
+
+    private void ensureNodeCapacity(short kind, int extra) {
+        if (nodeKind.length < numberOfNodes+extra) {
             //System.err.println("Number of nodes = " + numberOfNodes);
-            int k = (kind == Type.STOPPER ? numberOfNodes+1 : numberOfNodes*2);
+            int k = (kind == Type.STOPPER ? numberOfNodes+1 : Math.max(numberOfNodes*2, numberOfNodes+extra));
 
             byte[] nodeKind2 = new byte[k];
             int[] next2 = new int[k];
@@ -226,8 +306,12 @@ public final class TinyTree {
     }
 
     private void ensureAttributeCapacity() {
-        if (attParent.length < numberOfAttributes+1) {
-            int k = numberOfAttributes*2;
+        ensureAttributeCapacity(1);
+    }
+
+    private void ensureAttributeCapacity(int extra) {
+        if (attParent.length < numberOfAttributes+extra) {
+            int k = Math.max(numberOfAttributes*2, numberOfAttributes+extra);
             if (k==0) {
                 k = 10;
             }
@@ -499,6 +583,73 @@ public final class TinyTree {
     }
 
 
+    /**
+     * Build the optional navigation indexes: a parent index with one entry for each node, and
+     * a hash index of the attributes of each element that has more than a given number of
+     * attributes. This is done once the tree has been built, and only if requested via
+     * {@link Configuration#setTinyTreeIndexing}. The indexes trade memory (one int per node, plus
+     * a hash table per heavily-attributed element) for speed on the parent, ancestor, and
+     * attribute axes. Nodes added after the indexes were built are handled by the normal
+     * navigation code.
+     * @param attributeThreshold elements with more than this number of attributes get an
+     * attribute index
+     */
+
+    void makeIndexes(int attributeThreshold) {
+        int[] parents = new int[numberOfNodes];
+        int[] stack = new int[100];
+        for (int i=0; i<numberOfNodes; i++) {
+            int d = depth[i];
+            parents[i] = (d == 0 ? -1 : stack[d-1]);
+            if (nodeKind[i] != Type.PARENT_POINTER) {
+                if (d == stack.length) {
+                    int[] s2 = new int[d*2];
+                    System.arraycopy(stack, 0, s2, 0, d);
+                    stack = s2;
+                }
+                stack[d] = i;
+            }
+        }
+        parentIndex = parents;
+
+        if (numberOfAttributes > attributeThreshold) {
+            int a = 0;
+            while (a < numberOfAttributes) {
+                int element = attParent[a];
+                int end = a+1;
+                while (end < numberOfAttributes && attParent[end] == element) {
+                    end++;
+                }
+                if (end - a > attributeThreshold) {
+                    IntToIntHashMap map = new IntToIntHashMap(end - a);
+                    map.setDefaultValue(-1);
+                    for (int i=a; i<end; i++) {
+                        map.put(attCode[i] & NamePool.FP_MASK, i);
+                    }
+                    if (attributeIndex == null) {
+                        attributeIndex = new IntHashMap(20);
+                    }
+                    attributeIndex.put(element, map);
+                }
+                a = end;
+            }
+        }
+    }
+
+    /**
+     * Get the attribute index for a given element, if there is one
+     * @param element the node number of the element
+     * @return a map from attribute fingerprints to attribute numbers (returning -1 for an absent
+     * attribute), or null if the attributes of this element are not indexed
+     */
+
+    IntToIntHashMap getAttributeIndex(int element) {
+        if (attributeIndex == null) {
+            return null;
+        }
+        return (IntToIntHashMap)attributeIndex.get(element);
+    }
+
     void addAttribute(NodeInfo root, int parent, int nameCode, int typeCode, CharSequence attValue, int properties) {
         ensureAttributeCapacity();
         attParent[numberOfAttributes] = parent;
@@ -603,6 +754,166 @@ public final class TinyTree {
         }
     }
 
+    /**
+     * Append a copy of the content of an element in another tree (its descendants, with their attributes)
+     * as the content of an element in this tree. Rather than adding the nodes one at a time, this copies
+     * the relevant ranges of the node, attribute, and character arrays, adjusting the depths and the
+     * pointers held in them. It is used only where the result is the same as copying the nodes one
+     * at a time: the method does nothing and returns -1 if the two trees use different name pools,
+     * if the source tree holds type annotations, or if any of the nodes to be copied has
+     * namespace declarations of its own.
+     * @param source the tree holding the element whose content is to be copied
+     * @param element the node number of that element in the source tree
+     * @param parent the node number of the element in this tree that is to receive the content. This
+     * must be the last node that was added to the tree
+     * @param root the root node of this tree, used to register the values of any xml:id attributes
+     * @return the node number in the source tree of the first node following the copied content, or -1
+     * if nothing was copied
+     */
+
+    int appendContent(TinyTree source, int element, int parent, NodeInfo root) {
+        if (source.getNamePool() != getNamePool() ||
+                source.typeCodeArray != null || source.attTypeCode != null) {
+            return -1;
+        }
+        final short level = source.depth[element];
+        final int start = element + 1;
+
+        // Find the extent of the content, and check that its characters and its comments occupy
+        // contiguous ranges of the source buffers
+
+        int end = start;
+        int firstAtt = -1;
+        int charStart = -1;
+        int charEnd = -1;
+        int commentStart = -1;
+        int commentEnd = -1;
+        while (end < source.numberOfNodes && source.depth[end] > level) {
+            switch (source.nodeKind[end]) {
+                case Type.ELEMENT:
+                    if (source.beta[end] != -1) {
+                        return -1;
+                    }
+                    if (firstAtt < 0 && source.alpha[end] >= 0) {
+                        firstAtt = source.alpha[end];
+                    }
+                    break;
+                case Type.TEXT:
+                    if (charStart < 0) {
+                        charStart = source.alpha[end];
+                        charEnd = charStart;
+                    }
+                    if (source.alpha[end] != charEnd) {
+                        return -1;
+                    }
+                    charEnd += source.beta[end];
+                    break;
+                case Type.COMMENT:
+                case Type.PROCESSING_INSTRUCTION:
+                    if (commentStart < 0) {
+                        commentStart = source.alpha[end];
+                        commentEnd = commentStart;
+                    }
+                    if (source.alpha[end] != commentEnd) {
+                        return -1;
+                    }
+                    commentEnd += source.beta[end];
+                    break;
+            }
+            end++;
+        }
+        final int n = end - start;
+        if (n == 0) {
+            return end;
+        }
+
+        // Copy the nodes
+
+        final int first = numberOfNodes;
+        final int nodeDelta = first - start;
+        final int depthDelta = depth[parent] - level;
+        final int attDelta = numberOfAttributes - firstAtt;
+        final int charDelta = charBuffer.length() - charStart;
+        final int commentDelta = (commentBuffer == null ? 0 : commentBuffer.length()) - commentStart;
+        ensureNodeCapacity(Type.ELEMENT, n);
+        System.arraycopy(source.nodeKind, start, nodeKind, first, n);
+        System.arraycopy(source.nameCode, start, nameCode, first, n);
+        for (int s=start, d=first; s<end; s++, d++) {
+            depth[d] = (short)(source.depth[s] + depthDelta);
+            next[d] = source.next[s] + nodeDelta;
+            switch (source.nodeKind[s]) {
+                case Type.ELEMENT:
+                    alpha[d] = (source.alpha[s] < 0 ? -1 : source.alpha[s] + attDelta);
+                    beta[d] = -1;
+                    break;
+                case Type.TEXT:
+                    alpha[d] = source.alpha[s] + charDelta;
+                    beta[d] = source.beta[s];
+                    break;
+                case Type.COMMENT:
+                case Type.PROCESSING_INSTRUCTION:
+                    alpha[d] = source.alpha[s] + commentDelta;
+                    beta[d] = source.beta[s];
+                    break;
+                case Type.PARENT_POINTER:
+                    alpha[d] = source.alpha[s] + nodeDelta;
+                    beta[d] = source.beta[s];
+                    break;
+                default:
+                    alpha[d] = source.alpha[s];
+                    beta[d] = source.beta[s];
+            }
+        }
+        if (typeCodeArray != null) {
+            Arrays.fill(typeCodeArray, first, first+n, StandardNames.XDT_UNTYPED);
+        }
+        numberOfNodes += n;
+
+        // Copy the characters and comments
+
+        if (charStart >= 0) {
+            charBuffer.append(source.charBuffer, charStart, charEnd);
+        }
+        if (commentStart >= 0) {
+            if (commentBuffer == null) {
+                commentBuffer = new FastStringBuffer(200);
+            }
+            commentBuffer.append(source.commentBuffer.subSequence(commentStart, commentEnd));
+        }
+
+        // Copy the attributes
+
+        if (firstAtt >= 0) {
+            int endAtt = firstAtt;
+            while (endAtt < source.numberOfAttributes && source.attParent[endAtt] < end) {
+                endAtt++;
+            }
+            final int na = endAtt - firstAtt;
+            ensureAttributeCapacity(na);
+            System.arraycopy(source.attCode, firstAtt, attCode, numberOfAttributes, na);
+            for (int s=firstAtt, d=numberOfAttributes; s<endAtt; s++, d++) {
+                attParent[d] = source.attParent[s] + nodeDelta;
+                attValue[d] = source.attValue[s].toString();
+            }
+            if (attTypeCode != null) {
+                Arrays.fill(attTypeCode, numberOfAttributes, numberOfAttributes+na, StandardNames.XDT_UNTYPED_ATOMIC);
+            }
+            if (root instanceof TinyDocumentImpl) {
+                NameChecker checker = root.getConfiguration().getNameChecker();
+                for (int d=numberOfAttributes; d<numberOfAttributes+na; d++) {
+                    if ((attCode[d] & NamePool.FP_MASK) == StandardNames.XML_ID) {
+                        String id = attValue[d].toString().trim();
+                        if (checker.isValidNCName(id)) {
+                            ((TinyDocumentImpl)root).registerID(getNode(attParent[d]), id);
+                        }
+                    }
+                }
+            }
+            numberOfAttributes += na;
+        }
+        return end;
+    }
+
     public final TinyNodeImpl getNode(int nr) {
 
         switch (nodeKind[nr]) {
@@ -931,6 +1242,10 @@ public final class TinyTree {
     public void showSize() {
         System.err.println("Tree size: " + numberOfNodes + " nodes, " + charBuffer.length() + " characters, " +
                                 numberOfAttributes + " attributes");
+        if (parentIndex != null) {
+            System.err.println("Tree indexes: parent index " + parentIndex.length + " entries, " +
+                    (attributeIndex == null ? 0 : attributeIndex.size()) + " indexed elements");
+        }
     }
 
     /**
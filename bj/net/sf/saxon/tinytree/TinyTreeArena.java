@@ -0,0 +1,92 @@
+package net.sf.saxon.tinytree;
+
+/**
+ * A TinyTreeArena holds the storage of temporary trees that are no longer in use, so that it can be
+ * reused for new temporary trees. It is used for trees such as the value of an xsl:variable whose
+ * lifetime is known to end when the expression that binds the variable has been evaluated: a stylesheet
+ * that creates such a tree in a loop then reuses the same node, attribute and namespace arrays for
+ * every iteration, instead of allocating a new set of arrays each time.
+ *
+ * <p>There is one arena for each {@link net.sf.saxon.Controller}. It is not thread-safe.</p>
+ *
+ * <p>A tree must only be released to the arena when no reference to any of its nodes can be used again.
+ * The arena makes the old tree unusable: its arrays are transferred to the next tree allocated from
+ * the arena.</p>
+ */
+
+public final class TinyTreeArena {
+
+    /**
+     * The maximum number of released trees retained by the arena. Temporary trees are often nested
+     * (a variable created while constructing another one), so more than one is needed.
+     */
+
+    private static final int MAX_RETAINED = 8;
+
+    /**
+     * Trees whose node arrays exceed this size are not retained, so that a single large temporary tree
+     * does not hold on to memory for the rest of the transformation
+     */
+
+    private static final int MAX_NODES = 50000;
+
+    private TinyTree[] retained = new TinyTree[MAX_RETAINED];
+    private int used = 0;
+    private int characters = 256;
+
+    public TinyTreeArena() {}
+
+    /**
+     * Allocate a tree, reusing the storage of a released tree if one is available
+     */
+
+    TinyTree allocate() {
+        TinyTree tree;
+        if (used > 0) {
+            TinyTree retired = retained[--used];
+            retained[used] = null;
+            tree = new TinyTree(retired, characters);
+        } else {
+            tree = new TinyTree(100, 20, 10, characters);
+        }
+        tree.arena = this;
+        return tree;
+    }
+
+    /**
+     * Release a tree that was allocated from this arena and that is no longer in use. The tree
+     * (and every node in it) must not be used after this call.
+     * @param tree the tree to be released. If it was not allocated from this arena, or if it has
+     * been used to hold more than one root node, the call has no effect.
+     */
+
+    public void release(TinyTree tree) {
+        if (tree.arena != this || tree.rootIndexUsed != 1) {
+            return;
+        }
+        tree.arena = null;
+        characters = Math.min(Math.max(tree.charBuffer.length(), 64), 65536);
+        if (used < MAX_RETAINED && tree.getNodeCapacity() <= MAX_NODES) {
+            tree.retire();
+            retained[used++] = tree;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
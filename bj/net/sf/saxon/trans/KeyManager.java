@@ -5,6 +5,7 @@ import net.sf.saxon.expr.*;
 import net.sf.saxon.functions.SystemFunction;
 import net.sf.saxon.functions.Tokenize;
 import net.sf.saxon.instruct.SlotManager;
+import net.sf.saxon.metrics.Metrics;
 import net.sf.saxon.om.*;
 import net.sf.saxon.om.ListIterator;
 import net.sf.saxon.pattern.IdrefTest;
@@ -171,7 +172,7 @@ public class KeyManager implements Serializable {
     * @return the index in question, as a HashMap mapping a key value onto a ArrayList of nodes
     */
 
-    private synchronized HashMap buildIndex(int fingerprint,
+    private HashMap buildIndex(int fingerprint,
                                             int itemType,
                                             DocumentInfo doc,
                                             XPathContext context) throws XPathException {
@@ -472,21 +473,34 @@ public class KeyManager implements Serializable {
         // No special action needed for anyURI to string promotion (it just seems to work: tests idky44, 45)
 
         Object indexObject = getIndex(doc, fingerprint, itemType);
-        if (indexObject instanceof String) {
+        boolean underConstruction = false;
+        if (indexObject instanceof Thread) {
             // index is under construction
-            DynamicError de = new DynamicError("Key definition is circular");
-            de.setXPathContext(context);
-            de.setErrorCode("XTDE0640");
-            throw de;
+            if (indexObject == Thread.currentThread()) {
+                DynamicError de = new DynamicError("Key definition is circular");
+                de.setXPathContext(context);
+                de.setErrorCode("XTDE0640");
+                throw de;
+            }
+            // Another thread is building the index. Rather than waiting for it, which could deadlock
+            // if that thread needs something this thread is computing, build another copy
+            indexObject = null;
+            underConstruction = true;
         }
         HashMap index = (HashMap)indexObject;
 
         // If the index does not yet exist, then create it.
         if (index==null) {
-            // Mark the index as being under construction, in case the definition is circular
-            putIndex(doc, fingerprint, itemType, "Under Construction", context);
+            // Mark the index as being under construction by this thread, in case the definition is circular
+            if (!underConstruction) {
+                putIndex(doc, fingerprint, itemType, Thread.currentThread(), context);
+            }
             index = buildIndex(fingerprint, itemType, doc, context);
             putIndex(doc, fingerprint, itemType, index, context);
+            Metrics metrics = context.getConfiguration().getMetrics();
+            if (metrics != null) {
+                metrics.keyIndexBuilt(index.size());
+            }
         }
 
         Object val;
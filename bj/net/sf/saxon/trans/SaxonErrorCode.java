@@ -167,6 +167,12 @@ public class SaxonErrorCode {
      */
 
     public static final String SXWN9008 = "SXWN9008";
+
+    /**
+     * SXWN9009: saxon:async-output must be "yes" or "no"
+     */
+
+    public static final String SXWN9009 = "SXWN9009";
 }
 
 //
@@ -115,6 +115,16 @@ public class Closure extends Value {
             }
         }
 
+        // If the Closure shares the caller's stack frame (because the expression has no dependencies on
+        // local variables outside itself, though it may bind variables of its own), the stack frame must
+        // not be reused for another function or template call. Nor must any context in the chain of callers
+        // of the saved context.
+
+        if (c.savedXPathContext.getStackFrame() == context.getStackFrame()) {
+            context.getStackFrame().setCaptured();
+        }
+        XPathContextMajor.setCaptured(context);
+
         // Make a copy of the context item
         SequenceIterator currentIterator = context.getCurrentIterator();
         if (currentIterator != null) {
@@ -39,6 +39,23 @@ public final class IntegerValue extends NumericValue {
      */
     public static final IntegerValue MIN_LONG = new IntegerValue(Long.MIN_VALUE);
 
+    /**
+     * Cached values for small integers, used by {@link #makeIntegerValue}
+     */
+
+    private static final int CACHE_MIN = -128;
+    private static final int CACHE_MAX = 1023;
+    private static final IntegerValue[] SMALL_INTEGERS = new IntegerValue[CACHE_MAX - CACHE_MIN + 1];
+
+    static {
+        for (int i=0; i<SMALL_INTEGERS.length; i++) {
+            SMALL_INTEGERS[i] = new IntegerValue(i + CACHE_MIN);
+        }
+        SMALL_INTEGERS[-1 - CACHE_MIN] = MINUS_ONE;
+        SMALL_INTEGERS[-CACHE_MIN] = ZERO;
+        SMALL_INTEGERS[1 - CACHE_MIN] = PLUS_ONE;
+    }
+
     private long value;
     private ItemType type;
 
@@ -53,6 +70,24 @@ public final class IntegerValue extends NumericValue {
         this.type = Type.INTEGER_TYPE;
     }
 
+    /**
+     * Factory method returning an xs:integer value. Small values (those commonly arising as
+     * positions, counts, and loop variables) are taken from a cache rather than being allocated
+     * afresh. The value returned may therefore be shared, and must not be modified using
+     * {@link #convertToSubtype}: code that needs a value of a subtype of xs:integer must use the
+     * constructor.
+     *
+     * @param value the value of the integer
+     * @return an IntegerValue of type xs:integer holding the supplied value
+     */
+
+    public static IntegerValue makeIntegerValue(long value) {
+        if (value >= CACHE_MIN && value <= CACHE_MAX) {
+            return SMALL_INTEGERS[(int)value - CACHE_MIN];
+        }
+        return new IntegerValue(value);
+    }
+
     /**
      * Constructor for a subtype, supplying an integer
      *
@@ -290,6 +325,14 @@ public final class IntegerValue extends NumericValue {
         return value;
     }
 
+    /**
+     * Evaluate as a Java long
+     */
+
+    public long evaluateAsLong(XPathContext context) {
+        return value;
+    }
+
     /**
      * Return the effective boolean value of this integer
      * @param context The dynamic evaluation context; ignored in this
@@ -410,7 +453,7 @@ public final class IntegerValue extends NumericValue {
      */
 
     public NumericValue negate() {
-        return new IntegerValue(-value);
+        return makeIntegerValue(-value);
     }
 
     /**
@@ -525,14 +568,14 @@ public final class IntegerValue extends NumericValue {
             }
             switch (operator) {
                 case Token.PLUS:
-                    return new IntegerValue(value + ((IntegerValue) other).value);
+                    return makeIntegerValue(value + ((IntegerValue) other).value);
                 case Token.MINUS:
-                    return new IntegerValue(value - ((IntegerValue) other).value);
+                    return makeIntegerValue(value - ((IntegerValue) other).value);
                 case Token.MULT:
-                    return new IntegerValue(value * ((IntegerValue) other).value);
+                    return makeIntegerValue(value * ((IntegerValue) other).value);
                 case Token.IDIV:
                     try {
-                        return new IntegerValue(value / ((IntegerValue) other).value);
+                        return makeIntegerValue(value / ((IntegerValue) other).value);
                     } catch (ArithmeticException err) {
                         DynamicError e;
                         if ("/ by zero".equals(err.getMessage())) {
@@ -555,12 +598,12 @@ public final class IntegerValue extends NumericValue {
                         throw err;
                     }
                     if (value % quotient == 0) {
-                        return new IntegerValue(value / quotient);
+                        return makeIntegerValue(value / quotient);
                     }
                     return new DecimalValue(value).arithmetic(Token.DIV,
                             new DecimalValue(quotient), context);
                 case Token.MOD:
-                    return new IntegerValue(value % ((IntegerValue) other).value);
+                    return makeIntegerValue(value % ((IntegerValue) other).value);
                 default:
                     throw new UnsupportedOperationException("Unknown operator");
             }
@@ -12,6 +12,27 @@ import net.sf.saxon.type.TypeHierarchy;
 
 public abstract class NumericValue extends AtomicValue implements Comparable {
 
+    /**
+     * The exception thrown by {@link net.sf.saxon.expr.Expression#evaluateAsLong} and
+     * {@link net.sf.saxon.expr.Expression#evaluateAsDouble} when the value of an expression
+     * cannot be delivered as a Java primitive. The caller catches it and evaluates the
+     * expression in the ordinary way, which delivers the correct result or error. The same
+     * instance is always used, and it has no stack trace, so throwing it is cheap.
+     */
+
+    public static final ArithmeticException NOT_PRIMITIVE = new NotPrimitiveException();
+
+    private static final class NotPrimitiveException extends ArithmeticException {
+
+        public NotPrimitiveException() {
+            super("Value cannot be represented as a Java primitive");
+        }
+
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
     /**
      * Get a numeric value by parsing a string; the type of numeric value depends
      * on the lexical form of the string, following the rules for XPath numeric
@@ -58,6 +79,14 @@ public abstract class NumericValue extends AtomicValue implements Comparable {
         }
     }
 
+    /**
+     * Evaluate as a Java double
+     */
+
+    public final double evaluateAsDouble(XPathContext context) {
+        return getDoubleValue();
+    }
+
     /**
      * Test whether the value is the double/float value NaN
      */
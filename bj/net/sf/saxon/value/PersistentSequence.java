@@ -0,0 +1,697 @@
+package net.sf.saxon.value;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.*;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.AnyItemType;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.TypeHierarchy;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A sequence value implemented as a persistent balanced tree. Operations that construct a new sequence
+ * from an existing one, such as appending, prepending, inserting or removing items, concatenation, and
+ * taking a subsequence, leave the original sequence unchanged and share most of its structure with the
+ * result, so they take time proportional to the logarithm of the length of the sequence rather than to
+ * the length itself. Access to an item by position is also logarithmic.
+ *
+ * <p>This representation is used when a sequence is built up incrementally, typically by a recursive
+ * function that passes an accumulated sequence such as <code>($acc, $item)</code> or
+ * <code>insert-before($acc, 1, $item)</code> to the next call. With an array-based representation,
+ * each step would copy the whole sequence, giving quadratic performance.</p>
+ *
+ * <p>The tree is an AVL-balanced binary tree whose leaves are small arrays of items. Leaves are never
+ * empty, and are never modified once created; when items are added at the end (or start) of a sequence,
+ * they are merged into the last (or first) leaf, by copying it, as long as there is room.</p>
+ */
+
+public final class PersistentSequence extends Value {
+
+    /**
+     * The maximum number of items held in a leaf of the tree
+     */
+
+    private static final int MAX_LEAF = 32;
+
+    private static final PersistentSequence EMPTY = new PersistentSequence(null);
+
+    private Node root;                  // null for an empty sequence
+    private ItemType itemType = null;   // memoized
+
+    private PersistentSequence(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Factory method to make a PersistentSequence containing the same items as a supplied value
+     * @param val the supplied value. If this is already a PersistentSequence, it is returned unchanged.
+     * @param context the dynamic context, used if the value needs to be evaluated
+     * @return a PersistentSequence with the same items as the supplied value
+     */
+
+    public static PersistentSequence makePersistentSequence(ValueRepresentation val, XPathContext context)
+            throws XPathException {
+        if (val instanceof PersistentSequence) {
+            return (PersistentSequence)val;
+        }
+        if (val instanceof EmptySequence) {
+            return EMPTY;
+        }
+        return makePersistentSequence(Value.asIterator(val, context));
+    }
+
+    /**
+     * Factory method to make a PersistentSequence containing the items delivered by a SequenceIterator
+     * @param iter an iterator positioned at the start of the sequence
+     * @return a PersistentSequence containing the items returned by the iterator
+     */
+
+    public static PersistentSequence makePersistentSequence(SequenceIterator iter) throws XPathException {
+        if (iter instanceof PersistentSequenceIterator) {
+            return ((PersistentSequenceIterator)iter).sequence;
+        }
+        List leaves = new ArrayList();
+        Item[] buffer = new Item[MAX_LEAF];
+        int used = 0;
+        while (true) {
+            Item item = iter.next();
+            if (item == null) {
+                break;
+            }
+            if (used == MAX_LEAF) {
+                leaves.add(new Leaf(buffer));
+                buffer = new Item[MAX_LEAF];
+                used = 0;
+            }
+            buffer[used++] = item;
+        }
+        if (used > 0) {
+            Item[] items = buffer;
+            if (used < MAX_LEAF) {
+                items = new Item[used];
+                System.arraycopy(buffer, 0, items, 0, used);
+            }
+            leaves.add(new Leaf(items));
+        }
+        if (leaves.isEmpty()) {
+            return EMPTY;
+        }
+        return new PersistentSequence(build(leaves, 0, leaves.size()));
+    }
+
+    /**
+     * Build a perfectly balanced tree from a list of leaves
+     */
+
+    private static Node build(List leaves, int from, int to) {
+        if (to - from == 1) {
+            return (Node)leaves.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        return new Branch(build(leaves, from, mid), build(leaves, mid, to));
+    }
+
+    /**
+     * Get a sequence containing the items of this sequence followed by the items of another sequence
+     * @param other the sequence to be appended
+     * @return the concatenated sequence
+     */
+
+    public PersistentSequence concatenate(PersistentSequence other) {
+        if (other.root == null) {
+            return this;
+        } else if (root == null) {
+            return other;
+        }
+        return new PersistentSequence(concat(root, other.root));
+    }
+
+    /**
+     * Get a sequence in which the items of another sequence are inserted at a given position
+     * @param index the zero-based position at which the new items are to be inserted. If this is
+     * less than zero the new items are added at the start, and if it is greater than the length of the
+     * sequence they are added at the end.
+     * @param other the items to be inserted
+     * @return the new sequence
+     */
+
+    public PersistentSequence insert(int index, PersistentSequence other) {
+        int len = getLength();
+        if (index <= 0) {
+            return other.concatenate(this);
+        } else if (index >= len) {
+            return concatenate(other);
+        }
+        return new PersistentSequence(concat(concat(take(root, index), other.root), drop(root, index)));
+    }
+
+    /**
+     * Get a sequence in which the item at a given position is removed
+     * @param index the zero-based position of the item to be removed. If this is out of range,
+     * the sequence is returned unchanged.
+     * @return the new sequence
+     */
+
+    public PersistentSequence remove(int index) {
+        if (index < 0 || index >= getLength()) {
+            return this;
+        }
+        return new PersistentSequence(concat(take(root, index), drop(root, index+1)));
+    }
+
+    /**
+     * Get a contiguous subsequence of this sequence
+     * @param start the zero-based position of the first item to be included
+     * @param length the number of items to be included. The result will be shorter than this if the
+     * end of the sequence is reached.
+     * @return the subsequence
+     */
+
+    public PersistentSequence subsequence(int start, int length) {
+        int len = getLength();
+        if (start < 0) {
+            length += start;
+            start = 0;
+        }
+        if (length <= 0 || start >= len) {
+            return EMPTY;
+        }
+        if (length > len - start) {
+            length = len - start;
+        }
+        if (start == 0 && length == len) {
+            return this;
+        }
+        return new PersistentSequence(take(drop(root, start), length));
+    }
+
+    /**
+     * An implementation of Expression must provide at least one of the methods evaluateItem(), iterate(), or process().
+     * This method indicates which of these methods is preferred.
+     */
+
+    public int getImplementationMethod() {
+        return ITERATE_METHOD;
+    }
+
+    /**
+     * Simplify this value
+     */
+
+    public Value simplify() {
+        int n = getLength();
+        if (n == 0) {
+            return EmptySequence.getInstance();
+        } else if (n == 1) {
+            return Value.asValue(itemAt(0));
+        } else {
+            return this;
+        }
+    }
+
+    /**
+     * Reduce a value to its simplest form.
+     */
+
+    public Value reduce() {
+        return simplify();
+    }
+
+    /**
+     * Get the number of items in the sequence
+     *
+     * @return the number of items in the sequence
+     */
+
+    public int getLength() {
+        return (root == null ? 0 : root.size);
+    }
+
+    /**
+     * Determine the cardinality
+     *
+     * @return the cardinality of the sequence, using the constants defined in
+     *      net.sf.saxon.value.Cardinality
+     * @see Cardinality
+     */
+
+    public int getCardinality() {
+        switch (getLength()) {
+            case 0:
+                return StaticProperty.EMPTY;
+            case 1:
+                return StaticProperty.EXACTLY_ONE;
+            default:
+                return StaticProperty.ALLOWS_ONE_OR_MORE;
+        }
+    }
+
+    /**
+     * Get the (lowest common) item type
+     *
+     * @return integer identifying an item type to which all the items in this
+     *      sequence conform
+     * @param th
+     */
+
+    public ItemType getItemType(TypeHierarchy th) {
+        if (itemType != null) {
+            // only calculate it the first time
+            return itemType;
+        }
+        SequenceIterator iter = iterate(null);
+        Item item = null;
+        try {
+            item = iter.next();
+            if (item == null) {
+                itemType = AnyItemType.getInstance();
+                return itemType;
+            }
+            ItemType type = Type.getItemType(item, th);
+            while (type != AnyItemType.getInstance()) {
+                item = iter.next();
+                if (item == null) {
+                    break;
+                }
+                type = Type.getCommonSuperType(type, Type.getItemType(item, th), th);
+            }
+            itemType = type;
+        } catch (XPathException err) {
+            // can't happen, the items are all in memory
+            itemType = AnyItemType.getInstance();
+        }
+        return itemType;
+    }
+
+    /**
+     * Get the n'th item in the sequence (starting with 0 as the first item)
+     *
+     * @param n the position of the required item
+     * @return the n'th item in the sequence
+     */
+
+    public Item itemAt(int n) {
+        if (n<0 || n>=getLength()) {
+            return null;
+        }
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch b = (Branch)node;
+            if (n < b.left.size) {
+                node = b.left;
+            } else {
+                n -= b.left.size;
+                node = b.right;
+            }
+        }
+        return ((Leaf)node).items[n];
+    }
+
+    /**
+     * Return an iterator over this sequence.
+     *
+     * @param context dynamic evaluation context; not used in this
+     *     implementation of the method
+     * @return the required SequenceIterator, positioned at the start of the
+     *     sequence
+     */
+
+    public SequenceIterator iterate(XPathContext context) {
+        return new PersistentSequenceIterator(this);
+    }
+
+    /**
+     * Get the effective boolean value
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        int len = getLength();
+        if (len == 0) {
+            return false;
+        } else if (itemAt(0) instanceof NodeInfo) {
+            return true;
+        } else if (len > 1) {
+            // this is a type error - reuse the error messages
+            return ExpressionTool.effectiveBooleanValue(iterate(context));
+        } else {
+            return ((AtomicValue)itemAt(0)).effectiveBooleanValue(context);
+        }
+    }
+
+    // Operations on the tree. None of these modify an existing node.
+
+    /**
+     * Concatenate two trees, merging the adjacent leaves if they are small enough
+     */
+
+    private static Node concat(Node a, Node b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        if (b instanceof Leaf) {
+            Leaf last = rightmostLeaf(a);
+            if (last.size + b.size <= MAX_LEAF) {
+                return replaceRightmostLeaf(a, mergeLeaves(last, (Leaf)b));
+            }
+        }
+        if (a instanceof Leaf) {
+            Leaf first = leftmostLeaf(b);
+            if (a.size + first.size <= MAX_LEAF) {
+                return replaceLeftmostLeaf(b, mergeLeaves((Leaf)a, first));
+            }
+        }
+        return join(a, b);
+    }
+
+    /**
+     * Join two balanced trees, descending the spine of the taller tree until
+     * a subtree of similar height to the shorter tree is found
+     */
+
+    private static Node join(Node a, Node b) {
+        if (a.height > b.height + 1) {
+            Branch x = (Branch)a;
+            return balance(x.left, join(x.right, b));
+        } else if (b.height > a.height + 1) {
+            Branch y = (Branch)b;
+            return balance(join(a, y.left), y.right);
+        } else {
+            return new Branch(a, b);
+        }
+    }
+
+    /**
+     * Make a branch node from two subtrees whose heights differ by at most two,
+     * performing a rotation if necessary to restore the balance
+     */
+
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            Branch x = (Branch)left;
+            if (x.left.height >= x.right.height) {
+                return new Branch(x.left, new Branch(x.right, right));
+            }
+            Branch y = (Branch)x.right;
+            return new Branch(new Branch(x.left, y.left), new Branch(y.right, right));
+        } else if (right.height > left.height + 1) {
+            Branch x = (Branch)right;
+            if (x.right.height >= x.left.height) {
+                return new Branch(new Branch(left, x.left), x.right);
+            }
+            Branch y = (Branch)x.left;
+            return new Branch(new Branch(left, y.left), new Branch(y.right, x.right));
+        } else {
+            return new Branch(left, right);
+        }
+    }
+
+    /**
+     * Get a tree containing the first k items of a tree
+     */
+
+    private static Node take(Node node, int k) {
+        if (k <= 0) {
+            return null;
+        } else if (k >= node.size) {
+            return node;
+        } else if (node instanceof Leaf) {
+            Item[] items = new Item[k];
+            System.arraycopy(((Leaf)node).items, 0, items, 0, k);
+            return new Leaf(items);
+        }
+        Branch b = (Branch)node;
+        if (k <= b.left.size) {
+            return take(b.left, k);
+        } else {
+            return concat(b.left, take(b.right, k - b.left.size));
+        }
+    }
+
+    /**
+     * Get a tree containing all but the first k items of a tree
+     */
+
+    private static Node drop(Node node, int k) {
+        if (k <= 0) {
+            return node;
+        } else if (k >= node.size) {
+            return null;
+        } else if (node instanceof Leaf) {
+            Item[] items = new Item[node.size - k];
+            System.arraycopy(((Leaf)node).items, k, items, 0, items.length);
+            return new Leaf(items);
+        }
+        Branch b = (Branch)node;
+        if (k >= b.left.size) {
+            return drop(b.right, k - b.left.size);
+        } else {
+            return concat(drop(b.left, k), b.right);
+        }
+    }
+
+    private static Leaf rightmostLeaf(Node node) {
+        while (node instanceof Branch) {
+            node = ((Branch)node).right;
+        }
+        return (Leaf)node;
+    }
+
+    private static Leaf leftmostLeaf(Node node) {
+        while (node instanceof Branch) {
+            node = ((Branch)node).left;
+        }
+        return (Leaf)node;
+    }
+
+    private static Node replaceRightmostLeaf(Node node, Leaf leaf) {
+        if (node instanceof Leaf) {
+            return leaf;
+        }
+        Branch b = (Branch)node;
+        return new Branch(b.left, replaceRightmostLeaf(b.right, leaf));
+    }
+
+    private static Node replaceLeftmostLeaf(Node node, Leaf leaf) {
+        if (node instanceof Leaf) {
+            return leaf;
+        }
+        Branch b = (Branch)node;
+        return new Branch(replaceLeftmostLeaf(b.left, leaf), b.right);
+    }
+
+    private static Leaf mergeLeaves(Leaf a, Leaf b) {
+        Item[] items = new Item[a.size + b.size];
+        System.arraycopy(a.items, 0, items, 0, a.size);
+        System.arraycopy(b.items, 0, items, a.size, b.size);
+        return new Leaf(items);
+    }
+
+    /**
+     * A node in the tree
+     */
+
+    private static abstract class Node implements Serializable {
+        int size;       // the number of items in the subtree
+        int height;     // zero for a leaf
+    }
+
+    /**
+     * A leaf node, holding between 1 and MAX_LEAF items
+     */
+
+    private static final class Leaf extends Node {
+
+        Item[] items;
+
+        Leaf(Item[] items) {
+            this.items = items;
+            this.size = items.length;
+            this.height = 0;
+        }
+    }
+
+    /**
+     * A branch node, which always has two children
+     */
+
+    private static final class Branch extends Node {
+
+        Node left;
+        Node right;
+
+        Branch(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.size = left.size + right.size;
+            this.height = Math.max(left.height, right.height) + 1;
+        }
+    }
+
+    /**
+     * An iterator over the items in a PersistentSequence. Because the iterator is grounded, a sequence
+     * obtained by materializing the results of the iterator shares the tree rather than copying the items.
+     */
+
+    public static final class PersistentSequenceIterator
+            implements LastPositionFinder, LookaheadIterator, GroundedIterator {
+
+        private PersistentSequence sequence;
+        private Node[] stack;       // right-hand subtrees still to be visited
+        private int sp = 0;
+        private Item[] leaf;        // the leaf currently being visited
+        private int index = 0;      // position of the next item within the current leaf
+        private int position = 0;
+        private Item current = null;
+
+        public PersistentSequenceIterator(PersistentSequence sequence) {
+            this.sequence = sequence;
+            Node root = sequence.root;
+            stack = new Node[root == null ? 0 : root.height];
+            if (root != null) {
+                descend(root);
+            }
+        }
+
+        private void descend(Node node) {
+            while (node instanceof Branch) {
+                stack[sp++] = ((Branch)node).right;
+                node = ((Branch)node).left;
+            }
+            leaf = ((Leaf)node).items;
+            index = 0;
+        }
+
+        /**
+         * Get the sequence over which this iterator is iterating
+         */
+
+        public PersistentSequence getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Create an iterator over a subsequence of the items, with a given start and end position.
+         * This method is intended to be called on a new iterator, before any items have been read.
+         * @param min the start position (1-based) of the subsequence
+         * @param max the end position (1-based) of the last item to be delivered, or
+         * Integer.MAX_VALUE if there is no end limit
+         */
+
+        public SequenceIterator makeSliceIterator(int min, int max) {
+            if (min < 1) {
+                min = 1;
+            }
+            if (max < min) {
+                return EmptyIterator.getInstance();
+            }
+            long length = (long)max - min + 1;
+            return new PersistentSequenceIterator(
+                    sequence.subsequence(min - 1, (int)Math.min(length, Integer.MAX_VALUE)));
+        }
+
+        public boolean hasNext() {
+            return (leaf != null && index < leaf.length) || sp > 0;
+        }
+
+        public Item next() {
+            if (leaf == null || index >= leaf.length) {
+                if (sp == 0) {
+                    leaf = null;
+                    current = null;
+                    position = -1;
+                    return null;
+                }
+                descend(stack[--sp]);
+            }
+            current = leaf[index++];
+            position++;
+            return current;
+        }
+
+        public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public int getLastPosition() {
+            return sequence.getLength();
+        }
+
+        public SequenceIterator getAnother() {
+            return new PersistentSequenceIterator(sequence);
+        }
+
+        public Value materialize() {
+            return sequence.simplify();
+        }
+
+        /**
+         * Get properties of this iterator, as a bit-significant integer.
+         *
+         * @return the properties of this iterator. This will be some combination of
+         *         properties such as {@link #GROUNDED}, {@link #LAST_POSITION_FINDER},
+         *         and {@link #LOOKAHEAD}. It is always
+         *         acceptable to return the value zero, indicating that there are no known special properties.
+         *         It is acceptable for the properties of the iterator to change depending on its state.
+         */
+
+        public int getProperties() {
+            return GROUNDED | LAST_POSITION_FINDER | LOOKAHEAD;
+        }
+    }
+
+    /**
+     * Interface implemented by expressions that compute a new sequence from an existing sequence, and that
+     * can do so efficiently when the existing sequence is a PersistentSequence. When such an expression is
+     * bound to a variable, or passed as an argument to a function, and its base sequence is itself held in
+     * a variable, it is evaluated eagerly to produce a PersistentSequence, so that a sequence that is built
+     * up by a series of recursive calls shares its structure from one call to the next.
+     */
+
+    public interface Updater extends Expression {
+
+        /**
+         * Get the expression that supplies the existing sequence
+         */
+
+        public Expression getBaseExpression();
+
+        /**
+         * Evaluate the expression, given the value of the base expression as a PersistentSequence
+         * @param base the value of the base expression
+         * @param context the dynamic evaluation context
+         * @return the result of the expression
+         */
+
+        public PersistentSequence update(PersistentSequence base, XPathContext context) throws XPathException;
+    }
+
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -387,6 +387,30 @@ public abstract class Value implements Expression, Serializable, ValueRepresenta
         return value.getStringValue();
     }
 
+    /**
+     * Evaluate a value whose type is a single xs:integer as a Java long
+     */
+
+    public long evaluateAsLong(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (item instanceof IntegerValue) {
+            return ((IntegerValue)item).longValue();
+        }
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
+    /**
+     * Evaluate a value whose type is a single numeric value as a Java double
+     */
+
+    public double evaluateAsDouble(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (item instanceof NumericValue) {
+            return ((NumericValue)item).getDoubleValue();
+        }
+        throw NumericValue.NOT_PRIMITIVE;
+    }
+
 
     /**
      * Get the effective boolean value of the expression. This returns false if the value
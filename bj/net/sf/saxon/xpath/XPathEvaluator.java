@@ -8,6 +8,7 @@ import net.sf.saxon.expr.XPathContextMajor;
 import net.sf.saxon.instruct.SlotManager;
 import net.sf.saxon.om.AllElementStripper;
 import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.type.SchemaException;
@@ -144,8 +145,15 @@ public class XPathEvaluator implements XPath {
     */
 
     public XPathExpressionImpl createExpression(String expression) throws net.sf.saxon.trans.XPathException {
-        Expression exp = ExpressionTool.make(expression, staticContext,0,-1,1);
-        exp = exp.typeCheck(staticContext, Type.ITEM_TYPE);
+        Expression exp;
+        NamePool pool = staticContext.getNamePool();
+        pool.startPinning();
+        try {
+            exp = ExpressionTool.make(expression, staticContext,0,-1,1);
+            exp = exp.typeCheck(staticContext, Type.ITEM_TYPE);
+        } finally {
+            pool.endPinning();
+        }
         SlotManager map = staticContext.getConfiguration().makeSlotManager();
         ExpressionTool.allocateSlots(exp, 0, map);
         XPathExpressionImpl xpe = new XPathExpressionImpl(exp, config);
@@ -0,0 +1,66 @@
+package net.sf.saxon.test;
+
+/**
+ * Run all the regression tests. The exit code is non-zero if any test fails.
+ */
+
+public class AllTests {
+
+    private static RegressionTest[] makeTests() {
+        return new RegressionTest[] {
+            new TinyTreeIndexTest(),
+            new ProjectionTest(),
+            new StreamTest(),
+            new BuiltInParserTest(),
+            new BatchTest(),
+            new BytecodeTest(),
+            new ArithmeticTest(),
+            new PersistentSequenceTest(),
+            new TinyTreeCopyTest(),
+            new LetInliningTest(),
+            new TemporaryTreeTest(),
+            new CollationSortTest(),
+            new NormalizerTest(),
+            new MetricsTest(),
+            new NamePoolTest(),
+            new StartupTest(),
+            new AsyncOutputTest(),
+            new CompressionTest(),
+            new UnparsedTextTest(),
+            new RegexTest(),
+            new DistinctValuesTest(),
+            new CallReuseTest(),
+            new ParallelGlobalTest(),
+            new ParallelForEachTest(),
+            new ParallelCompileTest()
+        };
+    }
+
+    public static void main(String[] args) {
+        RegressionTest[] tests = makeTests();
+        int failures = 0;
+        for (int i=0; i<tests.length; i++) {
+            failures += tests[i].runTests();
+        }
+        System.err.println(failures == 0 ? "All tests passed" : failures + " tests failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
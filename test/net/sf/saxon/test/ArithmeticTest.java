@@ -0,0 +1,116 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.pattern.AnyNodeTest;
+import net.sf.saxon.pattern.NodeTestPattern;
+import net.sf.saxon.pattern.PatternSponsor;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.NumericValue;
+
+/**
+ * Tests of arithmetic and comparisons on integers and doubles, covering the cases in which the
+ * evaluation as a Java long or double cannot deliver the result and the general path must be taken
+ */
+
+public class ArithmeticTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new ArithmeticTest().runAndExit();
+    }
+
+    private static void check(String query, String expected) throws XPathException {
+        assertEquals(query, expected, runQuery(new Configuration(), query, null));
+    }
+
+    /**
+     * Check that a query fails
+     * @param expectedCode the expected error code, or null if any error is acceptable
+     */
+
+    private static void checkError(String query, String expectedCode) {
+        try {
+            String result = runQuery(makeSilentConfiguration(), query, null);
+            fail(query + ": expected error " + expectedCode + ", but got <" + result + ">");
+        } catch (XPathException err) {
+            if (expectedCode != null) {
+                assertEquals(query, expectedCode, err.getErrorCodeLocalPart());
+            }
+        }
+    }
+
+    public void testIntegerArithmetic() throws Exception {
+        check("let $x := 7 return (($x * 3 + 2) * 5 - $x) mod 4", "0");
+        check("for $i in (1, 2, 3) return ($i * 10 idiv 4, -$i mod 2)", "2 -1 5 0 7 -1");
+        check("sum(for $i in 1 to 100000 return ($i * 3) mod 7)", "300002");
+    }
+
+    public void testIntegerOverflow() throws Exception {
+        check("for $i in (9223372036854775806, 9223372036854775807) return $i + 1",
+                "9223372036854775807 9223372036854775808");
+        check("-9223372036854775808 - 1", "-9223372036854775809");
+        check("for $i in (3037000499, 3037000500) return $i * $i",
+                "9223372030926249001 9223372037000250000");
+        check("xs:integer('-9223372036854775808') idiv -1", "9223372036854775808");
+        check("-(xs:integer('-9223372036854775808'))", "9223372036854775808");
+    }
+
+    public void testDivisionByZero() throws Exception {
+        checkError("for $i in (2, 0) return 10 idiv $i", "FOAR0001");
+        // this error has no error code
+        checkError("for $i in (2, 0) return 10 mod $i", null);
+        check("for $d in (2e0, 0e0) return 1 div $d", "0.5 INF");
+    }
+
+    public void testDoubleArithmetic() throws Exception {
+        check("for $i in 1 to 5 return $i * 1.5e0", "1.5 3 4.5 6 7.5");
+        check("for $d in (7.5e0, -7.5e0) return ($d mod 2, $d idiv 2)", "1.5 3 -1.5 -3");
+    }
+
+    public void testComparisons() throws Exception {
+        check("(1 lt 2, 9223372036854775807 lt 9223372036854775808, 2 eq 2.0, 1e0 div 0 gt 1, " +
+                "xs:double('NaN') eq xs:double('NaN'), xs:double('NaN') ne 1)", "true true true true false true");
+        check("for $i in 1 to 6 return $i ge 3 and $i lt 5", "false false true true false false");
+    }
+
+    public void testSharedIntegers() throws Exception {
+        check("(for $i in 1 to 2000 return $i)[position() = (5, 1024, 1500)]", "5 1024 1500");
+        check("count(1 to 5000), string-length('abc'), index-of((4, 5, 6), 6), (7, 8, 9)[last()]", "5000 3 3 9");
+        check("xs:byte(5) instance of xs:byte, 5 instance of xs:byte, (xs:byte(5) + 1) instance of xs:byte",
+                "true false false");
+    }
+
+    public void testPatternIsNotNumeric() throws Exception {
+        PatternSponsor sponsor = new PatternSponsor(new NodeTestPattern(AnyNodeTest.getInstance()));
+        try {
+            sponsor.evaluateAsLong(null);
+            fail("evaluateAsLong() on a pattern should not deliver a value");
+        } catch (ArithmeticException err) {
+            assertTrue("evaluateAsLong", err == NumericValue.NOT_PRIMITIVE);
+        }
+        try {
+            sponsor.evaluateAsDouble(null);
+            fail("evaluateAsDouble() on a pattern should not deliver a value");
+        } catch (ArithmeticException err) {
+            assertTrue("evaluateAsDouble", err == NumericValue.NOT_PRIMITIVE);
+        }
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
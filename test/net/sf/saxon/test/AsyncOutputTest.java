@@ -0,0 +1,178 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+/**
+ * Tests of asynchronous output (the serialization property saxon:async-output), including checks
+ * that no writer thread is left running when a transformation or query fails
+ */
+
+public class AsyncOutputTest extends RegressionTest {
+
+    private static final String THREAD_NAME = "Saxon asynchronous output";
+
+    public static void main(String[] args) {
+        new AsyncOutputTest().runAndExit();
+    }
+
+    /**
+     * Make a stylesheet that writes a few hundred KB of output, and then optionally fails
+     */
+
+    private static String makeStylesheet(boolean async, boolean fail) {
+        return "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' " +
+                "xmlns:saxon='http://saxon.sf.net/'>" +
+                "<xsl:output saxon:async-output='" + (async ? "yes" : "no") + "'/>" +
+                "<xsl:template match='/'><out>" +
+                "<xsl:for-each select='1 to 20000'><item n='{.}'>text <xsl:value-of select='.'/></item>" +
+                "</xsl:for-each>" +
+                (fail ? "<xsl:value-of select=\"error(QName('http://example.com/', 'fail'), 'failed')\"/>" : "") +
+                "</out></xsl:template></xsl:stylesheet>";
+    }
+
+    private static Configuration makeConfiguration() {
+        Configuration config = makeSilentConfiguration();
+        config.setAsyncOutputBufferCount(2);
+        config.setAsyncOutputBufferSize(1024);
+        return config;
+    }
+
+    private static void transform(Configuration config, String stylesheet, OutputStream out)
+            throws TransformerException {
+        Templates templates = new TransformerFactoryImpl(config).newTemplates(
+                new StreamSource(new StringReader(stylesheet)));
+        templates.newTransformer().transform(
+                new StreamSource(new StringReader("<a/>")), new StreamResult(out));
+    }
+
+    /**
+     * Count the writer threads that are still alive, allowing time for threads that have been told to
+     * stop to finish
+     */
+
+    private static int countWriterThreads() throws InterruptedException {
+        int count = 0;
+        for (int attempt=0; attempt<50; attempt++) {
+            Thread[] threads = new Thread[Thread.activeCount() + 10];
+            int n = Thread.enumerate(threads);
+            count = 0;
+            for (int i=0; i<n; i++) {
+                if (THREAD_NAME.equals(threads[i].getName())) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return count;
+    }
+
+    public void testOutputIsUnchanged() throws Exception {
+        ByteArrayOutputStream sync = new ByteArrayOutputStream();
+        transform(makeConfiguration(), makeStylesheet(false, false), sync);
+        ByteArrayOutputStream async = new ByteArrayOutputStream();
+        transform(makeConfiguration(), makeStylesheet(true, false), async);
+        assertTrue("output is not the same", sync.toString("UTF-8").equals(async.toString("UTF-8")));
+        assertEquals("writer threads left running", 0, countWriterThreads());
+    }
+
+    public void testNoThreadLeftAfterDynamicError() throws Exception {
+        Configuration config = makeConfiguration();
+        String stylesheet = makeStylesheet(true, true);
+        for (int i=0; i<50; i++) {
+            try {
+                transform(config, stylesheet, new ByteArrayOutputStream());
+                fail("transformation did not fail");
+            } catch (TransformerException e) {
+                // expected
+            }
+        }
+        assertEquals("writer threads left running", 0, countWriterThreads());
+    }
+
+    public void testNoThreadLeftAfterWriteError() throws Exception {
+        Configuration config = makeConfiguration();
+        String stylesheet = makeStylesheet(true, false);
+        for (int i=0; i<50; i++) {
+            try {
+                transform(config, stylesheet, new FailingOutputStream(5000));
+                fail("transformation did not fail");
+            } catch (TransformerException e) {
+                // expected
+            }
+        }
+        assertEquals("writer threads left running", 0, countWriterThreads());
+    }
+
+    public void testNoThreadLeftAfterQueryError() throws Exception {
+        Configuration config = makeConfiguration();
+        StaticQueryContext env = new StaticQueryContext(config);
+        XQueryExpression exp = env.compileQuery(
+                "declare namespace saxon='http://saxon.sf.net/'; " +
+                "declare option saxon:output 'saxon:async-output=yes'; " +
+                "<out>{for $i in 1 to 20000 return <item n='{$i}'>text {$i}</item>, " +
+                "error(QName('http://example.com/', 'fail'), 'failed')}</out>");
+        for (int i=0; i<50; i++) {
+            try {
+                exp.run(new DynamicQueryContext(config), new StreamResult(new ByteArrayOutputStream()), null);
+                fail("query did not fail");
+            } catch (XPathException e) {
+                // expected
+            }
+        }
+        assertEquals("writer threads left running", 0, countWriterThreads());
+    }
+
+    /**
+     * An OutputStream that fails after a given number of bytes have been written
+     */
+
+    private static class FailingOutputStream extends OutputStream {
+
+        private int remaining;
+
+        public FailingOutputStream(int limit) {
+            remaining = limit;
+        }
+
+        public void write(int b) throws IOException {
+            if (--remaining < 0) {
+                throw new IOException("Simulated write failure");
+            }
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,242 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.BatchProcessor;
+import net.sf.saxon.Query;
+import net.sf.saxon.Transform;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests of the processing of a directory of source documents on several threads (the -threads option
+ * of the Transform and Query command line interfaces)
+ */
+
+public class BatchTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new BatchTest().runAndExit();
+    }
+
+    private int running = 0;
+    private int maxRunning = 0;
+
+    public void testDiagnosticsInTaskOrder() throws Exception {
+        final Random random = new Random(42);
+        List tasks = new ArrayList();
+        StringBuffer expected = new StringBuffer();
+        int expectedFailures = 0;
+        for (int i=0; i<40; i++) {
+            final int n = i;
+            final long delay = random.nextInt(20);
+            tasks.add(new BatchProcessor.Task("task" + n) {
+                public void run(PrintStream err) throws Exception {
+                    started();
+                    try {
+                        err.println("output of task " + n);
+                        Thread.sleep(delay);
+                        if (n % 7 == 3) {
+                            throw new Exception("bad " + n);
+                        }
+                    } finally {
+                        stopped();
+                    }
+                }
+            });
+            expected.append("output of task ").append(n).append('\n');
+            if (n % 7 == 3) {
+                expected.append("While processing task").append(n).append(": bad ").append(n).append("\n\n");
+                expectedFailures++;
+            }
+        }
+        PrintStream savedErr = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        int failures;
+        try {
+            System.setErr(new PrintStream(captured, true));
+            failures = new BatchProcessor(4).run(tasks);
+        } finally {
+            System.setErr(savedErr);
+        }
+        assertEquals("failures", expectedFailures, failures);
+        assertEquals("diagnostics", expected.toString(), captured.toString().replaceAll("\r\n", "\n"));
+        assertTrue("tasks should run concurrently, but at most 4 at a time: " + maxRunning,
+                maxRunning > 1 && maxRunning <= 4);
+    }
+
+    private synchronized void started() {
+        running++;
+        maxRunning = Math.max(maxRunning, running);
+    }
+
+    private synchronized void stopped() {
+        running--;
+    }
+
+    private static File makeDirectory() throws IOException {
+        File dir = File.createTempFile("saxontest", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static File makeSourceDirectory() throws IOException {
+        File dir = makeDirectory();
+        for (int i=0; i<30; i++) {
+            File f = new File(dir, "doc" + i + ".xml");
+            f.deleteOnExit();
+            Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+            w.write("<doc n='" + i + "'>");
+            for (int j=0; j<100; j++) {
+                w.write("<v>" + (i * j % 17) + "</v>");
+            }
+            w.write("</doc>");
+            w.close();
+        }
+        return dir;
+    }
+
+    private static File writeFile(String suffix, String content) throws IOException {
+        File f = File.createTempFile("saxontest", suffix);
+        f.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        w.write(content);
+        w.close();
+        return f;
+    }
+
+    private static String readFile(File file) throws IOException {
+        Reader r = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuffer sb = new StringBuffer();
+        char[] buf = new char[4096];
+        int n;
+        while ((n = r.read(buf)) >= 0) {
+            sb.append(buf, 0, n);
+        }
+        r.close();
+        return sb.toString();
+    }
+
+    /**
+     * Compare the files in two output directories, which must contain one file for each source document
+     */
+
+    private static void compareDirectories(File expected, File actual) throws IOException {
+        String[] names = expected.list();
+        assertEquals("number of output files", 30, names.length);
+        assertEquals("number of output files", names.length, actual.list().length);
+        for (int i=0; i<names.length; i++) {
+            File e = new File(expected, names[i]);
+            File a = new File(actual, names[i]);
+            e.deleteOnExit();
+            a.deleteOnExit();
+            assertEquals(names[i], readFile(e), readFile(a));
+        }
+    }
+
+    /**
+     * Get the lines written to System.err by an action that are xsl:message output
+     */
+
+    private static String messages(String err) {
+        StringBuffer sb = new StringBuffer();
+        String[] lines = err.split("\r?\n");
+        for (int i=0; i<lines.length; i++) {
+            if (lines[i].startsWith("message ")) {
+                sb.append(lines[i]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    public void testTransformDirectory() throws Exception {
+        File source = makeSourceDirectory();
+        File style = writeFile(".xsl",
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:template match='/'><xsl:message>message <xsl:value-of select='doc/@n'/></xsl:message>" +
+                "<out n='{doc/@n}' sum='{sum(//v)}'><xsl:copy-of select='//v[. > 12]'/></out></xsl:template>" +
+                "</xsl:stylesheet>");
+        File sequential = makeDirectory();
+        File parallel = makeDirectory();
+        String err1 = runTransform(new String[]{"-o", sequential.getPath(), source.getPath(), style.getPath()});
+        String err2 = runTransform(new String[]{"-threads", "3", "-o", parallel.getPath(), source.getPath(), style.getPath()});
+        compareDirectories(sequential, parallel);
+        assertEquals("messages", messages(err1), messages(err2));
+        assertTrue("summary", err2.indexOf("Processed 30 files") >= 0);
+    }
+
+    public void testQueryDirectory() throws Exception {
+        File source = makeSourceDirectory();
+        File query = writeFile(".xq", "<out n='{doc/@n}'>{sum(//v), count(//v[. > 12])}</out>");
+        File sequential = makeDirectory();
+        File parallel = makeDirectory();
+        runQuery(new String[]{"-s", source.getPath(), "-o", sequential.getPath(), query.getPath()});
+        String err = runQuery(new String[]{"-threads", "3", "-s", source.getPath(), "-o", parallel.getPath(), query.getPath()});
+        compareDirectories(sequential, parallel);
+        assertTrue("summary", err.indexOf("Processed 30 files") >= 0);
+    }
+
+    private static String runTransform(final String[] args) {
+        return captureErr(new Runnable() {
+            public void run() {
+                new Transform().doTransform(args, "java net.sf.saxon.Transform");
+            }
+        });
+    }
+
+    private static String runQuery(final String[] args) {
+        return captureErr(new Runnable() {
+            public void run() {
+                new CommandLineQuery().run(args);
+            }
+        });
+    }
+
+    /**
+     * Perform an action, returning what it writes to System.err
+     */
+
+    private static String captureErr(Runnable action) {
+        PrintStream savedErr = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try {
+            System.setErr(new PrintStream(captured, true));
+            action.run();
+        } finally {
+            System.setErr(savedErr);
+        }
+        return captured.toString();
+    }
+
+    /**
+     * Subclass of Query giving access to the method that runs the command line interface
+     */
+
+    private static class CommandLineQuery extends Query {
+        void run(String[] args) {
+            doQuery(args, "java net.sf.saxon.Query");
+        }
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,155 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.query.QueryResult;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.trans.XPathException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.Properties;
+
+/**
+ * Tests of the built-in XML parser. Each document is parsed with the built-in parser and with the SAX
+ * parser, and the resulting trees are compared; each malformed document must be rejected by both.
+ */
+
+public class BuiltInParserTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new BuiltInParserTest().runAndExit();
+    }
+
+    private static final String[] DOCUMENTS = {
+        "<?xml version='1.0'?><a xmlns='http://d/' xmlns:p='http://p/'><p:b p:x='1' y=\"2\"><c xmlns=''/></p:b></a>",
+        "<a>&lt;&gt;&amp;&quot;&apos;&#65;&#x42;&#x1F600;<![CDATA[<x>&amp;]]></a>",
+        "<a x='a\tb\nc\r\nd &#9; &#10; e'>line1\r\nline2\rline3\n</a>",
+        "<!-- c1 --><?pi data?>\n<a><!--c2--><?p2?></a><!--c3-->\n",
+        "\ufeff<a>caf\u00e9 \u4e2d\u6587 \ud83d\ude00</a>",
+        "<a  >  <b\n/>\n</a  >",
+        "<a xmlns:p='http://p/'><p:b/><b xmlns:p='http://q/'><p:c p:d='x'/></b></a>",
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n<a><b>1</b><b>2</b><b>1</b></a>",
+    };
+
+    private static final String[] MALFORMED = {
+        "<a><b></a>",
+        "<a x='1' x='2'/>",
+        "<p:a/>",
+        "<a>&#0;</a>",
+        "<a x='<'/>",
+        "<a><!-- a -- b --></a>",
+        "<a>]]></a>",
+        "<a>&undefined;</a>",
+        "<a></a><b/>",
+        "<a>",
+        "text<a/>",
+        "<a b='1'c='2'/>",
+        "<a xmlns:p='http://p/' p:x='1' xmlns:q='http://p/' q:x='2'/>",
+    };
+
+    /**
+     * A Configuration that counts the SAX parsers it supplies
+     */
+
+    private static class CountingConfiguration extends Configuration {
+
+        private int saxParsersUsed = 0;
+
+        public synchronized XMLReader getSourceParser() {
+            saxParsersUsed++;
+            return super.getSourceParser();
+        }
+    }
+
+    private static CountingConfiguration makeConfiguration(boolean builtIn) {
+        CountingConfiguration config = new CountingConfiguration();
+        config.setErrorListener(new SilentErrorListener());
+        config.setUseBuiltInParser(builtIn);
+        return config;
+    }
+
+    private static String parse(Configuration config, byte[] bytes) throws XPathException {
+        StreamSource source = new StreamSource(new ByteArrayInputStream(bytes), "file:///test.xml");
+        DocumentInfo doc = new StaticQueryContext(config).buildDocument(source);
+        Properties props = new Properties();
+        props.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        props.setProperty(OutputKeys.ENCODING, "US-ASCII");
+        StringWriter sw = new StringWriter();
+        QueryResult.serialize(doc, new StreamResult(sw), props, config);
+        return sw.toString();
+    }
+
+    /**
+     * Parse a document with both parsers and compare the results
+     * @param expectBuiltIn true if the built-in parser is expected to handle the document itself, false if
+     * it is expected to hand the document over to the SAX parser
+     */
+
+    private static void compare(String message, byte[] bytes, boolean expectBuiltIn) throws Exception {
+        String expected = parse(makeConfiguration(false), bytes);
+        CountingConfiguration config = makeConfiguration(true);
+        assertEquals(message, expected, parse(config, bytes));
+        assertEquals(message + ": SAX parsers used", (expectBuiltIn ? 0 : 1), config.saxParsersUsed);
+    }
+
+    public void testWellFormed() throws Exception {
+        for (int i=0; i<DOCUMENTS.length; i++) {
+            compare(DOCUMENTS[i], DOCUMENTS[i].getBytes("UTF-8"), true);
+        }
+    }
+
+    public void testEncodings() throws Exception {
+        String latin = "<?xml version='1.0' encoding='ISO-8859-1'?><a x='\u00e9'>caf\u00e9 \u00ff</a>";
+        compare("ISO-8859-1", latin.getBytes("ISO-8859-1"), true);
+        String ascii = "<?xml version='1.0' encoding='US-ASCII'?><a>&#233;</a>";
+        compare("US-ASCII", ascii.getBytes("US-ASCII"), true);
+        compare("UTF-16", "<a>caf\u00e9</a>".getBytes("UTF-16"), false);
+    }
+
+    public void testDoctype() throws Exception {
+        String doc = "<!DOCTYPE a [<!ENTITY e 'entity'><!ATTLIST a d CDATA 'default'>]><a>&e;</a>";
+        compare("DOCTYPE", doc.getBytes("UTF-8"), false);
+    }
+
+    public void testMalformed() throws Exception {
+        for (int i=0; i<MALFORMED.length; i++) {
+            byte[] bytes = MALFORMED[i].getBytes("UTF-8");
+            try {
+                parse(makeConfiguration(false), bytes);
+                fail(MALFORMED[i] + ": not rejected by the SAX parser");
+            } catch (XPathException err) {
+                // expected
+            }
+            try {
+                String result = parse(makeConfiguration(true), bytes);
+                fail(MALFORMED[i] + ": not rejected by the built-in parser, result <" + result + ">");
+            } catch (XPathException err) {
+                // expected
+            }
+        }
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,107 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.codegen.CompiledEvaluator;
+import net.sf.saxon.codegen.CompiledExpression;
+import net.sf.saxon.codegen.ExpressionCompiler;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.value.IntegerValue;
+
+/**
+ * Tests of the generation of bytecode for stylesheets and queries. Each query is run with and without
+ * bytecode generation, and the results (or the error codes) are compared.
+ */
+
+public class BytecodeTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new BytecodeTest().runAndExit();
+    }
+
+    private static final String[] QUERIES = {
+        "for $i in 1 to 20 return $i * $i - 3 * $i + 2",
+        "for $i in 1 to 20 return ($i idiv 3, $i mod 3, -$i mod 3, $i div 4)",
+        "for $d in (1.5e0, -2.25e0, 0e0, -0e0) return ($d * 2 + 1, $d div 0e0, $d mod 0.75e0)",
+        "for $i in 1 to 10 return (if ($i mod 2 = 0 and $i gt 4 or not($i lt 3)) then $i * 10 else -$i)",
+        "for $i in (1, 2, 3) let $x := $i * 9223372036854775 let $y := $x * 1000 return $y + 1",
+        "let $n := xs:double('NaN') return ($n lt 1, $n le 1, $n gt 1, $n ge 1, $n eq $n, $n ne $n)",
+        "for $i in (9223372036854775807, -9223372036854775808) return ($i + 1, $i - 1, -$i, $i * 2)",
+        "for $i in 1 to 5 return (if ($i * 1.5e0 > 4) then $i + 0.5e0 else $i div 2e0)",
+        "sum(for $i in 1 to 1000 return if ($i mod 7 = 0 or $i mod 11 = 0) then $i * $i else 0)",
+        "declare function local:f($n as xs:integer) as xs:integer { if ($n le 1) then 1 else $n * local:f($n - 1) };" +
+            " (local:f(20), local:f(21), local:f(25))",
+        "declare function local:g($a as xs:double, $b as xs:integer) as xs:boolean { $a * $b gt 10 or $b eq 0 };" +
+            " for $i in 0 to 5 return local:g(2.5e0, $i)",
+        "for $i in (4, 0) return 100 idiv $i",
+        "for $i in (4, 0) return 100 mod $i",
+    };
+
+    private static String evaluate(boolean generate, String query) {
+        Configuration config = makeSilentConfiguration();
+        config.setGenerateByteCode(generate);
+        try {
+            return runQuery(config, query, null);
+        } catch (Exception err) {
+            return "error: " + err.getMessage();
+        }
+    }
+
+    public void testQueries() {
+        for (int i=0; i<QUERIES.length; i++) {
+            assertEquals(QUERIES[i], evaluate(false, QUERIES[i]), evaluate(true, QUERIES[i]));
+        }
+    }
+
+    public void testStylesheet() throws Exception {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:f='http://f/' exclude-result-prefixes='xs f'>" +
+                "<xsl:function name='f:collatz' as='xs:integer'><xsl:param name='n' as='xs:integer'/>" +
+                "<xsl:param name='steps' as='xs:integer'/>" +
+                "<xsl:sequence select='if ($n eq 1) then $steps else if ($n mod 2 eq 0)" +
+                " then f:collatz($n idiv 2, $steps + 1) else f:collatz(3 * $n + 1, $steps + 1)'/></xsl:function>" +
+                "<xsl:template match='/'><out><xsl:for-each select='1 to 30'>" +
+                "<xsl:value-of select='f:collatz(., 0), . * . div 3e0, . mod 4 = 1 and . gt 10'/>;" +
+                "</xsl:for-each></out></xsl:template></xsl:stylesheet>";
+        Configuration interpreted = new Configuration();
+        Configuration compiled = new Configuration();
+        compiled.setGenerateByteCode(true);
+        assertEquals("stylesheet", runTransformation(interpreted, xsl, "<a/>"),
+                runTransformation(compiled, xsl, "<a/>"));
+    }
+
+    public void testUnimplementedMethodFallsBack() throws Exception {
+        // a generated class implements only one of the evaluation methods; the others use the interpreter
+        CompiledEvaluator evaluator = new CompiledEvaluator() {
+            public long evaluateLong(XPathContext context) {
+                return 7;
+            }
+        };
+        CompiledExpression exp = new CompiledExpression(
+                IntegerValue.makeIntegerValue(5), new Expression[0], ExpressionCompiler.DOUBLE, evaluator);
+        XPathContext context = new Controller(new Configuration()).newXPathContext();
+        assertEquals("evaluateItem", "5", exp.evaluateItem(context).getStringValue());
+        assertTrue("evaluateAsDouble", exp.evaluateAsDouble(context) == 5.0);
+        assertTrue("effectiveBooleanValue", exp.effectiveBooleanValue(context));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
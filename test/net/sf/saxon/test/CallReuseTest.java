@@ -0,0 +1,200 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.ContextItemExpression;
+import net.sf.saxon.expr.XPathContextMajor;
+import net.sf.saxon.value.Closure;
+
+/**
+ * Tests of function and template calls whose contexts and stack frames are reused by later calls.
+ * Most of the tests construct values that are evaluated lazily, after further calls have been made,
+ * to check that a stack frame that is still in use is not reused.
+ */
+
+public class CallReuseTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new CallReuseTest().runAndExit();
+    }
+
+    private static final String[][] QUERIES = {
+        {"declare function local:fib($n as xs:integer) as xs:integer { if ($n lt 2) then $n else local:fib($n - 1) + local:fib($n - 2) }; " +
+                "local:fib(20)",
+                "6765"},
+        // lazily-evaluated results of a function, consumed after further calls to the same function
+        {"declare function local:f($n) { for $i in 1 to $n return $i * 10 }; " +
+                "let $a := local:f(3) let $b := local:f(4) return (local:f(5)[5], $a, $b, $a)",
+                "50 10 20 30 10 20 30 40 10 20 30"},
+        {"declare function local:f($n) { for $i in 1 to $n return $i * 10 }; " +
+                "declare function local:g($s) { for $x in $s return ($x, local:f(2)) }; " +
+                "string-join(for $y in local:g(local:f(2)) return string($y), ',')",
+                "10,10,20,20,10,20"},
+        {"declare function local:f($n, $m) { for $i in $n to $m return local:g($i) }; " +
+                "declare function local:g($i) { let $j := $i * 2 return ($j, $j + 1) }; " +
+                "let $s := local:f(1, 3) return (local:f(10, 11), $s, count($s))",
+                "20 21 22 23 2 3 4 5 6 7 6"},
+        // a function whose result contains nodes built from its arguments
+        {"declare function local:e($n) { <e n='{$n}'>{for $i in 1 to $n return <i>{$i}</i>}</e> }; " +
+                "let $x := local:e(2) let $y := local:e(3) " +
+                "return for $e in ($y, $x, local:e(1)) return concat($e/@n, ':', string-join($e/i, ','))",
+                "3:1,2,3 2:1,2 1:1"},
+        // a function called from inside a predicate and from another function's arguments
+        {"declare function local:sq($n) { $n * $n }; " +
+                "(1 to 10)[local:sq(.) gt 50], local:sq(local:sq(local:sq(2)))",
+                "8 9 10 256"},
+    };
+
+    public void testQueries() throws Exception {
+        Configuration config = new Configuration();
+        for (int i=0; i<QUERIES.length; i++) {
+            assertEquals(QUERIES[i][0], QUERIES[i][1], runQuery(config, QUERIES[i][0], null));
+        }
+    }
+
+    public void testTemplates() throws Exception {
+        Configuration config = new Configuration();
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                "    xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:f='urn:f' exclude-result-prefixes='xs f'>" +
+                "<xsl:template match='/'>" +
+                "<out>" +
+                // values returned by named templates, used after further calls
+                "<xsl:variable name='a' as='xs:integer*'><xsl:call-template name='seq'><xsl:with-param name='n' select='3'/></xsl:call-template></xsl:variable>" +
+                "<xsl:variable name='b' as='xs:integer*'><xsl:call-template name='seq'><xsl:with-param name='n' select='2'/></xsl:call-template></xsl:variable>" +
+                "<s><xsl:value-of select='$a, $b, $a'/></s>" +
+                // non-tail recursive template
+                "<c><xsl:call-template name='count'><xsl:with-param name='n' select='500'/></xsl:call-template></c>" +
+                // tunnel parameters passed through templates that declare none
+                "<xsl:apply-templates select='doc/p'>" +
+                "<xsl:with-param name='t' select='\"T\"' tunnel='yes'/>" +
+                "<xsl:with-param name='x' select='\"X\"'/>" +
+                "</xsl:apply-templates>" +
+                "<f><xsl:value-of select='f:lazy(2), f:lazy(3)[last()], f:lazy(1)'/></f>" +
+                // the focus of the caller is visible in the called template
+                "<xsl:for-each select='doc/p'><xsl:call-template name='focus'/></xsl:for-each>" +
+                // a tunnel parameter is passed only to the templates that are called with it
+                "<xsl:call-template name='tunnel'><xsl:with-param name='t' select='\"A\"' tunnel='yes'/></xsl:call-template>" +
+                "<xsl:call-template name='tunnel'/>" +
+                "</out>" +
+                "</xsl:template>" +
+                "<xsl:template name='seq'>" +
+                "<xsl:param name='n'/>" +
+                "<xsl:variable name='k' select='$n * 100'/>" +
+                "<xsl:sequence select='for $i in 1 to $n return $k + $i'/>" +
+                "</xsl:template>" +
+                "<xsl:template name='count'>" +
+                "<xsl:param name='n'/>" +
+                "<xsl:choose>" +
+                "<xsl:when test='$n = 0'><xsl:sequence select='0'/></xsl:when>" +
+                "<xsl:otherwise><xsl:variable name='r'><xsl:call-template name='count'><xsl:with-param name='n' select='$n - 1'/></xsl:call-template></xsl:variable>" +
+                "<xsl:sequence select='xs:integer($r) + 1'/></xsl:otherwise>" +
+                "</xsl:choose>" +
+                "</xsl:template>" +
+                "<xsl:template match='p'>" +
+                "<xsl:param name='x'/>" +
+                "<xsl:variable name='pos' select='position()'/>" +
+                "<p x='{$x}' pos='{$pos}'><xsl:apply-templates select='q'/></p>" +
+                "</xsl:template>" +
+                "<xsl:template match='q'>" +
+                "<xsl:variable name='v' select='string(.)'/>" +
+                "<q><xsl:call-template name='inner'><xsl:with-param name='v' select='$v'/></xsl:call-template></q>" +
+                "</xsl:template>" +
+                "<xsl:template name='inner'>" +
+                "<xsl:param name='v'/>" +
+                "<xsl:param name='t' tunnel='yes'/>" +
+                "<xsl:value-of select='$t, $v' separator=':'/>" +
+                "</xsl:template>" +
+                "<xsl:template name='focus'>" +
+                "<xsl:variable name='n' select='count(q)'/>" +
+                "<xsl:value-of select='concat(position(), \"/\", last(), \":\", $n)'/>" +
+                "</xsl:template>" +
+                "<xsl:template name='tunnel'>" +
+                "<xsl:param name='t' select='\"none\"' tunnel='yes'/>" +
+                "<t><xsl:value-of select='$t'/></t>" +
+                "</xsl:template>" +
+                "<xsl:function name='f:lazy'>" +
+                "<xsl:param name='n'/>" +
+                "<xsl:sequence select='for $i in 1 to $n return concat($n, \"-\", $i)'/>" +
+                "</xsl:function>" +
+                "</xsl:stylesheet>";
+        String source = "<doc><p><q>a</q><q>b</q></p><p><q>c</q></p></doc>";
+        assertEquals("templates",
+                "<out><s>301 302 303 201 202 301 302 303</s><c>500</c>" +
+                "<p x=\"X\" pos=\"1\"><q>T:a</q><q>T:b</q></p><p x=\"X\" pos=\"2\"><q>T:c</q></p>" +
+                "<f>2-1 2-2 3-3 1-1</f>1/2:22/2:1<t>A</t><t>none</t></out>",
+                runTransformation(config, stylesheet, source));
+    }
+
+    /**
+     * Test that a context is not reused while a Closure made within it can still reach it, either as
+     * its stack frame or through the chain of callers of its saved context
+     */
+
+    public void testCapturedContext() throws Exception {
+        Controller controller = new Controller(new Configuration());
+        XPathContextMajor outer = controller.newXPathContext();
+        XPathContextMajor inner = controller.allocateCleanContext(outer);
+        XPathContextMajor c = controller.allocateCleanContext(inner);
+        Closure.make(new ContextItemExpression(), c, 1);
+        controller.reuseContext(c);
+        controller.reuseContext(inner);
+        XPathContextMajor next = controller.allocateCleanContext(outer);
+        assertTrue("a captured context was reused", next != c && next != inner);
+        assertTrue("the caller of a captured context was changed", c.getCaller() == inner);
+
+        XPathContextMajor free = controller.allocateCleanContext(outer);
+        controller.reuseContext(free);
+        assertTrue("a context that was not captured was not reused",
+                controller.allocateCleanContext(outer) == free);
+    }
+
+    /**
+     * Test recursion deeper than the number of contexts that are retained for reuse. This needs a
+     * larger stack than the default, so it is run in a thread of its own.
+     */
+
+    public void testDeepRecursion() throws Exception {
+        final Configuration config = new Configuration();
+        final String[] result = new String[1];
+        final Exception[] error = new Exception[1];
+        Runnable r = new Runnable() {
+            public void run() {
+                try {
+                    result[0] = runQuery(config,
+                            "declare function local:sum($n as xs:integer) as xs:integer " +
+                            "{ if ($n = 0) then 0 else $n + local:sum($n - 1) }; " +
+                            "local:sum(3000), local:sum(10)", null);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        Thread t = new Thread(null, r, "deep-recursion", 64L*1024*1024);
+        t.start();
+        t.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        assertEquals("recursion", "4501500 55", result[0]);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
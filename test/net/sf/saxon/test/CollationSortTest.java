@@ -0,0 +1,137 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.TransformerException;
+import java.text.Collator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests of sorting using collations other than the codepoint collation. A sort may compare strings
+ * using the collator, using a table of weights for ASCII characters, or using precomputed collation
+ * keys; whichever is used, the result must be in the order defined by the collator.
+ */
+
+public class CollationSortTest extends RegressionTest {
+
+    private static final String SEPARATOR = "|";
+
+    public static void main(String[] args) {
+        new CollationSortTest().runAndExit();
+    }
+
+    /**
+     * Make a list of random strings, returned as the text of an XPath sequence expression
+     * @param ascii true if the strings are to contain ASCII characters only
+     */
+
+    private static String makeStrings(int count, boolean ascii) {
+        String alphabet = (ascii ? "Zz-[]aAeE. _" : "Zz-[]aAeE. _\u00e9\u00c9\u00e8\u00e4\u00c5");
+        Random random = new Random(count);
+        StringBuffer sb = new StringBuffer(count * 8);
+        sb.append('(');
+        for (int i=0; i<count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('\'');
+            int len = random.nextInt(6);
+            for (int c=0; c<len; c++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            sb.append('\'');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    /**
+     * Check that a list of strings is in the order defined by a collator
+     */
+
+    private static void checkOrder(String message, String result, int count, Collator collator) {
+        String[] values = new String[count];
+        int start = 0;
+        for (int i=0; i<count; i++) {
+            int end = result.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = result.length();
+            }
+            values[i] = result.substring(start, end);
+            start = end + SEPARATOR.length();
+        }
+        assertEquals(message + ": number of items", result.length(), start - SEPARATOR.length());
+        for (int i=1; i<count; i++) {
+            if (collator.compare(values[i-1], values[i]) > 0) {
+                fail(message + ": '" + values[i-1] + "' is sorted before '" + values[i] + "'");
+            }
+        }
+    }
+
+    private void checkQuerySort(String lang, String strength, int javaStrength, boolean ascii)
+            throws XPathException {
+        int count = 3000;
+        String collation = "http://saxon.sf.net/collation?lang=" + lang + ";strength=" + strength;
+        String query = "string-join(for $s in " + makeStrings(count, ascii) +
+                " order by $s collation '" + collation + "' return $s, '" + SEPARATOR + "')";
+        String result = runQuery(new Configuration(), query, null);
+        Collator collator = Collator.getInstance(new Locale(lang));
+        collator.setStrength(javaStrength);
+        checkOrder(collation + (ascii ? " (ASCII)" : ""), result, count, collator);
+    }
+
+    public void testFrench() throws XPathException {
+        checkQuerySort("fr", "tertiary", Collator.TERTIARY, true);
+        checkQuerySort("fr", "tertiary", Collator.TERTIARY, false);
+        checkQuerySort("fr", "secondary", Collator.SECONDARY, false);
+    }
+
+    public void testOtherLanguages() throws XPathException {
+        checkQuerySort("en", "tertiary", Collator.TERTIARY, false);
+        checkQuerySort("de", "tertiary", Collator.TERTIARY, false);
+        checkQuerySort("sv", "secondary", Collator.SECONDARY, false);
+        checkQuerySort("sv", "primary", Collator.PRIMARY, true);
+    }
+
+    public void testFrenchSortKeyExample() throws XPathException {
+        String result = runQuery(new Configuration(),
+                "string-join(for $s in ('[-zZ]', '[Z-z]', '\u00e9') order by $s descending " +
+                "collation 'http://saxon.sf.net/collation?lang=fr' return $s, '|')", null);
+        Collator collator = Collator.getInstance(Locale.FRENCH);
+        String expected = (collator.compare("[Z-z]", "[-zZ]") < 0 ? "\u00e9|[-zZ]|[Z-z]" : "\u00e9|[Z-z]|[-zZ]");
+        assertEquals("descending French sort", expected, result);
+    }
+
+    public void testXslSort() throws TransformerException {
+        int count = 2000;
+        String stylesheet =
+                "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+                "<xsl:output method='text'/>" +
+                "<xsl:template match='/'><xsl:value-of separator='" + SEPARATOR + "'>" +
+                "<xsl:perform-sort select=\"" + makeStrings(count, false) + "\">" +
+                "<xsl:sort select='.' lang='fr'/></xsl:perform-sort></xsl:value-of>" +
+                "</xsl:template></xsl:stylesheet>";
+        String result = runTransformation(new Configuration(), stylesheet, "<a/>");
+        checkOrder("xsl:sort lang='fr'", result, count, Collator.getInstance(Locale.FRENCH));
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,157 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.AsyncInputStream;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests of reading compressed documents, and of collections formed from zip archives. The checks
+ * that each zip archive is closed afterwards need /proc/self/fd, and are reported as skipped on platforms
+ * that do not provide it.
+ */
+
+public class CompressionTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new CompressionTest().runAndExit();
+    }
+
+    private static String makeDocument(int n) {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<doc n='").append(n).append("'>");
+        for (int i=0; i<200; i++) {
+            sb.append("<item>").append(i * n).append("</item>");
+        }
+        sb.append("</doc>");
+        return sb.toString();
+    }
+
+    private static File makeZip(int documents) throws IOException {
+        File zip = File.createTempFile("saxontest", ".zip");
+        zip.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        for (int d=0; d<documents; d++) {
+            out.putNextEntry(new ZipEntry("doc" + d + ".xml"));
+            out.write(makeDocument(d).getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+        return zip;
+    }
+
+    public void testGzipDocument() throws Exception {
+        File gz = File.createTempFile("saxontest", ".xml.gz");
+        gz.deleteOnExit();
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+        out.write(makeDocument(3).getBytes("UTF-8"));
+        out.close();
+        String query = "sum(doc('" + gz.toURI() + "')//item)";
+        assertEquals(query, "59700", runQuery(new Configuration(), query, null));
+    }
+
+    public void testZipCollection() throws Exception {
+        File zip = makeZip(5);
+        String query = "for $d in collection('" + zip.toURI() + "') return string($d/doc/@n)";
+        assertEquals(query, "0 1 2 3 4", runQuery(new Configuration(), query, null));
+        assertNotOpen("zip archive left open", zip);
+    }
+
+    /**
+     * A collection whose entries are too large to be read from the archive in a single batch
+     */
+
+    public void testLargeZipCollection() throws Exception {
+        File zip = makeZip(600);
+        String query = "count(collection('" + zip.toURI() + "')), sum(collection('" + zip.toURI() + "')/doc/@n)";
+        assertEquals(query, "600 179700", runQuery(new Configuration(), query, null));
+        assertNotOpen("zip archive left open", zip);
+    }
+
+    public void testZipCollectionAbandoned() throws Exception {
+        File zip = makeZip(5);
+        String[] queries = {
+            "string(collection('" + zip.toURI() + "')[1]/doc/@n)",
+            "exists(collection('" + zip.toURI() + "'))"
+        };
+        String[] results = {"0", "true"};
+        for (int q=0; q<queries.length; q++) {
+            assertEquals(queries[q], results[q], runQuery(new Configuration(), queries[q], null));
+            assertNotOpen("zip archive left open after " + queries[q], zip);
+        }
+    }
+
+    /**
+     * If the underlying stream of an AsyncInputStream throws an unchecked exception, the consumer must
+     * receive an IOException rather than waiting for ever
+     */
+
+    public void testAsyncInputRuntimeException() throws Exception {
+        final InputStream base = new InputStream() {
+            int count = 0;
+            public int read() {
+                if (++count > 10000) {
+                    throw new IllegalStateException("Simulated failure");
+                }
+                return 'x';
+            }
+        };
+        final Throwable[] outcome = new Throwable[1];
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    InputStream in = new AsyncInputStream(base, 2, 1024);
+                    byte[] buffer = new byte[100];
+                    while (in.read(buffer, 0, 100) >= 0) {
+                        // keep reading
+                    }
+                    outcome[0] = new Exception("no exception was reported");
+                } catch (Throwable e) {
+                    outcome[0] = e;
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+        consumer.join(10000);
+        assertTrue("consumer is still waiting for input", !consumer.isAlive());
+        assertTrue("unexpected outcome: " + outcome[0], outcome[0] instanceof IOException &&
+                ((IOException)outcome[0]).getCause() instanceof IllegalStateException);
+    }
+
+    public void testGzipDocumentError() throws Exception {
+        File gz = File.createTempFile("saxontest", ".xml.gz");
+        gz.deleteOnExit();
+        OutputStream out = new FileOutputStream(gz);
+        out.write("this is not gzip data".getBytes("UTF-8"));
+        out.close();
+        try {
+            runQuery(makeSilentConfiguration(), "doc('" + gz.toURI() + "')", null);
+            fail("no error reported for a corrupt gzip file");
+        } catch (XPathException e) {
+            // expected
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
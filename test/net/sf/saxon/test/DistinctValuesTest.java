@@ -0,0 +1,66 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Tests of distinct-values(), index-of() and deep-equal(), which use specialized sets and
+ * comparisons for integers, doubles and strings
+ */
+
+public class DistinctValuesTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new DistinctValuesTest().runAndExit();
+    }
+
+    private void check(String query, String expected) throws XPathException {
+        assertEquals(query, expected, runQuery(new Configuration(), query, null));
+    }
+
+    public void testStringAndAnyURI() throws XPathException {
+        check("count(distinct-values(('a', xs:anyURI('a'))))", "1");
+        check("count(distinct-values((xs:anyURI('a'), 'a')))", "1");
+        check("count(distinct-values((xs:anyURI('a'), xs:untypedAtomic('a'), 'a', xs:anyURI('b'))))", "2");
+        check("count(distinct-values(('a', xs:anyURI('a')), " +
+                "'http://www.w3.org/2005/xpath-functions/collation/codepoint'))", "1");
+    }
+
+    public void testMixedNumbers() throws XPathException {
+        check("count(distinct-values((1, 1.0e0, 2, 2.5e0, 2.5e0, xs:float(2.5), 3.0, 3)))", "4");
+        check("count(distinct-values((9007199254740993, 9007199254740993, 1, 1.0)))", "2");
+        check("count(distinct-values((xs:double('NaN'), xs:float('NaN'), 0e0, -0e0, 0)))", "2");
+    }
+
+    public void testMixedTypes() throws XPathException {
+        check("count(distinct-values((1, '1', xs:untypedAtomic('1'), true(), 'true')))", "4");
+    }
+
+    public void testIndexOf() throws XPathException {
+        check("index-of((1, 2, 1.0, 1e0, 3, '1'), 1)", "1 3 4");
+        check("index-of((1, 2, 3), 4)", "");
+    }
+
+    public void testDeepEqual() throws XPathException {
+        check("deep-equal((1, 2, 3), (1, 2.0, 3e0))", "true");
+        check("deep-equal((1, 2, 3), (1, 2, 4))", "false");
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,117 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of queries and stylesheets containing local variables that the optimizer can replace by the
+ * expression that computes their value, or evaluate eagerly. The results must be the same as if every
+ * variable were evaluated when it is first referenced.
+ */
+
+public class LetInliningTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new LetInliningTest().runAndExit();
+    }
+
+    private static final String[][] QUERIES = {
+        {"let $x := 3 return $x + 1", "4"},
+        {"let $x := (1, 2, 3) return count($x)", "3"},
+        {"let $x as xs:integer := 3 return $x * 2", "6"},
+        {"let $a := 1 let $b := $a + 1 let $c := $b * 10 return $c", "20"},
+        {"let $x := 1 return let $y := $x + 1 return let $x := 10 return $y + $x", "12"},
+        {"for $i in 1 to 3 return let $x := $i * 2 return $x", "2 4 6"},
+        {"let $x := 1 div 0 return if (true()) then 'safe' else $x", "safe"},
+        {"declare function local:f($s, $d) { let $x := 10 idiv $d return for $i in $s return $x + $i };" +
+                " local:f((1, 2), 5)", "3 4"},
+        {"let $e := <a/> return count((for $i in 1 to 3 return $e)/.)", "1"},
+        {"let $e := <a/> return count(for $i in 1 to 3 return $e)", "3"},
+        {"let $e := <a/> return ($e is $e)", "true"},
+        {"let $n := count(*/*) return for $i in 1 to 2 return $n + $i", "3 4"},
+        {"let $d := . return string-join(for $c in */* return concat(name($d/*), '/', name($c)), ' ')", "doc/p doc/q"},
+        {"let $v := */p return */q/concat(name(), $v)", "qp1"},
+        {"let $s := string(*/p) return string-join(for $c in */* return concat($s, name($c)), ',')", "p1p,p1q"},
+        {"let $p := position() return (5, 6, 7)[$p + 1]", "6"},
+        {"let $x := (1 to 5)[. > 2] return sum($x[. < 5])", "7"},
+        {"declare function local:f($n as xs:integer, $acc as xs:integer) as xs:integer {" +
+                " let $m := $n - 1 let $a := $acc + $n return if ($n = 0) then $acc else local:f($m, $a) };" +
+                " local:f(100000, 0)", "5000050000"},
+        {"declare variable $g := 5; let $x := $g * 2 return $x + $g", "15"},
+    };
+
+    public void testQueries() throws Exception {
+        Configuration config = new Configuration();
+        String source = "<doc><p>p1</p><q/></doc>";
+        for (int i=0; i<QUERIES.length; i++) {
+            assertEquals(QUERIES[i][0], QUERIES[i][1], runQuery(config, QUERIES[i][0], source));
+        }
+    }
+
+    public void testStylesheetVariables() throws Exception {
+        Configuration config = new Configuration();
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:template match='/'>" +
+                "<out>" +
+                "<xsl:for-each-group select='doc/*' group-by='name()'>" +
+                "<xsl:variable name='g' select='current-group()'/>" +
+                "<xsl:variable name='k' select='current-grouping-key()'/>" +
+                "<group key='{$k}'><xsl:value-of select='count($g)'/></group>" +
+                "</xsl:for-each-group>" +
+                "<xsl:for-each select='doc/p'>" +
+                "<xsl:variable name='c' select='current()'/>" +
+                "<xsl:value-of select='count(../*[. = $c])'/>" +
+                "</xsl:for-each>" +
+                "<xsl:analyze-string select='\"ab12cd345\"' regex='([a-z]+)([0-9]+)'>" +
+                "<xsl:matching-substring>" +
+                "<xsl:variable name='r' select='regex-group(2)'/>" +
+                "<m><xsl:value-of select='string-length($r)'/></m>" +
+                "</xsl:matching-substring>" +
+                "</xsl:analyze-string>" +
+                "<xsl:analyze-string select='\"ab12\"' regex='([a-z]+)([0-9]+)'>" +
+                "<xsl:matching-substring>" +
+                "<xsl:variable name='r' select='regex-group(1)'/>" +
+                "<xsl:analyze-string select='\"xy\"' regex='(x)'>" +
+                "<xsl:matching-substring><n><xsl:value-of select='$r'/></n></xsl:matching-substring>" +
+                "</xsl:analyze-string>" +
+                "</xsl:matching-substring>" +
+                "</xsl:analyze-string>" +
+                "<xsl:for-each-group select='doc/*' group-by='name()'>" +
+                "<xsl:variable name='k' select='current-grouping-key()'/>" +
+                "<xsl:for-each-group select='current-group()' group-by='string(.)'><g k='{$k}'/></xsl:for-each-group>" +
+                "</xsl:for-each-group>" +
+                "<xsl:variable name='t'><x>tree</x></xsl:variable>" +
+                "<xsl:value-of select='count($t/x | $t/x)'/>" +
+                "<xsl:apply-templates select='doc/q'/>" +
+                "</out>" +
+                "</xsl:template>" +
+                "<xsl:template match='q'>" +
+                "<xsl:variable name='here' select='.'/>" +
+                "<xsl:variable name='pos' select='position()'/>" +
+                "<q pos='{$pos}'><xsl:value-of select='../p[. != $here]'/></q>" +
+                "</xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("stylesheet",
+                "<out><group key=\"p\">2</group><group key=\"q\">1</group>11<m>2</m><m>3</m><n>ab</n><g k=\"p\"/><g k=\"p\"/><g k=\"q\"/>1<q pos=\"1\">a b</q></out>",
+                runTransformation(config, stylesheet, "<doc><p>a</p><q>c</q><p>b</p></doc>"));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
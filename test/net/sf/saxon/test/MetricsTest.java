@@ -0,0 +1,123 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.FeatureKeys;
+import net.sf.saxon.metrics.Metrics;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * Tests of the collection of metrics, and of their registration with the platform MBean server.
+ * The MBean server is reached by reflection, as in {@link Metrics}, so that the tests compile under JDK 1.4;
+ * the registration checks are reported as skipped where no platform MBean server is available.
+ */
+
+public class MetricsTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new MetricsTest().runAndExit();
+    }
+
+    /**
+     * Get the names of the Metrics objects registered with the platform MBean server, or null
+     * if there is no platform MBean server (before JDK 1.5)
+     */
+
+    private static Set getRegisteredNames() throws Exception {
+        Class factoryClass;
+        try {
+            factoryClass = Class.forName("java.lang.management.ManagementFactory");
+        } catch (ClassNotFoundException err) {
+            return null;
+        }
+        Class serverClass = Class.forName("javax.management.MBeanServer");
+        Class nameClass = Class.forName("javax.management.ObjectName");
+        Class queryClass = Class.forName("javax.management.QueryExp");
+        Object server = factoryClass.getMethod("getPlatformMBeanServer", new Class[0]).invoke(null, new Object[0]);
+        Object pattern = nameClass.getConstructor(new Class[]{String.class})
+                .newInstance(new Object[]{"net.sf.saxon:type=Metrics,*"});
+        Method query = serverClass.getMethod("queryNames", new Class[]{nameClass, queryClass});
+        return (Set)query.invoke(server, new Object[]{pattern, null});
+    }
+
+    private boolean isMBeanServerAvailable() throws Exception {
+        if (getRegisteredNames() == null) {
+            skip("registration of Metrics: no platform MBean server is available");
+            return false;
+        }
+        return true;
+    }
+
+    public void testStatistics() throws Exception {
+        Configuration config = new Configuration();
+        config.setConfigurationProperty(FeatureKeys.METRICS, Boolean.TRUE);
+        Metrics metrics = config.getMetrics();
+        runQuery(config, "count(//b)", "<a><b/><b/></a>");
+        runQuery(config, "1 + 1", null);
+        assertEquals("queries compiled", 2, metrics.getQueriesCompiled());
+        assertEquals("transformations completed", 2, metrics.getTransformationsCompleted());
+        assertEquals("documents built", 1, metrics.getDocumentsBuilt());
+        config.setConfigurationProperty(FeatureKeys.METRICS, Boolean.FALSE);
+    }
+
+    public void testDisable() throws Exception {
+        if (!isMBeanServerAvailable()) {
+            return;
+        }
+        int before = getRegisteredNames().size();
+        Configuration config = new Configuration();
+        config.setConfigurationProperty(FeatureKeys.METRICS, Boolean.TRUE);
+        assertEquals("registered", before + 1, getRegisteredNames().size());
+        Metrics replacement = new Metrics(config);
+        config.setMetrics(replacement);
+        assertEquals("replaced Metrics should be unregistered", before, getRegisteredNames().size());
+        assertTrue("register", replacement.registerMBean());
+        config.setConfigurationProperty(FeatureKeys.METRICS, Boolean.FALSE);
+        assertEquals("unregistered", before, getRegisteredNames().size());
+    }
+
+    public void testConfigurationNotRetained() throws Exception {
+        if (!isMBeanServerAvailable()) {
+            return;
+        }
+        int before = getRegisteredNames().size();
+        Configuration config = new Configuration();
+        config.setConfigurationProperty(FeatureKeys.METRICS, Boolean.TRUE);
+        Metrics metrics = config.getMetrics();
+        WeakReference ref = new WeakReference(config);
+        config = null;
+        for (int i=0; i<50 && ref.get() != null; i++) {
+            byte[][] garbage = new byte[100][];
+            for (int j=0; j<garbage.length; j++) {
+                garbage[j] = new byte[10000];
+            }
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue("the registered Metrics object should not retain the Configuration", ref.get() == null);
+        // the next request for a statistic finds that the Configuration has gone
+        assertEquals("name pool size", 0, metrics.getNamePoolSize());
+        assertEquals("unregistered", before, getRegisteredNames().size());
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
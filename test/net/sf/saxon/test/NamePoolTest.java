@@ -0,0 +1,72 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.om.NamePool;
+
+/**
+ * Tests of a reclaimable NamePool
+ */
+
+public class NamePoolTest extends RegressionTest {
+
+    private static final String URI = "http://example.com/ns";
+
+    public static void main(String[] args) {
+        new NamePoolTest().runAndExit();
+    }
+
+    public void testLookupPreventsReclaim() {
+        NamePool pool = new NamePool();
+        pool.setReclaimable(true);
+        pool.nextGeneration();
+        for (int i=0; i<2000; i++) {
+            pool.allocate("", URI, "n" + i);
+        }
+        int gen = pool.nextGeneration();
+        for (int i=0; i<2000; i+=2) {
+            assertTrue("name n" + i + " not found", pool.getFingerprint(URI, "n" + i) != -1);
+        }
+        assertEquals("names reclaimed", 1000, pool.reclaim(gen));
+        for (int i=0; i<2000; i++) {
+            int fp = pool.getFingerprint(URI, "n" + i);
+            if (i % 2 == 0) {
+                assertTrue("name n" + i + " was reclaimed", fp != -1);
+                assertEquals("local name of n" + i, "n" + i, pool.getLocalName(fp));
+                assertEquals("URI of n" + i, URI, pool.getURI(fp));
+            } else {
+                assertEquals("fingerprint of reclaimed name n" + i, -1, fp);
+            }
+        }
+    }
+
+    public void testPinnedNamesAreKept() {
+        NamePool pool = new NamePool();
+        int before = pool.allocate("", URI, "before");
+        pool.setReclaimable(true);
+        pool.startPinning();
+        int pinned = pool.allocate("", URI, "pinned");
+        pool.endPinning();
+        int gen = pool.nextGeneration();
+        pool.nextGeneration();
+        pool.reclaim(gen + 1);
+        assertEquals("name present before the pool became reclaimable", "before", pool.getLocalName(before));
+        assertEquals("pinned name", "pinned", pool.getLocalName(pinned));
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
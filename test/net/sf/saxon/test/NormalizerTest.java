@@ -0,0 +1,185 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.codenorm.Normalizer;
+
+import java.util.Random;
+
+/**
+ * Tests of Unicode normalization, as used by the normalize-unicode() function and by the
+ * normalization-form serialization parameter
+ */
+
+public class NormalizerTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new NormalizerTest().runAndExit();
+    }
+
+    private static final byte[] FORMS = {Normalizer.C, Normalizer.D, Normalizer.KC, Normalizer.KD};
+    private static final String[] FORM_NAMES = {"NFC", "NFD", "NFKC", "NFKD"};
+
+    /**
+     * Each row holds a string followed by its NFC, NFD, NFKC and NFKD normalizations
+     */
+
+    private static final String[][] CASES = {
+        {"abc", "abc", "abc", "abc", "abc"},
+        {"caf\u00E9", "caf\u00E9", "cafe\u0301", "caf\u00E9", "cafe\u0301"},
+        {"cafe\u0301", "caf\u00E9", "cafe\u0301", "caf\u00E9", "cafe\u0301"},
+        {"A\u030A", "\u00C5", "A\u030A", "\u00C5", "A\u030A"},
+        {"\u212B", "\u00C5", "A\u030A", "\u00C5", "A\u030A"},
+        {"\u2126", "\u03A9", "\u03A9", "\u03A9", "\u03A9"},
+        {"\uFB01", "\uFB01", "\uFB01", "fi", "fi"},
+        {"\u1E0A\u0323", "\u1E0C\u0307", "D\u0323\u0307", "\u1E0C\u0307", "D\u0323\u0307"},
+        {"d\u0323\u0307", "\u1E0D\u0307", "d\u0323\u0307", "\u1E0D\u0307", "d\u0323\u0307"},
+        {"a\u0307\u0323", "\u1EA1\u0307", "a\u0323\u0307", "\u1EA1\u0307", "a\u0323\u0307"},
+        {"\u1100\u1161\u11A8", "\uAC01", "\u1100\u1161\u11A8", "\uAC01", "\u1100\u1161\u11A8"},
+        {"\uAC00\u11A8", "\uAC01", "\u1100\u1161\u11A8", "\uAC01", "\u1100\u1161\u11A8"},
+        {"\u0344", "\u0308\u0301", "\u0308\u0301", "\u0308\u0301", "\u0308\u0301"},
+        {"\u00C5\u0301", "\u01FA", "A\u030A\u0301", "\u01FA", "A\u030A\u0301"},
+        {"x\u0301\u0300\u0315\u0300", "x\u0301\u0300\u0300\u0315", "x\u0301\u0300\u0300\u0315",
+                "x\u0301\u0300\u0300\u0315", "x\u0301\u0300\u0300\u0315"},
+        {"\u00BD", "\u00BD", "\u00BD", "1\u20442", "1\u20442"},
+        {"plain text then e\u0301", "plain text then \u00E9", "plain text then e\u0301",
+                "plain text then \u00E9", "plain text then e\u0301"},
+        // supplementary characters
+        {"\uD834\uDD5E", "\uD834\uDD57\uD834\uDD65", "\uD834\uDD57\uD834\uDD65",
+                "\uD834\uDD57\uD834\uDD65", "\uD834\uDD57\uD834\uDD65"},
+        {"\uD834\uDD57\uD834\uDD65", "\uD834\uDD57\uD834\uDD65", "\uD834\uDD57\uD834\uDD65",
+                "\uD834\uDD57\uD834\uDD65", "\uD834\uDD57\uD834\uDD65"},
+        {"a\uD834\uDD6D\u0316", "a\u0316\uD834\uDD6D", "a\u0316\uD834\uDD6D",
+                "a\u0316\uD834\uDD6D", "a\u0316\uD834\uDD6D"},
+        {"\uD800\uDC00\u0301", "\uD800\uDC00\u0301", "\uD800\uDC00\u0301",
+                "\uD800\uDC00\u0301", "\uD800\uDC00\u0301"},
+        {"\uD87E\uDC00", "\u4E3D", "\u4E3D", "\u4E3D", "\u4E3D"},
+    };
+
+    public void testKnownValues() {
+        for (int f=0; f<FORMS.length; f++) {
+            Normalizer normalizer = new Normalizer(FORMS[f]);
+            for (int i=0; i<CASES.length; i++) {
+                String message = FORM_NAMES[f] + " of case " + i;
+                assertEquals(message, CASES[i][f+1], normalizer.normalize(CASES[i][0]).toString());
+                assertEquals(message + " (full)", CASES[i][f+1],
+                        normalizer.normalize(CASES[i][0], new StringBuffer()).toString());
+                assertEquals(message + " is idempotent", CASES[i][f+1],
+                        normalizer.normalize(CASES[i][f+1]).toString());
+            }
+        }
+    }
+
+    /**
+     * Characters from which random strings are made: ASCII and Latin-1 letters, combining marks,
+     * Hangul jamo and syllables, compatibility characters, and supplementary characters
+     */
+
+    private static final String[] ALPHABET = {
+        "a", "e", "A", "D", "d", " ", "z", "\u00E9", "\u00C5", "\u00BD", "\u00A0",
+        "\u0300", "\u0301", "\u0307", "\u0308", "\u030A", "\u0315", "\u0316", "\u0323", "\u0344", "\u0345",
+        "\u1100", "\u1161", "\u11A8", "\uAC00", "\uAC01", "\u1E0A", "\u1EA1", "\u212B", "\u2126", "\uFB01",
+        "\u3099", "\u304B", "\u304C", "\u0F73", "\u0F71", "\u0F72",
+        "\uD834\uDD5E", "\uD834\uDD57", "\uD834\uDD65", "\uD834\uDD6D", "\uD800\uDC00", "\uD87E\uDC00"
+    };
+
+    public void testQuickCheckMatchesFullNormalization() {
+        Random random = new Random(38);
+        for (int f=0; f<FORMS.length; f++) {
+            Normalizer normalizer = new Normalizer(FORMS[f]);
+            for (int n=0; n<20000; n++) {
+                StringBuffer sb = new StringBuffer();
+                int len = random.nextInt(12);
+                for (int i=0; i<len; i++) {
+                    sb.append(ALPHABET[random.nextInt(random.nextInt(4) == 0 ? 11 : ALPHABET.length)]);
+                }
+                String s = sb.toString();
+                String expected = normalizer.normalize(s, new StringBuffer()).toString();
+                String message = FORM_NAMES[f] + " of " + escape(s);
+                assertEquals(message, expected, normalizer.normalize(s).toString());
+                assertEquals(message + " a run at a time", expected, normalizeByRuns(normalizer, s));
+                if (normalizer.isNormalized(s)) {
+                    assertEquals(message + " reported as normalized", s, expected);
+                }
+                assertEquals(message + " is idempotent", expected, normalizer.normalize(expected).toString());
+            }
+        }
+    }
+
+    /**
+     * Normalize a string a run at a time, in the way the serializer does
+     */
+
+    private static String normalizeByRuns(Normalizer normalizer, String s) {
+        StringBuffer sb = new StringBuffer();
+        int done = 0;
+        int start = normalizer.getRunStart(s, 0);
+        while (start < s.length()) {
+            sb.append(s.substring(done, start));
+            done = normalizer.getRunEnd(s, start);
+            normalizer.normalizeRun(s, start, done, sb);
+            start = normalizer.getRunStart(s, done);
+        }
+        sb.append(s.substring(done));
+        return sb.toString();
+    }
+
+    public void testNormalizedInputIsReturnedUnchanged() {
+        String s = "A long string of plain text, with \u00E9\u00E0 accented letters that are already composed";
+        assertTrue("NFC", new Normalizer(Normalizer.C).normalize(s) == s);
+        assertTrue("NFD", new Normalizer(Normalizer.D).normalize("plain text") == "plain text");
+        assertTrue("NFC not normalized", new Normalizer(Normalizer.C).normalize("e\u0301") != "e\u0301");
+    }
+
+    public void testQueries() throws Exception {
+        Configuration config = new Configuration();
+        assertEquals("normalize-unicode",
+                "true true true true",
+                runQuery(config,
+                        "normalize-unicode('cafe\u0301') eq 'caf\u00E9', " +
+                        "normalize-unicode('caf\u00E9', 'NFD') eq 'cafe\u0301', " +
+                        "normalize-unicode('\uFB01', 'NFKC') eq 'fi', " +
+                        "normalize-unicode('plain') eq 'plain'", null));
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:output normalization-form='NFC' encoding='US-ASCII'/>" +
+                "<xsl:template match='/'><out a='cafe&#x301;'>plain text, then A&#x30A; and " +
+                "<xsl:value-of select='doc'/></out></xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("serialization",
+                "<out a=\"caf&#233;\">plain text, then &#197; and d&#7693;&#775;</out>",
+                runTransformation(config, stylesheet, "<doc>dd&#x307;&#x323;</doc>"));
+    }
+
+    private static String escape(String s) {
+        StringBuffer sb = new StringBuffer();
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 32 && c < 127) {
+                sb.append(c);
+            } else {
+                String hex = Integer.toHexString(c);
+                sb.append("\\u").append("0000".substring(hex.length())).append(hex);
+            }
+        }
+        return sb.toString();
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,286 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.trans.DynamicError;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.SourceLocator;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+
+/**
+ * Tests of the compilation of stylesheets using several threads. Each stylesheet is compiled with
+ * one thread and with several: the results of the transformations, and the errors and warnings
+ * reported while compiling, must be the same.
+ */
+
+public class ParallelCompileTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new ParallelCompileTest().runAndExit();
+    }
+
+    private static final int REPEAT = 10;
+    private static final int MODULES = 31;
+
+    private static final String XSL =
+            "xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0' " +
+            "xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:f='urn:f' exclude-result-prefixes='xs f'";
+
+    /**
+     * Make a set of modules. The principal module imports "imported.xsl" and includes "m0.xsl".
+     * Module mN includes m(2N+1) and m(2N+2), so the modules form a binary tree. Each module contains
+     * a template rule that refers to a variable, a function and an attribute set declared in the next
+     * module, so the template bodies can only be compiled once all the modules have been loaded.
+     */
+
+    private static HashMap makeModules() {
+        HashMap modules = new HashMap();
+        modules.put("main.xsl",
+                "<xsl:stylesheet " + XSL + ">" +
+                "<xsl:import href='imported.xsl'/>" +
+                "<xsl:include href='m0.xsl'/>" +
+                "<xsl:template match='/'><out><xsl:apply-templates select='*/item'/></out></xsl:template>" +
+                "<xsl:template match='item[@n = 0]'><first><xsl:apply-imports/></first></xsl:template>" +
+                "</xsl:stylesheet>");
+        modules.put("imported.xsl",
+                "<xsl:stylesheet " + XSL + ">" +
+                "<xsl:template match='item'><other n='{@n}'/></xsl:template>" +
+                "<xsl:template match='item[@n = 0]'><imported/></xsl:template>" +
+                "</xsl:stylesheet>");
+        for (int m=0; m<MODULES; m++) {
+            int next = (m + 1) % MODULES;
+            StringBuffer sb = new StringBuffer();
+            sb.append("<xsl:stylesheet " + XSL + ">");
+            for (int c=2*m+1; c<=2*m+2 && c<MODULES; c++) {
+                sb.append("<xsl:include href='m" + c + ".xsl'/>");
+            }
+            sb.append("<xsl:template match='item[@n = " + (m+1) + "]'>" +
+                    "<item xsl:use-attribute-sets='a" + next + "' v='{$v" + next + "}' f='{f:g" + next + "(@n)}'/>" +
+                    "</xsl:template>");
+            sb.append("<xsl:variable name='v" + m + "' select='" + m + " * 10'/>");
+            sb.append("<xsl:function name='f:g" + m + "'><xsl:param name='x'/>" +
+                    "<xsl:sequence select='$x + " + m + "'/></xsl:function>");
+            sb.append("<xsl:attribute-set name='a" + m + "'><xsl:attribute name='m'>" + m + "</xsl:attribute></xsl:attribute-set>");
+            sb.append("</xsl:stylesheet>");
+            modules.put("m" + m + ".xsl", sb.toString());
+        }
+        return modules;
+    }
+
+    private static String expectedOutput() {
+        StringBuffer sb = new StringBuffer("<out><first><imported/></first>");
+        for (int n=1; n<=MODULES; n++) {
+            int next = n % MODULES;
+            sb.append("<item m=\"" + next + "\" v=\"" + (next * 10) + "\" f=\"" + (n + next) + "\"/>");
+        }
+        sb.append("<other n=\"" + (MODULES + 1) + "\"/></out>");
+        return sb.toString();
+    }
+
+    private static String makeSource() {
+        StringBuffer sb = new StringBuffer("<doc>");
+        for (int n=0; n<=MODULES+1; n++) {
+            sb.append("<item n='" + n + "'/>");
+        }
+        sb.append("</doc>");
+        return sb.toString();
+    }
+
+    public void testModules() throws Exception {
+        HashMap modules = makeModules();
+        String expected = expectedOutput();
+        String source = makeSource();
+        for (int r=0; r<REPEAT; r++) {
+            for (int threads=1; threads<=4; threads+=3) {
+                ModuleResolver resolver = new ModuleResolver(modules);
+                Configuration config = new Configuration();
+                config.setCompilerThreads(threads);
+                TransformerFactoryImpl factory = new TransformerFactoryImpl(config);
+                factory.setURIResolver(resolver);
+                Templates templates = factory.newTemplates(resolver.resolve("main.xsl", null));
+                Transformer transformer = templates.newTransformer();
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+                StringWriter sw = new StringWriter();
+                transformer.transform(new StreamSource(new StringReader(source)), new StreamResult(sw));
+                assertEquals("output with " + threads + " threads", expected, sw.toString());
+                assertEquals("modules fetched", MODULES + 2, resolver.calls);
+                assertEquals("concurrent calls on the URIResolver", 1, resolver.maxActive);
+            }
+        }
+    }
+
+    /**
+     * Test that errors in several modules, including a missing module, a module that is not well-formed,
+     * a module that includes itself, and static errors in template bodies, are reported in the same
+     * order whatever the number of threads
+     */
+
+    public void testErrors() throws Exception {
+        HashMap modules = makeModules();
+        modules.put("main.xsl",
+                "<xsl:stylesheet " + XSL + ">" +
+                "<xsl:include href='m0.xsl'/>" +
+                "<xsl:template match='/'><xsl:value-of select='$undeclared'/></xsl:template>" +
+                "</xsl:stylesheet>");
+        addDeclarations(modules, "m25.xsl", "<xsl:include href='missing.xsl'/>");
+        addDeclarations(modules, "m26.xsl", "<xsl:include href='malformed.xsl'/>");
+        addDeclarations(modules, "m27.xsl", "<xsl:include href='loop.xsl'/>");
+        modules.put("malformed.xsl", "<xsl:stylesheet " + XSL + "><xsl:template>");
+        modules.put("loop.xsl", "<xsl:stylesheet " + XSL + "><xsl:include href='loop.xsl'/></xsl:stylesheet>");
+        addDeclarations(modules, "m5.xsl",
+                "<xsl:template match='a'><xsl:value-of select='f:nothing()'/></xsl:template>" +
+                "<xsl:template match='b'><xsl:value-of select='1 + \"a\"'/></xsl:template>" +
+                "<xsl:template match='c' priority='x'/>" +
+                "<xsl:template match='@x'><xsl:value-of select='*'/></xsl:template>");
+        addDeclarations(modules, "m20.xsl",
+                "<xsl:template match='d'><xsl:sequence select='$undeclared'/></xsl:template>" +
+                "<xsl:unknown/>" +
+                "<xsl:attribute-set name='s' use-attribute-sets='nothing'/>");
+        addDeclarations(modules, "m30.xsl",
+                "<xsl:template match='e'><xsl:value-of select='\"b\" * 2'/></xsl:template>" +
+                "<xsl:template match='@y'><xsl:value-of select='*'/></xsl:template>");
+        String expected = null;
+        for (int r=0; r<REPEAT; r++) {
+            for (int threads=1; threads<=4; threads+=3) {
+                ModuleResolver resolver = new ModuleResolver(modules);
+                RecordingErrorListener listener = new RecordingErrorListener();
+                Configuration config = new Configuration();
+                config.setCompilerThreads(threads);
+                config.setErrorListener(listener);
+                TransformerFactoryImpl factory = new TransformerFactoryImpl(config);
+                factory.setURIResolver(resolver);
+                factory.setErrorListener(listener);
+                try {
+                    factory.newTemplates(resolver.resolve("main.xsl", null));
+                    fail("compilation should fail");
+                } catch (TransformerException e) {
+                    // expected
+                }
+                String errors = listener.sb.toString();
+                if (expected == null) {
+                    expected = errors;
+                    String[] codes = {"XPST0008", "XPST0003", "XPTY0004", "XTSE0530", "XTSE0710", "XTSE0010", "XTSE0165"};
+                    for (int i=0; i<codes.length; i++) {
+                        assertTrue("errors should include " + codes[i] + ": " + errors, errors.indexOf(codes[i]) >= 0);
+                    }
+                    assertTrue("errors should include missing.xsl: " + errors, errors.indexOf("missing.xsl") >= 0);
+                    assertTrue("errors should include malformed.xsl: " + errors, errors.indexOf("malformed.xsl") >= 0);
+                } else {
+                    assertEquals("errors with " + threads + " threads", expected, errors);
+                }
+                assertEquals("concurrent calls on the URIResolver", 1, resolver.maxActive);
+            }
+        }
+    }
+
+    /**
+     * Add declarations to the start of a module
+     */
+
+    private static void addDeclarations(HashMap modules, String module, String declarations) {
+        String text = (String)modules.get(module);
+        int start = text.indexOf('>') + 1;
+        modules.put(module, text.substring(0, start) + declarations + text.substring(start));
+    }
+
+    /**
+     * A URIResolver that supplies stylesheet modules from memory, and records the greatest number of
+     * threads that were using it at the same time
+     */
+
+    private static class ModuleResolver implements URIResolver {
+
+        private HashMap modules;
+        private int active = 0;
+        int maxActive = 0;
+        int calls = 0;
+
+        public ModuleResolver(HashMap modules) {
+            this.modules = modules;
+        }
+
+        public Source resolve(String href, String base) {
+            synchronized (this) {
+                active++;
+                calls++;
+                if (active > maxActive) {
+                    maxActive = active;
+                }
+            }
+            try {
+                // give other threads the chance to call the resolver at the same time
+                Thread.yield();
+                String module = (String)modules.get(href);
+                if (module == null) {
+                    return null;
+                }
+                return new StreamSource(new StringReader(module), "urn:test:" + href);
+            } finally {
+                synchronized (this) {
+                    active--;
+                }
+            }
+        }
+    }
+
+    /**
+     * An ErrorListener that records the errors and warnings reported to it, in order
+     */
+
+    private static class RecordingErrorListener implements ErrorListener {
+
+        StringBuffer sb = new StringBuffer();
+
+        public void warning(TransformerException exception) {
+            record("warning", exception);
+        }
+
+        public void error(TransformerException exception) {
+            record("error", exception);
+        }
+
+        public void fatalError(TransformerException exception) {
+            record("fatal", exception);
+        }
+
+        private synchronized void record(String severity, TransformerException exception) {
+            sb.append(severity).append(' ');
+            sb.append(DynamicError.makeDynamicError(exception).getErrorCodeLocalPart()).append(' ');
+            SourceLocator loc = exception.getLocator();
+            if (loc != null) {
+                sb.append(loc.getSystemId()).append(':').append(loc.getLineNumber()).append(' ');
+            }
+            sb.append(exception.getMessage()).append('\n');
+        }
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,131 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of xsl:for-each and XQuery "for" clauses evaluated on several threads (saxon:threads). Each test
+ * compares the result with that of the same iteration evaluated on a single thread.
+ */
+
+public class ParallelForEachTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new ParallelForEachTest().runAndExit();
+    }
+
+    private static String makeSource() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<doc>");
+        for (int i=0; i<500; i++) {
+            sb.append("<rec id='").append(i).append("' group='g").append(i % 7).append("'>");
+            sb.append(i * 37 % 101).append("</rec>");
+        }
+        sb.append("</doc>");
+        return sb.toString();
+    }
+
+    private static String makeStylesheet(String threads) {
+        return "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:saxon='http://saxon.sf.net/' xmlns:f='http://f/' xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+                " exclude-result-prefixes='saxon f xs'>" +
+                "<xsl:key name='g' match='rec' use='@group'/>" +
+                "<xsl:variable name='total' select='sum(//rec)'/>" +
+                "<xsl:function name='f:fib' saxon:memo-function='yes'>" +
+                "  <xsl:param name='n'/>" +
+                "  <xsl:sequence select='if ($n lt 2) then $n else f:fib($n - 1) + f:fib($n - 2)'/>" +
+                "</xsl:function>" +
+                "<xsl:template match='/'><out>" +
+                "<xsl:for-each select='//rec'" + threads + ">" +
+                "<r p='{position()}' l='{last()}' k='{count(key(\"g\", @group))}'" +
+                " f='{f:fib(xs:integer(.) mod 40)}' t='{$total}'><xsl:value-of select='upper-case(@group)'/></r>" +
+                "</xsl:for-each></out></xsl:template></xsl:stylesheet>";
+    }
+
+    public void testForEach() throws Exception {
+        String source = makeSource();
+        String expected = runTransformation(new Configuration(), makeStylesheet(""), source);
+        for (int run=0; run<5; run++) {
+            String actual = runTransformation(new Configuration(), makeStylesheet(" saxon:threads='4'"), source);
+            assertEquals("parallel xsl:for-each, run " + run, expected, actual);
+        }
+    }
+
+    public void testForEachError() throws Exception {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:saxon='http://saxon.sf.net/'>" +
+                "<xsl:template match='/'><out><xsl:for-each select='//rec' saxon:threads='4'>" +
+                "<xsl:value-of select='if (@id = (\"100\", \"400\")) then error((), concat(\"bad \", @id)) else .'/>" +
+                "</xsl:for-each></out></xsl:template></xsl:stylesheet>";
+        try {
+            runTransformation(makeSilentConfiguration(), xsl, makeSource());
+            fail("error was not reported");
+        } catch (Exception err) {
+            assertTrue("the error from the earliest item should be reported: " + err.getMessage(),
+                    err.getMessage().indexOf("bad 100") >= 0);
+        }
+    }
+
+    public void testGlobalVariables() throws Exception {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:saxon='http://saxon.sf.net/' exclude-result-prefixes='saxon'>" +
+                "<xsl:variable name='even' select='//rec[@id mod 2 = 0]'/>" +
+                "<xsl:variable name='odd' select='//rec except $even'/>" +
+                "<xsl:template match='/'><out><xsl:for-each select='//rec'THREADS>" +
+                "<r e='{count($even[. = current()])}' o='{count($odd[. = current()])}'/>" +
+                "</xsl:for-each></out></xsl:template></xsl:stylesheet>";
+        String source = makeSource();
+        String expected = runTransformation(new Configuration(), xsl.replaceAll("THREADS", ""), source);
+        for (int run=0; run<5; run++) {
+            String actual = runTransformation(new Configuration(),
+                    xsl.replaceAll("THREADS", " saxon:threads='4'"), source);
+            assertEquals("global variables, run " + run, expected, actual);
+        }
+    }
+
+    public void testUnsafeGlobalVariable() throws Exception {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:saxon='http://saxon.sf.net/' xmlns:Thread='java:java.lang.Thread'" +
+                " exclude-result-prefixes='saxon Thread'>" +
+                "<xsl:variable name='thread' select='Thread:getName(Thread:currentThread())'/>" +
+                "<xsl:template match='/'><out><xsl:for-each select='//rec' saxon:threads='4'>" +
+                "<xsl:if test='position() = last()'><xsl:value-of select='$thread'/></xsl:if>" +
+                "</xsl:for-each></out></xsl:template></xsl:stylesheet>";
+        for (int run=0; run<5; run++) {
+            // the definition of $thread calls an extension function, so the iteration must not be
+            // evaluated in parallel
+            String actual = runTransformation(new Configuration(), xsl, makeSource());
+            assertEquals("global variable evaluated on the calling thread, run " + run,
+                    "<out>" + Thread.currentThread().getName() + "</out>", actual);
+        }
+    }
+
+    public void testFlworOption() throws Exception {
+        String body = "for $r at $p in //rec where $r mod 3 = 0 " +
+                "return concat($p, ':', $r/@id, ':', count(//rec[@group = $r/@group]))";
+        String source = makeSource();
+        String expected = runQuery(new Configuration(), body, source);
+        String actual = runQuery(new Configuration(), "declare option saxon:threads '3'; " + body, source);
+        assertEquals("declare option saxon:threads", expected, actual);
+        actual = runQuery(new Configuration(), "(# saxon:threads 3 #) { " + body + " }", source);
+        assertEquals("saxon:threads pragma", expected, actual);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
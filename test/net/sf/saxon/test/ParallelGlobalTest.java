@@ -0,0 +1,218 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.event.MessageEmitter;
+import net.sf.saxon.trans.DynamicError;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests of the evaluation of global variables in parallel at the start of a transformation or query.
+ * Each test is run with one thread and with several, and must give the same result. The documents
+ * used are supplied by a URIResolver that records which of them were loaded during the parallel
+ * evaluation, to check that the variables expected to qualify for it actually did.
+ */
+
+public class ParallelGlobalTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new ParallelGlobalTest().runAndExit();
+    }
+
+    private static final int REPEAT = 20;
+
+    private static final String STYLESHEET =
+            "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+            "    xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:f='urn:f' exclude-result-prefixes='xs f'>" +
+            "<xsl:param name='p' select='\"p1\"'/>" +
+            // variables that qualify, including one that depends on others, one that uses a parameter, and one
+            // that refers to the source document, which is already in the document pool
+            "<xsl:variable name='a' select='doc(\"a.xml\")'/>" +
+            "<xsl:variable name='b' select='doc(\"b.xml\")//x'/>" +
+            "<xsl:variable name='c' select='count($a//*) + f:total($b)'/>" +
+            "<xsl:variable name='d' select='doc(concat($p, \".xml\"))/*/@v'/>" +
+            "<xsl:variable name='self' select='doc(\"urn:test:source.xml\")'/>" +
+            "<xsl:variable name='t1' select='current-dateTime()'/>" +
+            "<xsl:variable name='t2' select='current-dateTime()'/>" +
+            // variables that fail, and are used only if referenced
+            "<xsl:variable name='missing' select='doc(\"missing.xml\")'/>" +
+            "<xsl:variable name='zero' select='0'/>" +
+            "<xsl:variable name='bad' select='1 div $zero'/>" +
+            // variables that do not qualify: one outputs a message, one refers to that variable, and one
+            // depends on the context item
+            "<xsl:variable name='m'><xsl:message>m</xsl:message><xsl:copy-of select='doc(\"m.xml\")'/></xsl:variable>" +
+            "<xsl:variable name='mc' select='count($m/*)'/>" +
+            "<xsl:variable name='ctx' select='doc(concat(name(/*), \".xml\"))'/>" +
+            "<xsl:function name='f:total'><xsl:param name='s'/><xsl:sequence select='sum($s)'/></xsl:function>" +
+            "<xsl:template match='/'>" +
+            "<out a='{$a is doc(\"a.xml\")}' b='{$b[1] is doc(\"b.xml\")//x[1]}' c='{$c}' d='{$d}' t='{$t1 = $t2}'" +
+            "     m='{$m/*/@v}' mc='{$mc}' ctx='{$ctx/*/@v}' doc='{/* is $ctx/*}' self='{$self is /}'/>" +
+            "<xsl:if test='/nothing'><xsl:value-of select='$missing, $bad'/></xsl:if>" +
+            "</xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final String EXPECTED_OUTPUT =
+            "<out a=\"true\" b=\"true\" c=\"11\" d=\"P2\" t=\"true\" m=\"M\" mc=\"1\" ctx=\"CTX\" doc=\"false\" self=\"true\"/>";
+
+    public void testTransformation() throws Exception {
+        for (int r=0; r<REPEAT; r++) {
+            for (int threads=1; threads<=4; threads+=3) {
+                RecordingResolver resolver = new RecordingResolver();
+                Configuration config = makeSilentConfiguration();
+                config.setURIResolver(resolver);
+                config.setGlobalVariableThreads(threads);
+                TransformerFactoryImpl factory = new TransformerFactoryImpl(config);
+                Templates templates = factory.newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+                Transformer transformer = templates.newTransformer();
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+                transformer.setParameter("p", "p2");
+                MessageEmitter emitter = new MessageEmitter();
+                StringWriter messages = new StringWriter();
+                emitter.setWriter(messages);
+                ((Controller)transformer).setMessageEmitter(emitter);
+                StringWriter sw = new StringWriter();
+                transformer.transform(new StreamSource(new StringReader("<ctx/>"), "urn:test:source.xml"),
+                        new StreamResult(sw));
+                assertEquals("output with " + threads + " threads", EXPECTED_OUTPUT, sw.toString());
+                assertEquals("messages with " + threads + " threads", "m\n", messages.toString());
+                if (threads == 1) {
+                    assertEquals("documents loaded in advance", "[]", resolver.getLoadedInAdvance());
+                } else {
+                    assertEquals("documents loaded in advance", "[a.xml, b.xml, missing.xml, p2.xml]",
+                            resolver.getLoadedInAdvance());
+                }
+            }
+        }
+    }
+
+    public void testErrorInReferencedVariable() throws Exception {
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:variable name='zero' select='0'/>" +
+                "<xsl:variable name='bad' select='1 div $zero'/>" +
+                "<xsl:variable name='missing' select='doc(\"missing.xml\")'/>" +
+                "<xsl:template match='/'><out>" +
+                "<xsl:if test='/doc/@bad'><xsl:value-of select='$bad'/></xsl:if>" +
+                "<xsl:if test='/doc/@missing'><xsl:value-of select='$missing'/></xsl:if>" +
+                "</out></xsl:template>" +
+                "</xsl:stylesheet>";
+        String[][] cases = {
+            {"<doc/>", null},
+            {"<doc bad='1'/>", "FOAR0001"},
+            {"<doc missing='1'/>", "FODC0005"},
+        };
+        for (int i=0; i<cases.length; i++) {
+            for (int threads=1; threads<=4; threads+=3) {
+                Configuration config = makeSilentConfiguration();
+                config.setURIResolver(new RecordingResolver());
+                config.setGlobalVariableThreads(threads);
+                String message = cases[i][0] + " with " + threads + " threads";
+                try {
+                    assertEquals(message, "<out/>", runTransformation(config, stylesheet, cases[i][0]));
+                    assertTrue(message + " should fail", cases[i][1] == null);
+                } catch (TransformerException e) {
+                    assertTrue(message + " failed: " + e.getMessage(), cases[i][1] != null);
+                    assertEquals(message, cases[i][1], DynamicError.makeDynamicError(e).getErrorCodeLocalPart());
+                }
+            }
+        }
+    }
+
+    public void testQuery() throws Exception {
+        String query =
+                "declare variable $a := doc('a.xml'); " +
+                "declare variable $b := doc('b.xml')//x; " +
+                "declare variable $c := count($a//*) + local:total($b); " +
+                "declare variable $missing := doc('missing.xml'); " +
+                "declare variable $ctx := doc(concat(name(/*), '.xml')); " +
+                "declare function local:total($s) { sum($s) }; " +
+                "<out a='{$a is doc(\"a.xml\")}' b='{$b[1] is doc(\"b.xml\")//x[1]}' c='{$c}' ctx='{$ctx/*/@v}'/>";
+        for (int r=0; r<REPEAT; r++) {
+            for (int threads=1; threads<=4; threads+=3) {
+                RecordingResolver resolver = new RecordingResolver();
+                Configuration config = makeSilentConfiguration();
+                config.setURIResolver(resolver);
+                config.setGlobalVariableThreads(threads);
+                assertEquals("output with " + threads + " threads",
+                        "<out a=\"true\" b=\"true\" c=\"11\" ctx=\"CTX\"/>", runQuery(config, query, "<ctx/>"));
+                assertEquals("documents loaded in advance",
+                        (threads == 1 ? "[]" : "[a.xml, b.xml, missing.xml]"), resolver.getLoadedInAdvance());
+            }
+        }
+    }
+
+    /**
+     * A URIResolver that supplies documents from memory, and records which documents were requested
+     * during the parallel evaluation of global variables
+     */
+
+    private static class RecordingResolver implements URIResolver {
+
+        private static final HashMap DOCUMENTS = new HashMap();
+        static {
+            DOCUMENTS.put("a.xml", "<a><b/><c/></a>");
+            DOCUMENTS.put("b.xml", "<b><x>3</x><x>5</x></b>");
+            DOCUMENTS.put("p1.xml", "<p v='P1'/>");
+            DOCUMENTS.put("p2.xml", "<p v='P2'/>");
+            DOCUMENTS.put("m.xml", "<m v='M'/>");
+            DOCUMENTS.put("ctx.xml", "<ctx v='CTX'/>");
+        }
+
+        private Set loadedInAdvance = new HashSet();
+
+        public Source resolve(String href, String base) {
+            StackTraceElement[] stack = new Throwable().getStackTrace();
+            for (int i=0; i<stack.length; i++) {
+                if (stack[i].getClassName().startsWith("net.sf.saxon.instruct.ParallelGlobalEvaluator")) {
+                    synchronized (this) {
+                        loadedInAdvance.add(href);
+                    }
+                    break;
+                }
+            }
+            String doc = (String)DOCUMENTS.get(href);
+            if (doc == null) {
+                return null;
+            }
+            return new StreamSource(new StringReader(doc), "urn:test:" + href);
+        }
+
+        public synchronized String getLoadedInAdvance() {
+            return new TreeSet(loadedInAdvance).toString();
+        }
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
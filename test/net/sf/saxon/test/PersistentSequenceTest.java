@@ -0,0 +1,273 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.ArrayIterator;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.IntegerValue;
+import net.sf.saxon.value.PersistentSequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests of PersistentSequence, and of queries that build a sequence by a series of recursive calls,
+ * which use a PersistentSequence to hold the sequence
+ */
+
+public class PersistentSequenceTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new PersistentSequenceTest().runAndExit();
+    }
+
+    private static PersistentSequence makeSequence(List model) throws XPathException {
+        Item[] items = new Item[model.size()];
+        for (int i=0; i<items.length; i++) {
+            items[i] = new IntegerValue(((Long)model.get(i)).longValue());
+        }
+        return PersistentSequence.makePersistentSequence(new ArrayIterator(items));
+    }
+
+    private static List makeModel(int start, int length) {
+        List model = new ArrayList(length);
+        for (int i=0; i<length; i++) {
+            model.add(new Long(start + i));
+        }
+        return model;
+    }
+
+    /**
+     * Check that a sequence contains the same items as a list, using each of the ways of accessing it
+     */
+
+    private static void check(String message, List model, PersistentSequence seq) throws XPathException {
+        assertEquals(message + ": length", model.size(), seq.getLength());
+        SequenceIterator iter = seq.iterate(null);
+        for (int i=0; i<model.size(); i++) {
+            long expected = ((Long)model.get(i)).longValue();
+            Item item = iter.next();
+            assertTrue(message + ": iterator ended at " + i, item != null);
+            assertEquals(message + ": item " + i, expected, ((IntegerValue)item).longValue());
+            assertEquals(message + ": itemAt " + i, expected, ((IntegerValue)seq.itemAt(i)).longValue());
+        }
+        assertTrue(message + ": iterator should be exhausted", iter.next() == null);
+        assertTrue(message + ": itemAt beyond the end", seq.itemAt(model.size()) == null);
+    }
+
+    public void testOperationsMatchList() throws XPathException {
+        Random random = new Random(33);
+        List model = makeModel(0, 100);
+        PersistentSequence seq = makeSequence(model);
+        int next = 1000;
+        for (int step=0; step<2000; step++) {
+            List before = new ArrayList(model);
+            PersistentSequence previous = seq;
+            int len = model.size();
+            String op;
+            switch (random.nextInt(5)) {
+                case 0: {
+                    int n = random.nextInt(3) == 0 ? random.nextInt(100) : 1;
+                    List other = makeModel(next, n);
+                    next += n;
+                    op = "concatenate " + n;
+                    seq = seq.concatenate(makeSequence(other));
+                    model.addAll(other);
+                    break;
+                }
+                case 1: {
+                    int n = random.nextInt(3) == 0 ? random.nextInt(100) : 1;
+                    List other = makeModel(next, n);
+                    next += n;
+                    op = "prepend " + n;
+                    seq = makeSequence(other).concatenate(seq);
+                    model.addAll(0, other);
+                    break;
+                }
+                case 2: {
+                    int n = random.nextInt(40) + 1;
+                    int index = random.nextInt(len + 3) - 1;
+                    List other = makeModel(next, n);
+                    next += n;
+                    op = "insert " + n + " at " + index;
+                    seq = seq.insert(index, makeSequence(other));
+                    model.addAll(Math.max(0, Math.min(index, len)), other);
+                    break;
+                }
+                case 3: {
+                    int index = random.nextInt(len + 2) - 1;
+                    op = "remove " + index;
+                    seq = seq.remove(index);
+                    if (index >= 0 && index < len) {
+                        model.remove(index);
+                    }
+                    break;
+                }
+                default: {
+                    if (len < 50) {
+                        continue;
+                    }
+                    int start = random.nextInt(len + 10) - 5;
+                    int length = random.nextInt(len + 10) - 5;
+                    op = "subsequence " + start + ", " + length;
+                    seq = seq.subsequence(start, length);
+                    int from = Math.max(0, start);
+                    int to = (int)Math.max(from, Math.min(len, (long)start + length));
+                    model = new ArrayList(from < len ? model.subList(from, to) : new ArrayList());
+                    break;
+                }
+            }
+            check("step " + step + " (" + op + ")", model, seq);
+            check("step " + step + " (" + op + ") original", before, previous);
+        }
+    }
+
+    public void testSliceIterator() throws XPathException {
+        List model = makeModel(1, 1000);
+        PersistentSequence seq = makeSequence(model);
+        int[][] slices = {{1, 1000}, {0, 5}, {2, Integer.MAX_VALUE}, {33, 64}, {999, 2000}, {1001, 1005}, {7, 3}};
+        for (int s=0; s<slices.length; s++) {
+            int min = slices[s][0];
+            int max = slices[s][1];
+            SequenceIterator iter = new PersistentSequence.PersistentSequenceIterator(seq).makeSliceIterator(min, max);
+            for (int i=Math.max(min, 1); i<=Math.min(max, 1000); i++) {
+                Item item = iter.next();
+                assertTrue("slice " + min + "-" + max + " ended before " + i, item != null);
+                assertEquals("slice " + min + "-" + max, i, ((IntegerValue)item).longValue());
+            }
+            assertTrue("slice " + min + "-" + max + " too long", iter.next() == null);
+        }
+    }
+
+    public void testManySingleAppends() throws XPathException {
+        List model = new ArrayList();
+        PersistentSequence seq = makeSequence(model);
+        for (int i=0; i<100000; i++) {
+            Long item = new Long(i);
+            List one = new ArrayList(1);
+            one.add(item);
+            if ((i & 1) == 0) {
+                seq = seq.concatenate(makeSequence(one));
+                model.add(item);
+            } else {
+                seq = makeSequence(one).concatenate(seq);
+                model.add(0, item);
+            }
+        }
+        check("appends", model, seq);
+    }
+
+    private static final String PROLOG =
+            "declare function local:append($acc as xs:integer*, $n as xs:integer) as xs:integer* {" +
+            "  if ($n = 0) then $acc else local:append(($acc, $n), $n - 1)" +
+            "};" +
+            "declare function local:prepend($acc as xs:integer*, $n as xs:integer) as xs:integer* {" +
+            "  if ($n = 0) then $acc else local:prepend(($n, $acc), $n - 1)" +
+            "};" +
+            "declare function local:insert($acc as xs:integer*, $n as xs:integer) as xs:integer* {" +
+            "  if ($n = 0) then $acc else local:insert(insert-before($acc, $n mod (count($acc) + 1) + 1, $n), $n - 1)" +
+            "};" +
+            "declare function local:remove($acc as xs:integer*, $n as xs:integer) as xs:integer* {" +
+            "  if ($n = 0) then $acc else local:remove(remove(($acc, $n, $n + 1), $n mod (count($acc) + 2) + 1), $n - 1)" +
+            "};" +
+            "declare function local:subsequence($acc as xs:integer*, $n as xs:integer) as xs:integer* {" +
+            "  if ($n = 0) then $acc else local:subsequence(subsequence(($n, $acc, $n), 2 - $n mod 2), $n - 1)" +
+            "};" +
+            "declare function local:drain($acc as xs:integer*, $total as xs:integer) as xs:integer {" +
+            "  if (empty($acc)) then $total else local:drain($acc[position() > 1], $total + $acc[1])" +
+            "};" +
+            "declare function local:drain2($acc as xs:integer*, $total as xs:integer) as xs:integer {" +
+            "  if (empty($acc)) then $total else local:drain2(remove($acc, 1), $total + $acc[1] * count($acc))" +
+            "};";
+
+    /**
+     * Compute in Java the sequence built by the function of the prolog with a given name
+     */
+
+    private static String build(int n, String op) {
+        List acc = new ArrayList();
+        for (; n > 0; n--) {
+            Long item = new Long(n);
+            if (op.equals("append")) {
+                acc.add(item);
+            } else if (op.equals("prepend")) {
+                acc.add(0, item);
+            } else if (op.equals("insert")) {
+                acc.add(Math.min(n % (acc.size() + 1), acc.size()), item);
+            } else if (op.equals("remove")) {
+                acc.add(item);
+                acc.add(new Long(n + 1));
+                acc.remove(n % acc.size());
+            } else {
+                acc.add(0, item);
+                acc.add(item);
+                if (n % 2 == 0) {
+                    acc.remove(0);
+                }
+            }
+        }
+        StringBuffer sb = new StringBuffer();
+        for (int i=0; i<acc.size(); i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(acc.get(i));
+        }
+        return sb.toString();
+    }
+
+    public void testRecursiveBuild() throws XPathException {
+        Configuration config = new Configuration();
+        String[] ops = {"append", "prepend", "insert", "remove", "subsequence"};
+        for (int i=0; i<ops.length; i++) {
+            String result = runQuery(config, PROLOG + "string-join(for $i in local:" + ops[i] +
+                    "((), 3000) return string($i), ' ')", null);
+            assertEquals(ops[i], build(3000, ops[i]), result);
+        }
+    }
+
+    public void testRecursiveTail() throws XPathException {
+        Configuration config = new Configuration();
+        long total = 0;
+        long weighted = 0;
+        for (int i=1; i<=20000; i++) {
+            total += i;
+            weighted += (long)i * (20001 - i);
+        }
+        assertEquals("tail by position", Long.toString(total),
+                runQuery(config, PROLOG + "local:drain(local:prepend((), 20000), 0)", null));
+        assertEquals("tail by remove", Long.toString(weighted),
+                runQuery(config, PROLOG + "local:drain2(local:prepend((), 20000), 0)", null));
+    }
+
+    public void testTypedParameter() throws XPathException {
+        Configuration config = new Configuration();
+        String query =
+                "declare function local:f($acc as xs:integer+, $n as xs:integer) as xs:integer+ {" +
+                "  if ($n = 0) then $acc else local:f(insert-before($acc, 2, $n * 10), $n - 1)" +
+                "};" +
+                "local:f((1, 2), 5)";
+        assertEquals("insert-before", "1 10 20 30 40 50 2", runQuery(config, query, null));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,118 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.query.QueryResult;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+/**
+ * Tests of document projection (see {@link net.sf.saxon.event.ProjectingFilter}). Each test runs
+ * the same query or stylesheet with and without projection, and checks that the results are the same.
+ */
+
+public class ProjectionTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new ProjectionTest().runAndExit();
+    }
+
+    private void compareQuery(String query, String source) throws XPathException {
+        String expected = runQuery(new Configuration(), query, source);
+        Configuration config = new Configuration();
+        config.setDocumentProjection(true);
+        String actual = runQuery(config, query, source);
+        assertEquals(query, expected, actual);
+    }
+
+    private void compareTransformation(String stylesheet, String source) throws TransformerException {
+        String expected = runTransformation(new Configuration(), stylesheet, source);
+        Configuration config = new Configuration();
+        config.setDocumentProjection(true);
+        String actual = runTransformation(config, stylesheet, source);
+        assertEquals(stylesheet, expected, actual);
+    }
+
+    /**
+     * Build a source document projected for a query, and serialize the tree that is built
+     */
+
+    private String project(String query, String source) throws XPathException {
+        Configuration config = new Configuration();
+        config.setDocumentProjection(true);
+        StaticQueryContext env = new StaticQueryContext(config);
+        XQueryExpression exp = env.compileQuery(query);
+        DocumentInfo doc = env.buildDocument(new StreamSource(new StringReader(source)), exp);
+        Properties props = new Properties();
+        props.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter sw = new StringWriter();
+        QueryResult.serialize(doc, new StreamResult(sw), props, config);
+        return sw.toString();
+    }
+
+    /**
+     * An element that is discarded because none of its descendants are needed, followed by a
+     * sibling that is retained
+     */
+
+    public void testSkippedThenKeptSibling() throws XPathException {
+        String source = "<a><x/><price>1</price></a>";
+        assertEquals("projected tree", "<a><price>1</price></a>", project("//price", source));
+        assertEquals("projected tree", "<a><price>1</price><price>2</price></a>",
+                project("//price", "<a><x p='1'><y/></x><price>1</price><x/><price>2</price></a>"));
+        assertEquals("projected tree", "<a><b><price>1</price></b></a>",
+                project("//price", "<a><b><x/><x><y/></x><price>1</price></b><c><z/></c></a>"));
+        compareQuery("count(/a/price), count(//x), //price", source);
+        compareQuery("count(//x//price), //price", source);
+    }
+
+    public void testSkippedSiblingsWithAttributes() throws XPathException {
+        String source = "<a xmlns:p='p'><x p:q='1'><y/></x><x/><b r='2'><price>1</price></b>" +
+                "<z><w/></z><price>2</price></a>";
+        compareQuery("count(/a/price), count(/a/b/price), count(//x//price), //price", source);
+        compareQuery("for $b in //b return count($b/price)", source);
+    }
+
+    public void testNestedPendingElements() throws XPathException {
+        String source = "<a><b><c><d/></c><c><price>1</price></c></b><b><c/></b><b><price>2</price></b></a>";
+        compareQuery("count(//c/price), count(/a/b/price), sum(//price)", source);
+        compareQuery("for $p in //price return string($p)", source);
+    }
+
+    public void testStylesheet() throws TransformerException {
+        String stylesheet =
+                "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+                "<xsl:template match='/'><out n='{count(/a/price)}' x='{count(//x/price)}'>" +
+                "<xsl:for-each select='//price'><p><xsl:value-of select='.'/></p></xsl:for-each>" +
+                "</out></xsl:template></xsl:stylesheet>";
+        String source = "<a><x><q/></x><price>1</price><x><price>2</price></x><y/><price>3</price></a>";
+        compareTransformation(stylesheet, source);
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
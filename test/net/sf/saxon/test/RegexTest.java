@@ -0,0 +1,148 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of the regular expression functions replace(), tokenize() and matches(), and of
+ * xsl:analyze-string, applied to strings held in various ways: literals, text nodes, and the string
+ * values of elements and of temporary trees
+ */
+
+public class RegexTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new RegexTest().runAndExit();
+    }
+
+    private static final String[][] QUERIES = {
+        {"replace('abcabc', 'b', 'X')", "aXcaXc"},
+        {"replace('abcabc', '(a)(b)', '$2$1')", "bacbac"},
+        {"replace('abcabc', '(a)(b)', '[$0]')", "[ab]c[ab]c"},
+        {"replace('abcabc', 'b', '\\$')", "a$ca$c"},
+        {"replace('abcabc', 'b', '\\\\')", "a\\ca\\c"},
+        {"replace('abcabc', '(b)', '$3')", "acac"},
+        {"replace('abcabc', '(b)', '$10')", "ab0cab0c"},
+        {"replace('abcdefghijkl', '(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)', '$11$10$1')", "kjal"},
+        {"replace('abcdefghijkl', '(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)', '$12')", "a2l"},
+        {"replace('abc', '(x)?b', '[$1]')", "a[]c"},
+        {"replace('abc', 'z', 'X')", "abc"},
+        {"replace('', 'z', 'X')", ""},
+        {"replace('Hello World', 'O', '0', 'i')", "Hell0 W0rld"},
+        {"replace('a b  c', ' +', '-')", "a-b-c"},
+        {"replace('a b c', 'a b', 'X', 'x')", "a b c"},
+        {"replace('line1&#10;line2', '^l', 'L', 'm')", "Line1\nLine2"},
+        {"replace('a&#10;b', 'a.b', 'X', 's')", "X"},
+        {"string-length(replace(string-join(for $i in 1 to 20000 return 'ab', ''), 'ba', 'X'))", "20001"},
+        {"string-join(tokenize('a, b,c ,d', '\\s*,\\s*'), '|')", "a|b|c|d"},
+        {"string-join(for $s in tokenize('x1y22z333', '[0-9]+') return concat('[', $s, ']'), '')", "[x][y][z][]"},
+        {"matches('abc', '^a.c$'), matches('abc', 'B', 'i'), matches('abc', 'd')", "true true false"},
+        // strings held in a document
+        {"replace(doc/p[1], '(\\w+) (\\w+)', '$2 $1')", "brown quick jumps fox"},
+        {"replace(doc, 'o', '0')", "the quick br0wn f0x jumps 0ver the lazy d0g"},
+        {"string-join(tokenize(doc, ' '), '/')", "the/quick/brown/fox/jumps/over/the/lazy/dog"},
+        {"count(doc//text()[matches(., 'o')])", "3"},
+    };
+
+    private static final String SOURCE = "<doc><p>quick brown fox jumps</p>  over <p>the lazy dog</p></doc>";
+
+    public void testQueries() throws Exception {
+        Configuration config = new Configuration();
+        String source = "<doc>the <p>quick brown fox jumps</p> over <p>the lazy dog</p></doc>";
+        for (int i=0; i<QUERIES.length; i++) {
+            assertEquals(QUERIES[i][0], QUERIES[i][1], runQuery(config, QUERIES[i][0], source));
+        }
+    }
+
+    public void testReplacementErrors() throws Exception {
+        Configuration config = makeSilentConfiguration();
+        String[][] errors = {
+            {"replace('abc', 'x*', 'y')", "FORX0003"},
+            {"replace('abc', 'b', '$')", "FORX0004"},
+            {"replace('abc', 'b', '\\x')", "FORX0004"},
+            {"replace('abc', '(', 'x')", "FORX0002"},
+        };
+        for (int i=0; i<errors.length; i++) {
+            try {
+                runQuery(config, errors[i][0], null);
+                fail(errors[i][0] + " should fail");
+            } catch (net.sf.saxon.trans.XPathException e) {
+                assertEquals(errors[i][0], errors[i][1], e.getErrorCodeLocalPart());
+            }
+        }
+    }
+
+    public void testAnalyzeString() throws Exception {
+        Configuration config = new Configuration();
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:template match='/'>" +
+                "<xsl:variable name='groups' as='xs:string*' xmlns:xs='http://www.w3.org/2001/XMLSchema'>" +
+                "<xsl:analyze-string select='doc' regex='(\\w)(\\w*)'>" +
+                "<xsl:matching-substring><xsl:sequence select='regex-group(2)'/></xsl:matching-substring>" +
+                "</xsl:analyze-string>" +
+                "</xsl:variable>" +
+                "<out>" +
+                "<xsl:analyze-string select='doc' regex='(\\w)(\\w*)'>" +
+                "<xsl:matching-substring><w f='{regex-group(1)}'><xsl:value-of select='., regex-group(2), regex-group(3)'/></w></xsl:matching-substring>" +
+                "<xsl:non-matching-substring><n><xsl:value-of select='string-length(.)'/></n></xsl:non-matching-substring>" +
+                "</xsl:analyze-string>" +
+                "<g><xsl:value-of select='$groups' separator='|'/></g>" +
+                "<xsl:for-each select='doc/p'><xsl:analyze-string select='.' regex='o'>" +
+                "<xsl:matching-substring>0</xsl:matching-substring>" +
+                "<xsl:non-matching-substring><xsl:value-of select='upper-case(.)'/></xsl:non-matching-substring>" +
+                "</xsl:analyze-string></xsl:for-each>" +
+                "</out>" +
+                "</xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("analyze-string",
+                "<out><w f=\"q\">quick uick </w><n>1</n><w f=\"b\">brown rown </w><n>1</n><w f=\"f\">fox ox </w>" +
+                "<n>1</n><w f=\"j\">jumps umps </w><n>2</n><w f=\"o\">over ver </w><n>1</n><w f=\"t\">the he </w>" +
+                "<n>1</n><w f=\"l\">lazy azy </w><n>1</n><w f=\"d\">dog og </w>" +
+                "<g>uick|rown|ox|umps|ver|he|azy|og</g>QUICK BR0WN F0X JUMPSTHE LAZY D0G</out>",
+                runTransformation(config, stylesheet, SOURCE));
+    }
+
+    public void testLargeText() throws Exception {
+        Configuration config = new Configuration();
+        StringBuffer sb = new StringBuffer("<doc><t>");
+        for (int i=0; i<30000; i++) {
+            sb.append("word").append(i).append(' ');
+        }
+        sb.append("</t><t>second</t></doc>");
+        String source = sb.toString();
+        assertEquals("replace", "30000 168890",
+                runQuery(config, "let $r := replace(doc/t[1], '([a-z]+)([0-9]+) ', '$2,') " +
+                        "return (count(tokenize($r, ',')) - 1, string-length($r))", source));
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:template match='/'><out>" +
+                "<xsl:variable name='numbers' as='xs:integer*' xmlns:xs='http://www.w3.org/2001/XMLSchema'>" +
+                "<xsl:analyze-string select='doc' regex='[a-z]+([0-9]+)'>" +
+                "<xsl:matching-substring><xsl:sequence select='xs:integer(regex-group(1))'/></xsl:matching-substring>" +
+                "</xsl:analyze-string>" +
+                "</xsl:variable>" +
+                "<xsl:value-of select='count($numbers), sum($numbers)'/>" +
+                "</out></xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("analyze-string", "<out>30000 449985000</out>", runTransformation(config, stylesheet, source));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
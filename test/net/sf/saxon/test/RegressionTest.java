@@ -0,0 +1,247 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Properties;
+
+/**
+ * Superclass of the regression tests. Each public method of a subclass whose name starts with "test"
+ * and which takes no arguments is run as a separate test case; a test case fails if it throws
+ * an exception (including the TestFailure thrown by the assertion methods).
+ */
+
+public abstract class RegressionTest {
+
+    private int passed = 0;
+    private int failed = 0;
+    private int skipped = 0;
+
+    /**
+     * Run all the test cases in this class, writing a report of each failure to System.err
+     * @return the number of test cases that failed
+     */
+
+    public int runTests() {
+        Method[] methods = getClass().getMethods();
+        for (int i=0; i<methods.length; i++) {
+            Method m = methods[i];
+            if (m.getName().startsWith("test") && m.getParameterTypes().length == 0 &&
+                    !Modifier.isStatic(m.getModifiers())) {
+                String name = getClass().getName() + "." + m.getName();
+                try {
+                    m.invoke(this, new Object[0]);
+                    passed++;
+                } catch (InvocationTargetException e) {
+                    failed++;
+                    Throwable cause = e.getTargetException();
+                    System.err.println("FAILED: " + name + ": " + cause);
+                    if (!(cause instanceof TestFailure)) {
+                        cause.printStackTrace();
+                    }
+                } catch (IllegalAccessException e) {
+                    failed++;
+                    System.err.println("FAILED: " + name + ": " + e);
+                }
+            }
+        }
+        System.err.println(getClass().getName() + ": " + passed + " passed, " + failed + " failed" +
+                (skipped == 0 ? "" : ", " + skipped + " checks skipped"));
+        return failed;
+    }
+
+    /**
+     * Run all the test cases in this class, and exit with a non-zero exit code if any of them failed.
+     * This is intended to be called from the main() method of the subclass.
+     */
+
+    public void runAndExit() {
+        int failures = runTests();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Compile and run a query, returning the serialized result
+     * @param config the Configuration to be used
+     * @param query the text of the query
+     * @param source the text of an XML document to be used as the context item, or null if there is
+     * no context item. If the query is to be projected, the document is projected.
+     * @return the result of the query, serialized without an XML declaration
+     */
+
+    public static String runQuery(Configuration config, String query, String source) throws XPathException {
+        StaticQueryContext env = new StaticQueryContext(config);
+        XQueryExpression exp = env.compileQuery(query);
+        DynamicQueryContext dynamicEnv = new DynamicQueryContext(config);
+        if (source != null) {
+            DocumentInfo doc = env.buildDocument(new StreamSource(new StringReader(source)), exp);
+            dynamicEnv.setContextItem(doc);
+        }
+        Properties props = new Properties();
+        props.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter sw = new StringWriter();
+        exp.run(dynamicEnv, new StreamResult(sw), props);
+        return sw.toString();
+    }
+
+    /**
+     * Compile a stylesheet and apply it to a source document, returning the serialized result
+     * @param config the Configuration to be used
+     * @param stylesheet the text of the stylesheet
+     * @param source the text of the source document
+     * @return the result of the transformation, serialized without an XML declaration
+     */
+
+    public static String runTransformation(Configuration config, String stylesheet, String source)
+            throws TransformerException {
+        TransformerFactoryImpl factory = new TransformerFactoryImpl(config);
+        Templates templates = factory.newTemplates(new StreamSource(new StringReader(stylesheet)));
+        Transformer transformer = templates.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter sw = new StringWriter();
+        transformer.transform(new StreamSource(new StringReader(source)), new StreamResult(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Create a Configuration whose errors and warnings are not reported, for tests in which errors
+     * are expected
+     */
+
+    public static Configuration makeSilentConfiguration() {
+        Configuration config = new Configuration();
+        config.setErrorListener(new SilentErrorListener());
+        return config;
+    }
+
+    /**
+     * Check that this process does not have a given file open. The check uses /proc/self/fd, so it can be
+     * made only on platforms (such as Linux) that provide it; elsewhere the check is reported as skipped.
+     * @param message the message to report if the file is open
+     * @param file the file to be checked
+     */
+
+    public void assertNotOpen(String message, File file) throws IOException {
+        int count = countOpenHandles(file);
+        if (count < 0) {
+            skip(message + ": open files cannot be counted on this platform");
+        } else if (count > 0) {
+            throw new TestFailure(message);
+        }
+    }
+
+    /**
+     * Record that a check has been skipped because this platform cannot support it
+     * @param message the reason the check was skipped
+     */
+
+    public void skip(String message) {
+        skipped++;
+        System.err.println("SKIPPED: " + message);
+    }
+
+    /**
+     * Count the file descriptors of this process that refer to a given file, or return -1 if this
+     * cannot be determined on this platform
+     */
+
+    private static int countOpenHandles(File file) throws IOException {
+        File[] fds = new File("/proc/self/fd").listFiles();
+        if (fds == null) {
+            return -1;
+        }
+        String path = file.getCanonicalPath();
+        int count = 0;
+        for (int i=0; i<fds.length; i++) {
+            try {
+                if (fds[i].getCanonicalPath().equals(path)) {
+                    count++;
+                }
+            } catch (IOException e) {
+                // the descriptor has been closed since the directory was listed
+            }
+        }
+        return count;
+    }
+
+    public static void assertEquals(String message, String expected, String actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new TestFailure(message + ": expected <" + expected + ">, but was <" + actual + ">");
+        }
+    }
+
+    public static void assertEquals(String message, long expected, long actual) {
+        if (expected != actual) {
+            throw new TestFailure(message + ": expected <" + expected + ">, but was <" + actual + ">");
+        }
+    }
+
+    public static void assertTrue(String message, boolean condition) {
+        if (!condition) {
+            throw new TestFailure(message);
+        }
+    }
+
+    public static void fail(String message) {
+        throw new TestFailure(message);
+    }
+
+    /**
+     * Exception thrown when an assertion made by a test case is not satisfied
+     */
+
+    public static class TestFailure extends RuntimeException {
+        public TestFailure(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An ErrorListener that ignores warnings and recoverable errors, and throws fatal errors
+     */
+
+    public static class SilentErrorListener implements ErrorListener {
+        public void warning(TransformerException exception) {}
+        public void error(TransformerException exception) {}
+        public void fatalError(TransformerException exception) throws TransformerException {
+            throw exception;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
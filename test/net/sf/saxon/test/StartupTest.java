@@ -0,0 +1,252 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.FeatureKeys;
+import net.sf.saxon.Warmup;
+import net.sf.saxon.codenorm.Normalizer;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+
+/**
+ * Tests of the facilities that can be initialized when first used rather than when a Configuration is
+ * created (the option FeatureKeys.DEFERRED_INITIALIZATION): the implicit timezone, the external object
+ * models, the extension function libraries, and the Unicode normalization tables. Each facility is
+ * tested both with and without deferred initialization.
+ */
+
+public class StartupTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new StartupTest().runAndExit();
+    }
+
+    /**
+     * Make a Configuration, with or without deferred initialization. The option is supplied as a system
+     * property, because most of the work it affects is done when the Configuration is created.
+     */
+
+    private static Configuration makeConfiguration(boolean deferred) {
+        if (!deferred) {
+            return new Configuration();
+        }
+        System.setProperty(FeatureKeys.DEFERRED_INITIALIZATION, "true");
+        try {
+            return new Configuration();
+        } finally {
+            System.getProperties().remove(FeatureKeys.DEFERRED_INITIALIZATION);
+        }
+    }
+
+    public void testOption() throws Exception {
+        Configuration config = new Configuration();
+        assertTrue("default is eager initialization", !config.isDeferredInitialization());
+        assertEquals("property", "false",
+                config.getConfigurationProperty(FeatureKeys.DEFERRED_INITIALIZATION).toString());
+        assertTrue("system property", makeConfiguration(true).isDeferredInitialization());
+        config.setConfigurationProperty(FeatureKeys.DEFERRED_INITIALIZATION, Boolean.TRUE);
+        assertTrue("set property", config.isDeferredInitialization());
+    }
+
+    public void testImplicitTimezone() throws Exception {
+        TimeZone saved = TimeZone.getDefault();
+        try {
+            for (int d=0; d<2; d++) {
+                boolean deferred = (d == 1);
+                TimeZone.setDefault(TimeZone.getTimeZone("GMT+05:30"));
+                Configuration config = makeConfiguration(deferred);
+                if (deferred) {
+                    // the timezone is taken when it is first used
+                    TimeZone.setDefault(TimeZone.getTimeZone("GMT+01:00"));
+                }
+                assertEquals("timezone, deferred=" + deferred, (deferred ? "60" : "330"),
+                        Integer.toString(config.getImplicitTimezone()));
+                String duration = (deferred ? "PT1H" : "PT5H30M");
+                assertEquals("implicit-timezone()", duration, runQuery(config, "implicit-timezone()", null));
+                assertEquals("current-dateTime()", duration,
+                        runQuery(config, "timezone-from-dateTime(current-dateTime())", null));
+                TimeZone.setDefault(TimeZone.getTimeZone("GMT-03:00"));
+                assertEquals("timezone is fixed, deferred=" + deferred, (deferred ? "60" : "330"),
+                        Integer.toString(config.getImplicitTimezone()));
+                assertEquals("new configuration", "-180",
+                        Integer.toString(makeConfiguration(deferred).getImplicitTimezone()));
+            }
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+
+    private static final String EXTENSIONS =
+            "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+            "    xmlns:math='http://exslt.org/math' xmlns:set='http://exslt.org/sets'" +
+            "    xmlns:exsl='http://exslt.org/common' xmlns:date='http://exslt.org/dates-and-times'" +
+            "    xmlns:saxon='http://saxon.sf.net/' exclude-result-prefixes='math set exsl date saxon'>" +
+            "<xsl:template match='/'>" +
+            "<xsl:variable name='v'><a>3</a><a>7</a><a>3</a></xsl:variable>" +
+            "<out max='{math:max($v/a)}' difference='{count(set:difference($v/a, $v/a[1]))}'" +
+            "    type='{exsl:object-type($v)}' leap='{date:leap-year(\"2004\")}'" +
+            "    eval='{saxon:evaluate(\"2 + 3\")}'/>" +
+            "</xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final String EXTENSIONS_RESULT =
+            "<out max=\"7\" difference=\"2\" type=\"node-set\" leap=\"true\" eval=\"5\"/>";
+
+    public void testExtensionFunctions() throws Exception {
+        for (int d=0; d<2; d++) {
+            boolean deferred = (d == 1);
+            assertEquals("extensions, deferred=" + deferred, EXTENSIONS_RESULT,
+                    runTransformation(makeConfiguration(deferred), EXTENSIONS, "<doc/>"));
+            assertEquals("saxon functions in a query, deferred=" + deferred, "true 3",
+                    runQuery(makeConfiguration(deferred),
+                            "saxon:evaluate('2 > 1'), saxon:evaluate('count((1, 2, 3))')", null));
+        }
+    }
+
+    /**
+     * With deferred initialization, the extension classes are loaded by whichever thread first uses them
+     */
+
+    public void testExtensionFunctionsOnSeveralThreads() throws Exception {
+        final Configuration config = makeConfiguration(true);
+        final String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i=0; i<threads.length; i++) {
+            final int t = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[t] = runTransformation(config, EXTENSIONS, "<doc/>");
+                    } catch (Exception e) {
+                        results[t] = e.toString();
+                    }
+                }
+            };
+        }
+        for (int i=0; i<threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i=0; i<threads.length; i++) {
+            threads[i].join();
+            assertEquals("thread " + i, EXTENSIONS_RESULT, results[i]);
+        }
+    }
+
+    public void testObjectModels() throws Exception {
+        for (int d=0; d<2; d++) {
+            checkObjectModels(d == 1);
+        }
+    }
+
+    private void checkObjectModels(boolean deferred) throws Exception {
+        Configuration config = makeConfiguration(deferred);
+        List models = config.getExternalObjectModels();
+        assertTrue("object models should be registered", models != null && !models.isEmpty());
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document dom = dbf.newDocumentBuilder().parse(
+                new org.xml.sax.InputSource(new StringReader("<doc><a>1</a><a>2</a></doc>")));
+
+        // a DOM as the source of a transformation, and as the result
+        Configuration config2 = makeConfiguration(deferred);
+        Transformer transformer = new net.sf.saxon.TransformerFactoryImpl(config2).newTransformer(new StreamSource(
+                new StringReader(
+                    "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                    "<xsl:template match='/'><sum><xsl:value-of select='sum(//a)'/></sum></xsl:template>" +
+                    "</xsl:stylesheet>")));
+        DOMResult result = new DOMResult();
+        transformer.transform(new DOMSource(dom), result);
+        assertEquals("DOM result", "3", ((Document)result.getNode()).getDocumentElement().getTextContent());
+
+        // a DOM node as the value of a query parameter
+        Configuration config3 = makeConfiguration(deferred);
+        StaticQueryContext env = new StaticQueryContext(config3);
+        XQueryExpression exp = env.compileQuery("declare variable $d external; count($d//a)");
+        DynamicQueryContext dynamicEnv = new DynamicQueryContext(config3);
+        dynamicEnv.setParameter("d", dom);
+        Properties props = new Properties();
+        props.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter sw = new StringWriter();
+        exp.run(dynamicEnv, new StreamResult(sw), props);
+        assertEquals("DOM parameter", "2", sw.toString());
+    }
+
+    /**
+     * With deferred initialization, the normalization tables are loaded from a resource generated from
+     * the UnicodeData tables when Saxon is built. Check that the resource is present, and that it is the same as the resource
+     * that would be generated from the current tables.
+     */
+
+    public void testNormalizerResourceIsUpToDate() throws Exception {
+        InputStream in = Normalizer.class.getResourceAsStream("normalizer.dat");
+        assertTrue("normalizer.dat is missing", in != null);
+        ByteArrayOutputStream existing = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            existing.write(buffer, 0, n);
+        }
+        in.close();
+
+        Class dataFile = Class.forName("net.sf.saxon.codenorm.NormalizerDataFile");
+        Method write = dataFile.getDeclaredMethod("write", new Class[]{java.io.OutputStream.class});
+        write.setAccessible(true);
+        ByteArrayOutputStream generated = new ByteArrayOutputStream();
+        write.invoke(null, new Object[]{generated});
+        assertTrue("normalizer.dat does not match the UnicodeData tables: regenerate it by running " +
+                "net.sf.saxon.codenorm.NormalizerDataFile",
+                java.util.Arrays.equals(existing.toByteArray(), generated.toByteArray()));
+    }
+
+    public void testWarmup() throws Exception {
+        PrintStream savedErr = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try {
+            System.setErr(new PrintStream(captured, true));
+            Warmup.main(new String[]{"-n:2"});
+        } finally {
+            System.setErr(savedErr);
+        }
+        String report = captured.toString();
+        assertTrue("report of first run: " + report, report.indexOf("Run 1: configuration ") >= 0);
+        assertTrue("report of second run: " + report, report.indexOf("Run 2: configuration ") >= 0);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,109 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.*;
+
+/**
+ * Tests of saxon:stream(), which reads the elements selected from a document without building
+ * the whole document. As well as the results, the tests check that the document is not left open,
+ * whether the whole document is read, the caller stops early, or an error occurs. The check that the
+ * document is closed needs /proc/self/fd, and is reported as skipped on platforms that do not provide it.
+ */
+
+public class StreamTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new StreamTest().runAndExit();
+    }
+
+    private static File makeFeed(int records, boolean wellFormed) throws IOException {
+        File file = File.createTempFile("saxontest", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write("<feed><head><title>t</title></head><body>");
+        for (int i=0; i<records; i++) {
+            out.write("<rec id='" + i + "'><v>" + (i % 10) + "</v><skip><v>100</v></skip></rec>\n");
+        }
+        out.write(wellFormed ? "</body></feed>" : "</body></rec>");
+        out.close();
+        return file;
+    }
+
+    private static String stream(File file, String predicate) {
+        return "saxon:stream(doc('" + file.toURI() + "')/feed/body/rec" + predicate + ")";
+    }
+
+    private void checkClosed(File file) throws IOException {
+        assertNotOpen("document left open", file);
+    }
+
+    public void testWholeDocument() throws Exception {
+        File file = makeFeed(1000, true);
+        String query = "sum(" + stream(file, "") + "/v), count(" + stream(file, "[v = 3]") + ")";
+        assertEquals(query, "4500 100", runQuery(new Configuration(), query, null));
+        checkClosed(file);
+    }
+
+    public void testEarlyExit() throws Exception {
+        File file = makeFeed(1000, true);
+        String query = "string(" + stream(file, "[v = 7]") + "[1]/@id), exists(" + stream(file, "") + ")";
+        assertEquals(query, "7 true", runQuery(new Configuration(), query, null));
+        checkClosed(file);
+    }
+
+    public void testEvaluateSingle() throws Exception {
+        File file = makeFeed(1000, true);
+        Configuration config = new Configuration();
+        XQueryExpression exp = new StaticQueryContext(config).compileQuery(stream(file, "") + "/@id/string()");
+        Object first = exp.evaluateSingle(new DynamicQueryContext(config));
+        assertEquals("evaluateSingle()", "0", (String)first);
+        checkClosed(file);
+    }
+
+    public void testStylesheet() throws Exception {
+        File file = makeFeed(1000, true);
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'" +
+                " xmlns:saxon='http://saxon.sf.net/' exclude-result-prefixes='saxon'>" +
+                "<xsl:template match='/'><out><xsl:copy-of select=\"" + stream(file, "[@id = '2']") + "[1]\"/>" +
+                "</out></xsl:template></xsl:stylesheet>";
+        assertEquals("stylesheet", "<out><rec id=\"2\"><v>2</v><skip><v>100</v></skip></rec></out>",
+                runTransformation(new Configuration(), xsl, "<a/>"));
+        checkClosed(file);
+    }
+
+    public void testMalformedDocument() throws Exception {
+        File file = makeFeed(100, false);
+        String query = "count(" + stream(file, "") + ")";
+        try {
+            runQuery(makeSilentConfiguration(), query, null);
+            fail("error in the document was not reported");
+        } catch (XPathException err) {
+            // expected
+        }
+        checkClosed(file);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
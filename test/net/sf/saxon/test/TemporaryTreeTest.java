@@ -0,0 +1,214 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of stylesheets that build temporary trees in local variables. The storage of such a tree can be
+ * reused for the next temporary tree once it is known that no node of the tree can be used again; these
+ * tests check that values taken from one tree are not affected by the construction of the next, both
+ * where the storage is reused and where a node of the tree remains reachable.
+ */
+
+public class TemporaryTreeTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new TemporaryTreeTest().runAndExit();
+    }
+
+    private static final int N = 30;
+
+    /**
+     * A loop that binds $t to a different tree on each iteration, followed by the instructions
+     * that use it
+     */
+
+    private static final String LOOP =
+            "<xsl:for-each select='1 to " + N + "'>" +
+            "<xsl:variable name='i' select='.'/>" +
+            "<xsl:variable name='t'>" +
+            "<x a='a{$i}'><y>text <xsl:value-of select='$i'/></y><xsl:comment>c<xsl:value-of select='$i'/></xsl:comment><z b='{$i * 2}'/></x>" +
+            "</xsl:variable>";
+
+    private static String run(String templates) throws Exception {
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0' " +
+                "    xmlns:xs='http://www.w3.org/2001/XMLSchema' xmlns:f='urn:f' exclude-result-prefixes='xs f'>" +
+                templates +
+                "</xsl:stylesheet>";
+        return runTransformation(new Configuration(), stylesheet, "<doc/>");
+    }
+
+    private static String tree(int i) {
+        return "<x a=\"a" + i + "\"><y>text " + i + "</y><!--c" + i + "--><z b=\"" + (i * 2) + "\"/></x>";
+    }
+
+    public void testCopyAndValueOf() throws Exception {
+        String result = run(
+                "<xsl:template match='/'><out>" + LOOP +
+                "<xsl:copy-of select='$t'/>" +
+                "<v><xsl:value-of select='$t/x/@a, $t//z/@b'/></v>" +
+                "<xsl:if test='$t/x/y = \"text 3\"'><three/></xsl:if>" +
+                "<xsl:choose><xsl:when test='$t//comment() = \"c4\"'><four/></xsl:when></xsl:choose>" +
+                "</xsl:for-each>" +
+                "</out></xsl:template>");
+        StringBuffer expected = new StringBuffer("<out>");
+        for (int i=1; i<=N; i++) {
+            expected.append(tree(i)).append("<v>a").append(i).append(' ').append(i * 2).append("</v>");
+            if (i == 3) {
+                expected.append("<three/>");
+            } else if (i == 4) {
+                expected.append("<four/>");
+            }
+        }
+        expected.append("</out>");
+        assertEquals("copy", expected.toString(), result);
+    }
+
+    public void testAtomicValuesOutliveTree() throws Exception {
+        String result = run(
+                "<xsl:template match='/'>" +
+                "<xsl:variable name='strings' as='xs:string*'>" + LOOP +
+                "<xsl:sequence select='string($t), string($t/x/@a)'/>" +
+                "</xsl:for-each></xsl:variable>" +
+                "<xsl:variable name='numbers' as='xs:untypedAtomic*'>" + LOOP +
+                "<xsl:sequence select='data($t//z/@b)'/>" +
+                "</xsl:for-each></xsl:variable>" +
+                "<out><xsl:value-of select='$strings' separator='|'/>#<xsl:value-of select='sum($numbers)'/></out>" +
+                "</xsl:template>");
+        StringBuffer expected = new StringBuffer("<out>");
+        for (int i=1; i<=N; i++) {
+            if (i > 1) {
+                expected.append('|');
+            }
+            expected.append("text ").append(i).append("|a").append(i);
+        }
+        expected.append('#').append(N * (N + 1)).append("</out>");
+        assertEquals("atomic values", expected.toString(), result);
+    }
+
+    public void testNodesOutliveTree() throws Exception {
+        String result = run(
+                "<xsl:function name='f:make' as='element()'>" +
+                "<xsl:param name='i'/>" +
+                "<xsl:variable name='t'><x a='a{$i}'><y>text <xsl:value-of select='$i'/></y></x></xsl:variable>" +
+                "<xsl:sequence select='$t/x'/>" +
+                "</xsl:function>" +
+                "<xsl:template match='/'>" +
+                "<xsl:variable name='elements' as='element()*'>" + LOOP +
+                "<xsl:sequence select='$t/x/z'/>" +
+                "</xsl:for-each></xsl:variable>" +
+                "<xsl:variable name='made' select='for $i in 1 to " + N + " return f:make($i)'/>" +
+                "<out>" +
+                "<xsl:value-of select='$elements/@b' separator=','/>#" +
+                "<xsl:value-of select='$elements/../@a' separator=','/>#" +
+                "<xsl:value-of select='$made/y' separator=','/>#" +
+                "<xsl:value-of select='count($elements/root() | $elements/root())'/>" +
+                "</out>" +
+                "</xsl:template>");
+        StringBuffer b = new StringBuffer();
+        StringBuffer a = new StringBuffer();
+        StringBuffer y = new StringBuffer();
+        for (int i=1; i<=N; i++) {
+            String sep = (i > 1 ? "," : "");
+            b.append(sep).append(i * 2);
+            a.append(sep).append('a').append(i);
+            y.append(sep).append("text ").append(i);
+        }
+        assertEquals("nodes", "<out>" + b + "#" + a + "#" + y + "#" + N + "</out>", result);
+    }
+
+    public void testTreePassedToTemplate() throws Exception {
+        String result = run(
+                "<xsl:template match='/'>" +
+                "<xsl:variable name='results' as='node()*'>" + LOOP +
+                "<xsl:apply-templates select='$t/x'/>" +
+                "</xsl:for-each></xsl:variable>" +
+                "<out><xsl:copy-of select='$results'/></out>" +
+                "</xsl:template>" +
+                "<xsl:template match='x'><xsl:sequence select='y'/></xsl:template>");
+        StringBuffer expected = new StringBuffer("<out>");
+        for (int i=1; i<=N; i++) {
+            expected.append("<y>text ").append(i).append("</y>");
+        }
+        expected.append("</out>");
+        assertEquals("templates", expected.toString(), result);
+    }
+
+    public void testNestedTrees() throws Exception {
+        String result = run(
+                "<xsl:template match='/'><out>" + LOOP +
+                "<xsl:variable name='u'><w><xsl:copy-of select='$t/x/y'/><xsl:value-of select='$i * 3'/></w></xsl:variable>" +
+                "<xsl:variable name='v'><xsl:copy-of select='$u'/><xsl:copy-of select='$t//z'/></xsl:variable>" +
+                "<xsl:copy-of select='$v'/>" +
+                "</xsl:for-each>" +
+                "</out></xsl:template>");
+        StringBuffer expected = new StringBuffer("<out>");
+        for (int i=1; i<=N; i++) {
+            expected.append("<w><y>text ").append(i).append("</y>").append(i * 3).append("</w><z b=\"")
+                    .append(i * 2).append("\"/>");
+        }
+        expected.append("</out>");
+        assertEquals("nested", expected.toString(), result);
+    }
+
+    public void testUnrecognizedUse() throws Exception {
+        String result = run(
+                "<xsl:function name='f:name' as='xs:string' saxon:memo-function='yes' xmlns:saxon='http://saxon.sf.net/'>" +
+                "<xsl:param name='x' as='element()'/>" +
+                "<xsl:sequence select='string($x/@a)'/>" +
+                "</xsl:function>" +
+                "<xsl:template match='/'><out>" + LOOP +
+                "<xsl:value-of select='f:name($t/x)'/>," +
+                "</xsl:for-each>" +
+                "</out></xsl:template>");
+        StringBuffer expected = new StringBuffer("<out>");
+        for (int i=1; i<=N; i++) {
+            expected.append('a').append(i).append(',');
+        }
+        expected.append("</out>");
+        assertEquals("memo function", expected.toString(), result);
+    }
+
+    public void testTailRecursion() throws Exception {
+        String result = run(
+                "<xsl:template match='/'><out><xsl:call-template name='loop'>" +
+                "<xsl:with-param name='i' select='1'/></xsl:call-template></out></xsl:template>" +
+                "<xsl:template name='loop'>" +
+                "<xsl:param name='i' as='xs:integer'/>" +
+                "<xsl:param name='acc' select='\"\"'/>" +
+                "<xsl:variable name='t'><x a='a{$i}'/></xsl:variable>" +
+                "<xsl:choose>" +
+                "<xsl:when test='$i gt 2000'><xsl:value-of select='string-length($acc)'/></xsl:when>" +
+                "<xsl:otherwise><xsl:call-template name='loop'>" +
+                "<xsl:with-param name='i' select='$i + 1'/>" +
+                "<xsl:with-param name='acc' select='concat($acc, $t/x/@a, string-length($t/x/@a))'/>" +
+                "</xsl:call-template></xsl:otherwise>" +
+                "</xsl:choose>" +
+                "</xsl:template>");
+        int length = 0;
+        for (int i=1; i<=2000; i++) {
+            String a = "a" + i;
+            length += a.length() + Integer.toString(a.length()).length();
+        }
+        assertEquals("tail recursion", "<out>" + length + "</out>", result);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
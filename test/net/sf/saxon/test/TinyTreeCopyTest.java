@@ -0,0 +1,182 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of copying elements of a TinyTree into a new TinyTree, for example to construct a temporary
+ * tree. The content of an element can be copied as a block of the tree arrays rather than node by node;
+ * these tests check that the copy can be navigated in the same way as the original, whichever method
+ * was used.
+ */
+
+public class TinyTreeCopyTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new TinyTreeCopyTest().runAndExit();
+    }
+
+    /**
+     * A function that describes each node within a subtree, together with its relationships to the
+     * nodes around it. The descriptions of a subtree and of a copy of it are the same if the copy is correct.
+     */
+
+    private static final String SIGNATURE =
+            "declare function local:sig($e as node()) as xs:string {" +
+            "  let $base := count($e/ancestor::node()) return " +
+            "  string-join(for $n in $e/descendant-or-self::node() return concat(" +
+            "    if ($n instance of element()) then concat('E', name($n), '[', " +
+            "         string-join(for $a in $n/@* return concat(name($a), '=', $a, '^', name($a/..)), ','), ']')" +
+            "    else if ($n instance of text()) then concat('T', $n)" +
+            "    else if ($n instance of comment()) then concat('C', $n)" +
+            "    else if ($n instance of processing-instruction()) then concat('P', name($n), ' ', $n)" +
+            "    else 'D'," +
+            "    '/', count($n/ancestor::node()) - $base," +
+            "    if ($n is $e) then '' else concat(" +
+            "        '/', count($n/preceding-sibling::node())," +
+            "        '/', count($n/following-sibling::node())," +
+            "        '/', name($n/following-sibling::*[1])," +
+            "        '/', name($n/..))," +
+            "    '/', count($n/node())," +
+            "    '/', name(($n//*)[last()])," +
+            "    '/', string-join(for $ns in $n[self::element()]/in-scope-prefixes(.) order by $ns " +
+            "              return concat($ns, '=', namespace-uri-for-prefix($ns, $n)), ' ')," +
+            "    '/', string-length(string($n)))," +
+            "  '|&#xa;')" +
+            "};";
+
+    private static final String SOURCE =
+            "<doc a='1' b='2'>" +
+            "<head id='h'>Heading <i>in</i> italic<!--c1--><?pi data?></head>" +
+            "<b n='1' m='x'><c><d/>text<d n='2'/></c><e>more</e></b>" +
+            "<b n='2'/>" +
+            "<b n='3'><![CDATA[a < b]]><!--c2--><f xml:id='f3'>x</f></b>" +
+            "<g>   </g>" +
+            "</doc>";
+
+    private static String makeLargeSource() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<doc>");
+        for (int i=0; i<2000; i++) {
+            sb.append("<item n='" + i + "'><name>item number " + i + "</name><!--comment " + i +
+                    "--><value>" + (i * 37 % 101) + "</value>padding text for item " + i + "</item>");
+        }
+        sb.append("</doc>");
+        return sb.toString();
+    }
+
+    /**
+     * Run a query that returns the signatures of some original nodes and of their copies, separated
+     * by "#", and compare them
+     */
+
+    private static void compareCopies(Configuration config, String message, String query, String source)
+            throws Exception {
+        String result = runQuery(config, SIGNATURE + query, source);
+        String[] sigs = result.split("#");
+        assertTrue(message + ": expected pairs of signatures: " + result, sigs.length >= 2 && sigs.length % 2 == 0);
+        for (int i=0; i<sigs.length; i+=2) {
+            assertTrue(message + ": empty signature", sigs[i].length() > 0);
+            String[] expected = sigs[i].split("\n");
+            String[] actual = sigs[i+1].split("\n");
+            for (int j=0; j<expected.length && j<actual.length; j++) {
+                assertEquals(message + " " + (i/2) + ", node " + j, expected[j], actual[j]);
+            }
+            assertEquals(message + " " + (i/2) + ", number of nodes", expected.length, actual.length);
+        }
+    }
+
+    public void testElementConstructor() throws Exception {
+        Configuration config = new Configuration();
+        String query =
+                "let $copy := <wrap x='y'>{doc/*, doc/b[1]/c, doc}</wrap> " +
+                "let $n := count(doc/*) return string-join((" +
+                "  for $i in 1 to $n return (local:sig(doc/*[$i]), local:sig($copy/*[$i]))," +
+                "  local:sig(doc/b[1]/c), local:sig($copy/*[$n + 1])," +
+                "  local:sig(doc), local:sig($copy/*[last()])), '#')";
+        compareCopies(config, "small", query, SOURCE);
+    }
+
+    public void testDocumentConstructor() throws Exception {
+        Configuration config = new Configuration();
+        String query =
+                "let $copy := document {doc} return string-join((local:sig(/), local:sig($copy), " +
+                "    string(count(id('f3'))), string(count(id('f3', $copy)))), '#')";
+        compareCopies(config, "document", query, SOURCE);
+    }
+
+    public void testLargeContent() throws Exception {
+        Configuration config = new Configuration();
+        String query =
+                "let $copy := <wrap>{doc/item[position() mod 3 = 0], doc, doc/item[1]}</wrap> return string-join((" +
+                "  local:sig(doc), local:sig($copy/doc)," +
+                "  for $i in doc/item[position() mod 3 = 0][position() mod 50 = 1] return " +
+                "      (local:sig($i), local:sig($copy/item[@n = $i/@n][1]))," +
+                "  string(sum(doc//value)), string(sum($copy/doc//value))," +
+                "  string-join(doc//text(), ''), string-join($copy/doc//text(), '')), '#')";
+        compareCopies(config, "large", query, makeLargeSource());
+    }
+
+    public void testNamespaces() throws Exception {
+        Configuration config = new Configuration();
+        String source =
+                "<doc xmlns='urn:default' xmlns:p='urn:p'>" +
+                "<a p:att='1'><b/><p:c/></a>" +
+                "<a xmlns:q='urn:q'><q:d q:att='2'/></a>" +
+                "<a xmlns=''><e/></a>" +
+                "</doc>";
+        String query =
+                "let $copy1 := <wrap>{/*/*}</wrap> " +
+                "let $copy2 := <wrap xmlns='urn:default'>{/*/*}</wrap> " +
+                "let $copy3 := <wrap xmlns='urn:other'>{/*/*}</wrap> return string-join((" +
+                "  for $i in 1 to 3 return (local:sig(/*/*[$i]), local:sig($copy1/*[$i]))," +
+                "  for $i in 1 to 3 return (local:sig(/*/*[$i]), local:sig($copy2/*[$i]))," +
+                "  for $i in 1 to 3 return (local:sig(/*/*[$i]), local:sig($copy3/*[$i]))), '#')";
+        compareCopies(config, "namespaces", query, source);
+    }
+
+    public void testStylesheetCopy() throws Exception {
+        Configuration config = new Configuration();
+        String stylesheet =
+                "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:template match='/'>" +
+                "<xsl:variable name='temp'><xsl:copy-of select='doc/b'/><xsl:copy-of select='doc/head'/></xsl:variable>" +
+                "<xsl:variable name='doc'><xsl:copy-of select='/'/></xsl:variable>" +
+                "<out><xsl:apply-templates select='$temp/*, $doc/doc/b[3]/f'/>" +
+                "<xsl:value-of select='$doc/doc/b/c/d[2]/@n, $temp/b[3]/f/../@n, count($doc//node()), count(//node())'/></out>" +
+                "</xsl:template>" +
+                "<xsl:template match='*'><xsl:copy>" +
+                "<xsl:attribute name='pos' select='count(preceding-sibling::node())'/>" +
+                "<xsl:attribute name='parent' select='name(..)'/>" +
+                "<xsl:copy-of select='@*'/><xsl:apply-templates/></xsl:copy></xsl:template>" +
+                "<xsl:template match='comment()|processing-instruction()'><xsl:copy/></xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("stylesheet",
+                "<out><b pos=\"0\" parent=\"\" n=\"1\" m=\"x\"><c pos=\"0\" parent=\"b\"><d pos=\"0\" parent=\"c\"/>text" +
+                "<d pos=\"2\" parent=\"c\" n=\"2\"/></c><e pos=\"1\" parent=\"b\">more</e></b>" +
+                "<b pos=\"1\" parent=\"\" n=\"2\"/>" +
+                "<b pos=\"2\" parent=\"\" n=\"3\">a &lt; b<!--c2--><f pos=\"2\" parent=\"b\" xml:id=\"f3\">x</f></b>" +
+                "<head pos=\"3\" parent=\"\" id=\"h\">Heading <i pos=\"1\" parent=\"head\">in</i> italic<!--c1--><?pi data?></head>" +
+                "<f pos=\"2\" parent=\"b\" xml:id=\"f3\">x</f>" +
+                "2 3 23 23</out>",
+                runTransformation(config, stylesheet, SOURCE));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,94 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+/**
+ * Tests of the optional parent and attribute indexes of the TinyTree. Each query is run against a
+ * tree built with and without the indexes, and the results are compared.
+ */
+
+public class TinyTreeIndexTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new TinyTreeIndexTest().runAndExit();
+    }
+
+    private static String makeSource() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<doc xmlns:p='http://p/'>");
+        for (int i=0; i<30; i++) {
+            sb.append("<sec n='").append(i).append("'");
+            // some elements have more attributes than the threshold, some fewer
+            for (int a=0; a<(i % 4) * 5; a++) {
+                sb.append(" a").append(a).append("='").append(i * a).append("'");
+            }
+            if (i % 3 == 0) {
+                sb.append(" p:x='").append(i).append("'");
+            }
+            sb.append(">text ").append(i).append("<!--c--><para id='p").append(i).append("'>");
+            sb.append("<b>").append(i).append("</b> tail</para><?pi x?></sec>");
+        }
+        sb.append("</doc>");
+        return sb.toString();
+    }
+
+    private static final String[] QUERIES = {
+        "for $b in //b return string-join(for $a in $b/ancestor::* return name($a), '/')",
+        "for $n in //node() return name($n/..)",
+        "for $s in //sec return ($s/@a7, $s/@a14, $s/@missing, $s/@*:x, $s/@n)/string()",
+        "for $s in //sec return count($s/@*)",
+        "//sec[@a12 = 36]/@n/string()",
+        "declare namespace p='http://p/'; //sec[@p:x]/para/@id/string()",
+        "for $t in //text() return name($t/parent::*)",
+        "for $a in //@* return name($a/..)",
+        "count(//b/ancestor-or-self::node()), count(//comment()/..), count(//processing-instruction()/../..)",
+    };
+
+    private static String evaluate(boolean indexing, String query) throws Exception {
+        Configuration config = new Configuration();
+        config.setTinyTreeIndexing(indexing);
+        config.setTinyTreeAttributeIndexThreshold(4);
+        return runQuery(config, query, makeSource());
+    }
+
+    public void testQueries() throws Exception {
+        for (int i=0; i<QUERIES.length; i++) {
+            assertEquals(QUERIES[i], evaluate(false, QUERIES[i]), evaluate(true, QUERIES[i]));
+        }
+    }
+
+    public void testStylesheet() throws Exception {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'>" +
+                "<xsl:key name='k' match='sec' use='@a9'/>" +
+                "<xsl:template match='sec[@a11]'><s n='{@n}' k='{count(key(\"k\", @a9))}'" +
+                " a='{string-join(ancestor::*/name(), \"/\")}'/></xsl:template>" +
+                "<xsl:template match='text()'/>" +
+                "</xsl:stylesheet>";
+        Configuration plain = new Configuration();
+        Configuration indexed = new Configuration();
+        indexed.setTinyTreeIndexing(true);
+        indexed.setTinyTreeAttributeIndexThreshold(4);
+        String expected = runTransformation(plain, xsl, makeSource());
+        assertTrue("stylesheet output", expected.indexOf("<s n=\"3\"") >= 0);
+        assertEquals("stylesheet", expected, runTransformation(indexed, xsl, makeSource()));
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,98 @@
+package net.sf.saxon.test;
+
+import net.sf.saxon.Configuration;
+
+import java.io.*;
+
+/**
+ * Tests of unparsed-text() and saxon:unparsed-text-lines() applied to files in the filestore. The checks
+ * that each file is closed afterwards need /proc/self/fd, and are reported as skipped on platforms
+ * that do not provide it.
+ */
+
+public class UnparsedTextTest extends RegressionTest {
+
+    public static void main(String[] args) {
+        new UnparsedTextTest().runAndExit();
+    }
+
+    private static File makeFile(String content) throws IOException {
+        File file = File.createTempFile("saxontest", ".txt");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(content);
+        out.close();
+        return file;
+    }
+
+    private static String lines(File file) {
+        return "saxon:unparsed-text-lines('" + file.toURI() + "')";
+    }
+
+    public void testUnparsedText() throws Exception {
+        File file = makeFile("caf\u00e9 & <bar>\nsecond line");
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0' xml:base='" + file.getParentFile().toURI() + "'>" +
+                "<xsl:output method='text'/>" +
+                "<xsl:template match='/'><xsl:value-of select=\"unparsed-text('" + file.toURI() + "', 'utf-8')\"/>" +
+                "</xsl:template></xsl:stylesheet>";
+        assertEquals("unparsed-text()", "caf\u00e9 & <bar>\nsecond line",
+                runTransformation(new Configuration(), xsl, "<a/>"));
+        assertNotOpen("file left open", file);
+    }
+
+    public void testLineEndings() throws Exception {
+        File file = makeFile("one\ntwo\rthree\r\n\r\nfive\n");
+        String query = lines(file);
+        assertEquals(query, "one two three  five", runQuery(new Configuration(), query, null));
+        query = "count(" + lines(file) + ")";
+        assertEquals(query, "5", runQuery(new Configuration(), query, null));
+    }
+
+    public void testEarlyExit() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i=0; i<10000; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        File file = makeFile(sb.toString());
+        String query = lines(file) + "[1]";
+        assertEquals(query, "line 0", runQuery(new Configuration(), query, null));
+        query = "exists(" + lines(file) + ")";
+        assertEquals(query, "true", runQuery(new Configuration(), query, null));
+        assertNotOpen("file left open after reading the first line", file);
+    }
+
+    public void testSeveralWindows() throws Exception {
+        // larger than the window in which the file is mapped into memory
+        File file = File.createTempFile("saxontest", ".txt");
+        file.deleteOnExit();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        for (int i=0; i<700000; i++) {
+            out.write("\u00e9\u00e9\u00e9 line " + (i + 1000000) + " of a file that is larger than one window\n");
+        }
+        out.close();
+        String query = "let $lines := " + lines(file) +
+                " return (count($lines), every $line in $lines satisfies string-length($line) eq 57, $lines[last()])";
+        assertEquals(query, "700000 true \u00e9\u00e9\u00e9 line 1699999 of a file that is larger than one window",
+                runQuery(new Configuration(), query, null));
+        assertNotOpen("file left open", file);
+    }
+}
+
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//